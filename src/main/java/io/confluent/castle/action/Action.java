@@ -88,6 +88,30 @@ public abstract class Action {
         return initialDelayMs;
     }
 
+    /**
+     * Get the resource which limits how quickly this action can run.  The
+     * scheduler limits how many actions of each resource class run at once.
+     */
+    public ActionResourceClass resourceClass() {
+        return ActionResourceClass.REMOTE_EXEC;
+    }
+
+    /**
+     * Get the resource class of this action when it runs on the given node.
+     * Actions whose work depends on the node, or on the cluster
+     * configuration, can override this.  By default, it is resourceClass().
+     */
+    public ActionResourceClass resourceClass(CastleCluster cluster, CastleNode node) {
+        return resourceClass();
+    }
+
+    /**
+     * Called when a scheduler which will run this action on the given node is
+     * built, before any action runs.  Actions which coordinate with the same
+     * action on other nodes can use this to find out which nodes will run it.
+     */
+    public void onScheduled(CastleCluster cluster, CastleNode node) throws Exception {}
+
     /**
      * Return the action IDs that this Action should contain.
      */
@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.action;
+
+/**
+ * Estimates how long an action will take to run.
+ *
+ * The ActionScheduler uses these estimates to find the critical path through
+ * the actions it is running, so that the actions on that path are started first.
+ */
+public interface ActionDurationEstimator {
+    /**
+     * The estimate used when we have no other information.
+     */
+    long DEFAULT_DURATION_MS = 1000;
+
+    /**
+     * An estimator which assumes that every action takes the same amount of time.
+     */
+    ActionDurationEstimator UNIFORM = new ActionDurationEstimator() {
+        @Override
+        public long estimateMs(Action action) {
+            return DEFAULT_DURATION_MS;
+        }
+    };
+
+    /**
+     * Estimate the duration of an action.
+     *
+     * @param action    The action.
+     * @return          The estimated duration in milliseconds.
+     */
+    long estimateMs(Action action);
+};
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.action;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.role.AwsNodeRole;
+import io.confluent.castle.role.DockerNodeRole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+
+/**
+ * Keeps track of how long actions took on previous runs.
+ *
+ * Durations are keyed by action type and node instance type, and only the
+ * most recent samples for each key are kept.  The history is stored as a
+ * JSON file in the working directory.
+ */
+public final class ActionHistory {
+    /**
+     * The maximum number of samples to keep for each key.
+     */
+    static final int MAX_SAMPLES = 50;
+
+    /**
+     * The number of samples we need before we will derive a timeout.
+     */
+    static final int MIN_SAMPLES_FOR_TIMEOUT = 5;
+
+    /**
+     * How many times longer than the p95 duration an action can run before it
+     * times out.
+     */
+    static final int TIMEOUT_MULTIPLIER = 5;
+
+    /**
+     * The minimum timeout we will derive.
+     */
+    static final long MIN_TIMEOUT_MS = 120000;
+
+    private final Map<String, Deque<Long>> samples = new TreeMap<>();
+
+    /**
+     * Load the action history from a file.  If the file doesn't exist, the
+     * history starts out empty.
+     */
+    public static ActionHistory load(File file) throws IOException {
+        ActionHistory history = new ActionHistory();
+        if (!file.exists()) {
+            return history;
+        }
+        JsonNode root = JSON_SERDE.readTree(file);
+        JsonNode samplesNode = root.get("samples");
+        if (samplesNode != null) {
+            for (Iterator<Map.Entry<String, JsonNode>> iter = samplesNode.fields();
+                     iter.hasNext(); ) {
+                Map.Entry<String, JsonNode> entry = iter.next();
+                for (JsonNode sample : entry.getValue()) {
+                    history.record(entry.getKey(), sample.asLong());
+                }
+            }
+        }
+        return history;
+    }
+
+    /**
+     * Save the action history to a file.  The file is replaced atomically, so
+     * that concurrent readers never see a partial history.
+     */
+    public synchronized void save(File file) throws IOException {
+        ObjectNode root = new ObjectNode(JsonNodeFactory.instance);
+        ObjectNode samplesNode = root.putObject("samples");
+        for (Map.Entry<String, Deque<Long>> entry : samples.entrySet()) {
+            ArrayNode array = samplesNode.putArray(entry.getKey());
+            for (Long sample : entry.getValue()) {
+                array.add(sample);
+            }
+        }
+        File tempFile = new File(file.getAbsolutePath() + ".tmp");
+        JSON_SERDE.writeValue(tempFile, root);
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Get the key for an action.  This combines the action type, which also
+     * identifies the role, with the instance type of the node it runs on.
+     */
+    public static String key(CastleCluster cluster, ActionId id) {
+        return id.type() + "/" + instanceType(cluster.nodes().get(id.scope()));
+    }
+
+    private static String instanceType(CastleNode node) {
+        if (node == null) {
+            return "none";
+        }
+        AwsNodeRole awsRole = node.getRole(AwsNodeRole.class);
+        if (awsRole != null) {
+            return awsRole.instanceType();
+        }
+        if (node.getRole(DockerNodeRole.class) != null) {
+            return "docker";
+        }
+        return "unknown";
+    }
+
+    /**
+     * Record how long an action took.
+     */
+    public synchronized void record(String key, long durationMs) {
+        Deque<Long> keySamples = samples.computeIfAbsent(key, k -> new ArrayDeque<>());
+        keySamples.addLast(durationMs);
+        while (keySamples.size() > MAX_SAMPLES) {
+            keySamples.removeFirst();
+        }
+    }
+
+    public synchronized int numSamples(String key) {
+        Deque<Long> keySamples = samples.get(key);
+        return (keySamples == null) ? 0 : keySamples.size();
+    }
+
+    /**
+     * Get a percentile of the recorded durations for a key.
+     *
+     * @param key           The key.
+     * @param percentile    The percentile, between 0 and 100.
+     * @return              The duration in milliseconds, or -1 if there are
+     *                      no samples for the key.
+     */
+    public synchronized long percentileMs(String key, int percentile) {
+        Deque<Long> keySamples = samples.get(key);
+        if ((keySamples == null) || keySamples.isEmpty()) {
+            return -1;
+        }
+        List<Long> sorted = new ArrayList<>(keySamples);
+        Collections.sort(sorted);
+        int index = (int) Math.ceil((percentile / 100.0) * sorted.size()) - 1;
+        return sorted.get(Math.min(sorted.size() - 1, Math.max(0, index)));
+    }
+
+    /**
+     * Get the timeout to use for an action.
+     *
+     * @return              The timeout in milliseconds, or -1 if there is not
+     *                      enough history to derive one.
+     */
+    public long timeoutMs(String key) {
+        if (numSamples(key) < MIN_SAMPLES_FOR_TIMEOUT) {
+            return -1;
+        }
+        return Math.max(MIN_TIMEOUT_MS, percentileMs(key, 95) * TIMEOUT_MULTIPLIER);
+    }
+
+    /**
+     * Create a duration estimator which uses the median duration from the
+     * history, or the default estimate for actions we haven't seen before.
+     */
+    public ActionDurationEstimator estimator(final CastleCluster cluster) {
+        return new ActionDurationEstimator() {
+            @Override
+            public long estimateMs(Action action) {
+                long p50 = percentileMs(key(cluster, action.id()), 50);
+                return (p50 < 0) ? DEFAULT_DURATION_MS : p50;
+            }
+        };
+    }
+};
@@ -22,10 +22,15 @@ public final class ActionPaths {
 
     public static final String CASTLE_ROOT = "/mnt/castle";
     public static final String CASTLE_SRC = CASTLE_ROOT + "/src";
+    public static final String SOURCE_ARCHIVES = CASTLE_ROOT + "/archives";
+    public static final String RELAY_KEY = ".ssh/castle_relay_key";
+    public static final String RELAY_RECEIVE_SCRIPT = ".ssh/castle_relay_receive.sh";
+    public static final String RELAY_KNOWN_HOSTS_PREFIX = ".ssh/castle_relay_known_hosts.";
     public static final String JMX_DUMPER_START_SCRIPT = CASTLE_SRC + "/bin/jmx_dumper.sh";
     public static final String JMX_DUMPER_ROOT = "/mnt/jmx";
     public static final String JMX_DUMPER_PROPERTIES = JMX_DUMPER_ROOT  + "/jmx.conf";
     public static final String JMX_DUMPER_LOGS = LOGS_ROOT + "/jmx";
+    public static final String JMX_DUMPER_STREAM = JMX_DUMPER_LOGS + "/stream.jsonl";
 
     public static final String KAFKA_ROOT = "/mnt/kafka";
     public static final String KAFKA_SRC = KAFKA_ROOT + "/src";
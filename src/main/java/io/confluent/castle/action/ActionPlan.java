@@ -0,0 +1,332 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.action;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * An estimated timeline for running a set of actions.
+ *
+ * The plan is made by simulating the ActionScheduler: each node runs one
+ * action at a time, each resource class has a limited number of permits, and
+ * runnable actions are started in priority order.  Action durations come from
+ * an ActionDurationEstimator.
+ */
+public final class ActionPlan {
+    /**
+     * A single action in the plan.
+     */
+    public static final class Step {
+        private final ActionId id;
+        private final long startMs;
+        private final long endMs;
+
+        Step(ActionId id, long startMs, long endMs) {
+            this.id = id;
+            this.startMs = startMs;
+            this.endMs = endMs;
+        }
+
+        public ActionId id() {
+            return id;
+        }
+
+        public long startMs() {
+            return startMs;
+        }
+
+        public long endMs() {
+            return endMs;
+        }
+    }
+
+    /**
+     * The simulated state of an action.
+     */
+    private static final class SimulatedAction {
+        private final ActionScheduler.ActionData data;
+        private final long durationMs;
+        private final Set<ActionId> pendingChildren;
+        private int pendingBefore;
+        private boolean runnable;
+        private long readyAtMs = -1;
+        private boolean started = false;
+        private boolean executed = false;
+        private boolean completed = false;
+
+        SimulatedAction(ActionScheduler.ActionData data, long durationMs) {
+            this.data = data;
+            this.durationMs = durationMs;
+            this.pendingChildren = new HashSet<>(data.children());
+            this.pendingBefore = data.comesAfter().size();
+            this.runnable = data.state() == ActionScheduler.ActionState.RUNNABLE;
+        }
+    }
+
+    private final List<Step> steps;
+
+    private final List<ActionId> criticalPath;
+
+    private final long criticalPathMs;
+
+    private final List<ActionId> unscheduled;
+
+    ActionPlan(Map<ActionId, ActionScheduler.ActionData> universe,
+               Map<ActionResourceClass, Integer> resourceClassLimits,
+               ActionDurationEstimator estimator) {
+        Map<ActionId, SimulatedAction> actions = new HashMap<>();
+        for (Map.Entry<ActionId, ActionScheduler.ActionData> entry : universe.entrySet()) {
+            actions.put(entry.getKey(), new SimulatedAction(entry.getValue(),
+                Math.max(0, estimator.estimateMs(entry.getValue().action()))));
+        }
+        this.steps = simulate(actions, resourceClassLimits);
+        List<ActionId> unscheduled = new ArrayList<>();
+        for (Map.Entry<ActionId, SimulatedAction> entry : actions.entrySet()) {
+            if (!entry.getValue().started) {
+                unscheduled.add(entry.getKey());
+            }
+        }
+        Collections.sort(unscheduled, ID_ORDER);
+        this.unscheduled = Collections.unmodifiableList(unscheduled);
+        this.criticalPath = findCriticalPath(universe);
+        this.criticalPathMs = criticalPath.isEmpty() ? 0 :
+            universe.get(criticalPath.get(0)).priority();
+    }
+
+    private static final Comparator<ActionId> ID_ORDER = new Comparator<ActionId>() {
+        @Override
+        public int compare(ActionId a, ActionId b) {
+            return a.toString().compareTo(b.toString());
+        }
+    };
+
+    private static List<Step> simulate(final Map<ActionId, SimulatedAction> actions,
+                                       Map<ActionResourceClass, Integer> resourceClassLimits) {
+        List<Step> steps = new ArrayList<>();
+        // Runnable actions which are not blocked by any other action, in priority order.
+        TreeSet<ActionId> ready = new TreeSet<>(new Comparator<ActionId>() {
+            @Override
+            public int compare(ActionId a, ActionId b) {
+                int result = Long.compare(actions.get(b).data.priority(),
+                    actions.get(a).data.priority());
+                return (result != 0) ? result : ID_ORDER.compare(a, b);
+            }
+        });
+        PriorityQueue<Step> running = new PriorityQueue<>(new Comparator<Step>() {
+            @Override
+            public int compare(Step a, Step b) {
+                int result = Long.compare(a.endMs, b.endMs);
+                return (result != 0) ? result : ID_ORDER.compare(a.id, b.id);
+            }
+        });
+        Set<String> busyNodes = new HashSet<>();
+        Map<ActionResourceClass, Integer> permitsInUse = new HashMap<>();
+        long nowMs = 0;
+        for (ActionId id : actions.keySet()) {
+            maybeMakeReady(actions, ready, id, nowMs);
+        }
+        while (true) {
+            for (ActionId id : new ArrayList<>(ready)) {
+                SimulatedAction action = actions.get(id);
+                ActionResourceClass resourceClass = action.data.resourceClass();
+                int inUse = permitsInUse.getOrDefault(resourceClass, 0);
+                if ((action.readyAtMs > nowMs) || busyNodes.contains(id.scope()) ||
+                        (inUse >= resourceClassLimits.get(resourceClass))) {
+                    continue;
+                }
+                ready.remove(id);
+                action.started = true;
+                busyNodes.add(id.scope());
+                permitsInUse.put(resourceClass, inUse + 1);
+                running.add(new Step(id, nowMs, nowMs + action.durationMs));
+            }
+            long nextMs = Long.MAX_VALUE;
+            if (!running.isEmpty()) {
+                nextMs = running.peek().endMs;
+            }
+            for (ActionId id : ready) {
+                if (actions.get(id).readyAtMs > nowMs) {
+                    nextMs = Math.min(nextMs, actions.get(id).readyAtMs);
+                }
+            }
+            if (nextMs == Long.MAX_VALUE) {
+                break;
+            }
+            nowMs = nextMs;
+            while ((!running.isEmpty()) && (running.peek().endMs <= nowMs)) {
+                Step step = running.poll();
+                steps.add(step);
+                SimulatedAction action = actions.get(step.id);
+                busyNodes.remove(step.id.scope());
+                ActionResourceClass resourceClass = action.data.resourceClass();
+                permitsInUse.put(resourceClass, permitsInUse.get(resourceClass) - 1);
+                action.executed = true;
+                for (ActionId childId : action.data.children()) {
+                    SimulatedAction child = actions.get(childId);
+                    if (!child.runnable) {
+                        child.runnable = true;
+                        maybeMakeReady(actions, ready, childId, nowMs);
+                    }
+                }
+                maybeComplete(actions, ready, step.id, nowMs);
+            }
+        }
+        steps.sort(new Comparator<Step>() {
+            @Override
+            public int compare(Step a, Step b) {
+                int result = Long.compare(a.startMs, b.startMs);
+                return (result != 0) ? result : ID_ORDER.compare(a.id, b.id);
+            }
+        });
+        return Collections.unmodifiableList(steps);
+    }
+
+    private static void maybeMakeReady(Map<ActionId, SimulatedAction> actions,
+                                       Set<ActionId> ready, ActionId id, long nowMs) {
+        SimulatedAction action = actions.get(id);
+        if (action.runnable && (action.pendingBefore == 0) && (action.readyAtMs < 0)) {
+            action.readyAtMs = nowMs + action.data.action().initialDelayMs();
+            ready.add(id);
+        }
+    }
+
+    private static void maybeComplete(Map<ActionId, SimulatedAction> actions,
+                                      Set<ActionId> ready, ActionId id, long nowMs) {
+        SimulatedAction action = actions.get(id);
+        if (action.completed || (!action.executed) || (!action.pendingChildren.isEmpty())) {
+            return;
+        }
+        action.completed = true;
+        for (ActionId parentId : action.data.parents()) {
+            actions.get(parentId).pendingChildren.remove(id);
+            maybeComplete(actions, ready, parentId, nowMs);
+        }
+        for (ActionId afterId : action.data.comesBefore()) {
+            actions.get(afterId).pendingBefore--;
+            maybeMakeReady(actions, ready, afterId, nowMs);
+        }
+    }
+
+    /**
+     * Find the critical path: starting from the initially runnable action with
+     * the highest priority, repeatedly follow the successor with the highest
+     * priority.
+     */
+    private static List<ActionId> findCriticalPath(
+            Map<ActionId, ActionScheduler.ActionData> universe) {
+        List<ActionId> path = new ArrayList<>();
+        ActionId current = null;
+        for (Map.Entry<ActionId, ActionScheduler.ActionData> entry : universe.entrySet()) {
+            if (entry.getValue().state() == ActionScheduler.ActionState.RUNNABLE) {
+                current = higherPriority(universe, current, entry.getKey());
+            }
+        }
+        Set<ActionId> visited = new HashSet<>();
+        while ((current != null) && visited.add(current)) {
+            path.add(current);
+            ActionScheduler.ActionData data = universe.get(current);
+            ActionId next = null;
+            for (ActionId childId : data.children()) {
+                next = higherPriority(universe, next, childId);
+            }
+            for (ActionId afterId : data.comesBefore()) {
+                next = higherPriority(universe, next, afterId);
+            }
+            current = next;
+        }
+        return Collections.unmodifiableList(path);
+    }
+
+    private static ActionId higherPriority(Map<ActionId, ActionScheduler.ActionData> universe,
+                                           ActionId a, ActionId b) {
+        if (a == null) {
+            return b;
+        }
+        long priorityA = universe.get(a).priority();
+        long priorityB = universe.get(b).priority();
+        if (priorityA != priorityB) {
+            return (priorityA > priorityB) ? a : b;
+        }
+        return (ID_ORDER.compare(a, b) <= 0) ? a : b;
+    }
+
+    public List<Step> steps() {
+        return steps;
+    }
+
+    /**
+     * The estimated time it will take to run every action.
+     */
+    public long makespanMs() {
+        long makespanMs = 0;
+        for (Step step : steps) {
+            makespanMs = Math.max(makespanMs, step.endMs);
+        }
+        return makespanMs;
+    }
+
+    public List<ActionId> criticalPath() {
+        return criticalPath;
+    }
+
+    public long criticalPathMs() {
+        return criticalPathMs;
+    }
+
+    /**
+     * Actions which the simulation could never start, for example because
+     * of circular dependencies.
+     */
+    public List<ActionId> unscheduled() {
+        return unscheduled;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("Estimated timeline for %d action(s), taking about %.1f " +
+            "seconds:%n", steps.size(), makespanMs() / 1000.0));
+        bld.append(String.format("%10s %10s  %s%n", "START", "END", "ACTION"));
+        for (Step step : steps) {
+            bld.append(String.format("%9.1fs %9.1fs  %s%n", step.startMs / 1000.0,
+                step.endMs / 1000.0, step.id));
+        }
+        bld.append(String.format("%nCritical path (about %.1f seconds):%n",
+            criticalPathMs / 1000.0));
+        String prefix = "  ";
+        for (ActionId id : criticalPath) {
+            bld.append(prefix).append(id);
+            prefix = " -> ";
+        }
+        bld.append(String.format("%n"));
+        if (!unscheduled.isEmpty()) {
+            bld.append(String.format("%nUnable to schedule: %s%n",
+                String.join(", ", unscheduled.stream().map(ActionId::toString).
+                    toArray(String[]::new))));
+        }
+        return bld.toString();
+    }
+};
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.action;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * The resource which limits how quickly an action can run.
+ *
+ * The ActionScheduler keeps a separate pool of permits for each resource
+ * class, so that cheap actions don't have to wait behind expensive ones.
+ */
+public enum ActionResourceClass {
+    /**
+     * Actions which call the cloud provider's API, such as creating nodes.
+     */
+    CLOUD_API("cloud-api"),
+
+    /**
+     * Actions which copy large amounts of data to or from the nodes.
+     */
+    BULK_TRANSFER("bulk-transfer"),
+
+    /**
+     * Actions which run commands on the nodes.
+     */
+    REMOTE_EXEC("remote-exec"),
+
+    /**
+     * Actions which copy data between the nodes, such as relaying source
+     * archives.  These use the nodes' bandwidth rather than the castle
+     * host's, so they are not limited unless setResourceClassLimit is used.
+     */
+    RELAY("relay"),
+
+    /**
+     * Actions which do little or no work, such as actions which only exist to
+     * contain other actions.
+     */
+    LOCAL("local");
+
+    private final String name;
+
+    ActionResourceClass(String name) {
+        this.name = name;
+    }
+
+    public static ActionResourceClass fromName(String name) {
+        for (ActionResourceClass resourceClass : values()) {
+            if (resourceClass.name.equals(name)) {
+                return resourceClass;
+            }
+        }
+        throw new RuntimeException("Unknown resource class " + name);
+    }
+
+    /**
+     * Parse a list of resource class limits, such as "cloud-api=2,bulk-transfer=4".
+     */
+    public static Map<ActionResourceClass, Integer> parseLimits(String limits) {
+        Map<ActionResourceClass, Integer> results = new EnumMap<>(ActionResourceClass.class);
+        for (String entry : limits.split(",")) {
+            String trimmed = entry.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            int equalsIndex = trimmed.indexOf('=');
+            if (equalsIndex < 0) {
+                throw new RuntimeException("Invalid resource class limit " + trimmed +
+                    ".  Expected <resource-class>=<limit>.");
+            }
+            ActionResourceClass resourceClass =
+                fromName(trimmed.substring(0, equalsIndex).trim());
+            int limit;
+            try {
+                limit = Integer.parseInt(trimmed.substring(equalsIndex + 1).trim());
+            } catch (NumberFormatException e) {
+                throw new RuntimeException("Invalid resource class limit " + trimmed, e);
+            }
+            if (limit <= 0) {
+                throw new RuntimeException("The limit for resource class " +
+                    resourceClass + " must be positive.");
+            }
+            results.put(resourceClass, limit);
+        }
+        return results;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+};
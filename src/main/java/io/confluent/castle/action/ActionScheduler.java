@@ -20,26 +20,32 @@ package io.confluent.castle.action;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.common.CastleEvent;
 import io.confluent.castle.common.CastleLog;
 
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Deque;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -60,6 +66,10 @@ public final class ActionScheduler implements AutoCloseable {
         private final Set<String> targetNames = new HashSet<>();
         private final HashMap<ActionId, Action> actions = new HashMap<>();
         private int maxConcurrentActions = Integer.MAX_VALUE;
+        private final Map<ActionResourceClass, Integer> resourceClassLimits =
+            new EnumMap<>(ActionResourceClass.class);
+        private ActionDurationEstimator durationEstimator = ActionDurationEstimator.UNIFORM;
+        private ActionHistory history = null;
 
         public Builder(CastleCluster cluster) {
             this.cluster = cluster;
@@ -89,20 +99,89 @@ public final class ActionScheduler implements AutoCloseable {
             return this;
         }
 
+        /**
+         * Set the default limit on how many actions of each resource class can run
+         * at once.  Local and relay actions are not limited unless
+         * setResourceClassLimit is used.
+         */
         public Builder setMaxConcurrentActions(int maxConcurrentActions) {
             this.maxConcurrentActions = maxConcurrentActions;
             return this;
         }
 
-        public ActionScheduler build() {
+        /**
+         * Set the limit on how many actions of a particular resource class can run
+         * at once.
+         */
+        public Builder setResourceClassLimit(ActionResourceClass resourceClass, int limit) {
+            this.resourceClassLimits.put(resourceClass, limit);
+            return this;
+        }
+
+        public Builder setResourceClassLimits(Map<ActionResourceClass, Integer> limits) {
+            for (Map.Entry<ActionResourceClass, Integer> entry : limits.entrySet()) {
+                setResourceClassLimit(entry.getKey(), entry.getValue());
+            }
+            return this;
+        }
+
+        public Builder setDurationEstimator(ActionDurationEstimator durationEstimator) {
+            this.durationEstimator = durationEstimator;
+            return this;
+        }
+
+        /**
+         * Set the history of previous action durations.  The scheduler will
+         * use the history to estimate action durations, and to time out actions
+         * which run much longer than they have in the past.  It will also record
+         * the durations of the actions that it runs into the history.
+         */
+        public Builder setActionHistory(ActionHistory history) {
+            this.history = history;
+            this.durationEstimator = history.estimator(cluster);
+            return this;
+        }
+
+        public ActionScheduler build() throws Exception {
             Set<ActionId> targetActions = findTargetActions();
             Map<ActionId, ActionData> universe = findUniverse(targetActions);
+            for (ActionData actionData : universe.values()) {
+                CastleNode node = cluster.nodes().get(actionData.action.id().scope());
+                if (node != null) {
+                    actionData.action.onScheduled(cluster, node);
+                }
+            }
             if (log.isDebugEnabled()) {
                 log.debug("Building scheduler with targetActions {}, universe {}",
                     CastleUtil.join(targetActions, ", "),
                     CastleUtil.join(universe.keySet(), ", "));
             }
-            return new ActionScheduler(cluster, targetActions, universe, maxConcurrentActions);
+            return new ActionScheduler(cluster, targetActions, universe,
+                resolveResourceClassLimits(), history);
+        }
+
+        /**
+         * Estimate how the scheduler would run the actions, without running
+         * anything.
+         */
+        public ActionPlan plan() {
+            Set<ActionId> targetActions = findTargetActions();
+            Map<ActionId, ActionData> universe = findUniverse(targetActions);
+            return new ActionPlan(universe, resolveResourceClassLimits(), durationEstimator);
+        }
+
+        private Map<ActionResourceClass, Integer> resolveResourceClassLimits() {
+            Map<ActionResourceClass, Integer> limits = new EnumMap<>(ActionResourceClass.class);
+            for (ActionResourceClass resourceClass : ActionResourceClass.values()) {
+                Integer limit = resourceClassLimits.get(resourceClass);
+                if (limit == null) {
+                    limit = ((resourceClass == ActionResourceClass.LOCAL) ||
+                            (resourceClass == ActionResourceClass.RELAY)) ?
+                        Integer.MAX_VALUE : maxConcurrentActions;
+                }
+                limits.put(resourceClass, limit);
+            }
+            return limits;
         }
 
         private Set<ActionId> findTargetActions() {
@@ -153,7 +232,9 @@ public final class ActionScheduler implements AutoCloseable {
                 if (!universe.containsKey(id)) {
                     Action action = actions.get(id);
                     if (action != null) {
-                        universe.put(id, new ActionData(action));
+                        CastleNode node = cluster.nodes().get(id.scope());
+                        universe.put(id, new ActionData(action, (node == null) ?
+                            action.resourceClass() : action.resourceClass(cluster, node)));
                         for (String type : action.contains()) {
                             toAdd.add(new ActionId(type, id.scope()));
                         }
@@ -191,8 +272,43 @@ public final class ActionScheduler implements AutoCloseable {
                 throw new RuntimeException("No tasks can be executed!  Check " +
                     "for circular dependencies.");
             }
+            Set<ActionId> visiting = new HashSet<>();
+            for (ActionId id : universe.keySet()) {
+                computePriority(universe, id, visiting);
+            }
             return universe;
         }
+
+        /**
+         * Compute the priority of an action.  This is the estimated length of
+         * the longest chain of actions which starts with it.  Each action in the
+         * chain must be run after the previous one, either because it is a
+         * contained child or because it comes after it.
+         */
+        private long computePriority(Map<ActionId, ActionData> universe, ActionId id,
+                                     Set<ActionId> visiting) {
+            ActionData actionData = universe.get(id);
+            if (actionData.priority >= 0) {
+                return actionData.priority;
+            }
+            if (!visiting.add(id)) {
+                // We found a cycle.  Don't count this action twice.
+                return 0;
+            }
+            long longestSuccessor = 0;
+            for (ActionId childId : actionData.children) {
+                longestSuccessor = Math.max(longestSuccessor,
+                    computePriority(universe, childId, visiting));
+            }
+            for (ActionId afterId : actionData.comesBefore) {
+                longestSuccessor = Math.max(longestSuccessor,
+                    computePriority(universe, afterId, visiting));
+            }
+            visiting.remove(id);
+            actionData.priority = Math.max(0, durationEstimator.estimateMs(actionData.action)) +
+                longestSuccessor;
+            return actionData.priority;
+        }
     }
 
     /**
@@ -222,15 +338,18 @@ public final class ActionScheduler implements AutoCloseable {
                     return;
                 }
                 actionData.state = ActionState.EXECUTING;
+                timings.onEnqueued(actionId, actionData.resourceClass);
                 if (actionData.action.initialDelayMs() > 0) {
                     log.debug("Scheduling {} in {} ms", actionId, actionData.action.initialDelayMs());
                     nodeExecutors.get(actionId.scope()).schedule(
-                        new ExecuteAction(actionData.action, cluster.nodes().get(actionId.scope())),
+                        new ExecuteAction(actionData.action, cluster.nodes().get(actionId.scope()),
+                            actionData.resourceClass, actionData.priority),
                         actionData.action.initialDelayMs(), TimeUnit.MILLISECONDS);
                 } else {
                     log.debug("Scheduling {}", actionId);
                     nodeExecutors.get(actionId.scope()).submit(
-                        new ExecuteAction(actionData.action, cluster.nodes().get(actionId.scope())));
+                        new ExecuteAction(actionData.action, cluster.nodes().get(actionId.scope()),
+                            actionData.resourceClass, actionData.priority));
                 }
             } catch (Throwable throwable) {
                 cluster.clusterLog().error("** MaybeSchedule got fatal exception", throwable);
@@ -246,26 +365,55 @@ public final class ActionScheduler implements AutoCloseable {
     private final class ExecuteAction implements Runnable {
         private final Action action;
         private final CastleNode node;
+        private final ActionResourceClass resourceClass;
+        private final long priority;
 
-        ExecuteAction(Action action, CastleNode node) {
+        ExecuteAction(Action action, CastleNode node, ActionResourceClass resourceClass,
+                      long priority) {
             this.action = action;
             this.node = node;
+            this.resourceClass = resourceClass;
+            this.priority = priority;
         }
 
         @Override
         public void run() {
             try {
-                runSemaphore.acquire();
+                PriorityPermits permits = runPermits.get(resourceClass);
+                timings.onDequeued(action.id());
+                permits.acquire(priority);
+                timings.onStarted(action.id());
                 nodeExecutorInfos.put(node.nodeName(), new NodeExecutorInfo(action.id().type()));
+                String historyKey = (history == null) ? null :
+                    ActionHistory.key(cluster, action.id());
+                ScheduledFuture<?> watchdog = scheduleWatchdog(action.id(), historyKey);
+                long startMs = System.currentTimeMillis();
+                boolean succeeded = false;
+                String actionName = action.id().toString();
+                node.log().setCurrentAction(actionName);
+                node.log().event(CastleEvent.actionStart(node.nodeName(), actionName));
+                RUNNING_ACTION.set(new RunningAction(runPermits, resourceClass, priority));
                 try {
                     CastleLog.debugToAll(String.format("** Running %s", action.id()),
                         node.log(), cluster.clusterLog());
                     action.call(cluster, node);
-                    schedulerExecutor.submit(new FinishRunningAction(action));
+                    succeeded = true;
                 } finally {
+                    RUNNING_ACTION.remove();
+                    if (watchdog != null) {
+                        watchdog.cancel(false);
+                    }
+                    node.log().event(CastleEvent.actionEnd(node.nodeName(), actionName,
+                        succeeded, System.currentTimeMillis() - startMs));
+                    node.log().setCurrentAction(null);
+                    timings.onFinished(action.id(), succeeded);
                     nodeExecutorInfos.remove(node.nodeName());
-                    runSemaphore.release();
+                    permits.release();
+                }
+                if (historyKey != null) {
+                    history.record(historyKey, System.currentTimeMillis() - startMs);
                 }
+                schedulerExecutor.submit(new FinishRunningAction(action));
             } catch (Throwable throwable) {
                 String msg = "** ExecuteAction " + action.id() + " failed";
                 node.log().error(msg, throwable);
@@ -275,6 +423,32 @@ public final class ActionScheduler implements AutoCloseable {
         }
     }
 
+    /**
+     * If the history tells us how long an action usually takes, schedule a
+     * check which fails the whole run if the action takes far longer than that.
+     *
+     * @return      The scheduled check, or null if there is none.
+     */
+    private ScheduledFuture<?> scheduleWatchdog(final ActionId id, final String historyKey) {
+        if (historyKey == null) {
+            return null;
+        }
+        final long timeoutMs = history.timeoutMs(historyKey);
+        if (timeoutMs <= 0) {
+            return null;
+        }
+        return schedulerExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                String msg = String.format("** %s timed out after %d ms.  Previous runs " +
+                    "of %s took %d ms at the 95th percentile.", id, timeoutMs,
+                    historyKey, history.percentileMs(historyKey, 95));
+                cluster.clusterLog().printf("%s%n", msg);
+                shutdownFuture.completeExceptionally(new RuntimeException(msg));
+            }
+        }, timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Finish running an action, once the Action#call method has completed.  This
      * runnable takes place in the context of the single-threaded schedulerExecutor,
@@ -377,16 +551,51 @@ public final class ActionScheduler implements AutoCloseable {
         COMPLETED;
     }
 
-    private static class ActionData {
+    static class ActionData {
         private final Action action;
+        private final ActionResourceClass resourceClass;
         private ActionState state = ActionState.PENDING;
+        private long priority = -1;
         private final Set<ActionId> comesBefore = new HashSet<>();
         private final Set<ActionId> comesAfter = new HashSet<>();
         private final Set<ActionId> parents = new HashSet<>();
         private final Set<ActionId> children = new HashSet<>();
 
-        ActionData(Action action) {
+        ActionData(Action action, ActionResourceClass resourceClass) {
             this.action = action;
+            this.resourceClass = resourceClass;
+        }
+
+        Action action() {
+            return action;
+        }
+
+        ActionResourceClass resourceClass() {
+            return resourceClass;
+        }
+
+        ActionState state() {
+            return state;
+        }
+
+        long priority() {
+            return priority;
+        }
+
+        Set<ActionId> comesBefore() {
+            return comesBefore;
+        }
+
+        Set<ActionId> comesAfter() {
+            return comesAfter;
+        }
+
+        Set<ActionId> parents() {
+            return parents;
+        }
+
+        Set<ActionId> children() {
+            return children;
         }
     }
 
@@ -402,6 +611,50 @@ public final class ActionScheduler implements AutoCloseable {
         }
     }
 
+    /**
+     * The action which is running on the current node executor thread, or null
+     * if there is none.
+     */
+    private static final ThreadLocal<RunningAction> RUNNING_ACTION = new ThreadLocal<>();
+
+    private static final class RunningAction {
+        private final Map<ActionResourceClass, PriorityPermits> runPermits;
+        private final ActionResourceClass resourceClass;
+        private final long priority;
+
+        RunningAction(Map<ActionResourceClass, PriorityPermits> runPermits,
+                      ActionResourceClass resourceClass, long priority) {
+            this.runPermits = runPermits;
+            this.resourceClass = resourceClass;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * Do part of the current action's work while holding a permit of another
+     * resource class, for actions which only sometimes need a scarcer
+     * resource.  If the action already holds a permit of that class, or is not
+     * being run by a scheduler, the work runs without taking another.
+     *
+     * @param resourceClass     The resource class.
+     * @param callable          The work to do.
+     * @return                  The result of the work.
+     */
+    static <T> T callWithPermit(ActionResourceClass resourceClass, Callable<T> callable)
+            throws Exception {
+        RunningAction running = RUNNING_ACTION.get();
+        if ((running == null) || (running.resourceClass == resourceClass)) {
+            return callable.call();
+        }
+        PriorityPermits permits = running.runPermits.get(resourceClass);
+        permits.acquire(running.priority);
+        try {
+            return callable.call();
+        } finally {
+            permits.release();
+        }
+    }
+
     /**
      * The castle cluter to use for this scheduler.
      */
@@ -425,12 +678,13 @@ public final class ActionScheduler implements AutoCloseable {
     /**
      * The single-threaded scheduler executor which coordinates running actions.
      */
-    private final ExecutorService schedulerExecutor;
+    private final ScheduledExecutorService schedulerExecutor;
 
     /**
-     * A semaphore that limits the number of concurrently executing tasks.
+     * Limits the number of concurrently executing tasks of each resource class.
+     * Permits go to the actions on the longest remaining chain first.
      */
-    private final Semaphore runSemaphore;
+    private final Map<ActionResourceClass, PriorityPermits> runPermits;
 
     /**
      * A map from node names to executor services.
@@ -443,18 +697,34 @@ public final class ActionScheduler implements AutoCloseable {
      */
     private final ConcurrentHashMap<String, NodeExecutorInfo> nodeExecutorInfos;
 
+    /**
+     * When each action was scheduled, started, and finished.
+     */
+    private final ActionTimings timings;
+
+    /**
+     * The history of action durations, or null if we are not keeping one.
+     */
+    private final ActionHistory history;
+
     private ActionScheduler(CastleCluster cluster,
                             Set<ActionId> targetActions,
                             Map<ActionId, ActionData> universe,
-                            int maxConcurrentActions) {
+                            Map<ActionResourceClass, Integer> resourceClassLimits,
+                            ActionHistory history) {
         this.cluster = cluster;
+        this.history = history;
         this.universe = universe;
         this.shutdownFuture = new CompletableFuture<>();
         this.schedulerExecutor = Executors.newSingleThreadScheduledExecutor(
             CastleUtil.createThreadFactory("ActionSchedulerThread", false));
-        this.runSemaphore = new Semaphore(maxConcurrentActions);
+        this.runPermits = new EnumMap<>(ActionResourceClass.class);
+        for (Map.Entry<ActionResourceClass, Integer> entry : resourceClassLimits.entrySet()) {
+            this.runPermits.put(entry.getKey(), new PriorityPermits(entry.getValue()));
+        }
         this.nodeExecutors = new HashMap<>();
         this.nodeExecutorInfos = new ConcurrentHashMap<String, NodeExecutorInfo>();
+        this.timings = new ActionTimings();
         for (String nodeName : cluster.nodes().keySet()) {
             this.nodeExecutors.put(nodeName, Executors.newSingleThreadScheduledExecutor(
                 CastleUtil.createThreadFactory(
@@ -463,12 +733,33 @@ public final class ActionScheduler implements AutoCloseable {
         if (universe.isEmpty()) {
             CastleUtil.completeNull(shutdownFuture);
         } else {
-            for (ActionId id : targetActions) {
+            List<ActionId> initialIds = new ArrayList<>(targetActions);
+            initialIds.sort(new Comparator<ActionId>() {
+                @Override
+                public int compare(ActionId a, ActionId b) {
+                    return Long.compare(universe.get(b).priority, universe.get(a).priority);
+                }
+            });
+            for (ActionId id : initialIds) {
                 schedulerExecutor.submit(new MaybeSchedule(id));
             }
         }
     }
 
+    /**
+     * Get the critical path priority of an action.
+     */
+    long priority(ActionId id) {
+        return universe.get(id).priority;
+    }
+
+    /**
+     * Get the timing information for the actions run by this scheduler.
+     */
+    public ActionTimings timings() {
+        return timings;
+    }
+
     /**
      * Wait for the scheduler to finish.
      *
@@ -513,5 +804,11 @@ public final class ActionScheduler implements AutoCloseable {
         }
         schedulerExecutor.shutdownNow();
         schedulerExecutor.awaitTermination(1, TimeUnit.DAYS);
+        // Node and cluster logs are written in the background.  Make sure that
+        // everything the actions logged is on disk before we return.
+        for (CastleNode node : cluster.nodes().values()) {
+            node.log().flush();
+        }
+        cluster.clusterLog().flush();
     }
 }
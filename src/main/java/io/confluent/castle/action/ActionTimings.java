@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.action;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+
+/**
+ * Records when each action was scheduled, started, and finished.
+ *
+ * All times are in microseconds, relative to when the ActionTimings object
+ * was created.
+ */
+public final class ActionTimings {
+    /**
+     * The timing information for a single action.
+     */
+    public static final class Timing {
+        private final ActionId id;
+        private final ActionResourceClass resourceClass;
+        private final long enqueuedUs;
+        private volatile long dequeuedUs = -1;
+        private volatile long startUs = -1;
+        private volatile long endUs = -1;
+        private volatile boolean succeeded = false;
+
+        Timing(ActionId id, ActionResourceClass resourceClass, long enqueuedUs) {
+            this.id = id;
+            this.resourceClass = resourceClass;
+            this.enqueuedUs = enqueuedUs;
+        }
+
+        public ActionId id() {
+            return id;
+        }
+
+        public ActionResourceClass resourceClass() {
+            return resourceClass;
+        }
+
+        /**
+         * When the action was submitted to its node executor.
+         */
+        public long enqueuedUs() {
+            return enqueuedUs;
+        }
+
+        /**
+         * When the node executor began waiting for a permit to run the action,
+         * or -1 if it never did.
+         */
+        public long dequeuedUs() {
+            return dequeuedUs;
+        }
+
+        /**
+         * When the action acquired its permit and started running, or -1 if it
+         * never did.
+         */
+        public long startUs() {
+            return startUs;
+        }
+
+        /**
+         * When the action finished running, or -1 if it never did.
+         */
+        public long endUs() {
+            return endUs;
+        }
+
+        public boolean finished() {
+            return endUs >= 0;
+        }
+
+        public boolean succeeded() {
+            return succeeded;
+        }
+
+        /**
+         * The time spent between being scheduled and starting to run.
+         */
+        public long queueWaitUs() {
+            return (startUs < 0) ? 0 : startUs - enqueuedUs;
+        }
+
+        /**
+         * The time spent waiting for a permit, once the node executor got to
+         * the action.
+         */
+        public long permitWaitUs() {
+            return ((startUs < 0) || (dequeuedUs < 0)) ? 0 : startUs - dequeuedUs;
+        }
+
+        public long durationUs() {
+            return ((startUs < 0) || (endUs < 0)) ? 0 : endUs - startUs;
+        }
+    }
+
+    private final long baseNs;
+
+    private final ConcurrentHashMap<ActionId, Timing> timings = new ConcurrentHashMap<>();
+
+    public ActionTimings() {
+        this.baseNs = System.nanoTime();
+    }
+
+    private long nowUs() {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - baseNs);
+    }
+
+    void onEnqueued(ActionId id, ActionResourceClass resourceClass) {
+        timings.put(id, new Timing(id, resourceClass, nowUs()));
+    }
+
+    void onDequeued(ActionId id) {
+        Timing timing = timings.get(id);
+        if (timing != null) {
+            timing.dequeuedUs = nowUs();
+        }
+    }
+
+    void onStarted(ActionId id) {
+        Timing timing = timings.get(id);
+        if (timing != null) {
+            timing.startUs = nowUs();
+        }
+    }
+
+    void onFinished(ActionId id, boolean succeeded) {
+        Timing timing = timings.get(id);
+        if (timing != null) {
+            timing.succeeded = succeeded;
+            timing.endUs = nowUs();
+        }
+    }
+
+    /**
+     * Get the timings for every action which was scheduled, ordered by when
+     * they were scheduled.
+     */
+    public List<Timing> timings() {
+        List<Timing> results = new ArrayList<>(timings.values());
+        results.sort(new Comparator<Timing>() {
+            @Override
+            public int compare(Timing a, Timing b) {
+                int result = Long.compare(a.enqueuedUs, b.enqueuedUs);
+                if (result != 0) {
+                    return result;
+                }
+                return a.id.toString().compareTo(b.id.toString());
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Create a trace in the Chrome trace event format, which can be loaded in
+     * chrome://tracing or Perfetto.  Each node gets its own row.  Time spent
+     * queued shows up as a "wait" slice before the action itself.
+     */
+    public ObjectNode toChromeTrace() {
+        List<Timing> timings = timings();
+        TreeSet<String> scopes = new TreeSet<>();
+        for (Timing timing : timings) {
+            scopes.add(timing.id.scope());
+        }
+        Map<String, Integer> threadIds = new TreeMap<>();
+        ObjectNode trace = new ObjectNode(JsonNodeFactory.instance);
+        ArrayNode events = trace.putArray("traceEvents");
+        for (String scope : scopes) {
+            int threadId = threadIds.size() + 1;
+            threadIds.put(scope, threadId);
+            ObjectNode metadata = events.addObject();
+            metadata.put("name", "thread_name");
+            metadata.put("ph", "M");
+            metadata.put("pid", 1);
+            metadata.put("tid", threadId);
+            metadata.putObject("args").put("name", scope);
+        }
+        long nowUs = nowUs();
+        for (Timing timing : timings) {
+            int threadId = threadIds.get(timing.id.scope());
+            long startUs = (timing.startUs < 0) ? nowUs : timing.startUs;
+            if (startUs > timing.enqueuedUs) {
+                ObjectNode wait = events.addObject();
+                wait.put("name", "wait " + timing.id.type());
+                wait.put("cat", "wait");
+                wait.put("ph", "X");
+                wait.put("ts", timing.enqueuedUs);
+                wait.put("dur", startUs - timing.enqueuedUs);
+                wait.put("pid", 1);
+                wait.put("tid", threadId);
+            }
+            if (timing.startUs >= 0) {
+                long endUs = (timing.endUs < 0) ? nowUs : timing.endUs;
+                ObjectNode run = events.addObject();
+                run.put("name", timing.id.type());
+                run.put("cat", timing.resourceClass.toString());
+                run.put("ph", "X");
+                run.put("ts", timing.startUs);
+                run.put("dur", endUs - timing.startUs);
+                run.put("pid", 1);
+                run.put("tid", threadId);
+                ObjectNode args = run.putObject("args");
+                args.put("id", timing.id.toString());
+                args.put("permitWaitUs", timing.permitWaitUs());
+                args.put("status", !timing.finished() ? "running" :
+                    (timing.succeeded ? "succeeded" : "failed"));
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Write a Chrome trace event file.
+     */
+    public void writeChromeTrace(File file) throws IOException {
+        JSON_SERDE.writeValue(file, toChromeTrace());
+    }
+
+    private static final class Summary {
+        private int count = 0;
+        private long totalUs = 0;
+        private long maxUs = 0;
+        private long totalWaitUs = 0;
+
+        void add(Timing timing) {
+            count++;
+            totalUs += timing.durationUs();
+            maxUs = Math.max(maxUs, timing.durationUs());
+            totalWaitUs += timing.queueWaitUs();
+        }
+    }
+
+    /**
+     * Create a human-readable summary of where the time went, both by action
+     * type and by node.
+     */
+    public String summary() {
+        Map<String, Summary> byType = new TreeMap<>();
+        Map<String, Summary> byNode = new TreeMap<>();
+        long firstUs = Long.MAX_VALUE;
+        long lastUs = 0;
+        for (Timing timing : timings()) {
+            if (timing.startUs < 0) {
+                continue;
+            }
+            byType.computeIfAbsent(timing.id.type(), k -> new Summary()).add(timing);
+            byNode.computeIfAbsent(timing.id.scope(), k -> new Summary()).add(timing);
+            firstUs = Math.min(firstUs, timing.enqueuedUs);
+            lastUs = Math.max(lastUs, timing.endUs < 0 ? timing.startUs : timing.endUs);
+        }
+        long wallUs = (firstUs == Long.MAX_VALUE) ? 0 : lastUs - firstUs;
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("%-28s %6s %12s %12s %14s%n",
+            "ACTION TYPE", "COUNT", "TOTAL MS", "MAX MS", "AVG WAIT MS"));
+        for (Map.Entry<String, Summary> entry : byType.entrySet()) {
+            Summary summary = entry.getValue();
+            bld.append(String.format("%-28s %6d %12d %12d %14d%n", entry.getKey(),
+                summary.count, toMs(summary.totalUs), toMs(summary.maxUs),
+                toMs(summary.totalWaitUs / summary.count)));
+        }
+        bld.append(String.format("%n%-28s %6s %12s %12s%n",
+            "NODE", "COUNT", "BUSY MS", "UTILIZATION"));
+        for (Map.Entry<String, Summary> entry : byNode.entrySet()) {
+            Summary summary = entry.getValue();
+            bld.append(String.format("%-28s %6d %12d %11d%%%n", entry.getKey(),
+                summary.count, toMs(summary.totalUs),
+                (wallUs == 0) ? 0 : (100 * summary.totalUs) / wallUs));
+        }
+        bld.append(String.format("%nTotal wall time: %d ms%n", toMs(wallUs)));
+        return bld.toString();
+    }
+
+    private static long toMs(long us) {
+        return TimeUnit.MICROSECONDS.toMillis(us);
+    }
+};
@@ -49,4 +49,9 @@ public final class AwsDestroyAction extends Action {
         role.setInstanceId("");
         cluster.shutdownManager().addHookIfMissing(new CastleWriteClusterFileHook(cluster));
     }
+
+    @Override
+    public ActionResourceClass resourceClass() {
+        return ActionResourceClass.CLOUD_API;
+    }
 }
@@ -46,6 +46,11 @@ public final class AwsInitAction extends Action {
         this.role = role;
     }
 
+    @Override
+    public ActionResourceClass resourceClass() {
+        return ActionResourceClass.CLOUD_API;
+    }
+
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
         if (node.uplink().started()) {
@@ -57,7 +62,7 @@ public final class AwsInitAction extends Action {
         cluster.shutdownManager().addHookIfMissing(new DestroyAwsInstancesShutdownHook(cluster));
 
         // Start up the AWS instance.
-        node.uplink().startup();
+        node.uplink().startup(UbuntuSetupAction.startupImage(cluster, node));
 
         // Write out the new cluster file.
         cluster.writeToDisk();
@@ -19,19 +19,20 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.CommandBatch;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.common.DynamicVariableExpander;
+import io.confluent.castle.readiness.ReadinessCondition;
+import io.confluent.castle.readiness.ReadinessWatcher;
 import io.confluent.castle.role.BrokerRole;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.Callable;
 
 import static io.confluent.castle.action.ActionPaths.KAFKA_CONF;
 import static io.confluent.castle.action.ActionPaths.KAFKA_OPLOGS;
@@ -59,29 +60,18 @@ public final class BrokerStartAction extends Action {
 
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
-        File configFile = null, log4jFile = null;
-        try {
-            DynamicVariableExpander expander = new DynamicVariableExpander(cluster, node);
-            configFile = writeBrokerConfig(expander, cluster, node);
-            log4jFile = writeBrokerLog4j(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, KAFKA_CLASS_NAME, true);
-            node.uplink().command().args(createSetupPathsCommandLine()).mustRun();
-            node.uplink().command().syncTo(configFile.getAbsolutePath(),
-                ActionPaths.KAFKA_BROKER_PROPERTIES).mustRun();
-            node.uplink().command().syncTo(log4jFile.getAbsolutePath(),
-                ActionPaths.KAFKA_BROKER_LOG4J).mustRun();
-            node.uplink().command().args(createRunDaemonCommandLine()).mustRun();
-        } finally {
-            CastleUtil.deleteFileOrLog(node.log(), configFile);
-            CastleUtil.deleteFileOrLog(node.log(), log4jFile);
-        }
-        CastleUtil.waitFor(5, 30000, new Callable<Boolean>() {
-            @Override
-            public Boolean call() throws Exception {
-                return 0 == node.uplink().command().args(
-                    CastleUtil.checkJavaProcessStatusArgs(KAFKA_CLASS_NAME)).run();
-            }
-        });
+        DynamicVariableExpander expander = new DynamicVariableExpander(cluster, node);
+        new CommandBatch(node).
+            addStepList(CastleUtil.killJavaProcessArgs(KAFKA_CLASS_NAME, true)).
+            addStep(createSetupPathsCommandLine()).
+            addFile(ActionPaths.KAFKA_BROKER_PROPERTIES, writeBrokerConfig(expander, cluster, node)).
+            addFile(ActionPaths.KAFKA_BROKER_LOG4J, writeBrokerLog4j(cluster, node)).
+            addStep(createRunDaemonCommandLine()).
+            mustRun();
+        new ReadinessWatcher(node).
+            addCondition(ReadinessCondition.javaProcess(KAFKA_CLASS_NAME)).
+            addProbes(role.readinessProbes()).
+            await(role.readinessTimeoutMs());
     }
 
     public static String[] createSetupPathsCommandLine() {
@@ -93,7 +83,7 @@ public final class BrokerStartAction extends Action {
 
     public String[] createRunDaemonCommandLine() {
         return new String[]{"-n", "--", "nohup", "env",
-            "JMX_PORT=9192",
+            "JMX_PORT=" + BrokerRole.JMX_PORT,
             "KAFKA_JVM_PERFORMANCE_OPTS='" + role.jvmOptions() + "'",
             "KAFKA_LOG4J_OPTS='-Dlog4j.configuration=file:" + ActionPaths.KAFKA_BROKER_LOG4J + "' ",
             "LOG_DIR=\"" + KAFKA_LOGS + "\"",
@@ -118,20 +108,13 @@ public final class BrokerStartAction extends Action {
         return defaultConf;
     }
 
-    private File writeBrokerConfig(DynamicVariableExpander expander,
-                                   CastleCluster cluster,
-                                   CastleNode node) throws Exception {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
+    private byte[] writeBrokerConfig(DynamicVariableExpander expander,
+                                     CastleCluster cluster,
+                                     CastleNode node) throws Exception {
         Map<String, String> effectiveConf =
             expander.expand(CastleUtil.mergeConfig(role.conf(), getDefaultConf()));
-        try {
-            file = new File(cluster.env().workingDirectory(), String.format("broker-%d.properties",
-                node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (OutputStreamWriter osw = new OutputStreamWriter(stream, StandardCharsets.UTF_8)) {
             osw.write(String.format("broker.id=%d%n", getBrokerId(cluster, node)));
             osw.write(String.format("listeners=%s://:%d%n", role.externalAuth(), BrokerRole.PORT));
             osw.write(String.format("advertised.listeners=%s://:%d%n", role.externalAuth(), BrokerRole.PORT));
@@ -141,29 +124,13 @@ public final class BrokerStartAction extends Action {
             for (Map.Entry<String, String> entry : effectiveConf.entrySet()) {
                 osw.write(String.format("%s=%s%n", entry.getKey(), entry.getValue()));
             }
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                osw, "temporary broker file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                fos, "temporary broker file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
         }
+        return stream.toByteArray();
     }
 
-    File writeBrokerLog4j(CastleCluster cluster,  CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(), String.format("broker-log4j-%d.properties",
-                node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
+    byte[] writeBrokerLog4j(CastleCluster cluster,  CastleNode node) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (OutputStreamWriter osw = new OutputStreamWriter(stream, StandardCharsets.UTF_8)) {
             osw.write(String.format("log4j.rootLogger=INFO, kafkaAppender%n"));
             osw.write(String.format("%n"));
             writeDailyRollingFileAppender(osw, "kafkaAppender", "server.log");
@@ -191,17 +158,8 @@ public final class BrokerStartAction extends Action {
             osw.write(String.format("%n"));
             osw.write(String.format("log4j.logger.kafka.authorizer.logger=INFO, authorizerAppender%n"));
             osw.write(String.format("log4j.additivity.kafka.authorizer.logger=false%n"));
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                osw, "temporary broker log4j file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                fos, "temporary broker log4j file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
         }
+        return stream.toByteArray();
     }
 
     static void writeDailyRollingFileAppender(OutputStreamWriter osw, String appender,
@@ -19,11 +19,11 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.CommandBatch;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.CollectdRole;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
@@ -48,19 +48,12 @@ public final class CollectdStartAction extends Action {
 
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
-
-        File configFile = null, log4jFile = null;
-        try {
-            configFile = writeCollectdConfig(cluster, node);
-            CastleUtil.killProcess(cluster, node, COLLECTD, "SIGKILL");
-            node.uplink().command().args(createSetupPathsCommandLine()).mustRun();
-            node.uplink().command().syncTo(configFile.getAbsolutePath(),
-                COLLECTD_PROPERTIES).mustRun();
-            node.uplink().command().args(createRunDaemonCommandLine()).mustRun();
-        } finally {
-            CastleUtil.deleteFileOrLog(node.log(), configFile);
-            CastleUtil.deleteFileOrLog(node.log(), log4jFile);
-        }
+        new CommandBatch(node).
+            addStepList(CastleUtil.killProcessArgs(COLLECTD, "SIGKILL")).
+            addStep(createSetupPathsCommandLine()).
+            addFile(COLLECTD_PROPERTIES, writeCollectdConfig(cluster, node)).
+            addStep(createRunDaemonCommandLine()).
+            mustRun();
     }
 
     public static String[] createSetupPathsCommandLine() {
@@ -70,16 +63,9 @@ public final class CollectdStartAction extends Action {
             "sudo", "chown", "`whoami`", COLLECTD_ROOT, COLLECTD_LOGS, COLLECTD_LOGS + "/csv"};
     }
 
-    private File writeCollectdConfig(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(), String.format("collected-%d.conf",
-                node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
+    private byte[] writeCollectdConfig(CastleCluster cluster, CastleNode node) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (OutputStreamWriter osw = new OutputStreamWriter(stream, StandardCharsets.UTF_8)) {
             osw.write(String.format("Interval 2%n"));
             osw.write(String.format("LoadPlugin logfile%n"));
             osw.write(String.format("<Plugin \"logfile\">%n"));
@@ -116,17 +102,8 @@ public final class CollectdStartAction extends Action {
             osw.write(String.format("   DataDir \"%s/csv\"%n", COLLECTD_LOGS));
             osw.write(String.format("   StoreRates false%n"));
             osw.write(String.format("</Plugin>%n"));
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(node.log(), osw,
-                    "temporary collectd file OutputStreamWriter");
-            CastleUtil.closeQuietly(node.log(), fos,
-                    "temporary collectd file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
         }
+        return stream.toByteArray();
     }
 
     public static String[] createRunDaemonCommandLine() {
@@ -42,6 +42,11 @@ public final class CopyAdditionalFilesAction extends Action {
         this.files = files;
     }
 
+    @Override
+    public ActionResourceClass resourceClass() {
+        return ActionResourceClass.BULK_TRANSFER;
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         if (!node.uplink().canLogin()) {
@@ -37,4 +37,9 @@ public final class DaemonStartAction extends Action {
             },
             0);
     }
+
+    @Override
+    public ActionResourceClass resourceClass() {
+        return ActionResourceClass.LOCAL;
+    }
 }
@@ -33,8 +33,14 @@ public final class DaemonStatusAction extends Action {
                 SchemaRegistryStatusAction.TYPE,
                 TrogdorDaemonType.COORDINATOR.statusType(),
                 TrogdorDaemonType.AGENT.statusType(),
-                JmxDumperStatusAction.TYPE
+                JmxDumperStatusAction.TYPE,
+                JmxAggregateAction.TYPE
             },
             0);
     }
+
+    @Override
+    public ActionResourceClass resourceClass() {
+        return ActionResourceClass.LOCAL;
+    }
 }
@@ -39,4 +39,9 @@ public final class DaemonStopAction extends Action {
             },
             0);
     }
+
+    @Override
+    public ActionResourceClass resourceClass() {
+        return ActionResourceClass.LOCAL;
+    }
 }
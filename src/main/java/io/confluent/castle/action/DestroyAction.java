@@ -35,4 +35,9 @@ public final class DestroyAction extends Action {
             },
             0);
     }
+
+    @Override
+    public ActionResourceClass resourceClass() {
+        return ActionResourceClass.LOCAL;
+    }
 }
@@ -38,4 +38,9 @@ public final class DestroyNodesAction extends Action {
             node.nodeName(), node.uplink());
         node.uplink().shutdownAll();
     }
+
+    @Override
+    public ActionResourceClass resourceClass() {
+        return ActionResourceClass.CLOUD_API;
+    }
 }
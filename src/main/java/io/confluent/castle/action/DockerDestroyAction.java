@@ -79,4 +79,8 @@ public final class DockerDestroyAction extends Action {
         }
     }
 
+    @Override
+    public ActionResourceClass resourceClass() {
+        return ActionResourceClass.CLOUD_API;
+    }
 }
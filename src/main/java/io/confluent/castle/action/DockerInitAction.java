@@ -43,6 +43,11 @@ public final class DockerInitAction extends Action {
         this.role = role;
     }
 
+    @Override
+    public ActionResourceClass resourceClass() {
+        return ActionResourceClass.CLOUD_API;
+    }
+
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
         if (node.uplink().started()) {
@@ -54,7 +59,7 @@ public final class DockerInitAction extends Action {
         cluster.shutdownManager().addHookIfMissing(new DestroyDockerInstancesShutdownHook(cluster));
 
         // Start up the Docker instance.
-        node.uplink().startup();
+        node.uplink().startup(UbuntuSetupAction.startupImage(cluster, node));
 
         // Write out the new cluster file.
         cluster.writeToDisk();
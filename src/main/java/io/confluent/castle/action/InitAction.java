@@ -32,4 +32,9 @@ public final class InitAction extends Action {
             },
             0);
     }
+
+    @Override
+    public ActionResourceClass resourceClass() {
+        return ActionResourceClass.LOCAL;
+    }
 }
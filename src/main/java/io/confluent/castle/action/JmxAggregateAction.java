@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.jmx.JmxStreamStore;
+import io.confluent.castle.role.JmxDumperRole;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Reports cluster-wide aggregates of the streamed JMX samples, such as the
+ * total bytes in per second across every broker.
+ *
+ * Each node with a streaming JmxDumperRole has one of these actions, and
+ * they all run after every node's stream has been collected.  The first one
+ * to run prints the report for the whole cluster, covering the aggregates
+ * requested by any node's role.
+ */
+public final class JmxAggregateAction extends Action {
+    public final static String TYPE = "jmxAggregate";
+
+    public JmxAggregateAction(String scope) {
+        super(new ActionId(TYPE, scope),
+            new TargetId[] {
+                new TargetId(JmxDumperStatusAction.TYPE)
+            },
+            new String[] {},
+            0);
+    }
+
+    @Override
+    public ActionResourceClass resourceClass() {
+        return ActionResourceClass.LOCAL;
+    }
+
+    @Override
+    public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+        Set<String> aggregates = new LinkedHashSet<>();
+        for (CastleNode clusterNode : cluster.nodes().values()) {
+            JmxDumperRole role = clusterNode.getRole(JmxDumperRole.class);
+            if ((role != null) && role.stream()) {
+                aggregates.addAll(role.aggregates());
+            }
+        }
+        JmxStreamStore store = cluster.jmxStreamStore();
+        if (aggregates.isEmpty() || !store.claimReport()) {
+            return;
+        }
+        long nowMs = System.currentTimeMillis();
+        for (String pattern : aggregates) {
+            JmxStreamStore.Aggregate aggregate = store.aggregate(pattern);
+            if (aggregate.numColumns() == 0) {
+                cluster.clusterLog().printf("** JMX %s: no samples yet.%n", pattern);
+            } else {
+                cluster.clusterLog().printf("** JMX %s = %.2f (%d column(s) on %d node(s), " +
+                        "latest sample %.1f s ago)%n", pattern, aggregate.sum(),
+                    aggregate.numColumns(), aggregate.numNodes(),
+                    (nowMs - aggregate.latestTimeMs()) / 1000.0);
+            }
+            if (!aggregate.staleSeries().isEmpty()) {
+                cluster.clusterLog().printf("** JMX %s: left out %d stale series: %s%n",
+                    pattern, aggregate.staleSeries().size(),
+                    String.join(", ", aggregate.staleSeries()));
+            }
+        }
+    }
+}
@@ -19,17 +19,21 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.CommandBatch;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.jmx.JmxDumpersConfig;
 import io.confluent.castle.role.JmxDumperRole;
 
-import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static io.confluent.castle.action.ActionPaths.JMX_DUMPER_LOGS;
 import static io.confluent.castle.action.ActionPaths.JMX_DUMPER_PROPERTIES;
 import static io.confluent.castle.action.ActionPaths.JMX_DUMPER_ROOT;
 import static io.confluent.castle.action.ActionPaths.JMX_DUMPER_START_SCRIPT;
+import static io.confluent.castle.action.ActionPaths.JMX_DUMPER_STREAM;
 import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
 
 /**
@@ -40,27 +44,25 @@ public final class JmxDumperStartAction extends Action {
 
     private final JmxDumpersConfig conf;
 
+    private final boolean stream;
+
     public JmxDumperStartAction(String scope, JmxDumperRole role) {
         super(new ActionId(TYPE, scope),
             new TargetId[]{},
             new String[] {},
             role.initialDelayMs());
         this.conf = role.conf();
+        this.stream = role.stream();
     }
 
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
-        File configFile = null;
-        try {
-            configFile = writeJmxDumperConf(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, JmxDumperRole.CLASS_NAME, true);
-            node.uplink().command().args(createSetupPathsCommandLine()).mustRun();
-            node.uplink().command().syncTo(configFile.getAbsolutePath(),
-                JMX_DUMPER_PROPERTIES).mustRun();
-            node.uplink().command().args(createRunDaemonCommandLine()).mustRun();
-        } finally {
-            CastleUtil.deleteFileOrLog(node.log(), configFile);
-        }
+        new CommandBatch(node).
+            addStepList(CastleUtil.killJavaProcessArgs(JmxDumperRole.CLASS_NAME, true)).
+            addStep(createSetupPathsCommandLine()).
+            addFile(JMX_DUMPER_PROPERTIES, writeJmxDumperConf()).
+            addStep(createRunDaemonCommandLine(stream)).
+            mustRun();
     }
 
     public static String[] createSetupPathsCommandLine() {
@@ -70,18 +72,19 @@ public final class JmxDumperStartAction extends Action {
             "sudo", "chown", "`whoami`", JMX_DUMPER_ROOT, JMX_DUMPER_LOGS};
     }
 
-    private File writeJmxDumperConf(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = new File(cluster.env().workingDirectory(),
-                String.format("jmx-dumper-%d.conf", node.nodeIndex()));
-        JSON_SERDE.writeValue(file, conf);
-        return file;
+    private byte[] writeJmxDumperConf() throws IOException {
+        return JSON_SERDE.writeValueAsBytes(conf);
     }
 
-    public static String[] createRunDaemonCommandLine() {
-        return new String[]{"-n", "--", "nohup", "env",
+    public static String[] createRunDaemonCommandLine(boolean stream) {
+        List<String> args = new ArrayList<>(Arrays.asList("-n", "--", "nohup", "env",
             "LOG_DIR=\"" + JMX_DUMPER_LOGS + "\"",
-            JMX_DUMPER_START_SCRIPT, JMX_DUMPER_PROPERTIES,
-            "&>" + JMX_DUMPER_LOGS + "/stdout-stderr.txt", "</dev/null", "&"
-        };
+            JMX_DUMPER_START_SCRIPT, JMX_DUMPER_PROPERTIES));
+        if (stream) {
+            args.addAll(Arrays.asList("--stream", JMX_DUMPER_STREAM));
+        }
+        args.addAll(Arrays.asList(
+            "&>" + JMX_DUMPER_LOGS + "/stdout-stderr.txt", "</dev/null", "&"));
+        return args.toArray(new String[0]);
     }
 }
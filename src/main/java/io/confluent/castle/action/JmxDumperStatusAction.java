@@ -20,24 +20,72 @@ package io.confluent.castle.action;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.common.CastleUtil;
+import io.confluent.castle.jmx.JmxStreamStore;
 import io.confluent.castle.role.JmxDumperRole;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static io.confluent.castle.action.ActionPaths.JMX_DUMPER_STREAM;
+
 /**
  * Gets the status of the JMXDumper.
+ *
+ * If the dumper is streaming, this also collects the part of the stream
+ * which we haven't seen yet, and adds it to the cluster's JmxStreamStore.
  */
 public final class JmxDumperStatusAction extends Action {
     public final static String TYPE = "jmxStatus";
 
+    private final boolean stream;
+
     public JmxDumperStatusAction(String scope, JmxDumperRole role) {
         super(new ActionId(TYPE, scope),
             new TargetId[] {},
             new String[] {},
             0);
+        this.stream = role.stream();
     }
 
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         cluster.shutdownManager().changeReturnCode(
             CastleUtil.getJavaProcessStatus(cluster, node, JmxDumperRole.CLASS_NAME));
+        if (stream && node.uplink().canLogin()) {
+            try {
+                collectStream(cluster, node);
+            } catch (Throwable e) {
+                cluster.clusterLog().info("Error collecting the JMX stream from " +
+                    node.nodeName(), e);
+            }
+        }
+    }
+
+    private void collectStream(CastleCluster cluster, CastleNode node) throws Exception {
+        int numRecords = cluster.jmxStreamStore().collect(node.nodeName(),
+            (headBytes, offset) -> fetchStream(node, headBytes, offset));
+        if (numRecords < 0) {
+            cluster.clusterLog().printf("%s: no JMX stream found.%n", node.nodeName());
+            return;
+        }
+        cluster.clusterLog().printf("%s: collected %d JMX stream records.%n",
+            node.nodeName(), numRecords);
+    }
+
+    private static List<String> fetchStream(CastleNode node, long headBytes, long offset)
+            throws Exception {
+        List<String> lines = Collections.synchronizedList(new ArrayList<>());
+        List<String> args = new ArrayList<>(Arrays.asList("-n", "--"));
+        args.addAll(JmxStreamStore.fetchCommand(JMX_DUMPER_STREAM, headBytes, offset));
+        int retVal = node.uplink().command().
+            streamOutput(lines::add).
+            argList(args).
+            run();
+        if ((retVal != 0) || lines.isEmpty()) {
+            return null;
+        }
+        return new ArrayList<>(lines);
     }
 }
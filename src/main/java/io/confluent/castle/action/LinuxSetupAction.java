@@ -31,4 +31,9 @@ public final class LinuxSetupAction extends Action {
             },
             0);
     }
+
+    @Override
+    public ActionResourceClass resourceClass() {
+        return ActionResourceClass.LOCAL;
+    }
 };
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.action;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * A counting semaphore which grants permits to the highest-priority waiter
+ * first.  Waiters with equal priority are served in the order they arrived.
+ */
+final class PriorityPermits {
+    private static final class Waiter {
+        private final long priority;
+        private final long sequence;
+        private boolean granted = false;
+
+        Waiter(long priority, long sequence) {
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Waiter> WAITER_ORDER = new Comparator<Waiter>() {
+        @Override
+        public int compare(Waiter a, Waiter b) {
+            if (a.priority != b.priority) {
+                return Long.compare(b.priority, a.priority);
+            }
+            return Long.compare(a.sequence, b.sequence);
+        }
+    };
+
+    private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(WAITER_ORDER);
+
+    private int available;
+
+    private long nextSequence = 0;
+
+    PriorityPermits(int permits) {
+        this.available = permits;
+    }
+
+    /**
+     * Acquire a permit, blocking until one is available and there are no
+     * higher-priority waiters.
+     *
+     * @param priority      The priority.  Higher values are served first.
+     */
+    synchronized void acquire(long priority) throws InterruptedException {
+        if ((available > 0) && waiters.isEmpty()) {
+            available--;
+            return;
+        }
+        Waiter waiter = new Waiter(priority, nextSequence++);
+        waiters.add(waiter);
+        try {
+            while (!waiter.granted) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            if (waiter.granted) {
+                // Pass the permit we were just given on to the next waiter.
+                release();
+            } else {
+                waiters.remove(waiter);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Release a permit, handing it to the highest-priority waiter if there is one.
+     */
+    synchronized void release() {
+        Waiter waiter = waiters.poll();
+        if (waiter == null) {
+            available++;
+        } else {
+            waiter.granted = true;
+            notifyAll();
+        }
+    }
+
+    synchronized int availablePermits() {
+        return available;
+    }
+
+    synchronized int numWaiters() {
+        return waiters.size();
+    }
+}
@@ -40,6 +40,11 @@ public final class SaveLogsAction extends Action {
             0);
     }
 
+    @Override
+    public ActionResourceClass resourceClass() {
+        return ActionResourceClass.BULK_TRANSFER;
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         if (!node.uplink().canLogin()) {
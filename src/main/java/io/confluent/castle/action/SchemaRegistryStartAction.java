@@ -19,13 +19,15 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.CommandBatch;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.common.DynamicVariableExpander;
+import io.confluent.castle.readiness.ReadinessCondition;
+import io.confluent.castle.readiness.ReadinessWatcher;
 import io.confluent.castle.role.Schema;
 import io.confluent.castle.role.SchemaRegistryRole;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
@@ -34,7 +36,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.Callable;
 
 import static io.confluent.castle.action.ActionPaths.SCHEMA_REGISTRY_CONF;
 import static io.confluent.castle.action.ActionPaths.SCHEMA_REGISTRY_LOGS;
@@ -57,37 +58,25 @@ public class SchemaRegistryStartAction extends Action  {
 
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
-        File configFile = null, log4jFile = null;
-        try {
-            DynamicVariableExpander expander = new DynamicVariableExpander(cluster, node);
-            configFile = writeSchemaRegistryConfig(expander, cluster, node);
-            log4jFile = writeSchemaRegistryLog4j(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, SchemaRegistryRole.SCHEMA_REGISTRY_CLASS_NAME, false);
-            node.uplink().command().args(createSetupPathsCommandLine()).mustRun();
-            node.uplink().command().syncTo(configFile.getAbsolutePath(),
-                ActionPaths.SCHEMA_REGISTRY_PROPERTIES).mustRun();
-            node.uplink().command().syncTo(log4jFile.getAbsolutePath(),
-                ActionPaths.SCHEMA_REGISTRY_LOG4J).mustRun();
-            writeSchemas(cluster, node);
-            node.uplink().command().args(createRunDaemonCommandLine()).mustRun();
-        } finally {
-            CastleUtil.deleteFileOrLog(node.log(), configFile);
-            CastleUtil.deleteFileOrLog(node.log(), log4jFile);
+        DynamicVariableExpander expander = new DynamicVariableExpander(cluster, node);
+        CommandBatch batch = new CommandBatch(node).
+            addStepList(CastleUtil.killJavaProcessArgs(
+                SchemaRegistryRole.SCHEMA_REGISTRY_CLASS_NAME, false)).
+            addStep(createSetupPathsCommandLine()).
+            addFile(ActionPaths.SCHEMA_REGISTRY_PROPERTIES,
+                writeSchemaRegistryConfig(expander, cluster, node)).
+            addFile(ActionPaths.SCHEMA_REGISTRY_LOG4J, writeSchemaRegistryLog4j(cluster, node));
+        for (int i = 0; i < role.schemas().size(); i++) {
+            batch.addFile(String.format(ActionPaths.SCHEMA_REGISTRY_SCHEMA, i),
+                writeSchema(cluster, node, i));
         }
-        CastleUtil.waitFor(5, 30000, new Callable<Boolean>() {
-            @Override
-            public Boolean call() throws Exception {
-                return 0 == node.uplink().command().args(
-                    CastleUtil.checkJavaProcessStatusArgs(SchemaRegistryRole.SCHEMA_REGISTRY_CLASS_NAME)).run();
-            }
-        });
-        CastleUtil.waitFor(5, 30000, new Callable<Boolean>() {
-            @Override
-            public Boolean call() throws Exception {
-                return 0 == node.uplink().command().args(
-                    checkRestServiceArgs()).run();
-            }
-        });
+        batch.addStep(createRunDaemonCommandLine()).
+            mustRun();
+        new ReadinessWatcher(node).
+            addCondition(ReadinessCondition.javaProcess(
+                SchemaRegistryRole.SCHEMA_REGISTRY_CLASS_NAME)).
+            addProbes(role.readinessProbes()).
+            await(role.readinessTimeoutMs());
         node.uplink().command().args(createSchemas()).mustRun();
     }
 
@@ -117,47 +106,24 @@ public class SchemaRegistryStartAction extends Action  {
         return defaultConf;
     }
 
-    private File writeSchemaRegistryConfig(DynamicVariableExpander expander,
-                                           CastleCluster cluster,
-                                           CastleNode node) throws Exception {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
+    private byte[] writeSchemaRegistryConfig(DynamicVariableExpander expander,
+                                             CastleCluster cluster,
+                                             CastleNode node) throws Exception {
         Map<String, String> effectiveConf =
                 expander.expand(CastleUtil.mergeConfig(role.conf(), getDefaultConf()));
-        try {
-            file = new File(cluster.env().workingDirectory(),
-                String.format("schema-registry-%d.properties", node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (OutputStreamWriter osw = new OutputStreamWriter(stream, StandardCharsets.UTF_8)) {
             osw.write(String.format("kafkastore.connection.url=%s%n", cluster.getZooKeeperConnectString()));
             for (Map.Entry<String, String> entry : effectiveConf.entrySet()) {
                 osw.write(String.format("%s=%s%n", entry.getKey(), entry.getValue()));
             }
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                osw, "temporary SchemaRegistry config file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                fos, "temporary SchemaRegistry config file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
         }
+        return stream.toByteArray();
     }
 
-    static File writeSchemaRegistryLog4j(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(),
-                String.format("schema-registry-log4j-%d.properties", node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
+    static byte[] writeSchemaRegistryLog4j(CastleCluster cluster, CastleNode node) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (OutputStreamWriter osw = new OutputStreamWriter(stream, StandardCharsets.UTF_8)) {
             osw.write(String.format("log4j.rootLogger=INFO, kafkaAppender%n"));
             osw.write(String.format("log4j.appender.kafkaAppender=org.apache.log4j.DailyRollingFileAppender%n"));
             osw.write(String.format("log4j.appender.kafkaAppender.DatePattern='.'yyyy-MM-dd-HH%n"));
@@ -172,56 +138,19 @@ public class SchemaRegistryStartAction extends Action  {
             osw.write(String.format("log4j.logger.org.I0Itec.zkclient.ZkClient=ERROR%n"));
             osw.write(String.format("log4j.additivity.kafka.server=false%n"));
             osw.write(String.format("log4j.additivity.kafka.consumer.ZookeeperConsumerConnector=false%n"));
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                osw, "temporary Schema Registry file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                fos, "temporary Schema Registry file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
-        }
-    }
-
-    private void writeSchemas(final CastleCluster cluster, final CastleNode node) throws Throwable {
-        for (int i = 0; i < role.schemas().size(); i++) {
-            File schemaFile = writeSchema(cluster, node, i);
-            node.uplink().command().syncTo(schemaFile.getAbsolutePath(),
-                String.format(ActionPaths.SCHEMA_REGISTRY_SCHEMA, i)).mustRun();
         }
+        return stream.toByteArray();
     }
 
-    private File writeSchema(CastleCluster cluster, CastleNode node, int index) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
+    private byte[] writeSchema(CastleCluster cluster, CastleNode node, int index) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (OutputStreamWriter osw = new OutputStreamWriter(stream, StandardCharsets.UTF_8)) {
             Schema schema = role.schemas().get(index);
-            file = new File(cluster.env().workingDirectory(),
-                    String.format("schema-%d.asc", index));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
             osw.write("{ \"schema\": \"");
             osw.write(schema.schema().replace("\"", "\\\""));
             osw.write("\" }");
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                osw, "temporary Schema Registry file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                fos, "temporary Schema Registry file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
         }
-    }
-
-    private static String[] checkRestServiceArgs() {
-        return new String[] {"-n", "--", "curl", "http://localhost:8081/config"};
+        return stream.toByteArray();
     }
 
     private String[] createSchemas() {
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.common.CastleUtil;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coordinates the peer-to-peer distribution of source archives.
+ *
+ * Nodes are arranged into a tree by node index.  The first DEGREE nodes are
+ * seeds, which receive archives directly from the castle host.  Every other
+ * node receives them from its parent, which relays them over the internal
+ * network.  Each node has at most DEGREE children, so the number of
+ * sequential transfers grows logarithmically with the number of nodes.
+ *
+ * Nodes ssh to each other using a relay key pair, which is generated once
+ * per working directory and installed by sourceSetup.
+ */
+public final class SourceFanOut {
+    /**
+     * The number of seed nodes, and the number of children of each node.
+     */
+    public static final int DEGREE = 4;
+
+    public static final String RELAY_KEY_FILE_NAME = "relay_key";
+
+    public static final String RELAY_KEY_COMMENT = "castle-relay";
+
+    private final File keyDir;
+
+    /**
+     * Maps node names to the source trees they are receiving.  Each tree maps
+     * to a future which is completed with the hash of the archive the node
+     * holds, once it has received it.
+     */
+    private final Map<String, Map<String, CompletableFuture<String>>> holdings =
+        new ConcurrentHashMap<>();
+
+    public SourceFanOut(File keyDir) {
+        this.keyDir = keyDir;
+    }
+
+    /**
+     * Get the index of the node which relays archives to the given node.
+     *
+     * @param nodeIndex     The node index.
+     * @return              The parent node index, or -1 if the node is a seed.
+     */
+    public static int parentIndex(int nodeIndex) {
+        if (nodeIndex < DEGREE) {
+            return -1;
+        }
+        return (nodeIndex / DEGREE) - 1;
+    }
+
+    /**
+     * Register a node which will receive some source trees in this run.  Every
+     * node is registered when the scheduler is built, before any of them
+     * start, so that a node whose parent has not started yet waits for it
+     * rather than concluding that it is not running.
+     *
+     * @param nodeName      The node name.
+     * @param remotes       The remote directories of the source trees.
+     */
+    public void register(String nodeName, Collection<String> remotes) {
+        Map<String, CompletableFuture<String>> futures = new HashMap<>();
+        for (String remote : remotes) {
+            futures.put(remote, new CompletableFuture<>());
+        }
+        holdings.put(nodeName, Collections.unmodifiableMap(futures));
+    }
+
+    /**
+     * Get the futures for the source trees which a node is receiving.  The
+     * node must complete each of them, either normally or exceptionally.
+     *
+     * @param nodeName      The node name.
+     * @return              A map from remote directories to futures.  Empty
+     *                      if the node was not registered.
+     */
+    public Map<String, CompletableFuture<String>> holdings(String nodeName) {
+        Map<String, CompletableFuture<String>> futures = holdings.get(nodeName);
+        return (futures == null) ? Collections.emptyMap() : futures;
+    }
+
+    /**
+     * Get the future which is completed when a node has received a source tree.
+     *
+     * @param nodeName      The node name.
+     * @param remote        The remote directory of the source tree.
+     * @return              The future, or null if the node is not receiving
+     *                      the tree in this run.
+     */
+    public CompletableFuture<String> holding(String nodeName, String remote) {
+        return holdings(nodeName).get(remote);
+    }
+
+    /**
+     * Fail every future of a node which has not been completed yet, so that
+     * its children stop waiting for it.
+     *
+     * @param nodeName      The node name.
+     * @param reason        Why the node could not supply the source trees.
+     */
+    public void abandon(String nodeName, String reason) {
+        for (CompletableFuture<String> holding : holdings(nodeName).values()) {
+            holding.completeExceptionally(new RuntimeException(reason));
+        }
+    }
+
+    /**
+     * Get the private relay key, generating the key pair if necessary.  The
+     * public key is in the same directory, with a .pub suffix.
+     */
+    public synchronized File relayKey(Logger log) throws Exception {
+        File key = new File(keyDir, RELAY_KEY_FILE_NAME);
+        if (!key.exists()) {
+            Files.createDirectories(keyDir.toPath());
+            CastleUtil.runLocalCommand(Arrays.asList("ssh-keygen", "-q", "-t", "ed25519",
+                "-N", "", "-C", RELAY_KEY_COMMENT, "-f", key.getAbsolutePath()));
+            log.info("Generated relay key {}", key);
+        }
+        return key;
+    }
+}
@@ -18,14 +18,79 @@
 package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterConf.SourceDistribution;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.common.CastleUtil;
+import io.confluent.castle.command.Command;
+import io.confluent.castle.common.SourceArchiveCache.SourceArchive;
+import io.confluent.castle.common.SourceArchiveCache.SourceDelta;
+import io.confluent.castle.role.AwsNodeRole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 /**
- * Rsyncs the Kafka source directory to the cluster node.
+ * Copies the Kafka, Schema Registry, and Castle source directories to the
+ * cluster node.
+ *
+ * By default, each directory is rsynced.  In archive mode, each directory is
+ * packed into a compressed archive once, and the archive is streamed to every
+ * node which doesn't already have a copy with the same hash.  In fanout mode,
+ * only the seed nodes get the archive from the castle host, and the other
+ * nodes get it from their parents in the SourceFanOut tree.  If a parent
+ * can't supply the archive, the node falls back to getting it directly.
+ *
+ * In both archive modes, the hash of each tree the node holds is recorded in
+ * the cluster file.  If the node holds an older version of a tree which we
+ * still have a manifest for, only the changed entries are sent.
+ *
+ * Relays use a key pair which is generated on the castle host.  Only nodes
+ * with children get the private key.  A node with a parent only accepts the
+ * key from its parent's address, and only to run a script which unpacks an
+ * archive into one of the source directories.  The parent checks the node's
+ * host keys against a known_hosts file which we read from the node.
  */
 public final class SourceSetupAction extends Action {
     public final static String TYPE = "sourceSetup";
 
+    /**
+     * The file in each source directory on the node which holds the hash of
+     * the archive it was unpacked from.
+     */
+    public final static String SOURCE_HASH_FILE = ".castle-source-hash";
+
+    /**
+     * The hash reported for a remote directory which holds no archive.
+     */
+    private final static String NO_HASH = "none";
+
+    /**
+     * The restrictions on the relay key, besides its source address and
+     * forced command.
+     */
+    private final static String RELAY_KEY_OPTIONS =
+        "no-pty,no-port-forwarding,no-agent-forwarding,no-X11-forwarding";
+
+    /**
+     * The public host key files on each node.
+     */
+    private final static String HOST_KEY_FILES = "/etc/ssh/ssh_host_*_key.pub";
+
     public SourceSetupAction(String scope) {
         super(new ActionId(TYPE, scope),
             new TargetId[] {
@@ -35,8 +100,50 @@ public final class SourceSetupAction extends Action {
             0);
     }
 
+    @Override
+    public ActionResourceClass resourceClass() {
+        return ActionResourceClass.BULK_TRANSFER;
+    }
+
+    /**
+     * In fanout mode, only the seeds get their archives from the castle host.
+     * Every other node gets them from its parent, over the internal network,
+     * so it takes a relay permit rather than a bulk transfer permit.  A node
+     * which falls back to getting an archive directly takes a bulk transfer
+     * permit for that upload.
+     */
+    @Override
+    public ActionResourceClass resourceClass(CastleCluster cluster, CastleNode node) {
+        if ((cluster.conf().sourceDistribution() == SourceDistribution.FANOUT) &&
+                (SourceFanOut.parentIndex(node.nodeIndex()) >= 0)) {
+            return ActionResourceClass.RELAY;
+        }
+        return ActionResourceClass.BULK_TRANSFER;
+    }
+
+    /**
+     * In fanout mode, register every node which will run sourceSetup before
+     * any of them start, so that children know which parents to wait for.
+     */
+    @Override
+    public void onScheduled(CastleCluster cluster, CastleNode node) {
+        if (cluster.conf().sourceDistribution() == SourceDistribution.FANOUT) {
+            cluster.sourceFanOut().register(node.nodeName(), sourceTrees(cluster).values());
+        }
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+        try {
+            setupSources(cluster, node);
+        } finally {
+            // Children may be waiting for archives which this node never got.
+            cluster.sourceFanOut().abandon(node.nodeName(),
+                node.nodeName() + " did not receive the source archive.");
+        }
+    }
+
+    private void setupSources(CastleCluster cluster, CastleNode node) throws Exception {
         if (!node.uplink().canLogin()) {
             node.log().printf("*** Skipping %s, because the node is not accessible.%n", TYPE);
             return;
@@ -45,23 +152,545 @@ public final class SourceSetupAction extends Action {
         cluster.conf().validateSchemaRegistryPath();
         cluster.conf().validateCastlePath();
         node.uplink().command().args(setupDirectoriesCommand()).mustRun();
-        node.uplink().command().
-            syncTo(cluster.conf().kafkaPath() + "/", ActionPaths.KAFKA_SRC + "/").
-            mustRun();
+        Map<String, String> trees = sourceTrees(cluster);
+        SourceDistribution distribution = cluster.conf().sourceDistribution();
+        if (distribution == SourceDistribution.ARCHIVE) {
+            distributeArchives(cluster, node, trees, false);
+        } else if (distribution == SourceDistribution.FANOUT) {
+            distributeArchives(cluster, node, trees, true);
+        } else {
+            AwsNodeRole role = node.getRole(AwsNodeRole.class);
+            if (role != null) {
+                // rsync doesn't record hashes, so we no longer know what the node has.
+                role.clearSourceHashes();
+            }
+            for (Map.Entry<String, String> entry : trees.entrySet()) {
+                node.uplink().command().
+                    syncTo(entry.getKey() + "/", entry.getValue() + "/").
+                    mustRun();
+            }
+        }
+    }
+
+    /**
+     * Returns a map from local source directories to the remote directories
+     * they should be copied to.
+     */
+    private static Map<String, String> sourceTrees(CastleCluster cluster) {
+        Map<String, String> trees = new LinkedHashMap<>();
+        trees.put(cluster.conf().kafkaPath(), ActionPaths.KAFKA_SRC);
         if (!cluster.conf().schemaRegistryPath().isEmpty()) {
+            trees.put(cluster.conf().schemaRegistryPath(), ActionPaths.SCHEMA_REGISTRY_SRC);
+        }
+        trees.put(cluster.conf().castlePath(), ActionPaths.CASTLE_SRC);
+        return trees;
+    }
+
+    private void distributeArchives(CastleCluster cluster, CastleNode node,
+                                    Map<String, String> trees,
+                                    boolean fanOut) throws Exception {
+        Map<String, CompletableFuture<String>> holdings = fanOut ?
+            cluster.sourceFanOut().holdings(node.nodeName()) :
+            Collections.emptyMap();
+        String knownHosts = fanOut ? installRelayKeys(cluster, node) : null;
+        // A delta leaves the node without a full archive to relay, so a node
+        // with children gets the whole archive instead.  Relaying it once to
+        // this node is cheaper than uploading it to each of the children.
+        boolean useDeltas = !(fanOut && hasChildren(cluster, node));
+        Map<String, SourceArchive> archives = new LinkedHashMap<>();
+        Map<String, String> archiveHashes = new HashMap<>();
+        for (Map.Entry<String, String> entry : trees.entrySet()) {
+            SourceArchive archive = cluster.sourceArchiveCache().
+                get(entry.getKey(), cluster.clusterLog());
+            archives.put(entry.getValue(), archive);
+            archiveHashes.put(entry.getValue(), archive.hash());
+        }
+        // If the cluster file records that every directory is out of date,
+        // trust it, rather than asking the node.  Deltas check the hash on
+        // the node before they are applied, and full archives replace
+        // whatever is there.  A directory is only skipped if the node's
+        // own hash file says that it is up to date.
+        // The hashes of the kept archives are only read along with the
+        // directory hashes.  They only matter for directories which are
+        // already up to date, and those are always read from the node.
+        AwsNodeRole role = node.getRole(AwsNodeRole.class);
+        Map<String, String> remoteHashes = (role == null) ? null : role.sourceHashes();
+        Map<String, String> keptHashes = Collections.emptyMap();
+        if ((remoteHashes == null) || !remoteHashes.keySet().containsAll(trees.values()) ||
+                anyUpToDate(remoteHashes, archiveHashes)) {
+            List<String> remotes = new ArrayList<>(trees.values());
+            remoteHashes = readHashes(node, remotes, SourceSetupAction::hashPath);
+            if (fanOut) {
+                keptHashes = readHashes(node, remotes, SourceSetupAction::archiveHashPath);
+            }
+        }
+        for (Map.Entry<String, SourceArchive> entry : archives.entrySet()) {
+            String remote = entry.getKey();
+            SourceArchive archive = entry.getValue();
+            String remoteHash = remoteHashes.get(remote);
+            boolean relayable;
+            if (archive.hash().equals(remoteHash)) {
+                node.log().printf("*** %s already contains %s%n", remote, archive.hash());
+                relayable = archive.hash().equals(keptHashes.get(remote));
+            } else if (useDeltas &&
+                    sendDelta(cluster, node, remote, archive, remoteHash, fanOut)) {
+                relayable = false;
+            } else {
+                if (!(fanOut && relayFromParent(cluster, node, remote, archive, knownHosts))) {
+                    ActionScheduler.callWithPermit(ActionResourceClass.BULK_TRANSFER, () -> {
+                        node.uplink().command().
+                            args(unpackArchiveCommand(remote, archive.hash(), fanOut)).
+                            setStdinFile(archive.file().getAbsolutePath()).
+                            mustRun();
+                        return null;
+                    });
+                }
+                relayable = fanOut;
+            }
+            if (role != null) {
+                role.setSourceHash(remote, archive.hash());
+            }
+            CompletableFuture<String> holding = holdings.get(remote);
+            if (holding != null) {
+                if (relayable) {
+                    holding.complete(archive.hash());
+                } else {
+                    holding.completeExceptionally(new RuntimeException(node.nodeName() +
+                        " does not hold an archive of " + remote + " to relay."));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns true if the recorded hashes say that any remote directory
+     * already holds the current archive.
+     */
+    static boolean anyUpToDate(Map<String, String> recordedHashes,
+                               Map<String, String> archiveHashes) {
+        for (Map.Entry<String, String> entry : archiveHashes.entrySet()) {
+            if (entry.getValue().equals(recordedHashes.get(entry.getKey()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Bring a remote directory up to date by sending only the entries which
+     * changed since the version it holds.
+     *
+     * @return      True if the delta was applied.  False if we don't have a
+     *              delta for the version the node holds, or the node turned
+     *              out to hold a different version.
+     */
+    private static boolean sendDelta(CastleCluster cluster, CastleNode node, String remote,
+                                     SourceArchive archive, String remoteHash,
+                                     boolean keepArchive) throws Exception {
+        if ((remoteHash == null) || remoteHash.equals(NO_HASH)) {
+            return false;
+        }
+        SourceDelta delta = cluster.sourceArchiveCache().
+            delta(archive, remoteHash, cluster.clusterLog());
+        if (delta == null) {
+            return false;
+        }
+        node.log().printf("*** Sending delta from %s to %s for %s: %d deleted, %s%n",
+            remoteHash, archive.hash(), remote, delta.deleted().size(),
+            (delta.file() == null) ? "nothing changed" : (delta.file().length() + " bytes"));
+        if (!delta.deleted().isEmpty()) {
+            ByteArrayOutputStream deleted = new ByteArrayOutputStream();
+            for (String path : delta.deleted()) {
+                deleted.write(path.getBytes(StandardCharsets.UTF_8));
+                deleted.write(0);
+            }
+            int retCode = node.uplink().command().
+                args(deleteEntriesCommand(remote, remoteHash)).
+                setStdin(deleted.toByteArray()).
+                run();
+            if (retCode != 0) {
+                return false;
+            }
+        }
+        Command command = node.uplink().command().
+            args(applyDeltaCommand(remote, remoteHash, archive.hash(),
+                delta.file() != null, keepArchive));
+        if (delta.file() != null) {
+            command.setStdinFile(delta.file().getAbsolutePath());
+        }
+        return command.run() == 0;
+    }
+
+    /**
+     * Install the relay keys which this node needs.  A node with children
+     * gets the private key, so that it can relay archives to them.  A node
+     * with a parent gets the receive script, and authorizes the public key to
+     * run it from its parent's address.
+     *
+     * @return      The known_hosts lines which pin this node's host keys, for
+     *              its parent to use, or null if the node has no parent.
+     */
+    private static String installRelayKeys(CastleCluster cluster, CastleNode node)
+            throws Exception {
+        File privateKey = cluster.sourceFanOut().relayKey(cluster.clusterLog());
+        if (hasChildren(cluster, node)) {
             node.uplink().command().
-                    syncTo(cluster.conf().schemaRegistryPath() + "/", ActionPaths.SCHEMA_REGISTRY_SRC + "/").
-                    mustRun();
+                args("mkdir", "-p", ".ssh", "&&", "chmod", "700", ".ssh",
+                    "&&", "umask", "077", "&&", "cat", ">", ActionPaths.RELAY_KEY).
+                setStdin(Files.readAllBytes(privateKey.toPath())).
+                mustRun();
+        }
+        CastleNode parent = parentNode(cluster, node);
+        if (parent == null) {
+            return null;
         }
+        String publicKey = new String(Files.readAllBytes(
+            new File(privateKey.getAbsolutePath() + ".pub").toPath()), StandardCharsets.UTF_8).trim();
+        StringBuilder output = new StringBuilder();
         node.uplink().command().
-            syncTo(cluster.conf().castlePath() + "/", ActionPaths.CASTLE_SRC + "/").
+            args("bash", "-s").
+            setStdin(relaySetupScript(parent.uplink().internalDns(), publicKey,
+                HOST_KEY_FILES).getBytes(StandardCharsets.UTF_8)).
+            captureOutput(output).
             mustRun();
+        return knownHosts(node.nodeName(), output.toString());
+    }
+
+    /**
+     * Find the node with the given index.
+     *
+     * @return      The node, or null if there is none.
+     */
+    private static CastleNode nodeWithIndex(CastleCluster cluster, int nodeIndex) {
+        for (CastleNode candidate : cluster.nodes().values()) {
+            if (candidate.nodeIndex() == nodeIndex) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static CastleNode parentNode(CastleCluster cluster, CastleNode node) {
+        int parentIndex = SourceFanOut.parentIndex(node.nodeIndex());
+        return (parentIndex < 0) ? null : nodeWithIndex(cluster, parentIndex);
+    }
+
+    private static boolean hasChildren(CastleCluster cluster, CastleNode node) {
+        for (CastleNode candidate : cluster.nodes().values()) {
+            if (SourceFanOut.parentIndex(candidate.nodeIndex()) == node.nodeIndex()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a script which sets a node up to receive relayed archives.  It
+     * installs the receive script, replaces any old authorization of the
+     * relay key with one which only allows the parent's address to run the
+     * receive script, and prints the node's public host keys.
+     *
+     * @param parentDns     The internal DNS name of the parent node.
+     * @param publicKey     The public relay key.
+     * @param hostKeyFiles  A glob matching the node's public host key files.
+     */
+    static String relaySetupScript(String parentDns, String publicKey, String hostKeyFiles) {
+        String authorizedKeys = ".ssh/authorized_keys";
+        return String.join("\n",
+            "set -e",
+            "mkdir -p .ssh",
+            "chmod 700 .ssh",
+            "umask 077",
+            "cat > " + ActionPaths.RELAY_RECEIVE_SCRIPT + " <<'CASTLE_EOF'",
+            relayReceiveScript(),
+            "CASTLE_EOF",
+            "chmod 700 " + ActionPaths.RELAY_RECEIVE_SCRIPT,
+            "ip=$(getent ahostsv4 '" + parentDns + "' | head -n 1 | cut -d ' ' -f 1)",
+            "if [ -z \"$ip\" ]; then",
+            "    echo \"Unable to resolve " + parentDns + "\" >&2",
+            "    exit 1",
+            "fi",
+            "touch " + authorizedKeys,
+            "grep -vF '" + SourceFanOut.RELAY_KEY_COMMENT + "' " + authorizedKeys + " > " +
+                authorizedKeys + ".tmp || true",
+            "echo \"from=\\\"$ip\\\",command=\\\"$HOME/" + ActionPaths.RELAY_RECEIVE_SCRIPT +
+                "\\\"," + RELAY_KEY_OPTIONS + " " + publicKey + "\" >> " + authorizedKeys + ".tmp",
+            "mv " + authorizedKeys + ".tmp " + authorizedKeys,
+            "cat " + hostKeyFiles + " 2>/dev/null || true",
+            "");
+    }
+
+    /**
+     * Returns the script which the relay key is restricted to.  It reads the
+     * directory and hash from the command which the parent asked to run, and
+     * only unpacks archives into the source directories.
+     */
+    static String relayReceiveScript() {
+        List<String> lines = new ArrayList<>(Arrays.asList(
+            "#!/usr/bin/env bash",
+            "set -e -f",
+            "set -- $SSH_ORIGINAL_COMMAND",
+            "if [ $# -ne 2 ] || ! [[ \"$2\" =~ ^[0-9a-f]+$ ]]; then",
+            "    echo \"Invalid relay command: $SSH_ORIGINAL_COMMAND\" >&2",
+            "    exit 1",
+            "fi",
+            "case \"$1\" in"));
+        for (String remote : Arrays.asList(ActionPaths.KAFKA_SRC,
+                ActionPaths.SCHEMA_REGISTRY_SRC, ActionPaths.CASTLE_SRC)) {
+            lines.add("    " + remote + ")");
+            lines.add("        " + CastleUtil.join(
+                Arrays.asList(unpackArchiveCommand(remote, "$2", true)), " "));
+            lines.add("        ;;");
+        }
+        lines.addAll(Arrays.asList(
+            "    *)",
+            "        echo \"Invalid relay directory: $1\" >&2",
+            "        exit 1",
+            "        ;;",
+            "esac"));
+        return String.join("\n", lines);
+    }
+
+    /**
+     * Turn a node's public host keys into known_hosts lines, under the alias
+     * which its parent uses for it.
+     *
+     * @return      The lines, or an empty string if there were no keys.
+     */
+    static String knownHosts(String nodeName, String hostKeys) {
+        StringBuilder bld = new StringBuilder();
+        for (String line : hostKeys.split("\n")) {
+            String[] fields = line.trim().split("\\s+");
+            if ((fields.length >= 2) && !fields[0].startsWith("#")) {
+                bld.append(relayHostAlias(nodeName)).append(' ').
+                    append(fields[0]).append(' ').append(fields[1]).append('\n');
+            }
+        }
+        return bld.toString();
+    }
+
+    private static String relayHostAlias(String nodeName) {
+        return "castle-relay-" + nodeName;
+    }
+
+    /**
+     * Have this node's parent in the fan-out tree send it an archive.
+     *
+     * @param knownHosts    The known_hosts lines for this node.
+     *
+     * @return      True if the archive was relayed.  False if the node should
+     *              get the archive directly from the castle host instead.
+     */
+    private static boolean relayFromParent(CastleCluster cluster, CastleNode node,
+                                           String remote, SourceArchive archive,
+                                           String knownHosts) throws Exception {
+        int parentIndex = SourceFanOut.parentIndex(node.nodeIndex());
+        if (parentIndex < 0) {
+            return false;
+        }
+        CastleNode parent = nodeWithIndex(cluster, parentIndex);
+        CompletableFuture<String> holding = (parent == null) ? null :
+            cluster.sourceFanOut().holding(parent.nodeName(), remote);
+        if (holding == null) {
+            node.log().printf("*** Node %d is not running %s.  Getting %s directly.%n",
+                parentIndex, TYPE, remote);
+            return false;
+        }
+        if ((knownHosts == null) || knownHosts.isEmpty()) {
+            node.log().printf("*** Unable to read the host keys of %s.  Getting %s directly.%n",
+                node.nodeName(), remote);
+            return false;
+        }
+        String parentHash;
+        try {
+            parentHash = holding.get(cluster.conf().globalTimeout(), TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            node.log().printf("*** %s could not supply %s.  Getting it directly.%n",
+                parent.nodeName(), remote);
+            return false;
+        }
+        if (!parentHash.equals(archive.hash())) {
+            node.log().printf("*** %s has a different version of %s.  Getting it directly.%n",
+                parent.nodeName(), remote);
+            return false;
+        }
+        node.log().printf("*** Relaying %s from %s%n", remote, parent.nodeName());
+        int retCode = parent.uplink().command().
+            args(relayCommand(node.uplink().sshUser(), node.uplink().internalDns(),
+                node.nodeName(), remote, archive.hash())).
+            setStdin(knownHosts.getBytes(StandardCharsets.UTF_8)).
+            run();
+        if (retCode != 0) {
+            node.log().printf("*** Relaying %s from %s failed with exit status %d.  " +
+                "Getting it directly.%n", remote, parent.nodeName(), retCode);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Read a hash file for each remote directory, in a single round trip.
+     *
+     * @param hashPath      Maps a remote directory to the path of its hash file.
+     * @return              A map from remote directories to hashes.  The hash
+     *                      is NO_HASH if the file doesn't exist.
+     */
+    private static Map<String, String> readHashes(CastleNode node, List<String> remotes,
+                                                  Function<String, String> hashPath)
+            throws Exception {
+        List<String> hashFiles = new ArrayList<>();
+        for (String remote : remotes) {
+            hashFiles.add(hashPath.apply(remote));
+        }
+        StringBuilder output = new StringBuilder();
+        node.uplink().command().args(readHashesCommand(hashFiles)).
+            captureOutput(output).mustRun();
+        String[] lines = output.toString().split("\n");
+        Map<String, String> hashes = new HashMap<>();
+        for (int i = 0; i < remotes.size() && i < lines.length; i++) {
+            hashes.put(remotes.get(i), lines[i].trim());
+        }
+        return hashes;
+    }
+
+    static String[] readHashesCommand(List<String> hashFiles) {
+        List<String> args = new ArrayList<>();
+        for (String hashFile : hashFiles) {
+            if (!args.isEmpty()) {
+                args.add(";");
+            }
+            args.add("cat");
+            args.add(hashFile);
+            args.add("2>/dev/null");
+            args.add("||");
+            args.add("echo");
+            args.add(NO_HASH);
+        }
+        return args.toArray(new String[0]);
+    }
+
+    /**
+     * Returns a command which replaces the contents of a remote directory
+     * with an archive read from stdin, and records the archive's hash.
+     *
+     * @param keepArchive   If true, a copy of the archive is kept in
+     *                      SOURCE_ARCHIVES, along with its hash, so that it
+     *                      can be relayed to other nodes.
+     */
+    static String[] unpackArchiveCommand(String remote, String hash, boolean keepArchive) {
+        List<String> args = new ArrayList<>(Arrays.asList(
+            "find", remote, "-mindepth", "1", "-delete", "&&"));
+        if (keepArchive) {
+            String archive = archivePath(remote);
+            args.addAll(Arrays.asList("rm", "-f", archiveHashPath(remote), "&&",
+                "tee", archive + ".tmp", "|",
+                "tar", "-xzf", "-", "-C", remote,
+                "&&", "mv", archive + ".tmp", archive,
+                "&&", "echo", hash, ">", archiveHashPath(remote)));
+        } else {
+            args.addAll(Arrays.asList("tar", "-xzf", "-", "-C", remote));
+        }
+        args.addAll(Arrays.asList("&&", "echo", hash, ">", hashPath(remote)));
+        return args.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the arguments of a test which succeeds only if a remote
+     * directory holds the tree with the given hash.
+     */
+    private static List<String> checkHash(String remote, String hash) {
+        return Arrays.asList("[", "\"$(cat " + hashPath(remote) + " 2>/dev/null)\"",
+            "=", hash, "]");
+    }
+
+    /**
+     * Returns a command which removes the NUL-separated paths read from stdin
+     * from a remote directory, if it holds the expected tree.
+     */
+    static String[] deleteEntriesCommand(String remote, String fromHash) {
+        List<String> args = new ArrayList<>(checkHash(remote, fromHash));
+        args.addAll(Arrays.asList("&&", "cd", remote, "&&", "xargs", "-0", "rm", "-rf", "--"));
+        return args.toArray(new String[0]);
+    }
+
+    /**
+     * Returns a command which unpacks a delta read from stdin into a remote
+     * directory, if it holds the expected tree, and records the new hash.
+     *
+     * @param hasArchive    False if the delta only deletes entries, so there
+     *                      is nothing to unpack.
+     * @param keepArchive   True if the node keeps a copy of the full archive
+     *                      for relaying.  The copy is out of date after the
+     *                      delta, so it is removed.
+     */
+    static String[] applyDeltaCommand(String remote, String fromHash, String toHash,
+                                      boolean hasArchive, boolean keepArchive) {
+        List<String> args = new ArrayList<>(checkHash(remote, fromHash));
+        if (hasArchive) {
+            args.addAll(Arrays.asList("&&", "tar", "-xzf", "-", "-C", remote));
+        }
+        if (keepArchive) {
+            args.addAll(Arrays.asList("&&", "rm", "-f",
+                archivePath(remote), archiveHashPath(remote)));
+        }
+        args.addAll(Arrays.asList("&&", "echo", toHash, ">", hashPath(remote)));
+        return args.toArray(new String[0]);
+    }
+
+    /**
+     * Returns a command which sends the archive of a remote directory to
+     * another node, using the relay key.  The target's known_hosts lines are
+     * read from stdin, and its host key must match one of them.  The target
+     * only lets the relay key run the receive script, which gets the
+     * directory and hash from the command line.
+     */
+    static String[] relayCommand(String targetUser, String targetDns, String targetName,
+                                 String remote, String hash) {
+        String knownHostsFile = ActionPaths.RELAY_KNOWN_HOSTS_PREFIX + targetName;
+        return new String[] {"cat", ">", knownHostsFile, "&&",
+            "ssh", "-i", ActionPaths.RELAY_KEY,
+            "-o", "BatchMode=yes",
+            "-o", "StrictHostKeyChecking=yes",
+            "-o", "UserKnownHostsFile=" + knownHostsFile,
+            "-o", "HostKeyAlias=" + relayHostAlias(targetName),
+            "-o", "LogLevel=ERROR",
+            targetUser + "@" + targetDns,
+            remote, hash,
+            "<", archivePath(remote)};
+    }
+
+    /**
+     * Returns the path where a node keeps a copy of the archive of a remote
+     * directory.  For example, the archive of /mnt/kafka/src is kept in
+     * kafka.tar.gz.
+     */
+    static String archivePath(String remote) {
+        return ActionPaths.SOURCE_ARCHIVES + "/" +
+            new File(remote).getParentFile().getName() + ".tar.gz";
+    }
+
+    /**
+     * Returns the path of the file which holds the hash of the kept archive
+     * of a remote directory.
+     */
+    static String archiveHashPath(String remote) {
+        return archivePath(remote) + ".hash";
+    }
+
+    /**
+     * Returns the path of the file which holds the hash of the archive which
+     * a remote directory was last unpacked from.
+     */
+    static String hashPath(String remote) {
+        return remote + "/" + SOURCE_HASH_FILE;
     }
 
     public static String[] setupDirectoriesCommand() {
         return new String[] {"sudo", "mkdir", "-p",
-            ActionPaths.KAFKA_SRC, ActionPaths.SCHEMA_REGISTRY_SRC, ActionPaths.CASTLE_SRC, ActionPaths.LOGS_ROOT,
+            ActionPaths.KAFKA_SRC, ActionPaths.SCHEMA_REGISTRY_SRC, ActionPaths.CASTLE_SRC,
+            ActionPaths.SOURCE_ARCHIVES, ActionPaths.LOGS_ROOT,
             "&&", "sudo", "chown", "-R", "`whoami`",
-            ActionPaths.KAFKA_SRC, ActionPaths.SCHEMA_REGISTRY_SRC, ActionPaths.CASTLE_SRC, ActionPaths.LOGS_ROOT};
+            ActionPaths.KAFKA_SRC, ActionPaths.SCHEMA_REGISTRY_SRC, ActionPaths.CASTLE_SRC,
+            ActionPaths.SOURCE_ARCHIVES, ActionPaths.LOGS_ROOT};
     }
 }
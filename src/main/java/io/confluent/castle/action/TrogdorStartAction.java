@@ -19,18 +19,20 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.CommandBatch;
 import io.confluent.castle.common.CastleUtil;
+import io.confluent.castle.readiness.ReadinessCondition;
+import io.confluent.castle.readiness.ReadinessProbe;
+import io.confluent.castle.readiness.ReadinessWatcher;
 import io.confluent.castle.role.TrogdorAgentRole;
 import io.confluent.castle.role.TrogdorCoordinatorRole;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
 
 import static io.confluent.castle.action.ActionPaths.TROGDOR_START_SCRIPT;
 
@@ -39,8 +41,13 @@ public class TrogdorStartAction extends Action  {
 
     private final List<String> log4j;
 
+    private final List<ReadinessProbe> readinessProbes;
+
+    private final int readinessTimeoutMs;
+
     public TrogdorStartAction(TrogdorDaemonType daemonType,
-            String scope, int initialDelayMs, List<String> log4j) {
+            String scope, int initialDelayMs, List<String> log4j,
+            List<ReadinessProbe> readinessProbes, int readinessTimeoutMs) {
         super(new ActionId(daemonType.startType(), scope),
                 new TargetId[]{
                     // We need all nodes to be brought up before we can run this, so that
@@ -51,33 +58,23 @@ public class TrogdorStartAction extends Action  {
                 initialDelayMs);
         this.daemonType = daemonType;
         this.log4j = log4j;
+        this.readinessProbes = readinessProbes;
+        this.readinessTimeoutMs = readinessTimeoutMs;
     }
 
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
-        File configFile = null, log4jFile = null;
-        try {
-            configFile = writeTrogdorConfig(cluster, node);
-            log4jFile = writeTrogdorLog4j(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, daemonType.className(), false);
-            node.uplink().command().args(createSetupPathsCommandLine(daemonType)).mustRun();
-            node.uplink().command().syncTo(configFile.getAbsolutePath(),
-                daemonType.propertiesPath()).mustRun();
-            node.uplink().command().syncTo(log4jFile.getAbsolutePath(),
-                daemonType.log4jConfPath()).mustRun();
-            node.uplink().command().args(
-                runDaemonCommandLine(daemonType, node.nodeName())).mustRun();
-        } finally {
-            CastleUtil.deleteFileOrLog(node.log(), configFile);
-            CastleUtil.deleteFileOrLog(node.log(), log4jFile);
-        }
-        CastleUtil.waitFor(5, 30000, new Callable<Boolean>() {
-            @Override
-            public Boolean call() throws Exception {
-                return 0 == node.uplink().command().args(
-                    CastleUtil.checkJavaProcessStatusArgs(daemonType.className())).run();
-            }
-        });
+        new CommandBatch(node).
+            addStepList(CastleUtil.killJavaProcessArgs(daemonType.className(), false)).
+            addStep(createSetupPathsCommandLine(daemonType)).
+            addFile(daemonType.propertiesPath(), writeTrogdorConfig(cluster, node)).
+            addFile(daemonType.log4jConfPath(), writeTrogdorLog4j(cluster, node)).
+            addStep(runDaemonCommandLine(daemonType, node.nodeName())).
+            mustRun();
+        new ReadinessWatcher(node).
+            addCondition(ReadinessCondition.javaProcess(daemonType.className())).
+            addProbes(readinessProbes).
+            await(readinessTimeoutMs);
     }
 
     public static String[] createSetupPathsCommandLine(TrogdorDaemonType daemonType) {
@@ -100,16 +97,9 @@ public class TrogdorStartAction extends Action  {
         };
     }
 
-    private File writeTrogdorConfig(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(),
-                String.format("trogdor-%s-%d.conf", daemonType.name(), node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
+    private byte[] writeTrogdorConfig(CastleCluster cluster, CastleNode node) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (OutputStreamWriter osw = new OutputStreamWriter(stream, StandardCharsets.UTF_8)) {
             osw.write(String.format("{%n"));
             osw.write(String.format("  \"platform\": \"org.apache.kafka.trogdor.basic.BasicPlatform\",%n"));
             osw.write(String.format("  \"nodes\": {%n"));
@@ -139,30 +129,13 @@ public class TrogdorStartAction extends Action  {
             osw.write(String.format("%n"));
             osw.write(String.format("  }%n"));
             osw.write(String.format("}%n"));
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(), osw,
-                "temporary trogdor agent file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(), fos,
-                "temporary trogdor agent file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
         }
+        return stream.toByteArray();
     }
 
-    private File writeTrogdorLog4j(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(),
-                String.format("trogdor-%s-log4j-%d.properties",
-                    daemonType.name(), node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
+    private byte[] writeTrogdorLog4j(CastleCluster cluster, CastleNode node) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (OutputStreamWriter osw = new OutputStreamWriter(stream, StandardCharsets.UTF_8)) {
             osw.write(String.format("log4j.rootLogger=WARN, kafkaAppender%n"));
             osw.write(String.format("log4j.appender.kafkaAppender=org.apache.log4j.DailyRollingFileAppender%n"));
             osw.write(String.format("log4j.appender.kafkaAppender.DatePattern='.'yyyy-MM-dd-HH%n"));
@@ -174,16 +147,7 @@ public class TrogdorStartAction extends Action  {
             for (String line : log4j) {
                 osw.write(line + String.format("%n"));
             }
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(), osw,
-                "temporary broker file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(), fos,
-                "temporary broker file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
         }
+        return stream.toByteArray();
     }
 };
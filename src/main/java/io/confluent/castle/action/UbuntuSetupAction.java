@@ -18,11 +18,20 @@
 package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterConf;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.role.UbuntuNodeRole;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Install some necessary components on Ubuntu.
+ *
+ * If setupImageCache is enabled, the first node which is set up is saved as
+ * an image, keyed by the packages which were installed.  Later nodes are
+ * started from that image, and skip the setup.
  */
 public final class UbuntuSetupAction extends Action {
     public final static String TYPE = "ubuntuSetup";
@@ -43,22 +52,81 @@ public final class UbuntuSetupAction extends Action {
 
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+        String imageKey = role.imageKey();
+        if (canSkipSetup(cluster.conf(), role)) {
+            node.log().printf("*** %s: Skipping UbuntuSetup, because the node was " +
+                "started from an image with setup key %s.%n", node.nodeName(), imageKey);
+            return;
+        }
         node.log().printf("*** %s: Beginning UbuntuSetup...%n", node.nodeName());
+        List<String> args = new ArrayList<>(Arrays.asList("-n", "--",
+            "export", "DEBIAN_FRONTEND=noninteractive", "&&",
+            "sudo", "-E", "dpkg", "--configure", "-a", "&&",
+            "sudo", "-E", "apt-get", "update", "-y", "&&",
+            "sudo", "-E", "apt-get", "upgrade", "-y", "&&",
+            "sudo", "-E", "apt-get", "install", "--option", "\"Dpkg::Options::=--force-confold\"", "-y"));
+        args.addAll(UbuntuNodeRole.PACKAGES);
+        args.add(role.jdkPackage());
         for (int tries = 0; tries < MAX_TRIES; tries++) {
-            int result = node.uplink().command().args("-n", "--",
-                "export", "DEBIAN_FRONTEND=noninteractive", "&&",
-                "sudo", "-E", "dpkg", "--configure", "-a", "&&",
-                "sudo", "-E", "apt-get", "update", "-y", "&&",
-                "sudo", "-E", "apt-get", "upgrade", "-y", "&&",
-                "sudo", "-E", "apt-get", "install", "--option", "\"Dpkg::Options::=--force-confold\"", "-y",
-                    "iptables", "rsync", "wget", "curl", "collectd-core",
-                    "coreutils", "cmake", "pkg-config", "libfuse-dev", role.jdkPackage()).run();
+            int result = node.uplink().command().args(args.toArray(new String[0])).run();
             if (result == 0) {
                 node.log().printf("*** %s: Finished UbuntuSetup.%n", node.nodeName());
+                if (cluster.conf().setupImageCache()) {
+                    role.setSetupKey(imageKey);
+                    saveImage(node, imageKey);
+                }
                 return;
             }
             Thread.sleep(APT_GET_RETRY_PERIOD);
         }
         throw new RuntimeException("Failed to setup Ubuntu after " + MAX_TRIES + " tries.");
     }
+
+    /**
+     * Return true if the setup can be skipped, because setupImageCache is
+     * enabled and the node was started from an image which was already set up.
+     */
+    static boolean canSkipSetup(CastleClusterConf conf, UbuntuNodeRole role) {
+        return conf.setupImageCache() && role.setupKey().equals(role.imageKey());
+    }
+
+    private static void saveImage(CastleNode node, String imageKey) {
+        try {
+            node.uplink().saveImage(imageKey);
+        } catch (Exception e) {
+            // The node is set up, so this run can carry on without the image.
+            node.log().printf("*** %s: Failed to save an image with setup key %s: %s%n",
+                node.nodeName(), imageKey, e.getMessage());
+        }
+    }
+
+    /**
+     * Find an image which a node can be started from, instead of being set
+     * up from scratch.  This also updates the node's setup key, so that the
+     * setup is skipped if, and only if, the image is used.
+     *
+     * @return      The image ID, or null if the node should be started from
+     *              its usual image.
+     */
+    public static String startupImage(CastleCluster cluster, CastleNode node) throws Exception {
+        UbuntuNodeRole role = node.getRole(UbuntuNodeRole.class);
+        if (role == null) {
+            return null;
+        }
+        role.setSetupKey("");
+        if (!cluster.conf().setupImageCache()) {
+            return null;
+        }
+        String imageKey = role.imageKey();
+        String imageId = node.uplink().findImage(imageKey);
+        if (imageId == null) {
+            node.log().printf("*** %s: No image found with setup key %s.%n",
+                node.nodeName(), imageKey);
+            return null;
+        }
+        node.log().printf("*** %s: Using image %s with setup key %s.%n",
+            node.nodeName(), imageId, imageKey);
+        role.setSetupKey(imageKey);
+        return imageId;
+    }
 };
@@ -37,6 +37,11 @@ public final class UpAction extends Action {
             0);
     }
 
+    @Override
+    public ActionResourceClass resourceClass() {
+        return ActionResourceClass.LOCAL;
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
     }
@@ -19,16 +19,17 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.CommandBatch;
 import io.confluent.castle.common.CastleUtil;
+import io.confluent.castle.readiness.ReadinessCondition;
+import io.confluent.castle.readiness.ReadinessWatcher;
 import io.confluent.castle.role.ZooKeeperRole;
 
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
-import java.util.concurrent.Callable;
 import java.util.stream.Collectors;
 
 import static io.confluent.castle.action.ActionPaths.ZK_CONF;
@@ -39,6 +40,8 @@ import static io.confluent.castle.action.ActionPaths.ZK_ROOT;
 public class ZooKeeperStartAction extends Action  {
     public final static String TYPE = "zooKeeperStart";
 
+    private final ZooKeeperRole role;
+
     public ZooKeeperStartAction(String scope, ZooKeeperRole role) {
         super(new ActionId(TYPE, scope),
             new TargetId[]{
@@ -48,36 +51,23 @@ public class ZooKeeperStartAction extends Action  {
             },
             new String[] {},
             role.initialDelayMs());
+        this.role = role;
     }
 
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
-        File configFile = null, log4jFile = null, myidFile = null;
-        try {
-            configFile = writeZooKeeperConfig(cluster, node);
-            log4jFile = writeZooKeeperLog4j(cluster, node);
-            myidFile = writeMyID(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, ZooKeeperRole.ZOOKEEPER_CLASS_NAME, false);
-            node.uplink().command().args(createSetupPathsCommandLine()).mustRun();
-            node.uplink().command().syncTo(configFile.getAbsolutePath(),
-                ActionPaths.ZK_PROPERTIES).mustRun();
-            node.uplink().command().syncTo(log4jFile.getAbsolutePath(),
-                ActionPaths.ZK_LOG4J).mustRun();
-            node.uplink().command().syncTo(myidFile.getAbsolutePath(),
-                ActionPaths.ZK_MYID).mustRun();
-            node.uplink().command().args(createRunDaemonCommandLine()).mustRun();
-        } finally {
-            CastleUtil.deleteFileOrLog(node.log(), configFile);
-            CastleUtil.deleteFileOrLog(node.log(), log4jFile);
-            CastleUtil.deleteFileOrLog(node.log(), myidFile);
-        }
-        CastleUtil.waitFor(5, 30000, new Callable<Boolean>() {
-            @Override
-            public Boolean call() throws Exception {
-                return 0 == node.uplink().command().args(
-                    CastleUtil.checkJavaProcessStatusArgs(ZooKeeperRole.ZOOKEEPER_CLASS_NAME)).run();
-            }
-        });
+        new CommandBatch(node).
+            addStepList(CastleUtil.killJavaProcessArgs(ZooKeeperRole.ZOOKEEPER_CLASS_NAME, false)).
+            addStep(createSetupPathsCommandLine()).
+            addFile(ActionPaths.ZK_PROPERTIES, writeZooKeeperConfig(cluster, node)).
+            addFile(ActionPaths.ZK_LOG4J, writeZooKeeperLog4j(cluster, node)).
+            addFile(ActionPaths.ZK_MYID, writeMyID(cluster, node)).
+            addStep(createRunDaemonCommandLine()).
+            mustRun();
+        new ReadinessWatcher(node).
+            addCondition(ReadinessCondition.javaProcess(ZooKeeperRole.ZOOKEEPER_CLASS_NAME)).
+            addProbes(role.readinessProbes()).
+            await(role.readinessTimeoutMs());
     }
 
     public static String[] createSetupPathsCommandLine() {
@@ -97,20 +87,13 @@ public class ZooKeeperStartAction extends Action  {
             ">" + ActionPaths.ZK_LOGS + "/stdout-stderr.txt", "2>&1", "</dev/null", "&"};
     }
 
-    private File writeZooKeeperConfig(CastleCluster cluster, CastleNode node) throws IOException {
+    private byte[] writeZooKeeperConfig(CastleCluster cluster, CastleNode node) throws IOException {
         ZooKeeperRole role = node.getRole(ZooKeeperRole.class);
         if (role == null) {
             throw new RuntimeException("Expected the ZK node to have the ZooKeeperRole");
         }
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(),
-                String.format("zookeeper-%d.properties", node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (OutputStreamWriter osw = new OutputStreamWriter(stream, StandardCharsets.UTF_8)) {
             if (role.getTickTimeMs() != 0) {
                 osw.write(String.format("tickTime=%d%n", role.getTickTimeMs()));
             }
@@ -121,24 +104,15 @@ public class ZooKeeperStartAction extends Action  {
                 osw.write(String.format("syncLimit=%d%n", role.getSyncLimit()));
             }
             osw.write(String.format("dataDir=%s%n", ZK_OPLOGS));
-            osw.write(String.format("clientPort=2181%n"));
+            osw.write(String.format("clientPort=%d%n", ZooKeeperRole.PORT));
             osw.write(String.format("maxClientCnxns=0%n"));
             for (String nodeName : cluster.nodesWithRole(ZooKeeperRole.class).values()) {
                 int serverIdx = getServerIdx(cluster, nodeName);
                 osw.write(String.format("server.%d=%s:2888:3888%n", serverIdx,
                     cluster.nodes().get(nodeName).uplink().internalDns()));
             }
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                osw, "temporary ZooKeeper config file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                fos, "temporary ZooKeeper config file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
         }
+        return stream.toByteArray();
     }
 
     private int getServerIdx(CastleCluster cluster, String nodeName) {
@@ -156,40 +130,18 @@ public class ZooKeeperStartAction extends Action  {
         throw new IllegalStateException("Did not find ZK node with name " + nodeName + " in cluster");
     }
 
-    private File writeMyID(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
+    private byte[] writeMyID(CastleCluster cluster, CastleNode node) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (OutputStreamWriter osw = new OutputStreamWriter(stream, StandardCharsets.UTF_8)) {
             int serverIdx = getServerIdx(cluster, node.nodeName());
-            file = new File(cluster.env().workingDirectory(), String.format("tmp-myid-%d", serverIdx));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
             osw.write(String.format("%d", serverIdx));
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                    osw, "temporary myid file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                    fos, "temporary myid file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
         }
+        return stream.toByteArray();
     }
 
-    static File writeZooKeeperLog4j(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(),
-                String.format("zookeeper-log4j-%d.properties", node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
+    static byte[] writeZooKeeperLog4j(CastleCluster cluster, CastleNode node) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (OutputStreamWriter osw = new OutputStreamWriter(stream, StandardCharsets.UTF_8)) {
             osw.write(String.format("log4j.rootLogger=INFO, kafkaAppender%n"));
             osw.write(String.format("log4j.appender.kafkaAppender=org.apache.log4j.DailyRollingFileAppender%n"));
             osw.write(String.format("log4j.appender.kafkaAppender.DatePattern='.'yyyy-MM-dd-HH%n"));
@@ -199,16 +151,7 @@ public class ZooKeeperStartAction extends Action  {
                 "[%d] %p %m (%c)%n"));
             osw.write(String.format("log4j.logger.org.I0Itec.zkclient.ZkClient=INFO%n"));
             osw.write(String.format("log4j.logger.org.apache.zookeeper=INFO%n"));
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                osw, "temporary broker file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                fos, "temporary broker file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
         }
+        return stream.toByteArray();
     }
 };
@@ -31,6 +31,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
@@ -42,13 +43,44 @@ import java.util.concurrent.Future;
 public final class DockerCloud implements AutoCloseable {
     private final static String NETWORK = "ducknet";
 
+    /**
+     * The repository which saved images are committed to.
+     */
+    private final static String IMAGE_REPOSITORY = "castle-setup";
+
+    /**
+     * The label which holds the key an image was saved with.
+     */
+    private final static String SETUP_KEY_LABEL = "castle.setupKey";
+
+    /**
+     * The label which holds the image that an image's container was started
+     * from.
+     */
+    private final static String BASE_IMAGE_LABEL = "castle.baseImage";
+
+    /**
+     * The docker executable.
+     */
+    private final String docker;
+
     private final ExecutorService executorService;
 
+    /**
+     * The keys and base images of the images we have saved in this run.
+     */
+    private final Set<String> savedImages = new HashSet<>();
+
     private Future<Void> networkCheckFuture;
 
     private boolean shutdownAllInvoked = false;
 
     public DockerCloud() {
+        this("docker");
+    }
+
+    DockerCloud(String docker) {
+        this.docker = docker;
         this.executorService = Executors.newSingleThreadScheduledExecutor(
             CastleUtil.createThreadFactory("DockerCloudThread", false));
         this.networkCheckFuture = null;
@@ -72,11 +104,11 @@ public final class DockerCloud implements AutoCloseable {
         return networkCheckFuture;
     }
 
-    public String startup(CastleCluster cluster, CastleNode node,
-                          DockerNodeRole role, String containerName) throws Exception {
+    public String startup(CastleCluster cluster, CastleNode node, DockerNodeRole role,
+                          String containerName, String imageId) throws Exception {
         getNetworkCheckFuture(node).get();
         List<String> run = new ArrayList<>();
-        run.addAll(Arrays.asList(new String[] {"docker", "run", "-d",
+        run.addAll(Arrays.asList(new String[] {docker, "run", "-d",
             "--privileged", "--memory=3G", "--memory-swappiness=1",
             "--name", containerName, "-h", containerName,
             "--network=" + NETWORK,
@@ -108,7 +140,7 @@ public final class DockerCloud implements AutoCloseable {
             run.add(String.format("%s:%s", logDir.toString(), ActionPaths.LOGS_ROOT));
         }
         run.add("--");
-        run.add(role.imageId());
+        run.add(imageId);
         StringBuilder stringBuilder = new StringBuilder();
         new NodeShellRunner(node, run).
             setCaptureOutput(stringBuilder).
@@ -123,11 +155,11 @@ public final class DockerCloud implements AutoCloseable {
     public int getDockerPort(CastleCluster cluster, CastleNode node,
                              String containerName) throws Exception {
         getNetworkCheckFuture(node).get();
-        List<String> docker = new ArrayList<>();
-        docker.addAll(Arrays.asList(new String[]{"docker", "port"}));
-        docker.add(containerName);
+        List<String> dockerPort = new ArrayList<>();
+        dockerPort.addAll(Arrays.asList(new String[]{docker, "port"}));
+        dockerPort.add(containerName);
         StringBuilder stringBuilder = new StringBuilder();
-        new NodeShellRunner(node, docker).
+        new NodeShellRunner(node, dockerPort).
             setCaptureOutput(stringBuilder).
             setCaptureStderr(false).
             mustRun();
@@ -153,7 +185,7 @@ public final class DockerCloud implements AutoCloseable {
                                  String containerName, String dockerUser) throws Exception {
         getNetworkCheckFuture(node).get();
         List<String> run = new ArrayList<>();
-        run.add("docker");
+        run.add(docker);
         run.add("exec");
         if (!dockerUser.isEmpty()) {
             run.add("--user");
@@ -194,7 +226,7 @@ public final class DockerCloud implements AutoCloseable {
         getNetworkCheckFuture(node).get();
         StringBuilder stringBuilder = new StringBuilder();
         new NodeShellRunner(node,
-            Arrays.asList(new String[] { "docker", "ps", "-a", "--no-trunc",
+            Arrays.asList(new String[] { docker, "ps", "-a", "--no-trunc",
                 "-f=network=" + NETWORK, "-q", "--format", "{{.Names}}"})).
             setCaptureOutput(stringBuilder).
             setCaptureStderr(false).
@@ -208,6 +240,55 @@ public final class DockerCloud implements AutoCloseable {
         return containers;
     }
 
+    /**
+     * Find the newest image which was saved with the given key, from a
+     * container started from the given base image.
+     *
+     * @return          The image ID, or null if there is no such image.
+     */
+    public String findImage(CastleNode node, String key, String baseImageId) throws Exception {
+        StringBuilder stringBuilder = new StringBuilder();
+        new NodeShellRunner(node, Arrays.asList(new String[] {
+                docker, "images", "-q", "--no-trunc",
+                "--filter", "label=" + SETUP_KEY_LABEL + "=" + key,
+                "--filter", "label=" + BASE_IMAGE_LABEL + "=" + baseImageId})).
+            setCaptureOutput(stringBuilder).
+            setCaptureStderr(false).
+            mustRun();
+        // The newest image is listed first.
+        for (String line : stringBuilder.toString().trim().split(System.lineSeparator())) {
+            if (!line.isEmpty()) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Save a container as an image.
+     *
+     * @return          The name of the new image, or null if an image with the
+     *                  same key and base image was already saved by this
+     *                  DockerCloud.
+     */
+    public String saveImage(CastleNode node, String containerName, String key,
+                            String baseImageId) throws Exception {
+        synchronized (this) {
+            if (!savedImages.add(key + "/" + baseImageId)) {
+                return null;
+            }
+        }
+        String imageName = String.format("%s:%s-%s", IMAGE_REPOSITORY, key,
+            CastleUtil.sha256Hex(baseImageId).substring(0, 8));
+        new NodeShellRunner(node, Arrays.asList(new String[] {
+                docker, "commit",
+                "--change", "LABEL " + SETUP_KEY_LABEL + "=" + key,
+                "--change", "LABEL " + BASE_IMAGE_LABEL + "=" + baseImageId,
+                containerName, imageName})).
+            mustRun();
+        return imageName;
+    }
+
     public static void cleanupNetwork(CastleNode node) throws Exception {
         List<String> rmNet = Arrays.asList(new String[] {"docker", "network", "rm", NETWORK});
         new NodeShellRunner(node, rmNet).run();
@@ -251,11 +332,11 @@ public final class DockerCloud implements AutoCloseable {
     }
 
     public void shutdown(CastleNode node, String containerName) throws Exception {
-        List<String> kill = Arrays.asList(new String[] {"docker", "kill", containerName});
+        List<String> kill = Arrays.asList(new String[] {docker, "kill", containerName});
         new NodeShellRunner(node, kill).run();
-        List<String> rm = Arrays.asList(new String[] {"docker", "rm", containerName});
+        List<String> rm = Arrays.asList(new String[] {docker, "rm", containerName});
         new NodeShellRunner(node, rm).run();
-        List<String> rmNet = Arrays.asList(new String[] {"docker", "network", "rm", NETWORK});
+        List<String> rmNet = Arrays.asList(new String[] {docker, "network", "rm", NETWORK});
         new NodeShellRunner(node, rmNet).run();
     }
 
@@ -276,10 +357,10 @@ public final class DockerCloud implements AutoCloseable {
             CastleLog.printToAll(String.format("*** %s: Removing docker container(s): %s.%n",
                 node.nodeName(), String.join(", ", containers)),
                 node.log(), cluster.clusterLog());
-            List<String> killAll = new ArrayList<>(Arrays.asList(new String[]{"docker", "kill"}));
+            List<String> killAll = new ArrayList<>(Arrays.asList(new String[]{docker, "kill"}));
             killAll.addAll(containers);
             new NodeShellRunner(node, killAll).run();
-            List<String> rmAll = new ArrayList<>(Arrays.asList(new String[]{"docker", "rm"}));
+            List<String> rmAll = new ArrayList<>(Arrays.asList(new String[]{docker, "rm"}));
             rmAll.addAll(containers);
             new NodeShellRunner(node, rmAll).run();
         }
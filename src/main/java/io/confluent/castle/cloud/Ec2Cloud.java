@@ -17,11 +17,23 @@
 
 package io.confluent.castle.cloud;
 
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.retry.PredefinedRetryPolicies;
+import com.amazonaws.retry.RetryUtils;
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
+import com.amazonaws.services.ec2.model.BlockDeviceMapping;
+import com.amazonaws.services.ec2.model.CreateImageRequest;
+import com.amazonaws.services.ec2.model.DeleteSnapshotRequest;
+import com.amazonaws.services.ec2.model.DeregisterImageRequest;
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.DescribeImagesResult;
 import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
 import com.amazonaws.services.ec2.model.DescribeInstancesResult;
 import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Image;
 import com.amazonaws.services.ec2.model.Instance;
 import com.amazonaws.services.ec2.model.Reservation;
 import com.amazonaws.services.ec2.model.ResourceType;
@@ -38,13 +50,20 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -60,17 +79,52 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
     private final static int COALSCE_DELAY_MS = 20;
 
     /**
-     * The minimum delay to observe between making a request and making a
-     * subsequent request.  This helps avoid exceeding the ec2 rate limiting.
+     * The maximum number of times to try an API call which is throttled, or
+     * fails with a retryable error.
      */
-    private final static int CALL_DELAY_MS = 500;
+    private final static int MAX_ATTEMPTS = 8;
+
+    /**
+     * The backoff before retrying a call.  The backoff before each retry is
+     * random, up to twice the limit for the previous one.
+     */
+    private final static int BASE_BACKOFF_MS = 200;
+
+    private final static int MAX_BACKOFF_MS = 20000;
+
+    /**
+     * The maximum number of instance IDs to pass to a single describe or
+     * terminate call.
+     */
+    final static int MAX_INSTANCE_IDS_PER_CALL = 1000;
+
+    /**
+     * The page size to request from describe calls which use filters.
+     */
+    private final static int MAX_RESULTS_PER_CALL = 1000;
 
     private final static Tag CASTLE_TAG = new Tag("CastleNodeVersion", "1");
 
+    /**
+     * The tag which holds the key an image was saved with.
+     */
+    private final static String SETUP_KEY_TAG = "CastleSetupKey";
+
+    /**
+     * The tag which holds the ID of the image that an image's instance was
+     * started from.
+     */
+    private final static String BASE_IMAGE_TAG = "CastleBaseImage";
+
     private final Ec2Settings settings;
 
     private final AmazonEC2 ec2;
 
+    /**
+     * Limits the rate of API calls, to avoid exceeding the ec2 rate limiting.
+     */
+    private final Ec2RateLimiter rateLimiter;
+
     private final Thread thread;
 
     private final List<CreateInstanceOp> creates = new ArrayList<>();
@@ -81,6 +135,15 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
 
     private final List<TerminateInstanceOp> terminates = new ArrayList<>();
 
+    private final List<FindImageOp> findImages = new ArrayList<>();
+
+    private final List<SaveImageOp> saveImages = new ArrayList<>();
+
+    /**
+     * The keys and base images of the images we have saved in this run.
+     */
+    private final Set<String> savedImages = new HashSet<>();
+
     private boolean shouldExit = false;
 
     private boolean shutdownAllInvoked = false;
@@ -123,15 +186,51 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
         }
     }
 
+    private static final class FindImageOp {
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+        private final String key;
+        private final String baseImageId;
+
+        FindImageOp(String key, String baseImageId) {
+            this.key = key;
+            this.baseImageId = baseImageId;
+        }
+    }
+
+    private static final class SaveImageOp {
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+        private final String instanceId;
+        private final String key;
+        private final String baseImageId;
+
+        SaveImageOp(String instanceId, String key, String baseImageId) {
+            this.instanceId = instanceId;
+            this.key = key;
+            this.baseImageId = baseImageId;
+        }
+    }
+
     public Ec2Cloud(Ec2Settings settings) {
+        this(settings, buildClient(settings), new Ec2RateLimiter());
+    }
+
+    Ec2Cloud(Ec2Settings settings, AmazonEC2 ec2, Ec2RateLimiter rateLimiter) {
         this.settings = settings;
-        AmazonEC2ClientBuilder ec2Builder = AmazonEC2ClientBuilder.standard();
+        this.ec2 = ec2;
+        this.rateLimiter = rateLimiter;
+        this.thread = new Thread(this, "Ec2CloudThread");
+        this.thread.start();
+    }
+
+    private static AmazonEC2 buildClient(Ec2Settings settings) {
+        // We do our own retries, so that throttling can slow down every call.
+        AmazonEC2ClientBuilder ec2Builder = AmazonEC2ClientBuilder.standard().
+            withClientConfiguration(new ClientConfiguration().
+                withRetryPolicy(PredefinedRetryPolicies.NO_RETRY_POLICY));
         if (!settings.region().isEmpty()) {
             ec2Builder.setRegion(settings.region());
         }
-        this.ec2 = ec2Builder.build();
-        this.thread = new Thread(this, "Ec2CloudThread");
-        this.thread.start();
+        return ec2Builder.build();
     }
 
     @Override
@@ -169,6 +268,12 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
                 for (TerminateInstanceOp terminate : terminates) {
                     terminate.future.completeExceptionally(e);
                 }
+                for (FindImageOp findImage : findImages) {
+                    findImage.future.completeExceptionally(e);
+                }
+                for (SaveImageOp saveImage : saveImages) {
+                    saveImage.future.completeExceptionally(e);
+                }
             }
         }
     }
@@ -180,7 +285,9 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
         } else if (creates.isEmpty() &&
                     describes.isEmpty() &&
                     describeAlls.isEmpty() &&
-                    terminates.isEmpty()) {
+                    terminates.isEmpty() &&
+                    findImages.isEmpty() &&
+                    saveImages.isEmpty()) {
             // Nothing to do.
             return Long.MAX_VALUE;
         } else {
@@ -196,92 +303,35 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
     private synchronized void makeCalls() throws Exception {
         log.info("Ec2Cloud#makeCalls.  creates.size=" + creates.size());
         if (!creates.isEmpty()) {
-            List<CreateInstanceOp> batchCreates = new ArrayList<>();
-            Iterator<CreateInstanceOp> iter = creates.iterator();
-            CreateInstanceOp firstCreate = iter.next();
-            iter.remove();
-            batchCreates.add(firstCreate);
-            while (iter.hasNext()) {
-                CreateInstanceOp runner = iter.next();
-                if (runner.equals(firstCreate)) {
-                    batchCreates.add(runner);
-                    iter.remove();
-                }
-            }
-            Iterator<CreateInstanceOp> runInstanceIterator = batchCreates.iterator();
-            Exception failureException = new RuntimeException("Unable to create instance");
-            try {
-                if (settings.keyPair().isEmpty()) {
-                    throw new RuntimeException("You must specify a keypair in " +
-                        "order to create a new AWS instance.");
-                }
-                if (settings.securityGroup().isEmpty()) {
-                    throw new RuntimeException("You must specify a security group in " +
-                        "order to create a new AWS instance.");
-                }
-                log.info("Ec2Cloud#makeCalls.  batchCreates.size={}, imageId={}, keyName={}, securityGroups={}",
-                    batchCreates.size(), firstCreate.imageId, settings.keyPair(), settings.securityGroup());
-                RunInstancesRequest req = new RunInstancesRequest()
-                    .withInstanceType(firstCreate.instanceType)
-                    .withImageId(firstCreate.imageId)
-                    .withMinCount(batchCreates.size())
-                    .withMaxCount(batchCreates.size())
-                    .withKeyName(settings.keyPair())
-                    .withSecurityGroups(settings.securityGroup())
-                    .withTagSpecifications(
-                        new TagSpecification().withResourceType(ResourceType.Instance).
-                            withTags(CASTLE_TAG));
-
-                RunInstancesResult result = ec2.runInstances(req);
-                Reservation reservation = result.getReservation();
-                Iterator<Instance> instanceIterator = reservation.getInstances().iterator();
-                while (runInstanceIterator.hasNext() && instanceIterator.hasNext()) {
-                    CreateInstanceOp runInstance = runInstanceIterator.next();
-                    Instance instance = instanceIterator.next();
-                    runInstance.future.complete(instance.getInstanceId());
-                }
-            } catch (Exception e) {
-                failureException = e;
+            // Instances with the same type and image can be created by a single call.
+            Map<List<String>, List<CreateInstanceOp>> groups = new LinkedHashMap<>();
+            for (Iterator<CreateInstanceOp> iter = creates.iterator(); iter.hasNext();
+                     iter.remove()) {
+                CreateInstanceOp op = iter.next();
+                groups.computeIfAbsent(Arrays.asList(op.instanceType, op.imageId),
+                    k -> new ArrayList<>()).add(op);
             }
-            while (runInstanceIterator.hasNext()) {
-                CreateInstanceOp runInstance = runInstanceIterator.next();
-                runInstance.future.completeExceptionally(failureException);
+            for (List<CreateInstanceOp> batchCreates : groups.values()) {
+                makeCreateCall(batchCreates);
             }
         }
         if (!describes.isEmpty()) {
-            Map<String, DescribeInstanceOp> idToDescribe = new HashMap<>();
+            Map<String, List<DescribeInstanceOp>> idToDescribes = new HashMap<>();
             for (Iterator<DescribeInstanceOp> iter = describes.iterator(); iter.hasNext();
                      iter.remove()) {
                 DescribeInstanceOp describe = iter.next();
-                idToDescribe.put(describe.instanceId, describe);
+                idToDescribes.computeIfAbsent(describe.instanceId,
+                    k -> new ArrayList<>()).add(describe);
             }
-            Exception failureException = new RuntimeException("Result did not include instanceID.");
-            try {
-                DescribeInstancesRequest req = new DescribeInstancesRequest()
-                    .withInstanceIds(idToDescribe.keySet());
-                DescribeInstancesResult result = ec2.describeInstances(req);
-                for (Reservation reservation : result.getReservations()) {
-                    for (Instance instance : reservation.getInstances()) {
-                        DescribeInstanceOp op = idToDescribe.get(instance.getInstanceId());
-                        if (op != null) {
-                            Ec2InstanceInfo info =
-                                new Ec2InstanceInfo(instance.getInstanceId(),
-                                    instance.getPrivateDnsName(),
-                                    instance.getPublicDnsName(),
-                                    instance.getState().toString());
-                            op.future.complete(info);
-                            idToDescribe.remove(instance.getInstanceId());
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                failureException = e;
-            }
-            for (Map.Entry<String, DescribeInstanceOp> entry : idToDescribe.entrySet()) {
-                entry.getValue().future.completeExceptionally(failureException);
+            for (List<String> instanceIds : partition(idToDescribes.keySet())) {
+                makeDescribeCall(instanceIds, idToDescribes);
             }
         }
         if (!describeAlls.isEmpty()) {
+            // Take the queued operations while we hold the lock, since call()
+            // releases it, and other threads may queue more in the meantime.
+            List<DescribeAllInstancesOp> batchDescribeAlls = new ArrayList<>(describeAlls);
+            describeAlls.clear();
             try {
                 if (settings.keyPair().isEmpty()) {
                     throw new RuntimeException("You must specify a keypair with --keypair in " +
@@ -291,45 +341,393 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
                     new Filter("key-name",
                         Collections.singletonList(settings.keyPair())),
                     new Filter("tag:" + CASTLE_TAG.getKey(),
-                        Collections.singletonList(CASTLE_TAG.getValue())));
+                        Collections.singletonList(CASTLE_TAG.getValue()))).
+                    withMaxResults(MAX_RESULTS_PER_CALL);
                 ArrayList<Ec2InstanceInfo> all = new ArrayList<>();
-                DescribeInstancesResult result = ec2.describeInstances(req);
-                for (Reservation reservation : result.getReservations()) {
-                    for (Instance instance : reservation.getInstances()) {
-                        all.add(new Ec2InstanceInfo(instance.getInstanceId(),
-                            instance.getPrivateDnsName(),
-                            instance.getPublicDnsName(),
-                            instance.getState().toString()));
+                do {
+                    DescribeInstancesResult result =
+                        call("DescribeInstances", () -> ec2.describeInstances(req));
+                    for (Reservation reservation : result.getReservations()) {
+                        for (Instance instance : reservation.getInstances()) {
+                            all.add(toInstanceInfo(instance));
+                        }
                     }
-                }
-                for (Iterator<DescribeAllInstancesOp> iter = describeAlls.iterator();
-                     iter.hasNext(); iter.remove()) {
-                    DescribeAllInstancesOp op = iter.next();
+                    req.setNextToken(result.getNextToken());
+                } while (req.getNextToken() != null);
+                for (DescribeAllInstancesOp op : batchDescribeAlls) {
                     op.future.complete(all);
                 }
             } catch (Exception e) {
-                for (Iterator<DescribeAllInstancesOp> iter = describeAlls.iterator();
-                     iter.hasNext(); iter.remove()) {
-                    DescribeAllInstancesOp op = iter.next();
+                for (DescribeAllInstancesOp op : batchDescribeAlls) {
                     op.future.completeExceptionally(e);
                 }
             }
         }
         if (!terminates.isEmpty()) {
-            Map<String, TerminateInstanceOp> idToTerminate = new HashMap<>();
+            Map<String, List<TerminateInstanceOp>> idToTerminates = new HashMap<>();
             for (Iterator<TerminateInstanceOp> iter = terminates.iterator(); iter.hasNext();
                      iter.remove()) {
                 TerminateInstanceOp op = iter.next();
-                idToTerminate.put(op.instanceId, op);
+                idToTerminates.computeIfAbsent(op.instanceId,
+                    k -> new ArrayList<>()).add(op);
+            }
+            for (List<String> instanceIds : partition(idToTerminates.keySet())) {
+                makeTerminateCall(instanceIds, idToTerminates);
+            }
+        }
+        if (!findImages.isEmpty()) {
+            List<FindImageOp> batchFindImages = new ArrayList<>(findImages);
+            findImages.clear();
+            Set<String> keys = new HashSet<>();
+            for (FindImageOp op : batchFindImages) {
+                keys.add(op.key);
+            }
+            try {
+                List<Image> images = describeImages(keys, "available");
+                for (FindImageOp op : batchFindImages) {
+                    Image newest = null;
+                    for (Image image : matchingImages(images, op.key, op.baseImageId)) {
+                        if ((newest == null) ||
+                                (image.getCreationDate().compareTo(newest.getCreationDate()) > 0)) {
+                            newest = image;
+                        }
+                    }
+                    op.future.complete((newest == null) ? null : newest.getImageId());
+                }
+            } catch (Exception e) {
+                for (FindImageOp op : batchFindImages) {
+                    op.future.completeExceptionally(e);
+                }
+            }
+        }
+        if (!saveImages.isEmpty()) {
+            List<SaveImageOp> batchSaveImages = new ArrayList<>(saveImages);
+            saveImages.clear();
+            Set<String> keys = new HashSet<>();
+            for (SaveImageOp op : batchSaveImages) {
+                keys.add(op.key);
+            }
+            List<Image> images;
+            try {
+                images = describeImages(keys, null);
+            } catch (Exception e) {
+                for (SaveImageOp op : batchSaveImages) {
+                    op.future.completeExceptionally(e);
+                }
+                return;
+            }
+            // There is no batch call for creating images, so we make one call for each.
+            for (SaveImageOp op : batchSaveImages) {
+                List<Image> oldImages = matchingImages(images, op.key, op.baseImageId);
+                Image pending = null;
+                for (Image image : oldImages) {
+                    if (image.getState().equals("pending")) {
+                        pending = image;
+                    }
+                }
+                if (pending != null) {
+                    // Another run is already saving an image with this key.
+                    log.info("Not saving {} as an image, because {} is already being saved " +
+                        "with key {}.", op.instanceId, pending.getImageId(), op.key);
+                    op.future.complete(null);
+                    continue;
+                }
+                try {
+                    CreateImageRequest req = new CreateImageRequest().
+                        withInstanceId(op.instanceId).
+                        withName(String.format("castle-%s-%s-%d", op.key, op.baseImageId,
+                            System.currentTimeMillis())).
+                        withNoReboot(true).
+                        withTagSpecifications(
+                            new TagSpecification().withResourceType(ResourceType.Image).
+                                withTags(CASTLE_TAG,
+                                    new Tag(SETUP_KEY_TAG, op.key),
+                                    new Tag(BASE_IMAGE_TAG, op.baseImageId)));
+                    op.future.complete(call("CreateImage", () -> ec2.createImage(req)).getImageId());
+                } catch (Exception e) {
+                    op.future.completeExceptionally(e);
+                    continue;
+                }
+                for (Image image : oldImages) {
+                    deleteImage(image);
+                }
+            }
+        }
+    }
+
+    /**
+     * Describe the images we own which were saved with any of the given keys.
+     *
+     * @param state     The state the images must be in, or null for any state.
+     */
+    private List<Image> describeImages(Collection<String> keys, String state) throws Exception {
+        List<Filter> filters = new ArrayList<>();
+        filters.add(new Filter("tag:" + SETUP_KEY_TAG, new ArrayList<>(keys)));
+        if (state != null) {
+            filters.add(new Filter("state", Collections.singletonList(state)));
+        }
+        DescribeImagesRequest req = new DescribeImagesRequest().
+            withOwners("self").
+            withFilters(filters).
+            withMaxResults(MAX_RESULTS_PER_CALL);
+        List<Image> images = new ArrayList<>();
+        do {
+            DescribeImagesResult result =
+                call("DescribeImages", () -> ec2.describeImages(req));
+            images.addAll(result.getImages());
+            req.setNextToken(result.getNextToken());
+        } while (req.getNextToken() != null);
+        return images;
+    }
+
+    private static List<Image> matchingImages(List<Image> images, String key,
+                                              String baseImageId) {
+        List<Image> matching = new ArrayList<>();
+        for (Image image : images) {
+            if (hasTag(image, SETUP_KEY_TAG, key) && hasTag(image, BASE_IMAGE_TAG, baseImageId)) {
+                matching.add(image);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Deregister an image which has been replaced by a newer one, and delete
+     * the EBS snapshots which back it.  Failures are logged rather than
+     * thrown, since the new image was saved.
+     */
+    private void deleteImage(Image image) {
+        try {
+            call("DeregisterImage", () -> ec2.deregisterImage(
+                new DeregisterImageRequest().withImageId(image.getImageId())));
+        } catch (Exception e) {
+            log.warn("Unable to deregister old image {}", image.getImageId(), e);
+            return;
+        }
+        for (BlockDeviceMapping mapping : image.getBlockDeviceMappings()) {
+            if ((mapping.getEbs() == null) || (mapping.getEbs().getSnapshotId() == null)) {
+                continue;
+            }
+            String snapshotId = mapping.getEbs().getSnapshotId();
+            try {
+                call("DeleteSnapshot", () -> ec2.deleteSnapshot(
+                    new DeleteSnapshotRequest().withSnapshotId(snapshotId)));
+            } catch (Exception e) {
+                log.warn("Unable to delete snapshot {} of old image {}", snapshotId,
+                    image.getImageId(), e);
+            }
+        }
+        log.info("Deleted old image {}", image.getImageId());
+    }
+
+    /**
+     * Create a batch of instances which all have the same instance type and
+     * image.
+     */
+    private void makeCreateCall(List<CreateInstanceOp> batchCreates) {
+        CreateInstanceOp firstCreate = batchCreates.get(0);
+        Iterator<CreateInstanceOp> runInstanceIterator = batchCreates.iterator();
+        Exception failureException = new RuntimeException("Unable to create instance");
+        try {
+            if (settings.keyPair().isEmpty()) {
+                throw new RuntimeException("You must specify a keypair in " +
+                    "order to create a new AWS instance.");
+            }
+            if (settings.securityGroup().isEmpty()) {
+                throw new RuntimeException("You must specify a security group in " +
+                    "order to create a new AWS instance.");
+            }
+            log.info("Ec2Cloud#makeCalls.  batchCreates.size={}, instanceType={}, imageId={}, " +
+                    "keyName={}, securityGroups={}", batchCreates.size(), firstCreate.instanceType,
+                firstCreate.imageId, settings.keyPair(), settings.securityGroup());
+            RunInstancesRequest req = new RunInstancesRequest()
+                .withInstanceType(firstCreate.instanceType)
+                .withImageId(firstCreate.imageId)
+                .withMinCount(batchCreates.size())
+                .withMaxCount(batchCreates.size())
+                .withKeyName(settings.keyPair())
+                .withSecurityGroups(settings.securityGroup())
+                .withTagSpecifications(
+                    new TagSpecification().withResourceType(ResourceType.Instance).
+                        withTags(CASTLE_TAG))
+                // The client token makes it safe to retry the call.
+                .withClientToken(UUID.randomUUID().toString());
+
+            RunInstancesResult result = call("RunInstances", () -> ec2.runInstances(req));
+            Reservation reservation = result.getReservation();
+            Iterator<Instance> instanceIterator = reservation.getInstances().iterator();
+            while (runInstanceIterator.hasNext() && instanceIterator.hasNext()) {
+                CreateInstanceOp runInstance = runInstanceIterator.next();
+                Instance instance = instanceIterator.next();
+                runInstance.future.complete(instance.getInstanceId());
             }
+        } catch (Exception e) {
+            failureException = e;
+        }
+        while (runInstanceIterator.hasNext()) {
+            CreateInstanceOp runInstance = runInstanceIterator.next();
+            runInstance.future.completeExceptionally(failureException);
+        }
+    }
+
+    private void makeDescribeCall(List<String> instanceIds,
+                                  Map<String, List<DescribeInstanceOp>> idToDescribes) {
+        Exception failureException = new RuntimeException("Result did not include instanceID.");
+        try {
+            DescribeInstancesRequest req = new DescribeInstancesRequest()
+                .withInstanceIds(instanceIds);
+            do {
+                DescribeInstancesResult result =
+                    call("DescribeInstances", () -> ec2.describeInstances(req));
+                for (Reservation reservation : result.getReservations()) {
+                    for (Instance instance : reservation.getInstances()) {
+                        List<DescribeInstanceOp> ops =
+                            idToDescribes.remove(instance.getInstanceId());
+                        if (ops != null) {
+                            Ec2InstanceInfo info = toInstanceInfo(instance);
+                            for (DescribeInstanceOp op : ops) {
+                                op.future.complete(info);
+                            }
+                        }
+                    }
+                }
+                req.setNextToken(result.getNextToken());
+            } while (req.getNextToken() != null);
+        } catch (Exception e) {
+            failureException = e;
+        }
+        for (String instanceId : instanceIds) {
+            List<DescribeInstanceOp> ops = idToDescribes.remove(instanceId);
+            if (ops != null) {
+                for (DescribeInstanceOp op : ops) {
+                    op.future.completeExceptionally(failureException);
+                }
+            }
+        }
+    }
+
+    private void makeTerminateCall(List<String> instanceIds,
+                                   Map<String, List<TerminateInstanceOp>> idToTerminates) {
+        Exception failureException = null;
+        try {
             TerminateInstancesRequest req = new TerminateInstancesRequest()
-                .withInstanceIds(idToTerminate.keySet());
-            ec2.terminateInstances(req);
-            for (TerminateInstanceOp op : idToTerminate.values()) {
-                CastleUtil.completeNull(op.future);
+                .withInstanceIds(instanceIds);
+            call("TerminateInstances", () -> ec2.terminateInstances(req));
+        } catch (Exception e) {
+            failureException = e;
+        }
+        for (String instanceId : instanceIds) {
+            for (TerminateInstanceOp op : idToTerminates.get(instanceId)) {
+                if (failureException == null) {
+                    CastleUtil.completeNull(op.future);
+                } else {
+                    op.future.completeExceptionally(failureException);
+                }
+            }
+        }
+    }
+
+    /**
+     * Split a collection of instance IDs into lists which are small enough
+     * to pass to a single API call.
+     */
+    static List<List<String>> partition(Collection<String> instanceIds) {
+        List<List<String>> results = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        for (String instanceId : instanceIds) {
+            if (current.size() == MAX_INSTANCE_IDS_PER_CALL) {
+                results.add(current);
+                current = new ArrayList<>();
+            }
+            current.add(instanceId);
+        }
+        if (!current.isEmpty()) {
+            results.add(current);
+        }
+        return results;
+    }
+
+    private static Ec2InstanceInfo toInstanceInfo(Instance instance) {
+        return new Ec2InstanceInfo(instance.getInstanceId(),
+            instance.getPrivateDnsName(),
+            instance.getPublicDnsName(),
+            instance.getState().toString());
+    }
+
+    /**
+     * Make an API call, once the rate limiter allows it.  Calls which are
+     * throttled, or fail with a retryable error, are retried with a random
+     * backoff.  The monitor is released while waiting, so that other threads
+     * can queue more operations.
+     */
+    private synchronized <T> T call(String name, Callable<T> callable) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            long delayMs;
+            while ((delayMs = rateLimiter.tryAcquire(System.currentTimeMillis())) > 0) {
+                sleep(delayMs);
+            }
+            try {
+                T result = callable.call();
+                rateLimiter.onSuccess();
+                return result;
+            } catch (AmazonClientException e) {
+                boolean throttled = RetryUtils.isThrottlingException(e);
+                if (throttled) {
+                    rateLimiter.onThrottle();
+                } else {
+                    rateLimiter.onFailure();
+                }
+                if ((!throttled && !isRetryable(e)) || (attempt >= MAX_ATTEMPTS)) {
+                    throw e;
+                }
+                long backoffMs = ThreadLocalRandom.current().nextLong(1 +
+                    Math.min(MAX_BACKOFF_MS, (long) BASE_BACKOFF_MS << Math.min(attempt, 16)));
+                log.info("Ec2Cloud: {} attempt {} {}.  Retrying in {} ms.  New rate: {} calls/s.",
+                    name, attempt, throttled ? "was throttled" : "failed: " + e.getMessage(),
+                    backoffMs, rateLimiter.rate());
+                sleep(backoffMs);
+            } catch (Exception e) {
+                rateLimiter.onFailure();
+                throw e;
+            }
+        }
+    }
+
+    private static boolean isRetryable(AmazonClientException e) {
+        if (e instanceof AmazonServiceException) {
+            return RetryUtils.isRetryableServiceException(e);
+        }
+        return e.isRetryable();
+    }
+
+    /**
+     * Wait for the given time, releasing the monitor.
+     */
+    private synchronized void sleep(long delayMs) throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + delayMs;
+        long nowMs;
+        while ((nowMs = System.currentTimeMillis()) < deadlineMs) {
+            if (shouldExit) {
+                throw new RuntimeException("Ec2Cloud is shutting down.");
             }
+            wait(deadlineMs - nowMs);
         }
-        updateNextCallTime(CALL_DELAY_MS);
+    }
+
+    /**
+     * Get the rate limiter, which counts the calls we have made.
+     */
+    public Ec2RateLimiter rateLimiter() {
+        return rateLimiter;
+    }
+
+    private static boolean hasTag(Image image, String key, String value) {
+        for (Tag tag : image.getTags()) {
+            if (tag.getKey().equals(key) && tag.getValue().equals(value)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private synchronized void updateNextCallTime(long minDelay) {
@@ -344,6 +742,8 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
         }
         thread.join();
         ec2.shutdown();
+        log.info("Ec2Cloud made {} call(s), {} of which were throttled.",
+            rateLimiter.calls(), rateLimiter.throttles());
     }
 
     public synchronized CompletableFuture<String> createInstance(String instanceType,
@@ -381,6 +781,43 @@ public final class Ec2Cloud implements AutoCloseable, Runnable {
         return op.future;
     }
 
+    /**
+     * Find the newest available image which was saved with the given key,
+     * from an instance started from the given base image.
+     *
+     * @return          A future which is completed with the image ID, or with
+     *                  null if there is no such image.
+     */
+    public synchronized CompletableFuture<String> findImage(String key, String baseImageId) {
+        FindImageOp op = new FindImageOp(key, baseImageId);
+        findImages.add(op);
+        updateNextCallTime(COALSCE_DELAY_MS);
+        notifyAll();
+        return op.future;
+    }
+
+    /**
+     * Save an instance as an image.  The instance is not rebooted.  Once the
+     * image has been created, older images with the same key and base image
+     * are deregistered, and their snapshots deleted.
+     *
+     * @return          A future which is completed with the new image ID, or
+     *                  with null if an image with the same key and base image
+     *                  was already saved by this Ec2Cloud, or is still being
+     *                  saved by another run.
+     */
+    public synchronized CompletableFuture<String> saveImage(String instanceId, String key,
+                                                            String baseImageId) {
+        if (!savedImages.add(key + "/" + baseImageId)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        SaveImageOp op = new SaveImageOp(instanceId, key, baseImageId);
+        saveImages.add(op);
+        updateNextCallTime(COALSCE_DELAY_MS);
+        notifyAll();
+        return op.future;
+    }
+
     public void destroyAll(CastleCluster cluster, CastleNode node) throws Exception {
         synchronized (this) {
             if (shutdownAllInvoked) {
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.cloud;
+
+/**
+ * A token bucket which limits the rate of EC2 API calls.
+ *
+ * The rate adapts to what the account allows: it increases additively after
+ * each successful call, and is cut multiplicatively whenever a call is
+ * throttled.
+ */
+public final class Ec2RateLimiter {
+    /**
+     * The default settings.  The initial rate matches the fixed delay of
+     * 500 ms which we used to leave between calls.
+     */
+    public final static double DEFAULT_INITIAL_RATE = 2;
+    public final static double DEFAULT_MIN_RATE = 0.2;
+    public final static double DEFAULT_MAX_RATE = 20;
+    public final static double DEFAULT_RATE_INCREASE = 0.5;
+    public final static double DEFAULT_RATE_DECREASE_FACTOR = 0.5;
+    public final static double DEFAULT_BURST = 5;
+
+    private final double minRate;
+    private final double maxRate;
+    private final double rateIncrease;
+    private final double rateDecreaseFactor;
+    private final double burst;
+
+    /**
+     * The current rate, in calls per second.
+     */
+    private double rate;
+
+    /**
+     * The number of tokens in the bucket.
+     */
+    private double tokens;
+
+    /**
+     * The last time we added tokens to the bucket, or -1 if we never have.
+     */
+    private long lastRefillMs = -1;
+
+    private long calls = 0;
+
+    private long throttles = 0;
+
+    public Ec2RateLimiter() {
+        this(DEFAULT_INITIAL_RATE, DEFAULT_MIN_RATE, DEFAULT_MAX_RATE,
+            DEFAULT_RATE_INCREASE, DEFAULT_RATE_DECREASE_FACTOR, DEFAULT_BURST);
+    }
+
+    /**
+     * Create a rate limiter.
+     *
+     * @param initialRate           The initial rate, in calls per second.
+     * @param minRate               The lowest rate to back off to.
+     * @param maxRate               The highest rate to ramp up to.
+     * @param rateIncrease          The amount to add to the rate after each
+     *                              successful call.
+     * @param rateDecreaseFactor    The factor to multiply the rate by after
+     *                              each throttled call.
+     * @param burst                 The number of calls which can be made
+     *                              back to back, after a quiet period.
+     */
+    public Ec2RateLimiter(double initialRate, double minRate, double maxRate,
+                          double rateIncrease, double rateDecreaseFactor, double burst) {
+        if ((minRate <= 0) || (minRate > maxRate)) {
+            throw new IllegalArgumentException("Invalid rate bounds " + minRate +
+                " to " + maxRate);
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("The burst must be at least 1.");
+        }
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.rateIncrease = rateIncrease;
+        this.rateDecreaseFactor = rateDecreaseFactor;
+        this.burst = burst;
+        this.rate = Math.max(minRate, Math.min(maxRate, initialRate));
+        this.tokens = burst;
+    }
+
+    /**
+     * Try to take a token from the bucket.
+     *
+     * @param nowMs     The current time in milliseconds.
+     * @return          0 if a token was taken.  Otherwise, the number of
+     *                  milliseconds until the next token is available.
+     */
+    public synchronized long tryAcquire(long nowMs) {
+        if (lastRefillMs >= 0) {
+            tokens = Math.min(burst, tokens + (rate * (nowMs - lastRefillMs)) / 1000.0);
+        }
+        lastRefillMs = nowMs;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil(((1 - tokens) * 1000.0) / rate));
+    }
+
+    /**
+     * Record a call which succeeded.
+     */
+    public synchronized void onSuccess() {
+        calls++;
+        rate = Math.min(maxRate, rate + rateIncrease);
+    }
+
+    /**
+     * Record a call which was throttled.  The bucket is emptied, so that
+     * the next call waits for at least one token at the reduced rate.
+     */
+    public synchronized void onThrottle() {
+        calls++;
+        throttles++;
+        rate = Math.max(minRate, rate * rateDecreaseFactor);
+        tokens = Math.min(tokens, 0);
+    }
+
+    /**
+     * Record a call which failed for a reason other than throttling.
+     */
+    public synchronized void onFailure() {
+        calls++;
+    }
+
+    /**
+     * The current rate, in calls per second.
+     */
+    public synchronized double rate() {
+        return rate;
+    }
+
+    /**
+     * The total number of calls which were made, including throttled calls.
+     */
+    public synchronized long calls() {
+        return calls;
+    }
+
+    /**
+     * The number of calls which were throttled.
+     */
+    public synchronized long throttles() {
+        return throttles;
+    }
+}
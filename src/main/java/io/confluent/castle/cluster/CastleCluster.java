@@ -20,11 +20,14 @@ package io.confluent.castle.cluster;
 import com.fasterxml.jackson.databind.JsonNode;
 import io.confluent.castle.action.Action;
 import io.confluent.castle.action.ActionScheduler;
+import io.confluent.castle.action.SourceFanOut;
 import io.confluent.castle.cloud.CloudCache;
 import io.confluent.castle.common.CastleLog;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.common.DynamicVariableProviders;
 import io.confluent.castle.common.JsonMerger;
+import io.confluent.castle.common.SourceArchiveCache;
+import io.confluent.castle.jmx.JmxStreamStore;
 import io.confluent.castle.role.Role;
 import io.confluent.castle.role.UplinkRole;
 import io.confluent.castle.role.ZooKeeperRole;
@@ -53,6 +56,9 @@ public final class CastleCluster implements AutoCloseable {
     private final CastleEnvironment env;
     private final CastleLog clusterLog;
     private final CloudCache cloudCache;
+    private final SourceArchiveCache sourceArchiveCache;
+    private final SourceFanOut sourceFanOut;
+    private final JmxStreamStore jmxStreamStore;
     private final Map<String, CastleNode> nodes;
     private final CastleShutdownManager shutdownManager;
     private final Map<String, Role> originalRoles;
@@ -64,6 +70,9 @@ public final class CastleCluster implements AutoCloseable {
         this.env = env;
         this.clusterLog = clusterLog;
         this.cloudCache = new CloudCache();
+        this.sourceArchiveCache = new SourceArchiveCache(new File(env.sourceCachePath()));
+        this.sourceFanOut = new SourceFanOut(new File(env.sourceCachePath()));
+        this.jmxStreamStore = new JmxStreamStore(new File(env.jmxStorePath()));
         TreeMap<String, CastleNode> nodes = new TreeMap<>();
         int nodeIndex = 0;
         Map<String, Map<Class<? extends Role>, Role>> nodesToRoles = spec.nodesToRoles();
@@ -111,6 +120,18 @@ public final class CastleCluster implements AutoCloseable {
         return cloudCache;
     }
 
+    public SourceArchiveCache sourceArchiveCache() {
+        return sourceArchiveCache;
+    }
+
+    public SourceFanOut sourceFanOut() {
+        return sourceFanOut;
+    }
+
+    public JmxStreamStore jmxStreamStore() {
+        return jmxStreamStore;
+    }
+
     public CastleLog clusterLog() {
         return clusterLog;
     }
@@ -156,7 +177,7 @@ public final class CastleCluster implements AutoCloseable {
         for (String nodeName : nodesWithRole(ZooKeeperRole.class).values()) {
             bld.append(prefix);
             prefix = ",";
-            bld.append(nodes().get(nodeName).uplink().internalDns()).append(":2181");
+            bld.append(nodes().get(nodeName).uplink().internalDns()).append(":").append(ZooKeeperRole.PORT);
         }
         return bld.toString();
     }
@@ -238,26 +259,20 @@ public final class CastleCluster implements AutoCloseable {
     }
 
     /**
-     * Create a new action scheduler.
-     *
-     * @param targetNames           The targets to execute.
-     * @param additionalActions     Some additional actions to add to our scheduler.  We will
-     *                              also add the actions corresponding to the cluster roles.
-     * @return                      The new scheduler.
+     * Create a builder for a scheduler which runs the given targets, using the
+     * actions from every role in the cluster.
      */
-    public ActionScheduler createScheduler(List<String> targetNames,
-                Collection<Action> additionalActions,
-                int maxConcurrentActions) throws Exception {
+    public ActionScheduler.Builder createSchedulerBuilder(List<String> targetNames,
+                Collection<Action> additionalActions) throws Exception {
         ActionScheduler.Builder builder = new ActionScheduler.Builder(this);
         builder.addTargetNames(targetNames);
         builder.addActions(additionalActions);
-        builder.setMaxConcurrentActions(maxConcurrentActions);
         for (CastleNode node : nodes.values()) {
             for (Role role : node.roles().values()) {
                 builder.addActions(role.createActions(node.nodeName()));
             }
         }
-        return builder.build();
+        return builder;
     }
 
     public CastleShutdownManager shutdownManager() {
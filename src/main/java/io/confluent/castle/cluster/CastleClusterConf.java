@@ -19,27 +19,73 @@ package io.confluent.castle.cluster;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonValue;
 
 import java.io.File;
 import java.nio.file.Paths;
+import java.util.Locale;
 
 public class CastleClusterConf {
     private final static int DEFAULT_GLOBAL_TIMEOUT = 3600;
 
+    /**
+     * How the source trees are copied to the nodes.
+     */
+    public enum SourceDistribution {
+        /**
+         * Rsync each source tree to each node.
+         */
+        RSYNC,
+
+        /**
+         * Build a compressed archive of each source tree once, and stream it
+         * to each node which doesn't already have it.
+         */
+        ARCHIVE,
+
+        /**
+         * Like ARCHIVE, but the castle host only sends the archives to a few
+         * seed nodes.  The other nodes receive them from each other over the
+         * internal network.
+         */
+        FANOUT;
+
+        @JsonCreator
+        public static SourceDistribution fromString(String value) {
+            return SourceDistribution.valueOf(value.toUpperCase(Locale.ROOT));
+        }
+
+        @JsonValue
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
     private final String kafkaPath;
     private final String schemaRegistryPath;
     private final String castlePath;
     private final int globalTimeout;
+    private final boolean sshMultiplexing;
+    private final SourceDistribution sourceDistribution;
+    private final boolean setupImageCache;
 
     @JsonCreator
     public CastleClusterConf(@JsonProperty("kafkaPath") String kafkaPath,
                              @JsonProperty("schemaRegistryPath") String schemaRegistryPath,
                              @JsonProperty("castlePath") String castlePath,
-                             @JsonProperty("globalTimeout") int globalTimeout) {
+                             @JsonProperty("globalTimeout") int globalTimeout,
+                             @JsonProperty("sshMultiplexing") Boolean sshMultiplexing,
+                             @JsonProperty("sourceDistribution") SourceDistribution sourceDistribution,
+                             @JsonProperty("setupImageCache") Boolean setupImageCache) {
         this.kafkaPath = (kafkaPath == null) ? "" : kafkaPath;
         this.schemaRegistryPath = (schemaRegistryPath == null) ? "" : schemaRegistryPath;
         this.castlePath = (castlePath == null) ? "" : castlePath;
         this.globalTimeout = (globalTimeout <= 0) ? DEFAULT_GLOBAL_TIMEOUT : globalTimeout;
+        this.sshMultiplexing = (sshMultiplexing == null) ? true : sshMultiplexing;
+        this.sourceDistribution = (sourceDistribution == null) ?
+            SourceDistribution.RSYNC : sourceDistribution;
+        this.setupImageCache = (setupImageCache == null) ? false : setupImageCache;
     }
 
     @JsonProperty
@@ -86,4 +132,27 @@ public class CastleClusterConf {
     public int globalTimeout() {
         return globalTimeout;
     }
+
+    /**
+     * Return true if ssh and rsync commands should share one multiplexed
+     * connection per node, rather than doing a full handshake every time.
+     */
+    @JsonProperty
+    public boolean sshMultiplexing() {
+        return sshMultiplexing;
+    }
+
+    @JsonProperty
+    public SourceDistribution sourceDistribution() {
+        return sourceDistribution;
+    }
+
+    /**
+     * Return true if nodes should be saved as images once they are set up,
+     * so that later nodes can be started from those images.
+     */
+    @JsonProperty
+    public boolean setupImageCache() {
+        return setupImageCache;
+    }
 }
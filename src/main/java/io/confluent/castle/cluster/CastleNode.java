@@ -103,6 +103,7 @@ public final class CastleNode implements AutoCloseable {
 
     @Override
     public void close() {
+        CastleUtil.closeQuietly(clusterLog, uplink(), "uplink for " + nodeName);
         CastleUtil.closeQuietly(clusterLog, castleLog, "castleLog for " + nodeName);
     }
 };
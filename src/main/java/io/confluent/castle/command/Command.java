@@ -18,6 +18,7 @@
 package io.confluent.castle.command;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * A command which the Castle tool needs to run.
@@ -76,6 +77,26 @@ public interface Command {
      */
     Command captureOutput(StringBuilder stringBuilder);
 
+    /**
+     * Capture stderr to its own StringBuilder.  When this is set, stderr is
+     * captured here rather than alongside stdout by captureOutput.
+     *
+     * @param stringBuilder         The stringBuilder which stderr will be
+     *                              captured to, or null to capture it along
+     *                              with stdout.
+     */
+    Command captureStderr(StringBuilder stringBuilder);
+
+    /**
+     * Stream the output to the given consumer, one line at a time, as the
+     * command runs.  Lines do not include the trailing newline.  Stderr is
+     * only included if setCaptureStderr is set.
+     *
+     * @param lineConsumer          The consumer.  It may be called from more
+     *                              than one thread.
+     */
+    Command streamOutput(Consumer<String> lineConsumer);
+
     /**
      * Set whether we should capture the command output.
      */
@@ -88,6 +109,16 @@ public interface Command {
      */
     Command setStdin(byte[] stdin);
 
+    /**
+     * Sets a local file to use as the stdin for the command.  The file is
+     * streamed to the command rather than being read into memory.
+     *
+     * This option is mutually exclusive with setStdin.
+     *
+     * @param path                  The path of the local file.
+     */
+    Command setStdinFile(String path);
+
     /**
      * Runs the command.
      *
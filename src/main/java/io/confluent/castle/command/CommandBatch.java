@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.cluster.CastleNode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A sequence of remote commands and file payloads which are run as a single
+ * shell script, in a single ssh session.
+ *
+ * Each step is run in order.  If a step fails, the steps after it are not run.
+ * The exit status of every step which ran is logged to the node log.
+ */
+public final class CommandBatch {
+    private static final String STEP_MARKER = "##CASTLE_STEP";
+
+    private static final Pattern STEP_MARKER_PATTERN =
+        Pattern.compile(STEP_MARKER + " (\\d+) (\\d+)");
+
+    private static final String HEREDOC_DELIMITER = "CASTLE_BATCH_EOF";
+
+    private static final int BASE64_LINE_LENGTH = 76;
+
+    /**
+     * A single step in the batch.
+     */
+    private static final class Step {
+        private final List<String> description;
+        private final String script;
+
+        Step(List<String> description, String script) {
+            this.description = description;
+            this.script = script;
+        }
+    }
+
+    private final CastleNode node;
+
+    private final List<Step> steps = new ArrayList<>();
+
+    public CommandBatch(CastleNode node) {
+        this.node = node;
+    }
+
+    /**
+     * Add a command to the batch.
+     *
+     * The arguments are interpreted by the remote shell, just as they would be
+     * when passed to Command#args.  Leading ssh options such as "-n" and "--"
+     * are ignored, so that the same argument arrays can be used in both places.
+     *
+     * @param args                  The arguments to use.
+     */
+    public CommandBatch addStep(String... args) {
+        return addStepList(Arrays.asList(args));
+    }
+
+    /**
+     * Add a command to the batch.
+     *
+     * @param args                  The arguments to use.
+     */
+    public CommandBatch addStepList(List<String> args) {
+        int start = 0;
+        while ((start < args.size()) &&
+                (args.get(start).equals("-n") || args.get(start).equals("--"))) {
+            start++;
+        }
+        List<String> effectiveArgs = Collections.unmodifiableList(
+            new ArrayList<>(args.subList(start, args.size())));
+        if (effectiveArgs.isEmpty()) {
+            throw new RuntimeException("You must supply a command for each batch step.");
+        }
+        steps.add(new Step(effectiveArgs, String.join(" ", effectiveArgs)));
+        return this;
+    }
+
+    /**
+     * Add a file to the batch.
+     *
+     * @param remote                The remote path to write to.
+     * @param contents              The file contents.
+     */
+    public CommandBatch addFile(String remote, byte[] contents) {
+        StringBuilder bld = new StringBuilder();
+        bld.append("base64 -d > '").append(remote).append("' <<'").
+            append(HEREDOC_DELIMITER).append("'\n");
+        String encoded = Base64.getMimeEncoder(BASE64_LINE_LENGTH,
+            new byte[] {'\n'}).encodeToString(contents);
+        if (!encoded.isEmpty()) {
+            bld.append(encoded).append("\n");
+        }
+        bld.append(HEREDOC_DELIMITER);
+        steps.add(new Step(Arrays.asList("write", remote), bld.toString()));
+        return this;
+    }
+
+    /**
+     * Get the number of steps in this batch.
+     */
+    public int size() {
+        return steps.size();
+    }
+
+    /**
+     * Create the shell script which runs every step in the batch.
+     */
+    String toScript() {
+        StringBuilder bld = new StringBuilder();
+        for (int i = 0; i < steps.size(); i++) {
+            // Each step gets its own stdin, so that it can't consume the rest of the script.
+            bld.append("{\n").append(steps.get(i).script).append("\n} </dev/null\n");
+            bld.append("CASTLE_RC=$?\n");
+            bld.append("echo \"").append(STEP_MARKER).append(" ").append(i).
+                append(" ${CASTLE_RC}\"\n");
+            bld.append("[ ${CASTLE_RC} -eq 0 ] || exit ${CASTLE_RC}\n");
+        }
+        return bld.toString();
+    }
+
+    /**
+     * Runs the batch.
+     *
+     * @return The exit status of the first step which failed, or 0 if all steps succeeded.
+     */
+    public int run() throws Exception {
+        return runBatch().returnCode;
+    }
+
+    /**
+     * Runs the batch, throwing an exception if any step fails.
+     *
+     * @throws CommandResultException   If a step fails.
+     */
+    public void mustRun() throws Exception {
+        BatchResult result = runBatch();
+        if (result.returnCode != 0) {
+            throw new CommandResultException(result.failedStep == null ?
+                Collections.singletonList("batch") : result.failedStep, result.returnCode);
+        }
+    }
+
+    private static final class BatchResult {
+        private final int returnCode;
+        private final List<String> failedStep;
+
+        BatchResult(int returnCode, List<String> failedStep) {
+            this.returnCode = returnCode;
+            this.failedStep = failedStep;
+        }
+    }
+
+    private BatchResult runBatch() throws Exception {
+        if (steps.isEmpty()) {
+            return new BatchResult(0, null);
+        }
+        StringBuilder output = new StringBuilder();
+        int returnCode = node.uplink().command().
+            captureOutput(output).
+            setStdin(toScript().getBytes(StandardCharsets.UTF_8)).
+            args("--", "bash", "-s").
+            run();
+        int numFinished = 0;
+        List<String> failedStep = null;
+        Matcher matcher = STEP_MARKER_PATTERN.matcher(output);
+        while (matcher.find()) {
+            int index = Integer.parseInt(matcher.group(1));
+            int stepReturnCode = Integer.parseInt(matcher.group(2));
+            if ((index < 0) || (index >= steps.size())) {
+                continue;
+            }
+            List<String> description = steps.get(index).description;
+            node.log().printf("** %s: STEP %d/%d %s finished with RESULT %d%n",
+                node.nodeName(), index + 1, steps.size(),
+                Command.joinArgs(description), stepReturnCode);
+            numFinished = Math.max(numFinished, index + 1);
+            if (stepReturnCode != 0) {
+                failedStep = description;
+            }
+        }
+        if ((returnCode != 0) && (failedStep == null)) {
+            // The batch failed outside of any step, for example because we could not connect.
+            if (numFinished < steps.size()) {
+                failedStep = steps.get(numFinished).description;
+                node.log().printf("** %s: STEP %d/%d %s did not complete.%n",
+                    node.nodeName(), numFinished + 1, steps.size(),
+                    Command.joinArgs(failedStep));
+            }
+        }
+        return new BatchResult(returnCode, failedStep);
+    }
+}
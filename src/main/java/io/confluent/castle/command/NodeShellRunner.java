@@ -18,38 +18,192 @@
 package io.confluent.castle.command;
 
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.common.CastleEvent;
 import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.CastleUtil;
 
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Runs a shell command for a node and captures the output to a log file, and
  * possibly a stringbuilder.
+ *
+ * If the output should only be logged when the command fails, just the last
+ * OUTPUT_TAIL_SIZE bytes of it are kept.
  */
 public class NodeShellRunner {
     private static final int OUTPUT_REDIRECTOR_BUFFER_SIZE = 32768;
 
     /**
-     * A thread which reads the stdout from the process we're running.
+     * How much of the end of a command's output we keep in memory, so that we
+     * can log it if the command fails.
+     */
+    static final int OUTPUT_TAIL_SIZE = 65536;
+
+    /**
+     * How long an idle stream pump thread waits for more work before exiting.
+     */
+    private static final long STREAM_PUMP_KEEP_ALIVE_MS = 60000;
+
+    /**
+     * The threads which copy process output to the logs.  These are shared by
+     * all commands, so that we don't create new threads for every command.
+     *
+     * The pool is not bounded: it holds two threads for every command which is
+     * running at the same time, one for stdout and one for stderr.  Reads from
+     * process pipes block, and a pump which is queued behind another command's
+     * pump could leave its process stuck on a full pipe, so a fixed-size pool
+     * could deadlock.  The real bound is the number of concurrent commands,
+     * which the scheduler's resource class limits control.  Idle threads are
+     * reused by later commands, and exit after STREAM_PUMP_KEEP_ALIVE_MS.
+     */
+    private static final ExecutorService STREAM_PUMPS = new ThreadPoolExecutor(0,
+        Integer.MAX_VALUE, STREAM_PUMP_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+        new SynchronousQueue<>(), CastleUtil.createThreadFactory("CastleStreamPump_%d", true));
+
+    /**
+     * Splits output into lines and passes them to a consumer.  Each line is
+     * decoded separately, so that multi-byte characters are never split.
+     */
+    static final class LineSplitter {
+        private final Consumer<String> lineConsumer;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        LineSplitter(Consumer<String> lineConsumer) {
+            this.lineConsumer = lineConsumer;
+        }
+
+        void write(byte[] arr, int off, int len) {
+            int start = off;
+            for (int i = off; i < off + len; i++) {
+                if (arr[i] == '\n') {
+                    line.write(arr, start, i - start);
+                    emit();
+                    start = i + 1;
+                }
+            }
+            line.write(arr, start, off + len - start);
+        }
+
+        void flush() {
+            if (line.size() > 0) {
+                emit();
+            }
+        }
+
+        private void emit() {
+            lineConsumer.accept(new String(line.toByteArray(), StandardCharsets.UTF_8));
+            line.reset();
+        }
+    }
+
+    /**
+     * Decodes a stream of UTF-8 chunks into characters.  Multi-byte characters
+     * which are split across chunks are carried over to the next chunk.
+     */
+    static final class TextDecoder {
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder().
+            onMalformedInput(CodingErrorAction.REPLACE).
+            onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private ByteBuffer input = ByteBuffer.allocate(OUTPUT_REDIRECTOR_BUFFER_SIZE);
+        private final CharBuffer output = CharBuffer.allocate(OUTPUT_REDIRECTOR_BUFFER_SIZE);
+        private final Consumer<CharBuffer> charConsumer;
+
+        TextDecoder(Consumer<CharBuffer> charConsumer) {
+            this.charConsumer = charConsumer;
+        }
+
+        void write(byte[] arr, int off, int len) {
+            if (input.remaining() < len) {
+                ByteBuffer bigger = ByteBuffer.allocate(input.position() + len);
+                input.flip();
+                bigger.put(input);
+                input = bigger;
+            }
+            input.put(arr, off, len);
+            input.flip();
+            decode(false);
+            input.compact();
+        }
+
+        void flush() {
+            input.flip();
+            decode(true);
+            while (decoder.flush(output) == CoderResult.OVERFLOW) {
+                drain();
+            }
+            drain();
+            input.clear();
+            decoder.reset();
+        }
+
+        private void decode(boolean endOfInput) {
+            while (decoder.decode(input, output, endOfInput) == CoderResult.OVERFLOW) {
+                drain();
+            }
+            drain();
+        }
+
+        private void drain() {
+            output.flip();
+            if (output.hasRemaining()) {
+                charConsumer.accept(output);
+            }
+            output.clear();
+        }
+    }
+
+    /**
+     * Reads the stdout or stderr from the process we're running.
+     *
+     * The raw bytes go straight to the log and the output tail.  They are only
+     * decoded into text if someone has asked to capture the output.
      */
     private static final class OutputHandler implements Runnable {
         private final InputStream stream;
-        private final List<StringBuilder> stringBuilders;
+        private final TextDecoder textDecoder;
+        private final LineSplitter lineSplitter;
         private final CastleLog castleLog;
+        private final OutputTail outputTail;
         private final boolean newlineTerminate;
+        private long bytesRead = 0;
 
         OutputHandler(InputStream stream, List<StringBuilder> stringBuilders,
-                      CastleLog castleLog, boolean newlineTerminate) {
+                      Consumer<String> lineConsumer, CastleLog castleLog,
+                      OutputTail outputTail, boolean newlineTerminate) {
             this.stream = stream;
-            this.stringBuilders = stringBuilders;
+            this.textDecoder = stringBuilders.isEmpty() ? null :
+                new TextDecoder(chars -> {
+                    for (StringBuilder stringBuilder : stringBuilders) {
+                        synchronized (stringBuilder) {
+                            stringBuilder.append(chars, 0, chars.remaining());
+                        }
+                    }
+                });
+            this.lineSplitter = (lineConsumer == null) ? null : new LineSplitter(lineConsumer);
             this.castleLog = castleLog;
+            this.outputTail = outputTail;
             this.newlineTerminate = newlineTerminate;
         }
 
@@ -59,58 +213,42 @@ public class NodeShellRunner {
             boolean endedWithNewline = true;
             try {
                 while (true) {
-                    int ret = stream.read(arr, 0, arr.length - 1);
+                    int ret = stream.read(arr, 0, arr.length);
                     if (ret == -1) {
                         break;
                     }
-                    for (StringBuilder stringBuilder : stringBuilders) {
-                        synchronized (stringBuilder) {
-                            stringBuilder.append(new String(arr, 0, ret, StandardCharsets.UTF_8));
-                        }
+                    if (ret == 0) {
+                        continue;
+                    }
+                    bytesRead += ret;
+                    if (textDecoder != null) {
+                        textDecoder.write(arr, 0, ret);
+                    }
+                    if (lineSplitter != null) {
+                        lineSplitter.write(arr, 0, ret);
+                    }
+                    if (outputTail != null) {
+                        outputTail.write(arr, 0, ret);
                     }
                     if (castleLog != null) {
-                        synchronized (castleLog) {
-                            castleLog.write(arr, 0, ret);
-                        }
-                        if (ret >= 0) {
-                            endedWithNewline = (arr[ret] == '\n');
-                        }
+                        castleLog.write(arr, 0, ret);
+                        endedWithNewline = (arr[ret - 1] == '\n');
                     }
                 }
+                if (textDecoder != null) {
+                    textDecoder.flush();
+                }
+                if (lineSplitter != null) {
+                    lineSplitter.flush();
+                }
                 if (newlineTerminate && (!endedWithNewline)) {
-                    synchronized (castleLog) {
-                        castleLog.write(new byte[] {'\n'});
-                    }
+                    castleLog.write(new byte[] {'\n'});
                 }
             } catch (EOFException e) {
             } catch (IOException e) {
-                castleLog.printf("OutputHandler IOException: %s%n", e.getMessage());
-            }
-        }
-    }
-
-    /**
-     * A thread which writes to a process' stdin.
-     */
-    private static final class StdinHandler implements Runnable {
-        private final byte[] data;
-        private final OutputStream stream;
-        private final CastleLog castleLog;
-
-        StdinHandler(OutputStream stream, byte[] data, CastleLog castleLog) {
-            this.data = data;
-            this.stream = stream;
-            this.castleLog = castleLog;
-        }
-
-        @Override
-        public void run() {
-            try {
-                stream.write(data);
-                stream.close();
-            } catch (EOFException e) {
-            } catch (IOException e) {
-                castleLog.printf("StdinHandler IOException: %s%n", e.getMessage());
+                if (castleLog != null) {
+                    castleLog.printf("OutputHandler IOException: %s%n", e.getMessage());
+                }
             }
         }
     }
@@ -121,12 +259,18 @@ public class NodeShellRunner {
 
     private StringBuilder captureOutput = null;
 
+    private StringBuilder captureStderrOutput = null;
+
+    private Consumer<String> streamOutput = null;
+
     private boolean captureStderr = true;
 
     private boolean logOutputOnSuccess = true;
 
     private byte[] stdin = null;
 
+    private String stdinFile = null;
+
     public NodeShellRunner(CastleNode node, List<String> commandLine) {
         this.node = node;
         this.commandLine = commandLine;
@@ -137,6 +281,20 @@ public class NodeShellRunner {
         return this;
     }
 
+    /**
+     * Capture stderr to its own StringBuilder, rather than to the one which
+     * captures stdout.
+     */
+    public NodeShellRunner setCaptureStderrOutput(StringBuilder captureStderrOutput) {
+        this.captureStderrOutput = captureStderrOutput;
+        return this;
+    }
+
+    public NodeShellRunner setStreamOutput(Consumer<String> streamOutput) {
+        this.streamOutput = streamOutput;
+        return this;
+    }
+
     public NodeShellRunner setCaptureStderr(boolean captureStderr) {
         this.captureStderr = captureStderr;
         return this;
@@ -156,75 +314,126 @@ public class NodeShellRunner {
         return this;
     }
 
+    /**
+     * Use a local file as stdin.  The file is handed to the process directly,
+     * so it is never read into memory.
+     */
+    public NodeShellRunner setStdinFile(String stdinFile) {
+        this.stdinFile = stdinFile;
+        return this;
+    }
+
     public int run() throws Exception {
         ProcessBuilder builder = new ProcessBuilder(commandLine);
         builder.redirectErrorStream(false);
+        if (stdinFile != null) {
+            builder.redirectInput(new File(stdinFile));
+        }
         int retCode = 1;
         // Set up the string builders which will log the output.
         List<StringBuilder> stdoutBuilders = new ArrayList<>();
         List<StringBuilder> stderrBuilders = new ArrayList<>();
         if (captureOutput != null) {
             stdoutBuilders.add(captureOutput);
-            if (captureStderr) {
-                stderrBuilders.add(captureOutput);
-            }
         }
+        if (captureStderrOutput != null) {
+            stderrBuilders.add(captureStderrOutput);
+        } else if ((captureOutput != null) && captureStderr) {
+            stderrBuilders.add(captureOutput);
+        }
+        Consumer<String> stderrStream = captureStderr ? streamOutput : null;
         OutputHandler stdoutHandler = null, stderrHandler = null;
-        StdinHandler stdinHandler = null;
-        StringBuilder errorStringBuilder = null;
-        Thread stdoutThread = null, stderrThread = null, stdinThread = null;
+        OutputTail outputTail = null;
+        Future<?> stdoutFuture = null, stderrFuture = null;
         Process process = null;
+        String joinedArgs = Command.joinArgs(commandLine);
+        long startMs = System.currentTimeMillis();
         try {
-            node.log().printf("** %s: RUNNING %s%n", node.nodeName(), Command.joinArgs(commandLine));
-            process = builder.start();
-            if (stdin != null) {
-                stdinHandler = new StdinHandler(process.getOutputStream(), stdin, node.log());
-                stdinThread = new Thread(stdinHandler, "CastleSshStdin_" + node.nodeName());
-                stdinThread.start();
+            node.log().printf("** %s: RUNNING %s%n", node.nodeName(), joinedArgs);
+            if (node.log().eventsEnabled()) {
+                node.log().event(CastleEvent.commandStart(node.nodeName(), joinedArgs));
             }
+            process = builder.start();
             if (logOutputOnSuccess) {
-                stdoutHandler = new OutputHandler(process.getInputStream(), stdoutBuilders, node.log(), true);
-                stderrHandler = new OutputHandler(process.getErrorStream(), stderrBuilders, node.log(), false);
+                stdoutHandler = new OutputHandler(process.getInputStream(), stdoutBuilders,
+                    streamOutput, node.log(), null, true);
+                stderrHandler = new OutputHandler(process.getErrorStream(), stderrBuilders,
+                    stderrStream, node.log(), null, false);
             } else {
-                errorStringBuilder = new StringBuilder();
-                stdoutBuilders.add(errorStringBuilder);
-                stderrBuilders.add(errorStringBuilder);
-                stdoutHandler = new OutputHandler(process.getInputStream(), stdoutBuilders, null, false);
-                stderrHandler = new OutputHandler(process.getErrorStream(), stderrBuilders, null, false);
+                outputTail = new OutputTail(OUTPUT_TAIL_SIZE);
+                stdoutHandler = new OutputHandler(process.getInputStream(), stdoutBuilders,
+                    streamOutput, null, outputTail, false);
+                stderrHandler = new OutputHandler(process.getErrorStream(), stderrBuilders,
+                    stderrStream, null, outputTail, false);
             }
-            stdoutThread = new Thread(stdoutHandler, "CastleSshStdout_" + node.nodeName());
-            stdoutThread.start();
-            stderrThread = new Thread(stderrHandler, "CastleSshStderr_" + node.nodeName());
-            stderrThread.start();
-            retCode = process.waitFor();
-            stdoutThread.join();
-            stderrThread.join();
-            if (stdinThread != null) {
-                stdinThread.join();
+            stdoutFuture = STREAM_PUMPS.submit(stdoutHandler);
+            stderrFuture = STREAM_PUMPS.submit(stderrHandler);
+            // The output is being drained in the background, so we can write
+            // stdin from this thread without risking a deadlock.
+            if (stdin != null) {
+                writeStdin(process.getOutputStream());
             }
+            retCode = process.waitFor();
+            awaitPump(stdoutFuture);
+            stdoutFuture = null;
+            awaitPump(stderrFuture);
+            stderrFuture = null;
             node.log().printf("** %s: FINISHED %s with RESULT %d%n",
-                node.nodeName(), Command.joinArgs(commandLine), retCode);
+                node.nodeName(), joinedArgs, retCode);
         } finally {
             if (process != null) {
                 process.destroy();
                 process.waitFor();
             }
-            if (stdoutThread != null) {
-                stdoutThread.join();
+            if (stdoutFuture != null) {
+                awaitPump(stdoutFuture);
             }
-            if (stderrThread != null) {
-                stderrThread.join();
+            if (stderrFuture != null) {
+                awaitPump(stderrFuture);
             }
-            if (stdinThread != null) {
-                stdinThread.join();
+            if ((outputTail != null) && (retCode != 0)) {
+                logOutputTail(outputTail);
             }
-            if ((errorStringBuilder != null) && (retCode != 0)) {
-                node.log().print(errorStringBuilder.toString());
+            if (node.log().eventsEnabled()) {
+                long outputBytes = ((stdoutHandler == null) ? 0 : stdoutHandler.bytesRead) +
+                    ((stderrHandler == null) ? 0 : stderrHandler.bytesRead);
+                node.log().event(CastleEvent.commandEnd(node.nodeName(), joinedArgs, retCode,
+                    System.currentTimeMillis() - startMs, outputBytes));
             }
         }
         return retCode;
     }
 
+    private void writeStdin(OutputStream stream) {
+        try {
+            stream.write(stdin);
+            stream.close();
+        } catch (IOException e) {
+            node.log().printf("Stdin IOException: %s%n", e.getMessage());
+        }
+    }
+
+    private void awaitPump(Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            node.log().printf("OutputHandler error: %s%n",
+                CastleUtil.fullStackTrace(e.getCause()));
+        }
+    }
+
+    private void logOutputTail(OutputTail outputTail) throws IOException {
+        if (outputTail.droppedBytes() > 0) {
+            node.log().printf("** %s: OMITTED the first %d of %d bytes of output%n",
+                node.nodeName(), outputTail.droppedBytes(), outputTail.totalBytes());
+        }
+        byte[] tail = outputTail.toByteArray();
+        node.log().write(tail);
+        if ((tail.length > 0) && (tail[tail.length - 1] != '\n')) {
+            node.log().write(new byte[] {'\n'});
+        }
+    }
+
     public void mustRun() throws Exception {
         int returnCode = run();
         if (returnCode != 0) {
@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+/**
+ * A fixed-size ring buffer which keeps the last bytes written to it.
+ *
+ * This is used to hold on to the end of a command's output, so that it can be
+ * logged if the command fails, without buffering all of the output.
+ */
+final class OutputTail {
+    private final byte[] buffer;
+
+    /**
+     * The total number of bytes ever written.
+     */
+    private long totalBytes = 0;
+
+    OutputTail(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive.");
+        }
+        this.buffer = new byte[capacity];
+    }
+
+    synchronized void write(byte[] arr, int off, int len) {
+        totalBytes += len;
+        if (len >= buffer.length) {
+            // Only the end of this chunk will fit.
+            off += len - buffer.length;
+            len = buffer.length;
+        }
+        int pos = (int) ((totalBytes - len) % buffer.length);
+        int first = Math.min(len, buffer.length - pos);
+        System.arraycopy(arr, off, buffer, pos, first);
+        System.arraycopy(arr, off + first, buffer, 0, len - first);
+    }
+
+    /**
+     * Returns the total number of bytes written, including those which no
+     * longer fit in the buffer.
+     */
+    synchronized long totalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Returns the bytes which were dropped from the front of the buffer.
+     */
+    synchronized long droppedBytes() {
+        return Math.max(0, totalBytes - buffer.length);
+    }
+
+    /**
+     * Returns the bytes in the buffer, oldest first.
+     */
+    synchronized byte[] toByteArray() {
+        int size = (int) Math.min(totalBytes, buffer.length);
+        byte[] result = new byte[size];
+        int start = (int) ((totalBytes - size) % buffer.length);
+        int first = Math.min(size, buffer.length - start);
+        System.arraycopy(buffer, start, result, 0, first);
+        System.arraycopy(buffer, 0, result, first, size - first);
+        return result;
+    }
+}
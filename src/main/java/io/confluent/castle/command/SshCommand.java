@@ -23,6 +23,7 @@ import io.confluent.castle.common.CastleUtil;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * A command implementation that uses ssh to contact the node.
@@ -38,6 +39,8 @@ public class SshCommand implements Command {
 
     private final String sshIdentityFile;
 
+    private final SshConnectionPool connectionPool;
+
     private Operation operation = Operation.SSH;
 
     private List<String> args = null;
@@ -50,14 +53,26 @@ public class SshCommand implements Command {
 
     private StringBuilder stringBuilder = null;
 
+    private StringBuilder stderrBuilder = null;
+
+    private Consumer<String> lineConsumer = null;
+
     private byte[] stdin = null;
 
+    private String stdinFile = null;
+
     public SshCommand(CastleNode node, String dns, String sshUser, int sshPort, String sshIdentityFile) {
+        this(node, dns, sshUser, sshPort, sshIdentityFile, null);
+    }
+
+    public SshCommand(CastleNode node, String dns, String sshUser, int sshPort,
+                      String sshIdentityFile, SshConnectionPool connectionPool) {
         this.node = node;
         this.dns = dns;
         this.sshUser = sshUser;
         this.sshPort = sshPort;
         this.sshIdentityFile = sshIdentityFile;
+        this.connectionPool = connectionPool;
     }
 
     @Override
@@ -98,6 +113,18 @@ public class SshCommand implements Command {
         return this;
     }
 
+    @Override
+    public Command captureStderr(StringBuilder stderrBuilder) {
+        this.stderrBuilder = stderrBuilder;
+        return this;
+    }
+
+    @Override
+    public Command streamOutput(Consumer<String> lineConsumer) {
+        this.lineConsumer = lineConsumer;
+        return this;
+    }
+
     @Override
     public Command setCaptureStderr(boolean captureStderr) {
         this.captureStderr = captureStderr;
@@ -111,6 +138,14 @@ public class SshCommand implements Command {
         } else {
             this.stdin = Arrays.copyOf(stdin, stdin.length);
         }
+        this.stdinFile = null;
+        return this;
+    }
+
+    @Override
+    public Command setStdinFile(String path) {
+        this.stdin = null;
+        this.stdinFile = path;
         return this;
     }
 
@@ -118,8 +153,11 @@ public class SshCommand implements Command {
     public int run() throws Exception {
         return new NodeShellRunner(node, makeCommandLine()).
             setCaptureOutput(stringBuilder).
+            setCaptureStderrOutput(stderrBuilder).
+            setStreamOutput(lineConsumer).
             setCaptureStderr(captureStderr).
             setStdin(stdin).
+            setStdinFile(stdinFile).
             run();
     }
 
@@ -127,8 +165,11 @@ public class SshCommand implements Command {
     public void mustRun() throws Exception {
         new NodeShellRunner(node, makeCommandLine()).
             setCaptureOutput(stringBuilder).
+            setCaptureStderrOutput(stderrBuilder).
+            setStreamOutput(lineConsumer).
             setCaptureStderr(captureStderr).
             setStdin(stdin).
+            setStdinFile(stdinFile).
             mustRun();
     }
 
@@ -136,8 +177,11 @@ public class SshCommand implements Command {
     public void exec() throws Exception {
         new NodeShellRunner(node, makeCommandLine()).
             setCaptureOutput(stringBuilder).
+            setCaptureStderrOutput(stderrBuilder).
+            setStreamOutput(lineConsumer).
             setCaptureStderr(captureStderr).
             setStdin(stdin).
+            setStdinFile(stdinFile).
             exec();
     }
 
@@ -146,6 +190,9 @@ public class SshCommand implements Command {
         if (dns.isEmpty()) {
             throw new RuntimeException("No DNS address configured for " + node.nodeName());
         }
+        if (connectionPool != null) {
+            connectionPool.onConnect(createSshCommandPreamble(), dns, sshUser, sshPort);
+        }
         switch (operation) {
             case SSH:
                 if (args == null) {
@@ -213,6 +260,11 @@ public class SshCommand implements Command {
         commandLine.add("-o");
         commandLine.add("UserKnownHostsFile=/dev/null");
 
+        // Share one ssh session per node, if configured.
+        if (connectionPool != null) {
+            commandLine.addAll(connectionPool.controlOptions(dns, sshUser, sshPort));
+        }
+
         return commandLine;
     }
 
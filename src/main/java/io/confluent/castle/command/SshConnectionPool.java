@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.cluster.CastleNode;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares a single authenticated ssh session per node across all of the ssh
+ * and rsync commands which Castle runs.
+ *
+ * This uses OpenSSH's ControlMaster support.  The first command to a given
+ * destination becomes the master and leaves a control socket behind.
+ * Subsequent commands are multiplexed over that socket, skipping the TCP
+ * and key exchange handshake.  The master is kept alive by ControlPersist
+ * until the pool is closed.
+ */
+public final class SshConnectionPool implements AutoCloseable {
+    /**
+     * How long an idle master connection should stay around.  We explicitly
+     * shut down the masters when the pool is closed, so this only matters if
+     * Castle exits abnormally.
+     */
+    private static final int CONTROL_PERSIST_SECONDS = 300;
+
+    private final CastleNode node;
+
+    private final File controlDirectory;
+
+    private final String controlPrefix;
+
+    /**
+     * Maps control socket paths to the ssh arguments needed to reach the
+     * master behind them.  Protected by the object lock.
+     */
+    private final Map<String, List<String>> masters = new TreeMap<>();
+
+    private final AtomicLong handshakes = new AtomicLong(0);
+
+    private final AtomicLong handshakesSaved = new AtomicLong(0);
+
+    private boolean closed = false;
+
+    public SshConnectionPool(CastleNode node, String workingDirectory) {
+        this(node, new File(System.getProperty("java.io.tmpdir")), workingDirectory);
+    }
+
+    SshConnectionPool(CastleNode node, File controlDirectory, String workingDirectory) {
+        this.node = node;
+        this.controlDirectory = controlDirectory;
+        // Unix domain socket paths are limited to about 100 bytes, so we can't
+        // put them in the working directory.  Use a short hash of it instead, so that
+        // concurrent castle clusters don't share sockets.
+        this.controlPrefix = String.format("castle-%08x-%d",
+            workingDirectory.hashCode(), node.nodeIndex());
+    }
+
+    /**
+     * Get the path of the control socket for a given destination.
+     *
+     * The destination is part of the path, so that we never reuse a master
+     * connection to a node which has since been re-created at another address.
+     */
+    public String controlPath(String dns, String sshUser, int sshPort) {
+        String destination = sshUser + "@" + dns + ":" + sshPort;
+        return new File(controlDirectory, String.format("%s-%08x",
+            controlPrefix, destination.hashCode())).getAbsolutePath();
+    }
+
+    /**
+     * Get the ssh options which enable connection sharing for a destination.
+     */
+    public List<String> controlOptions(String dns, String sshUser, int sshPort) {
+        return Arrays.asList(new String[] {
+            "-o", "ControlMaster=auto",
+            "-o", "ControlPath=" + controlPath(dns, sshUser, sshPort),
+            "-o", "ControlPersist=" + CONTROL_PERSIST_SECONDS
+        });
+    }
+
+    /**
+     * Record that we are about to connect to the given destination.
+     *
+     * @param preamble      The ssh preamble to use when talking to the master.
+     * @param dns           The destination address.
+     * @param sshUser       The ssh user.
+     * @param sshPort       The ssh port.
+     */
+    public void onConnect(List<String> preamble, String dns, String sshUser, int sshPort) {
+        String controlPath = controlPath(dns, sshUser, sshPort);
+        if (new File(controlPath).exists()) {
+            handshakesSaved.incrementAndGet();
+        } else {
+            handshakes.incrementAndGet();
+        }
+        synchronized (this) {
+            if (!masters.containsKey(controlPath)) {
+                List<String> args = new ArrayList<>(preamble);
+                args.add(dns);
+                masters.put(controlPath, args);
+            }
+        }
+    }
+
+    /**
+     * The number of commands which had to establish a new ssh session.
+     */
+    public long handshakes() {
+        return handshakes.get();
+    }
+
+    /**
+     * The number of commands which reused an existing ssh session.
+     */
+    public long handshakesSaved() {
+        return handshakesSaved.get();
+    }
+
+    /**
+     * Shut down all master connections.
+     */
+    @Override
+    public synchronized void close() throws Exception {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Map.Entry<String, List<String>> entry : masters.entrySet()) {
+            if (!new File(entry.getKey()).exists()) {
+                continue;
+            }
+            List<String> commandLine = new ArrayList<>(entry.getValue());
+            commandLine.add(commandLine.size() - 1, "-O");
+            commandLine.add(commandLine.size() - 1, "exit");
+            new NodeShellRunner(node, commandLine).
+                setLogOutputOnSuccess(false).
+                run();
+        }
+        masters.clear();
+        node.log().printf("** %s: ssh connection pool made %d handshake(s) and saved %d.%n",
+            node.nodeName(), handshakes.get(), handshakesSaved.get());
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * An output stream which writes to a file in the background.
+ *
+ * Writers append chunks to a lock-free queue and return immediately.  A
+ * single drainer thread, shared by every AsyncLogWriter, drains each queue
+ * which has data into a buffer, and writes the buffer to the file whenever
+ * it fills up, or the queue runs dry.  If the drainer falls too far behind,
+ * writers block until it catches up, so that memory use stays bounded.
+ */
+final class AsyncLogWriter extends OutputStream {
+    /**
+     * The size of the buffer used for writing to the file.
+     */
+    static final int BUFFER_SIZE = 65536;
+
+    /**
+     * The maximum number of bytes which can be waiting to be written before
+     * writers start blocking.
+     */
+    static final long MAX_PENDING_BYTES = 8L * 1024L * 1024L;
+
+    /**
+     * The maximum number of bytes the drainer writes for one writer before
+     * moving on to the next one, so that a busy log can't starve the others.
+     */
+    private static final int MAX_BYTES_PER_DRAIN = 16 * BUFFER_SIZE;
+
+    private static final long BACKPRESSURE_WAIT_MS = 10;
+
+    private static final Drainer DRAINER = new Drainer();
+
+    /**
+     * The thread which drains every AsyncLogWriter.
+     */
+    private static final class Drainer implements Runnable {
+        /**
+         * The writers which have data or flush requests waiting.
+         */
+        private final ConcurrentLinkedQueue<AsyncLogWriter> ready = new ConcurrentLinkedQueue<>();
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        /**
+         * True while the drainer thread is parked, waiting for a writer.
+         */
+        private volatile boolean idle = false;
+
+        private final Thread thread;
+
+        Drainer() {
+            this.thread = CastleUtil.createThreadFactory("CastleLogWriter", true).
+                newThread(this);
+            this.thread.start();
+        }
+
+        void submit(AsyncLogWriter writer) {
+            ready.offer(writer);
+            if (idle) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        boolean isAlive() {
+            return thread.isAlive();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                AsyncLogWriter writer = ready.poll();
+                if (writer != null) {
+                    writer.drain(buffer);
+                    continue;
+                }
+                idle = true;
+                if (ready.isEmpty()) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+            }
+        }
+    }
+
+    private final FileChannel channel;
+
+    /**
+     * Each element is a group of chunks which must be written together.
+     */
+    private final ConcurrentLinkedQueue<byte[][]> queue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong pendingBytes = new AtomicLong(0);
+
+    /**
+     * True while this writer is waiting for the drainer to get to it.
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    /**
+     * The total number of bytes which have been queued.
+     */
+    private final AtomicLong queuedBytes = new AtomicLong(0);
+
+    /**
+     * The total number of bytes which the drainer has written to the file.
+     * Protected by the object lock.
+     */
+    private long writtenBytes = 0;
+
+    private volatile boolean closing = false;
+
+    /**
+     * The first error the drainer hit, or null if there was none.
+     */
+    private volatile IOException error = null;
+
+    static AsyncLogWriter open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return new AsyncLogWriter(channel);
+    }
+
+    AsyncLogWriter(FileChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws IOException {
+        if (closing || (len == 0)) {
+            return;
+        }
+        // Callers often reuse their buffers, so we must make a copy.
+        enqueue(new byte[][] {Arrays.copyOfRange(buf, off, off + len)}, len);
+    }
+
+    /**
+     * Write some chunks, one after the other, without copying them.  Chunks
+     * from concurrent calls are never interleaved.  The caller hands the
+     * chunks over, and must not modify them afterwards.
+     */
+    void writeOwned(byte[]... chunks) throws IOException {
+        if (closing) {
+            return;
+        }
+        long len = 0;
+        for (byte[] chunk : chunks) {
+            len += chunk.length;
+        }
+        enqueue(chunks, len);
+    }
+
+    private void enqueue(byte[][] chunks, long len) throws IOException {
+        // Count the bytes before queueing them, so that a flush never misses them.
+        queuedBytes.addAndGet(len);
+        queue.offer(chunks);
+        long pending = pendingBytes.addAndGet(len);
+        schedule();
+        if (pending > MAX_PENDING_BYTES) {
+            waitForWriter();
+        }
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            DRAINER.submit(this);
+        }
+    }
+
+    private synchronized void waitForWriter() throws IOException {
+        while ((pendingBytes.get() > MAX_PENDING_BYTES) && DRAINER.isAlive()) {
+            try {
+                wait(BACKPRESSURE_WAIT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the log writer.", e);
+            }
+        }
+    }
+
+    /**
+     * Wait until everything written before this call has reached the file.
+     * If a write failed, the error is thrown here.
+     */
+    @Override
+    public void flush() throws IOException {
+        long target = queuedBytes.get();
+        schedule();
+        synchronized (this) {
+            while ((writtenBytes < target) && DRAINER.isAlive()) {
+                try {
+                    wait(BACKPRESSURE_WAIT_MS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while flushing the log.", e);
+                }
+            }
+        }
+        IOException e = error;
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closing) {
+            return;
+        }
+        closing = true;
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Write the queued chunks to the file.  This is only called by the
+     * drainer thread.
+     */
+    private void drain(ByteBuffer buffer) {
+        // Clear the flag before looking at the queue.  Anything queued after
+        // this point schedules us again.
+        scheduled.set(false);
+        long drained = 0;
+        while (drained < MAX_BYTES_PER_DRAIN) {
+            byte[][] chunks = queue.poll();
+            if (chunks == null) {
+                break;
+            }
+            long len = 0;
+            for (byte[] chunk : chunks) {
+                int off = 0;
+                while (off < chunk.length) {
+                    int n = Math.min(buffer.remaining(), chunk.length - off);
+                    buffer.put(chunk, off, n);
+                    off += n;
+                    if (!buffer.hasRemaining()) {
+                        writeBuffer(buffer);
+                    }
+                }
+                len += chunk.length;
+            }
+            pendingBytes.addAndGet(-len);
+            drained += len;
+        }
+        writeBuffer(buffer);
+        if (!queue.isEmpty()) {
+            // Let the other writers have a turn before we finish.
+            schedule();
+        }
+        synchronized (this) {
+            writtenBytes += drained;
+            notifyAll();
+        }
+    }
+
+    private void writeBuffer(ByteBuffer buffer) {
+        buffer.flip();
+        try {
+            if (error == null) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            buffer.clear();
+        }
+    }
+}
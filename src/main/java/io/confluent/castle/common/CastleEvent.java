@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.common;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A structured event in a castle event log.
+ *
+ * Event logs are JSON Lines files which are written next to the human-readable
+ * .clog files.  Fields which don't apply to an event type are left out.
+ */
+public final class CastleEvent {
+    public static final String ACTION_START = "actionStart";
+    public static final String ACTION_END = "actionEnd";
+    public static final String COMMAND_START = "commandStart";
+    public static final String COMMAND_END = "commandEnd";
+
+    private final long timeMs;
+    private final String node;
+    private final String type;
+    private final String action;
+    private final String command;
+    private final Integer exitCode;
+    private final Long durationMs;
+    private final Long outputBytes;
+
+    @JsonCreator
+    public CastleEvent(@JsonProperty("timeMs") long timeMs,
+                       @JsonProperty("node") String node,
+                       @JsonProperty("type") String type,
+                       @JsonProperty("action") String action,
+                       @JsonProperty("command") String command,
+                       @JsonProperty("exitCode") Integer exitCode,
+                       @JsonProperty("durationMs") Long durationMs,
+                       @JsonProperty("outputBytes") Long outputBytes) {
+        this.timeMs = timeMs;
+        this.node = node;
+        this.type = type;
+        this.action = action;
+        this.command = command;
+        this.exitCode = exitCode;
+        this.durationMs = durationMs;
+        this.outputBytes = outputBytes;
+    }
+
+    public static CastleEvent actionStart(String node, String action) {
+        return new CastleEvent(System.currentTimeMillis(), node, ACTION_START, action,
+            null, null, null, null);
+    }
+
+    public static CastleEvent actionEnd(String node, String action, boolean succeeded,
+                                        long durationMs) {
+        return new CastleEvent(System.currentTimeMillis(), node, ACTION_END, action,
+            null, succeeded ? 0 : 1, durationMs, null);
+    }
+
+    public static CastleEvent commandStart(String node, String command) {
+        return new CastleEvent(System.currentTimeMillis(), node, COMMAND_START, null,
+            command, null, null, null);
+    }
+
+    public static CastleEvent commandEnd(String node, String command, int exitCode,
+                                         long durationMs, long outputBytes) {
+        return new CastleEvent(System.currentTimeMillis(), node, COMMAND_END, null,
+            command, exitCode, durationMs, outputBytes);
+    }
+
+    /**
+     * Return a copy of this event with the action set.
+     */
+    public CastleEvent withAction(String action) {
+        return new CastleEvent(timeMs, node, type, action, command, exitCode,
+            durationMs, outputBytes);
+    }
+
+    @JsonProperty
+    public long timeMs() {
+        return timeMs;
+    }
+
+    @JsonProperty
+    public String node() {
+        return node;
+    }
+
+    @JsonProperty
+    public String type() {
+        return type;
+    }
+
+    /**
+     * The action this event is part of, or null if it is not part of an action.
+     */
+    @JsonProperty
+    public String action() {
+        return action;
+    }
+
+    @JsonProperty
+    public String command() {
+        return command;
+    }
+
+    @JsonProperty
+    public Integer exitCode() {
+        return exitCode;
+    }
+
+    @JsonProperty
+    public Long durationMs() {
+        return durationMs;
+    }
+
+    @JsonProperty
+    public Long outputBytes() {
+        return outputBytes;
+    }
+}
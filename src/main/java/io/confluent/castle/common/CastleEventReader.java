@@ -0,0 +1,54 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.common;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+
+/**
+ * Reads a castle event log one event at a time.
+ *
+ * Events are parsed lazily, so arbitrarily large logs can be processed in
+ * constant memory.
+ */
+public final class CastleEventReader implements Iterator<CastleEvent>, AutoCloseable {
+    private final MappingIterator<CastleEvent> iterator;
+
+    public CastleEventReader(File file) throws IOException {
+        this.iterator = JSON_SERDE.readerFor(CastleEvent.class).readValues(file);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return iterator.hasNext();
+    }
+
+    @Override
+    public CastleEvent next() {
+        return iterator.next();
+    }
+
+    @Override
+    public void close() throws IOException {
+        iterator.close();
+    }
+}
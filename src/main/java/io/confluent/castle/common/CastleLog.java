@@ -17,6 +17,8 @@
 
 package io.confluent.castle.common;
 
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
@@ -24,28 +26,83 @@ import org.slf4j.helpers.FormattingTuple;
 import org.slf4j.helpers.MessageFormatter;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 
 public final class CastleLog implements AutoCloseable, Logger {
     private static final Logger log = LoggerFactory.getLogger(CastleLog.class);
 
+    /**
+     * The suffix of the human-readable log files.
+     */
+    public static final String LOG_SUFFIX = ".clog";
+
+    /**
+     * The suffix of the structured event log files.
+     */
+    public static final String EVENT_LOG_SUFFIX = ".events.jsonl";
+
+    private static final ObjectWriter EVENT_WRITER =
+        JsonUtil.JSON_SERDE.writer().without(SerializationFeature.INDENT_OUTPUT);
+
+    private static final byte[] NEWLINE = new byte[] {'\n'};
+
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss ").withZone(ZoneId.systemDefault());
+
+    /**
+     * A formatted timestamp prefix, and the second which it is for.
+     */
+    private static final class TimestampPrefix {
+        private final long second;
+        private final byte[] bytes;
+
+        TimestampPrefix(long second) {
+            this.second = second;
+            this.bytes = TIMESTAMP_FORMATTER.format(Instant.ofEpochSecond(second)).
+                getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * The most recently used timestamp prefix.  Log lines come in bursts, so
+     * we usually only need to format the timestamp once per second.
+     */
+    private static volatile TimestampPrefix cachedPrefix = new TimestampPrefix(0);
+
     private final String name;
-    private OutputStream outputStream;
+    private volatile OutputStream outputStream;
+    private volatile OutputStream eventStream = null;
+    private volatile String currentAction = null;
     private final boolean enableDebug;
 
     public static CastleLog fromFile(String logBase, String nodeName, boolean enableDebug) throws IOException {
-        File file = new File(new File(logBase), nodeName + ".clog");
-        FileOutputStream outputStream = new FileOutputStream(file, true);
+        return fromFile(logBase, nodeName, enableDebug, false);
+    }
+
+    /**
+     * Create a log which writes to a file.
+     *
+     * @param writeEvents   If true, structured events are also written to a
+     *                      separate JSON Lines file.
+     */
+    public static CastleLog fromFile(String logBase, String nodeName, boolean enableDebug,
+                                     boolean writeEvents) throws IOException {
+        File file = new File(new File(logBase), nodeName + LOG_SUFFIX);
+        AsyncLogWriter outputStream = AsyncLogWriter.open(file.toPath());
         CastleLog log = null;
         try {
             log = new CastleLog(nodeName, outputStream, enableDebug);
+            if (writeEvents) {
+                log.eventStream = AsyncLogWriter.open(
+                    new File(new File(logBase), nodeName + EVENT_LOG_SUFFIX).toPath());
+            }
         } finally {
-            if (log == null) {
+            if ((log == null) || (writeEvents && (log.eventStream == null))) {
                 try {
                     outputStream.close();
                 } catch (Throwable throwable) {
@@ -87,11 +144,19 @@ public final class CastleLog implements AutoCloseable, Logger {
         }
     }
 
+    private static byte[] timestampPrefix() {
+        long second = System.currentTimeMillis() / 1000;
+        TimestampPrefix prefix = cachedPrefix;
+        if (prefix.second != second) {
+            prefix = new TimestampPrefix(second);
+            cachedPrefix = prefix;
+        }
+        return prefix.bytes;
+    }
+
     public void print(String str) {
         try {
-            String prefix = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").
-                format(new Date()) + " ";
-            write((prefix + str).getBytes(StandardCharsets.UTF_8));
+            writeOwned(outputStream, timestampPrefix(), str.getBytes(StandardCharsets.UTF_8));
             if (log.isTraceEnabled()) {
                 if ((str.length() > 0) && (str.charAt(str.length() - 1) == '\n')) {
                     str = str.substring(0, str.length() - 1);
@@ -107,6 +172,42 @@ public final class CastleLog implements AutoCloseable, Logger {
         print(String.format(format, args));
     }
 
+    /**
+     * Returns true if this log writes structured events.
+     */
+    public boolean eventsEnabled() {
+        return eventStream != null;
+    }
+
+    /**
+     * Set the action which subsequent events are part of.
+     *
+     * @param actionId      The action ID, or null if no action is running.
+     */
+    public void setCurrentAction(String actionId) {
+        this.currentAction = actionId;
+    }
+
+    /**
+     * Write a structured event.  If the event doesn't name an action, it is
+     * attributed to the current action.
+     */
+    public void event(CastleEvent event) {
+        OutputStream stream = eventStream;
+        if (stream == null) {
+            return;
+        }
+        String action = currentAction;
+        if ((event.action() == null) && (action != null)) {
+            event = event.withAction(action);
+        }
+        try {
+            writeOwned(stream, EVENT_WRITER.writeValueAsBytes(event), NEWLINE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     void log(String msg, Object[] objs) {
         FormattingTuple tuple = MessageFormatter.arrayFormat(msg, objs);
         if (tuple.getThrowable() == null) {
@@ -120,24 +221,69 @@ public final class CastleLog implements AutoCloseable, Logger {
         print(msg + System.lineSeparator());
     }
 
-    public synchronized void write(byte[] buf) throws IOException {
-        if (outputStream != null) {
-            outputStream.write(buf);
+    public void write(byte[] buf) throws IOException {
+        write(buf, 0, buf.length);
+    }
+
+    public void write(byte[] buf, int off, int len) throws IOException {
+        OutputStream stream = outputStream;
+        if (stream instanceof AsyncLogWriter) {
+            // The async writer is thread-safe, so we don't need to lock here.
+            stream.write(buf, off, len);
+        } else if (stream != null) {
+            synchronized (this) {
+                stream.write(buf, off, len);
+            }
+        }
+    }
+
+    /**
+     * Write two chunks to a stream, one after the other.  The chunks must not
+     * be modified afterwards, since an AsyncLogWriter queues them without
+     * making a copy.  The timestamp prefixes and NEWLINE are never modified,
+     * so they can be shared.
+     */
+    private void writeOwned(OutputStream stream, byte[] first, byte[] second)
+            throws IOException {
+        if (stream instanceof AsyncLogWriter) {
+            ((AsyncLogWriter) stream).writeOwned(first, second);
+        } else if (stream != null) {
+            synchronized (this) {
+                stream.write(first);
+                stream.write(second);
+            }
         }
     }
 
-    public synchronized void write(byte[] buf, int off, int len) throws IOException {
-        if (outputStream != null) {
-            outputStream.write(buf, off, len);
+    /**
+     * Wait until everything logged so far has been written out.
+     */
+    public void flush() throws IOException {
+        OutputStream stream = outputStream;
+        if (stream != null) {
+            stream.flush();
+        }
+        OutputStream events = eventStream;
+        if (events != null) {
+            events.flush();
         }
     }
 
     @Override
     public synchronized void close() throws IOException {
-        if (outputStream != null) {
-            outputStream.close();
-        }
+        OutputStream stream = outputStream;
+        OutputStream events = eventStream;
         outputStream = null;
+        eventStream = null;
+        try {
+            if (events != null) {
+                events.close();
+            }
+        } finally {
+            if (stream != null) {
+                stream.close();
+            }
+        }
     }
 
     @Override
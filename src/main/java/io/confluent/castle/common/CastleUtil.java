@@ -22,9 +22,12 @@ import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.tool.CastleReturnCode;
 import org.slf4j.Logger;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -56,6 +59,41 @@ public final class CastleUtil {
         return bld.toString();
     }
 
+    /**
+     * Run a command on the local machine, and wait for it to finish.
+     *
+     * @param commandLine   The command to run.
+     * @return              The combined stdout and stderr of the command.
+     * @throws RuntimeException If the command returns a non-zero exit status.
+     */
+    public static String runLocalCommand(List<String> commandLine) throws Exception {
+        ProcessBuilder builder = new ProcessBuilder(commandLine);
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream stream = process.getInputStream()) {
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = stream.read(buf)) != -1) {
+                output.write(buf, 0, len);
+            }
+        }
+        int retCode = process.waitFor();
+        String outputString = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        if (retCode != 0) {
+            throw new RuntimeException("Failed to run " + join(commandLine, " ") +
+                ": exit status " + retCode + ": " + outputString);
+        }
+        return outputString;
+    }
+
+    /**
+     * Get the SHA-256 hash of a string, as a hex string.
+     */
+    public static String sha256Hex(String value) {
+        return SourceManifest.hex(SourceManifest.sha256(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
     public static void closeQuietly(Logger log, AutoCloseable closeable, String what) {
         try {
             if (closeable != null) {
@@ -133,6 +171,31 @@ public final class CastleUtil {
         }
     }
 
+    /**
+     * Wait for a condition to become true, polling with exponential backoff.
+     *
+     * @param initialPollIntervalMs     The initial delay between polls.
+     * @param maxPollIntervalMs         The maximum delay between polls.
+     * @param maxWaitTimeMs             The maximum time to wait.
+     * @param callable                  The condition to check.
+     */
+    public final static void waitForWithBackoff(int initialPollIntervalMs, int maxPollIntervalMs,
+            int maxWaitTimeMs, Callable<Boolean> callable) throws Exception {
+        long startMs = System.currentTimeMillis();
+        long pollIntervalMs = initialPollIntervalMs;
+        while (true) {
+            if (callable.call()) {
+                return;
+            }
+            long currentMs = System.currentTimeMillis();
+            if (currentMs - startMs > maxWaitTimeMs) {
+                throw new RuntimeException("Timed out waiting for " + callable.toString());
+            }
+            Thread.sleep(pollIntervalMs);
+            pollIntervalMs = Math.min(pollIntervalMs * 2, maxPollIntervalMs);
+        }
+    }
+
     public static final void killProcess(CastleCluster cluster,
             CastleNode node, String processPattern) throws Exception {
         killProcess(cluster, node, processPattern, "SIGTERM");
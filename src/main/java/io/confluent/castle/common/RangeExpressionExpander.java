@@ -17,7 +17,13 @@
 
 package io.confluent.castle.common;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -31,6 +37,9 @@ public class RangeExpressionExpander {
     private final static Pattern NUMERIC_RANGE_PATTERN =
         Pattern.compile("(.*?)\\[([0-9]*)\\-([0-9]*)\\](.*?)");
 
+    private final static Pattern NUMERIC_SUFFIX_PATTERN =
+        Pattern.compile("(.*?)(0|[1-9][0-9]{0,8})");
+
     public static HashSet<String> expand(String val) {
         HashSet<String> set = new HashSet<>();
         Matcher matcher = NUMERIC_RANGE_PATTERN.matcher(val);
@@ -53,4 +62,52 @@ public class RangeExpressionExpander {
         }
         return set;
     }
+
+    /**
+     * Compresses a collection of strings into range expressions.
+     *
+     * This is the inverse of expand.  For example, foo1, foo2, foo3, foo5 would
+     * be compressed to foo[1-3], foo5.  Each of the returned strings contains at
+     * most one range expression.
+     */
+    public static List<String> compress(Collection<String> vals) {
+        Map<String, TreeSet<Integer>> numbered = new TreeMap<>();
+        TreeSet<String> others = new TreeSet<>();
+        for (String val : vals) {
+            Matcher matcher = NUMERIC_SUFFIX_PATTERN.matcher(val);
+            if (matcher.matches()) {
+                numbered.computeIfAbsent(matcher.group(1), k -> new TreeSet<>()).
+                    add(Integer.parseInt(matcher.group(2)));
+            } else {
+                others.add(val);
+            }
+        }
+        List<String> results = new ArrayList<>();
+        for (Map.Entry<String, TreeSet<Integer>> entry : numbered.entrySet()) {
+            String prefix = entry.getKey();
+            int rangeStart = -1;
+            int rangeEnd = -1;
+            for (int i : entry.getValue()) {
+                if ((rangeStart >= 0) && (i == rangeEnd + 1)) {
+                    rangeEnd = i;
+                    continue;
+                }
+                if (rangeStart >= 0) {
+                    results.add(formatRange(prefix, rangeStart, rangeEnd));
+                }
+                rangeStart = i;
+                rangeEnd = i;
+            }
+            results.add(formatRange(prefix, rangeStart, rangeEnd));
+        }
+        results.addAll(others);
+        return results;
+    }
+
+    private static String formatRange(String prefix, int rangeStart, int rangeEnd) {
+        if (rangeStart == rangeEnd) {
+            return String.format("%s%d", prefix, rangeStart);
+        }
+        return String.format("%s[%d-%d]", prefix, rangeStart, rangeEnd);
+    }
 }
@@ -0,0 +1,343 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds compressed archives of local source trees, and caches them on disk.
+ *
+ * Archives are named after a hash of the tree's contents, so an archive can
+ * be reused by later runs as long as the tree hasn't changed.  Only the most
+ * recent archive of each tree is kept.
+ *
+ * A manifest of each version of the tree is kept as well.  The latest
+ * manifest makes rescanning the tree cheap, and older manifests let us build
+ * deltas for nodes which hold an older version of the tree.
+ */
+public final class SourceArchiveCache {
+    public static final String ARCHIVE_SUFFIX = ".tar.gz";
+
+    public static final String DELTA_SUFFIX = ".delta.tgz";
+
+    public static final String MANIFEST_SUFFIX = ".manifest.json";
+
+    /**
+     * The number of manifests to keep for each tree.
+     */
+    static final int MAX_MANIFESTS = 16;
+
+    /**
+     * A compressed archive of a source tree.
+     */
+    public static final class SourceArchive {
+        private final String sourcePath;
+        private final String prefix;
+        private final SourceManifest manifest;
+        private final File file;
+
+        SourceArchive(String sourcePath, String prefix, SourceManifest manifest, File file) {
+            this.sourcePath = sourcePath;
+            this.prefix = prefix;
+            this.manifest = manifest;
+            this.file = file;
+        }
+
+        public String sourcePath() {
+            return sourcePath;
+        }
+
+        /**
+         * The hash of the contents of the source tree.
+         */
+        public String hash() {
+            return manifest.hash();
+        }
+
+        public SourceManifest manifest() {
+            return manifest;
+        }
+
+        public File file() {
+            return file;
+        }
+    }
+
+    /**
+     * The changes needed to bring a node's copy of a source tree up to date.
+     */
+    public static final class SourceDelta {
+        private final String fromHash;
+        private final String toHash;
+        private final List<String> deleted;
+        private final File file;
+
+        SourceDelta(String fromHash, String toHash, List<String> deleted, File file) {
+            this.fromHash = fromHash;
+            this.toHash = toHash;
+            this.deleted = deleted;
+            this.file = file;
+        }
+
+        public String fromHash() {
+            return fromHash;
+        }
+
+        public String toHash() {
+            return toHash;
+        }
+
+        /**
+         * The paths which must be removed before the delta is unpacked.
+         */
+        public List<String> deleted() {
+            return deleted;
+        }
+
+        /**
+         * An archive of the changed entries, or null if nothing was added or
+         * changed.
+         */
+        public File file() {
+            return file;
+        }
+    }
+
+    private final File cacheDir;
+
+    /**
+     * The archives which we have already found or built during this run,
+     * keyed by source path.  The tree is only scanned once per run.
+     */
+    private final Map<String, SourceArchive> archives = new ConcurrentHashMap<>();
+
+    /**
+     * The deltas which we have already built during this run, keyed by the
+     * source path and the hash they start from.
+     */
+    private final Map<String, SourceDelta> deltas = new ConcurrentHashMap<>();
+
+    /**
+     * Locks which make sure that we only build each archive or delta once,
+     * even if many nodes ask for it at the same time.
+     */
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+    public SourceArchiveCache(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Get an archive of the given source tree, building it if necessary.
+     *
+     * @param sourcePath        The local directory to archive.
+     * @param log               The log to write to.
+     *
+     * @return                  The archive.
+     */
+    public SourceArchive get(String sourcePath, Logger log) throws Exception {
+        Path root = new File(sourcePath).getCanonicalFile().toPath();
+        String key = root.toString();
+        synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+            SourceArchive archive = archives.get(key);
+            if (archive != null) {
+                return archive;
+            }
+            String prefix = SourceManifest.hex(SourceManifest.sha256(
+                key.getBytes(StandardCharsets.UTF_8))).substring(0, 16) + "-";
+            long startMs = System.currentTimeMillis();
+            SourceManifest manifest = SourceManifest.scan(root, latestManifest(prefix, log));
+            log.info("Scanned {} in {} ms: {}", key, System.currentTimeMillis() - startMs,
+                manifest.hash());
+            Files.createDirectories(cacheDir.toPath());
+            manifest.save(new File(cacheDir, prefix + manifest.hash() + MANIFEST_SUFFIX));
+            removeStaleFiles(prefix, MANIFEST_SUFFIX, MAX_MANIFESTS, log);
+            File file = new File(cacheDir, prefix + manifest.hash() + ARCHIVE_SUFFIX);
+            if (file.exists()) {
+                log.info("Reusing cached archive {}", file);
+            } else {
+                startMs = System.currentTimeMillis();
+                runTar(file, root, Arrays.asList("."));
+                log.info("Built archive {} ({} bytes) in {} ms", file, file.length(),
+                    System.currentTimeMillis() - startMs);
+                removeStaleArchives(prefix, file, log);
+            }
+            archive = new SourceArchive(key, prefix, manifest, file);
+            archives.put(key, archive);
+            return archive;
+        }
+    }
+
+    /**
+     * Get a delta which turns an older version of a source tree into the
+     * version in the given archive.
+     *
+     * @param archive           The archive of the current version.
+     * @param fromHash          The hash of the older version.
+     * @param log               The log to write to.
+     *
+     * @return                  The delta, or null if we no longer have a
+     *                          manifest of the older version.
+     */
+    public SourceDelta delta(SourceArchive archive, String fromHash, Logger log) throws Exception {
+        String key = archive.sourcePath() + "/" + fromHash;
+        synchronized (locks.computeIfAbsent(key, k -> new Object())) {
+            SourceDelta delta = deltas.get(key);
+            if (delta != null) {
+                return delta;
+            }
+            File fromFile = new File(cacheDir, archive.prefix + fromHash + MANIFEST_SUFFIX);
+            if (!fromFile.exists()) {
+                return null;
+            }
+            SourceManifest.Delta changes =
+                SourceManifest.delta(SourceManifest.load(fromFile), archive.manifest());
+            File file = null;
+            if (!changes.changed().isEmpty()) {
+                file = new File(cacheDir, archive.prefix + fromHash + "-" +
+                    archive.hash() + DELTA_SUFFIX);
+                if (!file.exists()) {
+                    runTar(file, new File(archive.sourcePath()).toPath(), changes.changed());
+                    log.info("Built delta {} with {} changed and {} deleted entries ({} bytes)",
+                        file, changes.changed().size(), changes.deleted().size(), file.length());
+                }
+            }
+            delta = new SourceDelta(fromHash, archive.hash(), changes.deleted(), file);
+            deltas.put(key, delta);
+            return delta;
+        }
+    }
+
+    private SourceManifest latestManifest(String prefix, Logger log) {
+        List<File> files = listFiles(prefix, MANIFEST_SUFFIX);
+        if (files.isEmpty()) {
+            return null;
+        }
+        File latest = files.get(files.size() - 1);
+        try {
+            return SourceManifest.load(latest);
+        } catch (IOException e) {
+            log.warn("Unable to load manifest {}", latest, e);
+            return null;
+        }
+    }
+
+    /**
+     * Create a compressed archive of some entries in a tree.  The entries are
+     * not recursed into, so directories must be listed along with their
+     * contents.  The special entry "." archives the whole tree.
+     */
+    private void runTar(File file, Path root, List<String> entries) throws Exception {
+        Files.createDirectories(cacheDir.toPath());
+        File tempFile = new File(file.getAbsolutePath() + ".tmp");
+        File listFile = new File(file.getAbsolutePath() + ".list");
+        try {
+            try (OutputStream stream = Files.newOutputStream(listFile.toPath())) {
+                for (String entry : entries) {
+                    stream.write(entry.getBytes(StandardCharsets.UTF_8));
+                    stream.write(0);
+                }
+            }
+            List<String> commandLine = new ArrayList<>(Arrays.asList("tar", "-czf",
+                tempFile.getAbsolutePath(), "-C", root.toString()));
+            if (!entries.equals(Arrays.asList("."))) {
+                commandLine.add("--no-recursion");
+            }
+            commandLine.addAll(Arrays.asList("--null", "-T", listFile.getAbsolutePath()));
+            CastleUtil.runLocalCommand(commandLine);
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile.toPath());
+            Files.deleteIfExists(listFile.toPath());
+        }
+    }
+
+    /**
+     * List the files in the cache with the given prefix and suffix, oldest
+     * first.
+     */
+    private List<File> listFiles(String prefix, String suffix) {
+        List<File> results = new ArrayList<>();
+        File[] files = cacheDir.listFiles((dir, name) ->
+            name.startsWith(prefix) && name.endsWith(suffix));
+        if (files != null) {
+            results.addAll(Arrays.asList(files));
+        }
+        results.sort(Comparator.comparingLong(File::lastModified));
+        return results;
+    }
+
+    /**
+     * Remove all but the newest files with the given prefix and suffix.
+     */
+    private void removeStaleFiles(String prefix, String suffix, int numToKeep, Logger log) {
+        List<File> files = listFiles(prefix, suffix);
+        for (int i = 0; i < files.size() - numToKeep; i++) {
+            delete(files.get(i), log);
+        }
+    }
+
+    /**
+     * Remove every archive of a tree except the current one.  Deltas are
+     * removed as well, since they only lead to older archives.
+     */
+    private void removeStaleArchives(String prefix, File current, Logger log) {
+        for (File file : listFiles(prefix, DELTA_SUFFIX)) {
+            delete(file, log);
+        }
+        for (File file : listFiles(prefix, ARCHIVE_SUFFIX)) {
+            if (!file.equals(current)) {
+                delete(file, log);
+            }
+        }
+    }
+
+    private static void delete(File file, Logger log) {
+        log.info("Removing stale file {}", file);
+        if (!file.delete()) {
+            log.warn("Failed to delete {}", file);
+        }
+    }
+
+    /**
+     * List the archives currently in the cache directory.
+     */
+    public List<File> cachedArchives() {
+        List<File> results = new ArrayList<>();
+        File[] files = cacheDir.listFiles((dir, name) -> name.endsWith(ARCHIVE_SUFFIX));
+        if (files != null) {
+            results.addAll(Arrays.asList(files));
+        }
+        return results;
+    }
+}
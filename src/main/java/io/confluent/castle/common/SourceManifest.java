@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static io.confluent.castle.common.JsonUtil.JSON_SERDE;
+
+/**
+ * Describes every entry in a source tree: its type, size, modification time,
+ * and a hash of its contents.
+ *
+ * When a tree is rescanned, files whose size and modification time haven't
+ * changed reuse the hash from the previous manifest, so only changed files
+ * need to be read.  Comparing two manifests gives the delta needed to turn
+ * one version of the tree into the other.
+ */
+public final class SourceManifest {
+    public static final String TYPE_DIRECTORY = "d";
+    public static final String TYPE_FILE = "f";
+    public static final String TYPE_EXECUTABLE = "x";
+    public static final String TYPE_SYMLINK = "l";
+
+    private static final int HASH_BUFFER_SIZE = 65536;
+
+    /**
+     * An entry in the tree.
+     */
+    public static final class Entry {
+        private final String type;
+        private final long size;
+        private final long mtimeMs;
+        private final String hash;
+
+        @JsonCreator
+        public Entry(@JsonProperty("type") String type,
+                     @JsonProperty("size") long size,
+                     @JsonProperty("mtimeMs") long mtimeMs,
+                     @JsonProperty("hash") String hash) {
+            this.type = type == null ? TYPE_FILE : type;
+            this.size = size;
+            this.mtimeMs = mtimeMs;
+            this.hash = hash == null ? "" : hash;
+        }
+
+        @JsonProperty
+        public String type() {
+            return type;
+        }
+
+        @JsonProperty
+        public long size() {
+            return size;
+        }
+
+        @JsonProperty
+        public long mtimeMs() {
+            return mtimeMs;
+        }
+
+        /**
+         * The hash of the file contents, or of the symlink target.  Empty
+         * for directories.
+         */
+        @JsonProperty
+        public String hash() {
+            return hash;
+        }
+
+        /**
+         * Returns true if the other entry has the same type and contents.
+         */
+        boolean sameContents(Entry other) {
+            return type.equals(other.type) && hash.equals(other.hash);
+        }
+    }
+
+    /**
+     * The changes needed to turn one version of a tree into another.
+     */
+    public static final class Delta {
+        private final List<String> deleted;
+        private final List<String> changed;
+
+        Delta(List<String> deleted, List<String> changed) {
+            this.deleted = Collections.unmodifiableList(deleted);
+            this.changed = Collections.unmodifiableList(changed);
+        }
+
+        /**
+         * The paths which must be removed, including paths whose type changed.
+         */
+        public List<String> deleted() {
+            return deleted;
+        }
+
+        /**
+         * The paths which must be sent, in tree order.
+         */
+        public List<String> changed() {
+            return changed;
+        }
+
+        public boolean isEmpty() {
+            return deleted.isEmpty() && changed.isEmpty();
+        }
+    }
+
+    private final String hash;
+    private final SortedMap<String, Entry> entries;
+
+    @JsonCreator
+    public SourceManifest(@JsonProperty("hash") String hash,
+                          @JsonProperty("entries") Map<String, Entry> entries) {
+        this.hash = hash == null ? "" : hash;
+        this.entries = Collections.unmodifiableSortedMap(entries == null ?
+            new TreeMap<>() : new TreeMap<>(entries));
+    }
+
+    /**
+     * The hash of the whole tree.  This depends on the path, type and
+     * contents of each entry, but not on sizes or modification times.
+     */
+    @JsonProperty
+    public String hash() {
+        return hash;
+    }
+
+    @JsonProperty
+    public SortedMap<String, Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * Scan a source tree.
+     *
+     * @param root          The root of the tree.
+     * @param previous      A previous manifest of the same tree, or null.
+     *                      Hashes of unchanged files are copied from it.
+     * @return              The new manifest.
+     */
+    public static SourceManifest scan(Path root, SourceManifest previous) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> stream = Files.walk(root)) {
+            paths = stream.sorted().collect(Collectors.toList());
+        }
+        SortedMap<String, Entry> entries = new TreeMap<>();
+        byte[] buf = new byte[HASH_BUFFER_SIZE];
+        for (Path path : paths) {
+            if (path.equals(root)) {
+                continue;
+            }
+            String relative = root.relativize(path).toString();
+            BasicFileAttributes attributes = Files.readAttributes(path,
+                BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            long size = attributes.size();
+            long mtimeMs = attributes.lastModifiedTime().toMillis();
+            Entry entry;
+            if (attributes.isSymbolicLink()) {
+                entry = new Entry(TYPE_SYMLINK, size, mtimeMs,
+                    hex(sha256(Files.readSymbolicLink(path).toString().
+                        getBytes(StandardCharsets.UTF_8))));
+            } else if (attributes.isDirectory()) {
+                entry = new Entry(TYPE_DIRECTORY, 0, 0, "");
+            } else {
+                String type = Files.isExecutable(path) ? TYPE_EXECUTABLE : TYPE_FILE;
+                Entry old = (previous == null) ? null : previous.entries.get(relative);
+                if ((old != null) && old.type.equals(type) &&
+                        (old.size == size) && (old.mtimeMs == mtimeMs)) {
+                    entry = old;
+                } else {
+                    entry = new Entry(type, size, mtimeMs, hashFile(path, buf));
+                }
+            }
+            entries.put(relative, entry);
+        }
+        return new SourceManifest(treeHash(entries), entries);
+    }
+
+    private static String treeHash(SortedMap<String, Entry> entries) {
+        MessageDigest digest = newDigest();
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            for (String field : new String[] {e.getKey(), e.getValue().type, e.getValue().hash}) {
+                digest.update(field.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private static String hashFile(Path path, byte[] buf) throws IOException {
+        MessageDigest digest = newDigest();
+        try (InputStream stream = Files.newInputStream(path)) {
+            int len;
+            while ((len = stream.read(buf)) != -1) {
+                digest.update(buf, 0, len);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * Compute the changes needed to turn the tree described by one manifest
+     * into the tree described by another.
+     */
+    public static Delta delta(SourceManifest from, SourceManifest to) {
+        List<String> deleted = new ArrayList<>();
+        List<String> changed = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : from.entries.entrySet()) {
+            Entry newEntry = to.entries.get(e.getKey());
+            if ((newEntry == null) || !newEntry.type.equals(e.getValue().type)) {
+                deleted.add(e.getKey());
+            }
+        }
+        for (Map.Entry<String, Entry> e : to.entries.entrySet()) {
+            Entry oldEntry = from.entries.get(e.getKey());
+            if ((oldEntry == null) || !oldEntry.sameContents(e.getValue())) {
+                changed.add(e.getKey());
+            }
+        }
+        return new Delta(deleted, changed);
+    }
+
+    public static SourceManifest load(File file) throws IOException {
+        return JSON_SERDE.readValue(file, SourceManifest.class);
+    }
+
+    public void save(File file) throws IOException {
+        File tempFile = new File(file.getAbsolutePath() + ".tmp");
+        JSON_SERDE.writer().without(SerializationFeature.INDENT_OUTPUT).
+            writeValue(tempFile, this);
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static byte[] sha256(byte[] data) {
+        return newDigest().digest(data);
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder bld = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            bld.append(String.format("%02x", b & 0xff));
+        }
+        return bld.toString();
+    }
+}
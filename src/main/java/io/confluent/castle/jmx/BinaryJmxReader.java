@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import io.confluent.castle.jmx.TimeSeriesCodec.BitReader;
+import io.confluent.castle.jmx.TimeSeriesCodec.DoubleDecoder;
+import io.confluent.castle.jmx.TimeSeriesCodec.LongDecoder;
+import io.confluent.castle.jmx.TimeSeriesCodec.StringDecoder;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the files written by BinaryJmxSink.
+ */
+public final class BinaryJmxReader implements AutoCloseable {
+    private final DataInputStream input;
+    private final List<JmxColumn> columns;
+    private BitReader bits = null;
+    private int remainingInBlock = 0;
+    private LongDecoder timeDecoder;
+    private Object[] decoders;
+    private long timeMs;
+    private Object[] values;
+
+    public BinaryJmxReader(InputStream inputStream) throws IOException {
+        this.input = new DataInputStream(new BufferedInputStream(inputStream));
+        byte[] magic = new byte[BinaryJmxSink.MAGIC.length];
+        input.readFully(magic);
+        if (!Arrays.equals(magic, BinaryJmxSink.MAGIC)) {
+            throw new IOException("This is not a binary JMX dump file.");
+        }
+        byte version = input.readByte();
+        if (version != BinaryJmxSink.VERSION) {
+            throw new IOException("Unsupported binary JMX dump version " + version);
+        }
+        int numColumns = input.readInt();
+        List<JmxColumn> columns = new ArrayList<>();
+        for (int i = 0; i < numColumns; i++) {
+            String name = input.readUTF();
+            JmxColumn.Type type = JmxColumn.Type.fromCode((char) input.readByte());
+            columns.add(new JmxColumn(name, type));
+        }
+        this.columns = Collections.unmodifiableList(columns);
+    }
+
+    public List<JmxColumn> columns() {
+        return columns;
+    }
+
+    /**
+     * Read the next sample.  If the file ends in an incomplete block, which
+     * happens if the dumper did not shut down cleanly, that block is skipped.
+     *
+     * @return      True if a sample was read; false at the end of the file.
+     */
+    public boolean next() throws IOException {
+        if (remainingInBlock == 0) {
+            if (!readBlock()) {
+                return false;
+            }
+        }
+        timeMs = timeDecoder.read(bits);
+        values = new Object[decoders.length];
+        for (int i = 0; i < decoders.length; i++) {
+            Object decoder = decoders[i];
+            if (decoder instanceof LongDecoder) {
+                values[i] = ((LongDecoder) decoder).read(bits);
+            } else if (decoder instanceof DoubleDecoder) {
+                values[i] = ((DoubleDecoder) decoder).read(bits);
+            } else {
+                values[i] = ((StringDecoder) decoder).read(bits);
+            }
+        }
+        remainingInBlock--;
+        return true;
+    }
+
+    private boolean readBlock() throws IOException {
+        byte[] block;
+        try {
+            remainingInBlock = input.readInt();
+            block = new byte[input.readInt()];
+            input.readFully(block);
+        } catch (EOFException e) {
+            remainingInBlock = 0;
+            return false;
+        }
+        bits = new BitReader(block, block.length);
+        timeDecoder = new LongDecoder();
+        decoders = new Object[columns.size()];
+        for (int i = 0; i < decoders.length; i++) {
+            switch (columns.get(i).type()) {
+                case LONG:
+                    decoders[i] = new LongDecoder();
+                    break;
+                case DOUBLE:
+                    decoders[i] = new DoubleDecoder();
+                    break;
+                case STRING:
+                    decoders[i] = new StringDecoder();
+                    break;
+            }
+        }
+        return remainingInBlock > 0;
+    }
+
+    /**
+     * The time of the current sample, in milliseconds.
+     */
+    public long timeMs() {
+        return timeMs;
+    }
+
+    /**
+     * The values of the current sample.  Longs, doubles, and strings are
+     * returned for LONG, DOUBLE, and STRING columns.
+     */
+    public Object[] values() {
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import io.confluent.castle.jmx.TimeSeriesCodec.BitWriter;
+import io.confluent.castle.jmx.TimeSeriesCodec.DoubleEncoder;
+import io.confluent.castle.jmx.TimeSeriesCodec.LongEncoder;
+import io.confluent.castle.jmx.TimeSeriesCodec.StringEncoder;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes JMX samples in a compact binary format.
+ *
+ * The file starts with MAGIC, a version byte, and the schema: the number of
+ * columns, followed by the name and type code of each column.  The samples
+ * follow in blocks.  Each block starts with the number of samples and the
+ * number of bytes in the block, followed by the compressed samples.  Within
+ * a block, each sample is the time, followed by the value of each column,
+ * encoded by TimeSeriesCodec.  Each block is compressed independently, so a
+ * file which was cut short can still be read up to the last whole block.
+ *
+ * Use BinaryJmxReader, or the jmx_to_csv.sh script, to read these files.
+ */
+public final class BinaryJmxSink implements JmxSink {
+    static final byte[] MAGIC = "CJMX".getBytes(StandardCharsets.US_ASCII);
+
+    static final byte VERSION = 1;
+
+    /**
+     * The maximum number of samples in each block.
+     */
+    static final int SAMPLES_PER_BLOCK = 256;
+
+    private final DataOutputStream output;
+    private final BitWriter bits = new BitWriter();
+    private List<JmxColumn> columns = null;
+    private LongEncoder timeEncoder;
+    private Object[] encoders;
+    private int numSamples = 0;
+
+    public BinaryJmxSink(OutputStream outputStream) {
+        this.output = new DataOutputStream(new BufferedOutputStream(outputStream));
+    }
+
+    @Override
+    public void writeHeader(List<JmxColumn> columns) throws IOException {
+        if (this.columns != null) {
+            throw new IllegalStateException("The header was already written.");
+        }
+        this.columns = new ArrayList<>(columns);
+        output.write(MAGIC);
+        output.writeByte(VERSION);
+        output.writeInt(columns.size());
+        for (JmxColumn column : columns) {
+            output.writeUTF(column.name());
+            output.writeByte(column.type().code());
+        }
+        output.flush();
+        startBlock();
+    }
+
+    private void startBlock() {
+        bits.reset();
+        numSamples = 0;
+        timeEncoder = new LongEncoder();
+        encoders = new Object[columns.size()];
+        for (int i = 0; i < encoders.length; i++) {
+            switch (columns.get(i).type()) {
+                case LONG:
+                    encoders[i] = new LongEncoder();
+                    break;
+                case DOUBLE:
+                    encoders[i] = new DoubleEncoder();
+                    break;
+                case STRING:
+                    encoders[i] = new StringEncoder();
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public void writeSample(long timeMs, Object[] values) throws IOException {
+        if (columns == null) {
+            throw new IllegalStateException("The header must be written first.");
+        }
+        if (values.length != encoders.length) {
+            throw new IllegalArgumentException("Expected " + encoders.length +
+                " values, but got " + values.length);
+        }
+        timeEncoder.write(bits, timeMs);
+        for (int i = 0; i < values.length; i++) {
+            Object encoder = encoders[i];
+            if (encoder instanceof StringEncoder) {
+                ((StringEncoder) encoder).write(bits, values[i].toString());
+            } else if (values[i] instanceof Number) {
+                Number number = (Number) values[i];
+                if (encoder instanceof LongEncoder) {
+                    ((LongEncoder) encoder).write(bits, number.longValue());
+                } else {
+                    ((DoubleEncoder) encoder).write(bits, number.doubleValue());
+                }
+            } else {
+                throw new IllegalArgumentException("Expected a number for " +
+                    columns.get(i).name() + ", but got " + values[i]);
+            }
+        }
+        numSamples++;
+        if (numSamples >= SAMPLES_PER_BLOCK) {
+            flushBlock();
+        }
+    }
+
+    private void flushBlock() throws IOException {
+        if (numSamples > 0) {
+            output.writeInt(numSamples);
+            output.writeInt(bits.byteLength());
+            output.write(bits.buffer(), 0, bits.byteLength());
+            output.flush();
+            startBlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (columns != null) {
+                flushBlock();
+            }
+        } finally {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Writes JMX samples as comma-separated text.
+ *
+ * The first row names the columns.  Each following row holds the time in
+ * seconds, followed by the values.  Strings are quoted.
+ */
+public final class CsvJmxSink implements JmxSink {
+    private final OutputStreamWriter writer;
+    private final CsvRow row = new CsvRow();
+
+    public CsvJmxSink(OutputStream outputStream) {
+        this.writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void writeHeader(List<JmxColumn> columns) throws IOException {
+        row.clear();
+        row.add("time");
+        for (JmxColumn column : columns) {
+            row.add(column.name());
+        }
+        row.writeTo(writer);
+        writer.flush();
+    }
+
+    @Override
+    public void writeSample(long timeMs, Object[] values) throws IOException {
+        row.clear();
+        row.addTimeMs(timeMs);
+        for (Object value : values) {
+            row.addObject(value);
+        }
+        row.writeTo(writer);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.flush();
+        writer.close();
+    }
+
+    /**
+     * Formats a row.  The row is reused for every sample, so that formatting
+     * doesn't allocate anything in the steady state.
+     */
+    static final class CsvRow {
+        private static final String LINE_SEPARATOR = System.lineSeparator();
+
+        private boolean first = true;
+        private final StringBuilder bld = new StringBuilder();
+        private char[] chars = new char[0];
+
+        CsvRow clear() {
+            first = true;
+            bld.setLength(0);
+            return this;
+        }
+
+        private void separate() {
+            if (!first) bld.append(", ");
+            first = false;
+        }
+
+        /**
+         * Add a time in milliseconds, formatted as seconds with three
+         * decimal places.
+         */
+        CsvRow addTimeMs(long timeMs) {
+            separate();
+            long seconds = timeMs / 1000;
+            int millis = (int) Math.abs(timeMs % 1000);
+            if ((timeMs < 0) && (seconds == 0)) {
+                bld.append('-');
+            }
+            bld.append(seconds).append('.');
+            if (millis < 100) bld.append('0');
+            if (millis < 10) bld.append('0');
+            bld.append(millis);
+            return this;
+        }
+
+        CsvRow add(Number val) {
+            separate();
+            if ((val instanceof Long) || (val instanceof Integer) ||
+                    (val instanceof Short) || (val instanceof Byte)) {
+                bld.append(val.longValue());
+            } else if (val instanceof Double) {
+                bld.append(val.doubleValue());
+            } else if (val instanceof Float) {
+                bld.append(val.floatValue());
+            } else {
+                bld.append(val);
+            }
+            return this;
+        }
+
+        CsvRow add(String val) {
+            separate();
+            bld.append('"').append(val).append('"');
+            return this;
+        }
+
+        CsvRow addObject(Object value) {
+            if (value instanceof Number) {
+                add((Number) value);
+            } else if (value instanceof String) {
+                add((String) value);
+            } else {
+                add(value.toString());
+            }
+            return this;
+        }
+
+        void writeTo(Writer writer) throws IOException {
+            bld.append(LINE_SEPARATOR);
+            int length = bld.length();
+            if (chars.length < length) {
+                chars = new char[Math.max(length, chars.length * 2)];
+            }
+            bld.getChars(0, length, chars, 0);
+            writer.write(chars, 0, length);
+        }
+    }
+}
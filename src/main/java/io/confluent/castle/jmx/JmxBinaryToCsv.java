@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static net.sourceforge.argparse4j.impl.Arguments.store;
+
+/**
+ * Converts a binary JMX dump file into the comma-separated format.
+ */
+public final class JmxBinaryToCsv {
+    /**
+     * Convert a binary JMX dump.
+     *
+     * @param inputStream       The binary input.
+     * @param outputStream      The comma-separated output.
+     *
+     * @return                  The number of samples converted.
+     */
+    public static long convert(InputStream inputStream, OutputStream outputStream)
+            throws Exception {
+        long numSamples = 0;
+        try (BinaryJmxReader reader = new BinaryJmxReader(inputStream);
+                CsvJmxSink sink = new CsvJmxSink(outputStream)) {
+            sink.writeHeader(reader.columns());
+            while (reader.next()) {
+                sink.writeSample(reader.timeMs(), reader.values());
+                numSamples++;
+            }
+        }
+        return numSamples;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ArgumentParser parser = ArgumentParsers.newFor("jmx-to-csv").
+            addHelp(true).build().
+            description("Converts a binary JMX dump file into a comma-separated file.");
+
+        parser.addArgument("input_path")
+            .action(store())
+            .type(String.class)
+            .required(true)
+            .dest("input_path")
+            .metavar("INPUT_PATH")
+            .help("The binary JMX dump file to read.");
+
+        parser.addArgument("output_path")
+            .action(store())
+            .type(String.class)
+            .required(true)
+            .dest("output_path")
+            .metavar("OUTPUT_PATH")
+            .help("The comma-separated file to create.");
+
+        Namespace res = parser.parseArgsOrFail(args);
+        String inputPath = res.getString("input_path");
+        String outputPath = res.getString("output_path");
+        long numSamples;
+        try (InputStream inputStream = Files.newInputStream(Paths.get(inputPath));
+                OutputStream outputStream =
+                    Files.newOutputStream(Paths.get(outputPath), WRITE, CREATE_NEW)) {
+            numSamples = convert(inputStream, outputStream);
+        }
+        System.out.printf("Converted %d samples from %s to %s%n",
+            numSamples, inputPath, outputPath);
+    }
+}
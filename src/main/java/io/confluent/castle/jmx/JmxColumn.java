@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import java.util.Objects;
+
+/**
+ * A column in the output of the JMX dumper.
+ */
+public final class JmxColumn {
+    /**
+     * The type of the values in a column.
+     */
+    public enum Type {
+        LONG('l'),
+        DOUBLE('d'),
+        STRING('s');
+
+        private final char code;
+
+        Type(char code) {
+            this.code = code;
+        }
+
+        /**
+         * The code which represents this type in binary files.
+         */
+        char code() {
+            return code;
+        }
+
+        static Type fromCode(char code) {
+            for (Type type : values()) {
+                if (type.code == code) {
+                    return type;
+                }
+            }
+            throw new RuntimeException("Unknown column type code '" + code + "'");
+        }
+
+        /**
+         * Get the column type to use for a JMX attribute.
+         *
+         * @param jmxType   The class name from the attribute's MBeanAttributeInfo.
+         */
+        public static Type fromJmxType(String jmxType) {
+            switch (jmxType) {
+                case "byte":
+                case "short":
+                case "int":
+                case "long":
+                case "java.lang.Byte":
+                case "java.lang.Short":
+                case "java.lang.Integer":
+                case "java.lang.Long":
+                    return LONG;
+                case "float":
+                case "double":
+                case "java.lang.Float":
+                case "java.lang.Double":
+                case "java.lang.Number":
+                    return DOUBLE;
+                default:
+                    return STRING;
+            }
+        }
+    }
+
+    private final String name;
+    private final Type type;
+
+    public JmxColumn(String name, Type type) {
+        this.name = name;
+        this.type = type;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public Type type() {
+        return type;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if ((o == null) || (o.getClass() != JmxColumn.class)) {
+            return false;
+        }
+        JmxColumn other = (JmxColumn) o;
+        return name.equals(other.name) && (type == other.type);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(name, type);
+    }
+
+    @Override
+    public String toString() {
+        return name + ":" + type;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Discovers the MBeans which the dumper should sample.
+ *
+ * An object config either names a single MBean, or gives an ObjectName
+ * pattern such as kafka.log:type=Log,name=Size,topic=*,partition=*.  Named
+ * MBeans must exist before the dumper starts, and are then sampled until it
+ * stops.  Patterns are expanded with queryNames each time discovery is
+ * refreshed, so MBeans which appear or vanish later are picked up.
+ *
+ * The attributes of each MBean are cached, so a refresh only needs to call
+ * getMBeanInfo for MBeans it hasn't seen before.
+ */
+final class JmxDiscovery {
+    /**
+     * An MBean which was discovered.
+     */
+    static final class MBean {
+        private final ObjectName objectName;
+        private final List<String> attributes;
+        private final Map<String, JmxColumn.Type> types;
+
+        MBean(ObjectName objectName, List<String> attributes,
+              Map<String, JmxColumn.Type> types) {
+            this.objectName = objectName;
+            this.attributes = Collections.unmodifiableList(attributes);
+            this.types = Collections.unmodifiableMap(types);
+        }
+
+        ObjectName objectName() {
+            return objectName;
+        }
+
+        /**
+         * All of the attributes of this MBean.
+         */
+        List<String> attributes() {
+            return attributes;
+        }
+
+        Map<String, JmxColumn.Type> types() {
+            return types;
+        }
+    }
+
+    private final Collection<JmxObjectConfig> objects;
+
+    /**
+     * The MBeans which we have seen, keyed by name.
+     */
+    private final Map<ObjectName, MBean> cache = new HashMap<>();
+
+    /**
+     * Maps each object config name to the MBeans it currently matches.
+     */
+    private final Map<String, List<MBean>> matches = new HashMap<>();
+
+    /**
+     * The named MBeans which could not be found on the last refresh.
+     */
+    private final List<String> missing = new ArrayList<>();
+
+    JmxDiscovery(Collection<JmxObjectConfig> objects) {
+        this.objects = new ArrayList<>(objects);
+    }
+
+    /**
+     * Refresh the set of matched MBeans.
+     *
+     * @param connection        The JMX connection.
+     *
+     * @return                  True if any object matches a different set
+     *                          of MBeans than before.
+     */
+    boolean refresh(MBeanServerConnection connection) throws Exception {
+        boolean changed = false;
+        Set<ObjectName> seen = new HashSet<>();
+        missing.clear();
+        for (JmxObjectConfig object : objects) {
+            List<MBean> newMatches = new ArrayList<>();
+            if (object.isPattern()) {
+                // Sort the names, so that the columns come out in a stable order.
+                TreeMap<String, ObjectName> names = new TreeMap<>();
+                for (ObjectName name : connection.queryNames(object.objectName(), null)) {
+                    names.put(name.getCanonicalName(), name);
+                }
+                for (ObjectName name : names.values()) {
+                    MBean mbean = lookup(connection, name);
+                    if ((mbean != null) && mbean.attributes().containsAll(object.attributes())) {
+                        newMatches.add(mbean);
+                    }
+                }
+            } else {
+                List<MBean> prev = matches.get(object.name());
+                if (prev != null) {
+                    // Named MBeans are sampled for as long as the dumper runs.
+                    newMatches = prev;
+                } else {
+                    MBean mbean = lookup(connection, object.objectName());
+                    if (mbean == null) {
+                        System.out.printf("** Unable to locate %s%n", object.name());
+                        missing.add(object.name());
+                        continue;
+                    }
+                    for (String attribute : object.attributes()) {
+                        if (!mbean.attributes().contains(attribute)) {
+                            throw new RuntimeException("Unable to find attribute " + attribute +
+                                " for " + object.name() + ".  Found: " +
+                                String.join("|", mbean.attributes()));
+                        }
+                    }
+                    newMatches.add(mbean);
+                }
+            }
+            for (MBean mbean : newMatches) {
+                seen.add(mbean.objectName());
+            }
+            List<MBean> prev = matches.put(object.name(), newMatches);
+            if ((prev == null) || !prev.equals(newMatches)) {
+                changed = true;
+            }
+        }
+        cache.keySet().retainAll(seen);
+        return changed;
+    }
+
+    private MBean lookup(MBeanServerConnection connection, ObjectName name) throws Exception {
+        MBean mbean = cache.get(name);
+        if (mbean != null) {
+            return mbean;
+        }
+        MBeanInfo info;
+        try {
+            info = connection.getMBeanInfo(name);
+        } catch (InstanceNotFoundException e) {
+            return null;
+        }
+        List<String> attributes = new ArrayList<>();
+        Map<String, JmxColumn.Type> types = new HashMap<>();
+        for (MBeanAttributeInfo attributeInfo : info.getAttributes()) {
+            System.out.printf("** %s contains: %s%n", name, attributeInfo);
+            attributes.add(attributeInfo.getName());
+            types.put(attributeInfo.getName(), JmxColumn.Type.fromJmxType(attributeInfo.getType()));
+        }
+        mbean = new MBean(name, attributes, types);
+        cache.put(name, mbean);
+        return mbean;
+    }
+
+    /**
+     * The MBeans which an object config currently matches.
+     */
+    List<MBean> matches(JmxObjectConfig object) {
+        List<MBean> result = matches.get(object.name());
+        return (result == null) ? Collections.emptyList() : result;
+    }
+
+    /**
+     * The names of the named MBeans which were not found on the last refresh.
+     */
+    List<String> missing() {
+        return missing;
+    }
+
+    /**
+     * The number of MBeans currently matched.
+     */
+    int numMatched() {
+        return cache.size();
+    }
+}
@@ -26,10 +26,6 @@ import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
 
-import javax.management.Attribute;
-import javax.management.InstanceNotFoundException;
-import javax.management.MBeanAttributeInfo;
-import javax.management.MBeanInfo;
 import javax.management.MBeanServerConnection;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXConnectorFactory;
@@ -37,9 +33,7 @@ import javax.management.remote.JMXServiceURL;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.Socket;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -50,12 +44,17 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
 import static java.nio.file.StandardOpenOption.CREATE_NEW;
 import static java.nio.file.StandardOpenOption.WRITE;
 import static net.sourceforge.argparse4j.impl.Arguments.store;
@@ -63,7 +62,22 @@ import static net.sourceforge.argparse4j.impl.Arguments.store;
 /**
  * The JMX Dumper agent.
  *
- * Periodically dumps JMX state to comma-separated files.
+ * Periodically dumps JMX state to files.  Each file is either
+ * comma-separated text, or a compressed binary time series which can be
+ * converted to comma-separated text with JmxBinaryToCsv.
+ *
+ * Objects may be named by ObjectName patterns.  The MBeans which match are
+ * rediscovered every discoveryPeriodMs, on a separate thread, so that slow
+ * queries don't hold up sampling.  The new plans are handed to the sampling
+ * thread, which applies them between samples.  When the set of columns
+ * changes, the dump continues in a new segment of the file.
+ *
+ * With --stream, every sample is also appended to a JSON-lines stream file,
+ * which the castle host collects while the dumper runs.  See JmxStream.
+ *
+ * Up to fetchParallelism objects are fetched from the JMX connection at once.
+ * Each sample also records how long it took to fetch, and how many ticks
+ * have been skipped because sampling took longer than the period.
  */
 public final class JmxDumper {
     private final static int DEFAULT_PERIOD_MS = 1000;
@@ -116,124 +130,111 @@ public final class JmxDumper {
         }
     }
 
-    private final class CsvFile implements AutoCloseable {
+    /**
+     * A dump file.
+     *
+     * When discovery changes the set of columns, the current file is closed
+     * and the samples continue in a new segment, so that each file has a
+     * single header.  The first segment is written to the configured path;
+     * later segments get a sequence number before the extension.
+     */
+    private final class DumpFile implements AutoCloseable {
         private final JmxFileConfig file;
-        private final OutputStreamWriter writer;
 
-        public CsvFile(JmxFileConfig file) throws Exception {
+        /**
+         * The name of this file's series in the stream.
+         */
+        private final String series;
+        private JmxSink sink = null;
+        private JmxSamplePlan plan = null;
+        private int segment = 0;
+
+        public DumpFile(JmxFileConfig file) {
             this.file = file;
-            OutputStream outputStream = Files.newOutputStream(Paths.get(file.path()), WRITE, CREATE_NEW);
+            this.series = url + "/" + file.path();
+        }
+
+        /**
+         * Switch to a new plan.  If the columns changed, start a new segment.
+         */
+        public void replan(JmxSamplePlan newPlan) throws Exception {
+            if ((plan != null) && plan.columns().equals(newPlan.columns())) {
+                return;
+            }
+            if (sink != null) {
+                sink.close();
+                sink = null;
+                segment++;
+            }
+            plan = newPlan;
+            String path = segmentPath(file.path(), segment);
+            System.out.printf("** Writing %d columns to %s%n", plan.columns().size(), path);
+            OutputStream outputStream = Files.newOutputStream(Paths.get(path), WRITE, CREATE_NEW);
             try {
-                this.writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+                switch (file.format()) {
+                    case BINARY:
+                        sink = new BinaryJmxSink(outputStream);
+                        break;
+                    default:
+                        sink = new CsvJmxSink(outputStream);
+                        break;
+                }
             } catch (Throwable t) {
                 outputStream.close();
                 throw t;
             }
-        }
-
-        public void writeHeader() throws Exception {
-            HashMap<String, String> shortNames = new HashMap<>();
-            CsvRow headerRow = new CsvRow();
-            headerRow.add("time");
-            for (JmxObjectConfig object : file.objects()) {
-                String prev = shortNames.get(object.shortName());
-                if (prev != null) {
-                    throw new RuntimeException("shortName collision: both " + prev + " and " +
-                        object.name() + " have the shortName " + object.shortName());
-                }
-                shortNames.put(object.shortName(), object.name());
-                for (String attribute : object.attributes()) {
-                    headerRow.add(object.shortName() + ":" + attribute);
-                }
+            sink.writeHeader(plan.columns());
+            if (stream != null) {
+                stream.writeHeader(series, dumperConfig.periodMs(), plan.columns());
             }
-            writer.write(headerRow.asString());
-            writer.flush();
         }
 
         @Override
         public void close() throws IOException {
-            writer.flush();
-            writer.close();
+            if (sink != null) {
+                sink.close();
+            }
         }
 
-        public void storeJmx(long time) throws Exception {
-            CsvRow row = new CsvRow();
-            row.addTimeMs(time);
-            for (JmxObjectConfig object : file.objects()) {
-                HashMap<String, Object> values = new HashMap<>();
-                List<Attribute> attributeList = null;
-                Collection<String> attributesToGet = object.attributes();
-                if (attributesToGet.isEmpty()) {
-                    attributesToGet = objectNameToAllAttributes.get(object.name());
-                }
-                try {
-                    attributeList = connection.getAttributes(object.objectName(),
-                        attributesToGet.toArray(new String[0])).asList();
-                } catch (Throwable e) {
-                    throw new RuntimeException("Failed to get attributes for object " + object.name(), e);
-                }
-                for (Attribute attribute : attributeList) {
-                    try {
-                        values.put(attribute.getName(), attribute.getValue());
-                    } catch (Throwable e) {
-                        throw new RuntimeException("Failed to get a value for attribute " + attribute, e);
-                    }
-                }
-                for (String attributeName : attributesToGet) {
-                    Object value = values.get(attributeName);
-                    if (value == null) {
-                        throw new RuntimeException("getAttributes failed to fetch a value for " +
-                            object.name() + ":" + attributeName + ".");
-                    }
-                    row.addObject(value);
-                }
+        /**
+         * Store a sample.
+         *
+         * @return      False if a matched MBean has vanished, and the sample
+         *              was not stored.
+         */
+        public boolean storeJmx(long time) throws Exception {
+            Object[] values = plan.sample(connection, fetchExecutor, skippedTicks);
+            if (values == null) {
+                return false;
             }
-            writer.write(row.asString());
+            sink.writeSample(time, values);
+            if (stream != null) {
+                stream.writeSample(series, time, values);
+            }
+            return true;
         }
     }
 
-    private static final class CsvRow {
-        private boolean first = true;
-        private final StringBuilder bld = new StringBuilder();
-
-        CsvRow addTimeMs(long timeMs) {
-            if (!first) bld.append(", ");
-            first = false;
-            double time = timeMs;
-            time /= 1000.0;
-            bld.append(String.format("%.3f", time));
-            return this;
-        }
-
-        CsvRow add(Number val) {
-            if (!first) bld.append(", ");
-            first = false;
-            bld.append(val);
-            return this;
-        }
-
-        CsvRow add(String val) {
-            if (!first) bld.append(", ");
-            first = false;
-            bld.append("\"").append(val).append("\"");
-            return this;
+    /**
+     * Get the path of a dump file segment.
+     *
+     * @param path      The configured path.
+     * @param segment   The segment number.
+     *
+     * @return          The configured path for segment 0.  Otherwise, the
+     *                  path with the segment number inserted before the
+     *                  extension, for example jmx.2.csv.
+     */
+    static String segmentPath(String path, int segment) {
+        if (segment == 0) {
+            return path;
         }
-
-        CsvRow addObject(Object value) {
-            if (value instanceof Number) {
-                add((Number) value);
-            } else if (value instanceof String) {
-                add((String) value);
-            } else {
-                add(value.toString());
-            }
-            return this;
-        }
-
-        String asString() {
-            bld.append(System.lineSeparator());
-            return bld.toString();
+        int slash = path.lastIndexOf(File.separatorChar);
+        int dot = path.lastIndexOf('.');
+        if (dot <= slash + 1) {
+            return path + "." + segment;
         }
+        return path.substring(0, dot) + "." + segment + path.substring(dot);
     }
 
     public final class Probe implements Runnable {
@@ -283,29 +284,11 @@ public final class JmxDumper {
         }
 
         private final boolean load() throws Exception {
-            Collection<JmxObjectConfig> objects = dumperConfig.allObjects();
-            for (JmxObjectConfig object : objects) {
-                MBeanInfo info = null;
-                try {
-                    info = connection.getMBeanInfo(object.objectName());
-                } catch (InstanceNotFoundException e) {
-                    System.out.printf("** Unable to locate %s%n", object.name());
-                    return false;
-                }
-                ArrayList<String> attributeList = new ArrayList<>();
-                for (MBeanAttributeInfo attributeInfo : info.getAttributes()) {
-                    System.out.printf("** %s contains: %s%n", object.name(), attributeInfo);
-                    attributeList.add(attributeInfo.getName());
-                }
-                objectNameToAllAttributes.put(object.name(), attributeList);
-                for (String attribute : object.attributes()) {
-                    if (!attributeList.contains(attribute)) {
-                        throw new RuntimeException("Unable to find attribute " + attribute + " for " +
-                            object.name() + ".  Found: " + String.join("|", attributeList));
-                    }
-                }
+            discovery.refresh(connection);
+            if (!discovery.missing().isEmpty()) {
+                return false;
             }
-            System.out.printf("** Located %d object names.%n", objects.size());
+            System.out.printf("** Located %d MBeans.%n", discovery.numMatched());
             return true;
         }
     }
@@ -315,27 +298,105 @@ public final class JmxDumper {
         public void run() {
             try {
                 for (JmxFileConfig file : dumperConfig.files()) {
-                    CsvFile csvFile = new CsvFile(file);
-                    csvFiles.add(csvFile);
-                    csvFile.writeHeader();
+                    DumpFile dumpFile = new DumpFile(file);
+                    dumpFiles.add(dumpFile);
+                    dumpFile.replan(new JmxSamplePlan(file, discovery));
                 }
-                executorService.submit(new StoreJmx());
+                firstTickNs = System.nanoTime();
+                storeJmxFuture = executorService.scheduleAtFixedRate(new StoreJmx(),
+                    0, dumperConfig.periodMs(), TimeUnit.MILLISECONDS);
+                discoveryExecutor.scheduleWithFixedDelay(new RefreshDiscovery(),
+                    dumperConfig.discoveryPeriodMs(), dumperConfig.discoveryPeriodMs(),
+                    TimeUnit.MILLISECONDS);
             } catch (Throwable t) {
                 completer.completeExceptionally(t);
             }
         }
     }
 
+    /**
+     * Stores a sample in each file.  This runs at a fixed rate, until it
+     * fails or the dumper shuts down.
+     *
+     * If sampling overruns the period, the executor runs the late ticks back
+     * to back.  Rather than bunching samples up, we skip every tick which
+     * starts a whole period or more behind schedule, and count it in the
+     * skippedTicks column.
+     */
     public final class StoreJmx implements Runnable {
         @Override
         public void run() {
+            long periodNs = TimeUnit.MILLISECONDS.toNanos(dumperConfig.periodMs());
+            long lateNs = System.nanoTime() - (firstTickNs + (numTicks++ * periodNs));
+            if (lateNs >= periodNs) {
+                skippedTicks++;
+                return;
+            }
             long time = System.currentTimeMillis();
             try {
-                for (CsvFile csvFile : csvFiles) {
-                    csvFile.storeJmx(time);
+                boolean vanished = false;
+                for (DumpFile dumpFile : dumpFiles) {
+                    if (!dumpFile.storeJmx(time)) {
+                        vanished = true;
+                    }
+                }
+                if (vanished && refreshRequested.compareAndSet(false, true)) {
+                    System.out.printf("** An MBean vanished from %s.  Refreshing discovery.%n",
+                        url);
+                    discoveryExecutor.submit(new RefreshDiscovery());
+                }
+            } catch (Throwable t) {
+                storeJmxFuture.cancel(false);
+                completer.completeExceptionally(t);
+            }
+        }
+    }
+
+    /**
+     * Looks for MBeans which have appeared or vanished.  This runs on the
+     * discovery thread, on a slower schedule than sampling, since it may
+     * query many names.  It also runs when a sample finds that an MBean has
+     * vanished.
+     */
+    public final class RefreshDiscovery implements Runnable {
+        @Override
+        public void run() {
+            refreshRequested.set(false);
+            try {
+                if (discovery.refresh(connection)) {
+                    System.out.printf("** Now matching %d MBeans for %s.%n",
+                        discovery.numMatched(), url);
+                    List<JmxSamplePlan> plans = new ArrayList<>();
+                    for (JmxFileConfig file : dumperConfig.files()) {
+                        plans.add(new JmxSamplePlan(file, discovery));
+                    }
+                    executorService.submit(new ApplyPlans(plans));
+                }
+            } catch (RejectedExecutionException e) {
+                // The dumper is shutting down.
+            } catch (Throwable t) {
+                completer.completeExceptionally(t);
+            }
+        }
+    }
+
+    /**
+     * Switches each file to the plan built by the latest discovery.  This
+     * runs on the sampling thread, between samples.
+     */
+    public final class ApplyPlans implements Runnable {
+        private final List<JmxSamplePlan> plans;
+
+        ApplyPlans(List<JmxSamplePlan> plans) {
+            this.plans = plans;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < dumpFiles.size(); i++) {
+                    dumpFiles.get(i).replan(plans.get(i));
                 }
-                executorService.schedule(this, dumperConfig.periodMs(),
-                    TimeUnit.MILLISECONDS);
             } catch (Throwable t) {
                 completer.completeExceptionally(t);
             }
@@ -346,10 +407,10 @@ public final class JmxDumper {
         @Override
         public void run() {
             try {
-                System.out.printf("Closing csv files for %s.%n", url);
-                for (Iterator<CsvFile> iter = csvFiles.iterator(); iter.hasNext(); ) {
-                    CsvFile csvFile = iter.next();
-                    csvFile.close();
+                System.out.printf("Closing dump files for %s.%n", url);
+                for (Iterator<DumpFile> iter = dumpFiles.iterator(); iter.hasNext(); ) {
+                    DumpFile dumpFile = iter.next();
+                    dumpFile.close();
                     iter.remove();
                 }
                 System.out.printf("Closing JMX connection for %s.%n", url);
@@ -361,6 +422,10 @@ public final class JmxDumper {
                 completer.completeExceptionally(t);
             }
             completer.countDown();
+            discoveryExecutor.shutdownNow();
+            if (fetchExecutor != null) {
+                fetchExecutor.shutdownNow();
+            }
             executorService.shutdownNow();
         }
     }
@@ -396,16 +461,32 @@ public final class JmxDumper {
     private final JmxDumperConfig dumperConfig;
     private final Completer completer;
     private final ScheduledExecutorService executorService;
+    private final ScheduledExecutorService discoveryExecutor;
+    private final AtomicBoolean refreshRequested = new AtomicBoolean(false);
     private JMXConnector connector = null;
     private MBeanServerConnection connection = null;
-    private final List<CsvFile> csvFiles = new ArrayList<>();
-    private final HashMap<String, List<String>> objectNameToAllAttributes = new HashMap<>();
-
-    JmxDumper(String endpoint, JmxDumperConfig dumperConfig, Completer completer) throws Exception {
+    private final List<DumpFile> dumpFiles = new ArrayList<>();
+    private final ExecutorService fetchExecutor;
+    private ScheduledFuture<?> storeJmxFuture = null;
+    private long firstTickNs = 0;
+    private long numTicks = 0;
+    private long skippedTicks = 0;
+    private final JmxDiscovery discovery;
+    private final JmxStream stream;
+
+    JmxDumper(String endpoint, JmxDumperConfig dumperConfig, Completer completer,
+              JmxStream stream) throws Exception {
         this.url = new DumperUrl(endpoint);
+        this.stream = stream;
         this.dumperConfig = dumperConfig;
         this.completer = completer;
+        this.discovery = new JmxDiscovery(dumperConfig.allObjects());
         this.executorService = Executors.newSingleThreadScheduledExecutor();
+        this.discoveryExecutor = Executors.newSingleThreadScheduledExecutor(
+            CastleUtil.createThreadFactory("JmxDiscovery_" + endpoint, true));
+        this.fetchExecutor = (dumperConfig.fetchParallelism() <= 1) ? null :
+            Executors.newFixedThreadPool(dumperConfig.fetchParallelism(),
+                CastleUtil.createThreadFactory("JmxFetch_" + endpoint + "_%d", true));
     }
 
     public synchronized void start() throws Exception {
@@ -433,16 +514,28 @@ public final class JmxDumper {
             .metavar("CONFIG_PATH")
             .help("The configuration file to use.  For example, <EXAMPLE_CONFIG>");
 
+        parser.addArgument("--stream")
+            .action(store())
+            .type(String.class)
+            .required(false)
+            .dest("stream_path")
+            .metavar("STREAM_PATH")
+            .help("If set, also append every sample to this file as JSON lines, so that " +
+                "the castle host can collect them while the dumper runs.");
+
         Namespace res = parser.parseArgsOrFail(args);
         String configPath = res.getString("config_path");
+        String streamPath = res.getString("stream_path");
 
         JmxDumpersConfig dumpersConfig = JSON_SERDE.
             readValue(new File(configPath), JmxDumpersConfig.class);
         final Completer completer = new Completer(dumpersConfig.map().size());
+        final JmxStream stream = (streamPath == null) ? null :
+            new JmxStream(Files.newOutputStream(Paths.get(streamPath), CREATE, APPEND));
         Map<String, JmxDumper> dumpersMap = new HashMap<>();
         for (Map.Entry<String, JmxDumperConfig> entry : dumpersConfig.map().entrySet()) {
             dumpersMap.put(entry.getKey(),
-                new JmxDumper(entry.getKey(), entry.getValue(), completer));
+                new JmxDumper(entry.getKey(), entry.getValue(), completer, stream));
         }
         final Collection<JmxDumper> dumpers = Collections.unmodifiableCollection(dumpersMap.values());
         if (dumpers.isEmpty()) {
@@ -478,6 +571,9 @@ public final class JmxDumper {
             for (JmxDumper dumper : dumpers) {
                 dumper.executorService.awaitTermination(1, TimeUnit.DAYS);
             }
+            if (stream != null) {
+                stream.close();
+            }
         }
     }
 };
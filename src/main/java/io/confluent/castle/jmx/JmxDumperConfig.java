@@ -29,13 +29,25 @@ import java.util.List;
 public final class JmxDumperConfig {
     private final static int DEFAULT_PERIOD_MS = 1000;
 
+    private final static int DEFAULT_FETCH_PARALLELISM = 4;
+
+    private final static int DEFAULT_DISCOVERY_PERIOD_MS = 30000;
+
     private final int periodMs;
+    private final int fetchParallelism;
+    private final int discoveryPeriodMs;
     private final List<JmxFileConfig> files;
 
     @JsonCreator
     public JmxDumperConfig(@JsonProperty("periodMs") int periodMs,
+                           @JsonProperty("fetchParallelism") int fetchParallelism,
+                           @JsonProperty("discoveryPeriodMs") int discoveryPeriodMs,
                            @JsonProperty("files") List<JmxFileConfig> files) {
         this.periodMs = (periodMs <= 0) ? DEFAULT_PERIOD_MS : periodMs;
+        this.fetchParallelism = (fetchParallelism <= 0) ?
+            DEFAULT_FETCH_PARALLELISM : fetchParallelism;
+        this.discoveryPeriodMs = (discoveryPeriodMs <= 0) ?
+            DEFAULT_DISCOVERY_PERIOD_MS : discoveryPeriodMs;
         this.files = (files == null) ? Collections.emptyList() : new ArrayList<>(files);
     }
 
@@ -44,6 +56,23 @@ public final class JmxDumperConfig {
         return periodMs;
     }
 
+    /**
+     * The maximum number of objects to fetch from the JMX connection at
+     * once.  If this is 1, the objects are fetched one after another.
+     */
+    @JsonProperty
+    public int fetchParallelism() {
+        return fetchParallelism;
+    }
+
+    /**
+     * How often to look for MBeans which match the ObjectName patterns.
+     */
+    @JsonProperty
+    public int discoveryPeriodMs() {
+        return discoveryPeriodMs;
+    }
+
     @JsonProperty
     public List<JmxFileConfig> files() {
         return files;
@@ -19,19 +19,50 @@ package io.confluent.castle.jmx;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonValue;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 
 public final class JmxFileConfig {
+    /**
+     * The format of the output file.
+     */
+    public enum Format {
+        /**
+         * Comma-separated text.  See CsvJmxSink.
+         */
+        CSV,
+
+        /**
+         * Compressed binary time series.  See BinaryJmxSink.
+         */
+        BINARY;
+
+        @JsonCreator
+        public static Format fromString(String value) {
+            return Format.valueOf(value.toUpperCase(Locale.ROOT));
+        }
+
+        @JsonValue
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
     private final String path;
+    private final Format format;
     private final List<JmxObjectConfig> objects;
 
     @JsonCreator
     public JmxFileConfig(@JsonProperty("path") String path,
+                         @JsonProperty("format") Format format,
                          @JsonProperty("objects") List<JmxObjectConfig> objects) {
         this.path = (path == null) ? "" : path;
+        this.format = (format == null) ? Format.CSV : format;
         this.objects = (objects == null) ? Collections.emptyList() : new ArrayList<>(objects);
     }
 
@@ -40,6 +71,11 @@ public final class JmxFileConfig {
         return path;
     }
 
+    @JsonProperty
+    public Format format() {
+        return format;
+    }
+
     @JsonProperty
     public List<JmxObjectConfig> objects() {
         return objects;
@@ -59,5 +59,12 @@ public final class JmxObjectConfig {
     ObjectName objectName() {
         return objectName;
     }
+
+    /**
+     * Returns true if the name is a pattern which may match many MBeans.
+     */
+    boolean isPattern() {
+        return objectName.isPattern();
+    }
 }
 
@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A precompiled plan for sampling the objects in a JMX dump file.
+ *
+ * The plan is built once, after the dumper has located every object.  It
+ * fixes the attributes to fetch from each object, and the column which each
+ * attribute goes into.  Each sample is gathered into the same values array,
+ * so steady-state sampling allocates almost nothing beyond what the JMX
+ * connection itself needs.
+ *
+ * Each object is fetched with its own getAttributes call.  Given an
+ * executor, the calls are issued concurrently.  Each call fills in a
+ * disjoint range of columns, so the calls don't need to coordinate.
+ *
+ * An object config which is a pattern gets a set of columns for each MBean
+ * it matches.  The columns are named after the shortName and the key
+ * properties which the pattern left open, for example
+ * "size{partition=0,topic=foo}:Value".  If one of these MBeans vanishes,
+ * the sample is abandoned, so that the dumper can rediscover the MBeans
+ * and build a new plan.
+ *
+ * Every sample ends with two timing columns: how long the fetch took, and
+ * how many ticks the dumper has skipped because sampling overran the period.
+ */
+final class JmxSamplePlan {
+    static final String LATENCY_COLUMN = "latencyUs";
+
+    static final String SKIPPED_TICKS_COLUMN = "skippedTicks";
+
+    private final class ObjectPlan implements Callable<Void> {
+        private final String name;
+        private final ObjectName objectName;
+        private final boolean optional;
+        private final String[] attributes;
+        private final int firstColumn;
+
+        /**
+         * Maps attribute names to column indexes.
+         */
+        private final Map<String, Integer> columns = new HashMap<>();
+
+        private MBeanServerConnection connection = null;
+
+        /**
+         * True if the last fetch found that an optional MBean had vanished.
+         */
+        private boolean vanished = false;
+
+        ObjectPlan(ObjectName objectName, boolean optional, List<String> attributes,
+                   int firstColumn) {
+            this.name = objectName.toString();
+            this.objectName = objectName;
+            this.optional = optional;
+            this.attributes = attributes.toArray(new String[0]);
+            this.firstColumn = firstColumn;
+            for (int i = 0; i < this.attributes.length; i++) {
+                columns.put(this.attributes[i], firstColumn + i);
+            }
+        }
+
+        void fetch(MBeanServerConnection connection) {
+            Arrays.fill(values, firstColumn, firstColumn + attributes.length, null);
+            vanished = false;
+            AttributeList attributeList;
+            try {
+                attributeList = connection.getAttributes(objectName, attributes);
+            } catch (InstanceNotFoundException e) {
+                if (optional) {
+                    vanished = true;
+                    return;
+                }
+                throw new RuntimeException("Failed to get attributes for object " + name, e);
+            } catch (Throwable e) {
+                throw new RuntimeException("Failed to get attributes for object " + name, e);
+            }
+            for (int i = 0; i < attributeList.size(); i++) {
+                Attribute attribute = (Attribute) attributeList.get(i);
+                Integer column = columns.get(attribute.getName());
+                if (column != null) {
+                    values[column] = attribute.getValue();
+                }
+            }
+            for (int i = 0; i < attributes.length; i++) {
+                if (values[firstColumn + i] == null) {
+                    throw new RuntimeException("getAttributes failed to fetch a value for " +
+                        name + ":" + attributes[i] + ".");
+                }
+            }
+        }
+
+        @Override
+        public Void call() {
+            fetch(connection);
+            return null;
+        }
+    }
+
+    private final List<JmxColumn> columns;
+    private final ObjectPlan[] objects;
+    private final Future<?>[] futures;
+    private final Object[] values;
+
+    /**
+     * Build a sampling plan.
+     *
+     * @param file              The file configuration.
+     * @param discovery         The discovered MBeans.  All of the attributes
+     *                          of an MBean are dumped when its object has no
+     *                          attributes configured.
+     */
+    JmxSamplePlan(JmxFileConfig file, JmxDiscovery discovery) {
+        HashMap<String, String> shortNames = new HashMap<>();
+        List<JmxColumn> columns = new ArrayList<>();
+        List<ObjectPlan> objects = new ArrayList<>();
+        for (JmxObjectConfig object : file.objects()) {
+            String prev = shortNames.get(object.shortName());
+            if (prev != null) {
+                throw new RuntimeException("shortName collision: both " + prev + " and " +
+                    object.name() + " have the shortName " + object.shortName());
+            }
+            shortNames.put(object.shortName(), object.name());
+            for (JmxDiscovery.MBean mbean : discovery.matches(object)) {
+                List<String> attributes = object.attributes().isEmpty() ?
+                    mbean.attributes() : object.attributes();
+                String prefix = columnPrefix(object, mbean.objectName());
+                objects.add(new ObjectPlan(mbean.objectName(), object.isPattern(),
+                    attributes, columns.size()));
+                for (String attribute : attributes) {
+                    columns.add(new JmxColumn(prefix + ":" + attribute,
+                        mbean.types().get(attribute)));
+                }
+            }
+        }
+        columns.add(new JmxColumn(LATENCY_COLUMN, JmxColumn.Type.LONG));
+        columns.add(new JmxColumn(SKIPPED_TICKS_COLUMN, JmxColumn.Type.LONG));
+        this.columns = Collections.unmodifiableList(columns);
+        this.objects = objects.toArray(new ObjectPlan[0]);
+        this.futures = new Future<?>[this.objects.length];
+        this.values = new Object[columns.size()];
+    }
+
+    /**
+     * Get the prefix of the column names for an MBean.
+     */
+    static String columnPrefix(JmxObjectConfig object, ObjectName objectName) {
+        if (!object.isPattern()) {
+            return object.shortName();
+        }
+        Map<String, String> fixed = object.objectName().getKeyPropertyList();
+        StringBuilder bld = new StringBuilder(object.shortName());
+        String prefix = "{";
+        if (object.objectName().isDomainPattern()) {
+            bld.append(prefix).append(objectName.getDomain());
+            prefix = ",";
+        }
+        for (Map.Entry<String, String> entry :
+                new TreeMap<>(objectName.getKeyPropertyList()).entrySet()) {
+            String key = entry.getKey();
+            if (fixed.containsKey(key) &&
+                    !object.objectName().isPropertyValuePattern(key)) {
+                continue;
+            }
+            bld.append(prefix).append(key).append('=').append(entry.getValue());
+            prefix = ",";
+        }
+        if (!prefix.equals("{")) {
+            bld.append('}');
+        }
+        return bld.toString();
+    }
+
+    List<JmxColumn> columns() {
+        return columns;
+    }
+
+    /**
+     * Fetch the values of every column.
+     *
+     * @param connection        The JMX connection.
+     * @param executor          The executor to fetch objects concurrently
+     *                          with, or null to fetch them one at a time.
+     * @param skippedTicks      The number of ticks skipped so far.
+     *
+     * @return                  The values, in column order, or null if a
+     *                          matched MBean has vanished.  The same array
+     *                          is returned by each call, so the values must
+     *                          be consumed before the next call.
+     */
+    Object[] sample(MBeanServerConnection connection, ExecutorService executor,
+                    long skippedTicks) throws Exception {
+        long startNs = System.nanoTime();
+        if ((executor == null) || (objects.length <= 1)) {
+            for (ObjectPlan object : objects) {
+                object.fetch(connection);
+            }
+        } else {
+            for (int i = 0; i < objects.length; i++) {
+                objects[i].connection = connection;
+                futures[i] = executor.submit(objects[i]);
+            }
+            try {
+                for (int i = 0; i < futures.length; i++) {
+                    try {
+                        futures[i].get();
+                    } catch (ExecutionException e) {
+                        if (e.getCause() instanceof RuntimeException) {
+                            throw (RuntimeException) e.getCause();
+                        }
+                        throw e;
+                    }
+                }
+            } finally {
+                for (int i = 0; i < futures.length; i++) {
+                    futures[i].cancel(true);
+                    futures[i] = null;
+                }
+            }
+        }
+        for (ObjectPlan object : objects) {
+            if (object.vanished) {
+                return null;
+            }
+        }
+        values[values.length - 2] = (System.nanoTime() - startNs) / 1000;
+        values[values.length - 1] = skippedTicks;
+        return values;
+    }
+}
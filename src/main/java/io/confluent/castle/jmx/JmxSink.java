@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A destination for the samples gathered by the JMX dumper.
+ */
+public interface JmxSink extends AutoCloseable {
+    /**
+     * Write the schema.  This must be called once, before any samples are
+     * written.
+     *
+     * @param columns       The columns which each sample contains, not
+     *                      including the time.
+     */
+    void writeHeader(List<JmxColumn> columns) throws IOException;
+
+    /**
+     * Write a sample.
+     *
+     * @param timeMs        The time the sample was taken, in milliseconds.
+     * @param values        The value of each column.  LONG and DOUBLE
+     *                      columns must hold numbers.  The caller may
+     *                      reuse this array once the call returns.
+     */
+    void writeSample(long timeMs, Object[] values) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Streams JMX samples to a file, so that the castle host can collect them
+ * while the dumper is still running.
+ *
+ * Each record is a JSON object on its own line.  The first record is a
+ * start record, which holds a random ID for this run of the dumper.  Since
+ * the first line of every stream is different, a reader can compare it with
+ * the first line it collected earlier to tell whether the stream is still
+ * the same one.  A header record gives the columns of a series.  It is written when the series starts, and again
+ * whenever its columns change.  Each sample record gives the time and the
+ * values of one sample, in column order.  Each record is flushed as soon as
+ * it is written, so a reader only ever sees a partial record at the very
+ * end of the file.
+ *
+ * JmxStreamStore is the reader on the castle host.
+ */
+public final class JmxStream implements AutoCloseable {
+    public static final String TYPE = "type";
+    public static final String TYPE_START = "start";
+    public static final String TYPE_HEADER = "header";
+    public static final String TYPE_SAMPLE = "sample";
+    public static final String STREAM_ID = "streamId";
+    public static final String SERIES = "series";
+    public static final String COLUMNS = "columns";
+    public static final String PERIOD_MS = "periodMs";
+    public static final String TIME_MS = "timeMs";
+    public static final String VALUES = "values";
+
+    /**
+     * Non-ASCII characters are escaped, so that every record is pure ASCII.
+     * That lets a reader count bytes and characters interchangeably.
+     */
+    private static final ObjectWriter WRITER =
+        JmxDumper.JSON_SERDE.writer().with(JsonGenerator.Feature.ESCAPE_NON_ASCII);
+
+    private final OutputStream output;
+
+    public JmxStream(OutputStream outputStream) throws IOException {
+        this.output = new BufferedOutputStream(outputStream);
+        ObjectNode record = JmxDumper.JSON_SERDE.createObjectNode();
+        record.put(TYPE, TYPE_START);
+        record.put(STREAM_ID, UUID.randomUUID().toString());
+        record.put(TIME_MS, System.currentTimeMillis());
+        write(record);
+    }
+
+    /**
+     * Start a series, or change its columns.
+     *
+     * @param series        The name of the series.
+     * @param periodMs      How often the series is sampled.
+     * @param columns       The columns of each sample.
+     */
+    public synchronized void writeHeader(String series, long periodMs,
+                                         List<JmxColumn> columns) throws IOException {
+        ObjectNode record = JmxDumper.JSON_SERDE.createObjectNode();
+        record.put(TYPE, TYPE_HEADER);
+        record.put(SERIES, series);
+        record.put(PERIOD_MS, periodMs);
+        ArrayNode names = record.putArray(COLUMNS);
+        for (JmxColumn column : columns) {
+            names.add(column.name());
+        }
+        write(record);
+    }
+
+    /**
+     * Write a sample.
+     *
+     * @param series        The name of the series.
+     * @param timeMs        The time the sample was taken, in milliseconds.
+     * @param values        The value of each column.
+     */
+    public synchronized void writeSample(String series, long timeMs, Object[] values)
+            throws IOException {
+        ObjectNode record = JmxDumper.JSON_SERDE.createObjectNode();
+        record.put(TYPE, TYPE_SAMPLE);
+        record.put(SERIES, series);
+        record.put(TIME_MS, timeMs);
+        ArrayNode array = record.putArray(VALUES);
+        for (Object value : values) {
+            if ((value instanceof Long) || (value instanceof Integer) ||
+                    (value instanceof Short) || (value instanceof Byte)) {
+                array.add(((Number) value).longValue());
+            } else if (value instanceof Number) {
+                array.add(((Number) value).doubleValue());
+            } else {
+                array.add(value.toString());
+            }
+        }
+        write(record);
+    }
+
+    private void write(ObjectNode record) throws IOException {
+        output.write(WRITER.writeValueAsBytes(record));
+        output.write('\n');
+        output.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        output.close();
+    }
+}
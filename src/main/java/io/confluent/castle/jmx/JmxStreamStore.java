@@ -0,0 +1,556 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+/**
+ * Stores the JMX streams collected from each node, on the castle host.
+ *
+ * Each node's stream is mirrored to NODE.jsonl in the store directory.
+ * Since the mirror holds exactly the bytes which we have collected so far,
+ * its length tells us where to resume.  When a node's dumper restarts, the
+ * old mirror is moved aside to NODE.jsonl.N.  A restarted dumper's stream
+ * may already be longer than the mirror, so we detect restarts by comparing
+ * the first line of the stream, which holds a per-run ID, with the first
+ * line of the mirror.
+ *
+ * We also keep the latest sample of each series in NODE.latest.json, so that
+ * cluster-wide aggregates don't require rereading the streams.
+ */
+public final class JmxStreamStore {
+    public static final String STREAM_SUFFIX = ".jsonl";
+
+    public static final String LATEST_SUFFIX = ".latest.json";
+
+    /**
+     * A series is stale when its latest sample is more than this many of its
+     * sampling periods older than the newest sample in the store.
+     */
+    static final int STALE_PERIODS = 5;
+
+    /**
+     * The latest state of a series.
+     */
+    public static final class Series {
+        private final List<String> columns;
+        private final long periodMs;
+        private final long timeMs;
+        private final List<JsonNode> values;
+
+        @JsonCreator
+        public Series(@JsonProperty("columns") List<String> columns,
+                      @JsonProperty("periodMs") long periodMs,
+                      @JsonProperty("timeMs") long timeMs,
+                      @JsonProperty("values") List<JsonNode> values) {
+            this.columns = (columns == null) ? Collections.emptyList() : columns;
+            this.periodMs = periodMs;
+            this.timeMs = timeMs;
+            this.values = (values == null) ? Collections.emptyList() : values;
+        }
+
+        @JsonProperty
+        public List<String> columns() {
+            return columns;
+        }
+
+        /**
+         * How often the series is sampled, or 0 if that is unknown.
+         */
+        @JsonProperty
+        public long periodMs() {
+            return periodMs;
+        }
+
+        /**
+         * The time of the latest sample, or 0 if there is none yet.
+         */
+        @JsonProperty
+        public long timeMs() {
+            return timeMs;
+        }
+
+        @JsonProperty
+        public List<JsonNode> values() {
+            return values;
+        }
+    }
+
+    /**
+     * The latest state of every series from a node.
+     */
+    public static final class Latest {
+        private final long storedBytes;
+        private final Map<String, Series> series;
+
+        @JsonCreator
+        public Latest(@JsonProperty("storedBytes") long storedBytes,
+                      @JsonProperty("series") Map<String, Series> series) {
+            this.storedBytes = storedBytes;
+            this.series = (series == null) ? new TreeMap<>() : new TreeMap<>(series);
+        }
+
+        @JsonProperty
+        public long storedBytes() {
+            return storedBytes;
+        }
+
+        @JsonProperty
+        public Map<String, Series> series() {
+            return series;
+        }
+    }
+
+    /**
+     * The sum of some columns across the cluster.
+     */
+    public static final class Aggregate {
+        private final double sum;
+        private final int numColumns;
+        private final int numNodes;
+        private final long latestTimeMs;
+        private final List<String> staleSeries;
+
+        Aggregate(double sum, int numColumns, int numNodes, long latestTimeMs,
+                  List<String> staleSeries) {
+            this.sum = sum;
+            this.numColumns = numColumns;
+            this.numNodes = numNodes;
+            this.latestTimeMs = latestTimeMs;
+            this.staleSeries = Collections.unmodifiableList(staleSeries);
+        }
+
+        public double sum() {
+            return sum;
+        }
+
+        /**
+         * The number of columns which were summed, across all nodes.
+         */
+        public int numColumns() {
+            return numColumns;
+        }
+
+        public int numNodes() {
+            return numNodes;
+        }
+
+        /**
+         * The time of the latest sample which was summed.
+         */
+        public long latestTimeMs() {
+            return latestTimeMs;
+        }
+
+        /**
+         * The series with matching columns which were left out because they
+         * are stale, as NODE:SERIES.
+         */
+        public List<String> staleSeries() {
+            return staleSeries;
+        }
+    }
+
+    /**
+     * Reads part of a node's stream.
+     */
+    public interface Fetcher {
+        /**
+         * Run the fetchCommand on the node.
+         *
+         * @param headBytes     The number of bytes to read from the start
+         *                      of the stream.
+         * @param offset        The offset to read the rest of the stream from.
+         *
+         * @return              The output lines, or null if the stream could
+         *                      not be read.
+         */
+        List<String> fetch(long headBytes, long offset) throws Exception;
+    }
+
+    private final File dir;
+
+    /**
+     * The latest state of each node which we have loaded.
+     */
+    private final Map<String, Latest> latest = new HashMap<>();
+
+    private final AtomicBoolean reported = new AtomicBoolean(false);
+
+    public JmxStreamStore(File dir) {
+        this.dir = dir;
+    }
+
+    private File streamFile(String nodeName) {
+        return new File(dir, nodeName + STREAM_SUFFIX);
+    }
+
+    private File latestFile(String nodeName) {
+        return new File(dir, nodeName + LATEST_SUFFIX);
+    }
+
+    /**
+     * Get the number of bytes of a node's stream which we have stored.
+     */
+    public synchronized long storedBytes(String nodeName) throws IOException {
+        return load(nodeName).storedBytes();
+    }
+
+    /**
+     * Get a shell command which prints the size of a stream, then the given
+     * number of bytes from its start, then everything from the given offset.
+     *
+     * @param path          The path of the stream.
+     * @param headBytes     The number of bytes to print from the start.
+     * @param offset        The offset to print the rest from.
+     */
+    public static List<String> fetchCommand(String path, long headBytes, long offset) {
+        List<String> command = new ArrayList<>(Arrays.asList("stat", "-c", "%s", path));
+        if (headBytes > 0) {
+            command.addAll(Arrays.asList("&&", "head", "-c", Long.toString(headBytes), path));
+        }
+        command.addAll(Arrays.asList("&&", "tail", "-c", "+" + (offset + 1), path));
+        return command;
+    }
+
+    /**
+     * Collect the part of a node's stream which we haven't seen yet.
+     *
+     * If the first line of the stream doesn't match the first line of our
+     * mirror, or the stream is shorter than the mirror, the dumper was
+     * restarted.  In that case, the old mirror is moved aside, and the new
+     * stream is collected from the start.
+     *
+     * @param nodeName      The node name.
+     * @param fetcher       Runs the fetch command on the node.
+     *
+     * @return              The number of records which were stored, or -1
+     *                      if the stream could not be read.
+     */
+    public int collect(String nodeName, Fetcher fetcher) throws Exception {
+        long storedBytes;
+        String firstLine;
+        synchronized (this) {
+            storedBytes = storedBytes(nodeName);
+            firstLine = firstLine(nodeName);
+        }
+        long headBytes = (firstLine == null) ? 0 :
+            firstLine.getBytes(StandardCharsets.UTF_8).length + 1;
+        List<String> lines = fetcher.fetch(headBytes, storedBytes);
+        if (lines == null) {
+            return -1;
+        }
+        if (headBytes > 0) {
+            long remoteBytes = Long.parseLong(lines.get(0).trim());
+            if ((remoteBytes < storedBytes) || (lines.size() < 2) ||
+                    !lines.get(1).equals(firstLine)) {
+                restart(nodeName);
+                lines = fetcher.fetch(0, 0);
+                if (lines == null) {
+                    return -1;
+                }
+            } else {
+                lines = lines.subList(1, lines.size());
+            }
+        }
+        return append(nodeName, lines.subList(1, lines.size()));
+    }
+
+    /**
+     * Get the first line of a node's mirror, or null if it is empty.
+     */
+    private String firstLine(String nodeName) throws IOException {
+        File file = streamFile(nodeName);
+        if (!file.exists()) {
+            return null;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(),
+                StandardCharsets.UTF_8)) {
+            return reader.readLine();
+        }
+    }
+
+    /**
+     * Append newly collected lines of a node's stream.  Lines which can't be
+     * parsed are stored, so that the mirror stays in step with the stream,
+     * but they are otherwise skipped.  The exception is the last line: if it
+     * can't be parsed, we assume that it was only partly written, and leave
+     * it for the next collection.
+     *
+     * @param nodeName      The node name.
+     * @param lines         The lines, without line terminators.
+     *
+     * @return              The number of records which were stored.
+     */
+    public synchronized int append(String nodeName, List<String> lines) throws IOException {
+        Latest state = load(nodeName);
+        Map<String, Series> series = state.series();
+        long storedBytes = state.storedBytes();
+        int numStored = 0;
+        Files.createDirectories(dir.toPath());
+        try (OutputStream output = Files.newOutputStream(streamFile(nodeName).toPath(),
+                CREATE, APPEND)) {
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                JsonNode record = parse(line);
+                if ((record == null) && (i == lines.size() - 1)) {
+                    break;
+                }
+                byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                output.write(bytes);
+                storedBytes += bytes.length;
+                if (record != null) {
+                    numStored++;
+                    apply(series, record);
+                }
+            }
+        }
+        save(nodeName, new Latest(storedBytes, series));
+        return numStored;
+    }
+
+    /**
+     * Parse a record.
+     *
+     * @return      The record, or null if the line is not a valid record.
+     */
+    private static JsonNode parse(String line) {
+        JsonNode record;
+        try {
+            record = JmxDumper.JSON_SERDE.readTree(line);
+        } catch (IOException e) {
+            return null;
+        }
+        if ((record == null) || !record.has(JmxStream.TYPE)) {
+            return null;
+        }
+        return record;
+    }
+
+    private static void apply(Map<String, Series> series, JsonNode record) {
+        String type = record.path(JmxStream.TYPE).asText();
+        String name = record.path(JmxStream.SERIES).asText();
+        if (type.equals(JmxStream.TYPE_HEADER)) {
+            List<String> columns = new ArrayList<>();
+            for (JsonNode column : record.path(JmxStream.COLUMNS)) {
+                columns.add(column.asText());
+            }
+            series.put(name, new Series(columns,
+                record.path(JmxStream.PERIOD_MS).asLong(), 0, null));
+        } else if (type.equals(JmxStream.TYPE_SAMPLE)) {
+            Series prev = series.get(name);
+            List<JsonNode> values = new ArrayList<>();
+            for (JsonNode value : record.path(JmxStream.VALUES)) {
+                values.add(value);
+            }
+            if ((prev != null) && (prev.columns().size() == values.size())) {
+                series.put(name, new Series(prev.columns(), prev.periodMs(),
+                    record.path(JmxStream.TIME_MS).asLong(), values));
+            }
+        }
+    }
+
+    /**
+     * Handle a node whose stream started over, because its dumper was
+     * restarted.  The old mirror is moved aside.
+     */
+    public synchronized void restart(String nodeName) throws IOException {
+        File file = streamFile(nodeName);
+        if (file.exists()) {
+            int index = 1;
+            File rotated;
+            do {
+                rotated = new File(dir, file.getName() + "." + index++);
+            } while (rotated.exists());
+            Files.move(file.toPath(), rotated.toPath());
+        }
+        Files.deleteIfExists(latestFile(nodeName).toPath());
+        latest.remove(nodeName);
+    }
+
+    /**
+     * Sum the latest values of the matching columns across every node in
+     * the store.
+     *
+     * Stale series are left out, so that a dumper which stopped doesn't keep
+     * contributing its last sample.  Staleness is judged against the newest
+     * sample in the store rather than our own clock, since the nodes' clocks
+     * may not match ours.  When two series on a node have a column with the
+     * same name, only the newer value is counted.
+     *
+     * @param pattern       The column name.  A * matches any sequence of
+     *                      characters, so "size{*}:Value" matches the Value
+     *                      columns from every MBean matched by a pattern.
+     */
+    public synchronized Aggregate aggregate(String pattern) throws IOException {
+        Pattern regex = globToRegex(pattern);
+        List<String> nodeNames = nodeNames();
+        long newestTimeMs = 0;
+        for (String nodeName : nodeNames) {
+            for (Series series : load(nodeName).series().values()) {
+                newestTimeMs = Math.max(newestTimeMs, series.timeMs());
+            }
+        }
+        double sum = 0;
+        int numColumns = 0;
+        int numNodes = 0;
+        long latestTimeMs = 0;
+        List<String> staleSeries = new ArrayList<>();
+        for (String nodeName : nodeNames) {
+            Map<String, Series> sources = new HashMap<>();
+            Map<String, Double> values = new HashMap<>();
+            for (Map.Entry<String, Series> entry : load(nodeName).series().entrySet()) {
+                Series series = entry.getValue();
+                if (series.timeMs() == 0) {
+                    continue;
+                }
+                boolean stale = (series.periodMs() > 0) &&
+                    (newestTimeMs - series.timeMs() > STALE_PERIODS * series.periodMs());
+                for (int i = 0; i < series.columns().size(); i++) {
+                    JsonNode value = series.values().get(i);
+                    String column = series.columns().get(i);
+                    if (!value.isNumber() || !regex.matcher(column).matches()) {
+                        continue;
+                    }
+                    if (stale) {
+                        staleSeries.add(nodeName + ":" + entry.getKey());
+                        break;
+                    }
+                    Series prev = sources.get(column);
+                    if ((prev == null) || (prev.timeMs() < series.timeMs())) {
+                        sources.put(column, series);
+                        values.put(column, value.asDouble());
+                    }
+                }
+            }
+            if (!values.isEmpty()) {
+                numNodes++;
+                numColumns += values.size();
+                for (double value : values.values()) {
+                    sum += value;
+                }
+                for (Series series : sources.values()) {
+                    latestTimeMs = Math.max(latestTimeMs, series.timeMs());
+                }
+            }
+        }
+        return new Aggregate(sum, numColumns, numNodes, latestTimeMs, staleSeries);
+    }
+
+    static Pattern globToRegex(String glob) {
+        StringBuilder bld = new StringBuilder();
+        String[] parts = glob.split("\\*", -1);
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                bld.append(".*");
+            }
+            if (!parts[i].isEmpty()) {
+                bld.append(Pattern.quote(parts[i]));
+            }
+        }
+        return Pattern.compile(bld.toString());
+    }
+
+    /**
+     * The names of the nodes which have streams in the store.
+     */
+    public synchronized List<String> nodeNames() {
+        List<String> results = new ArrayList<>();
+        File[] files = dir.listFiles((d, name) -> name.endsWith(STREAM_SUFFIX));
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                results.add(name.substring(0, name.length() - STREAM_SUFFIX.length()));
+            }
+        }
+        Collections.sort(results);
+        return results;
+    }
+
+    /**
+     * Claim the job of reporting the aggregates.  Only the first caller in
+     * each run gets true, so that the report is printed once, even though
+     * each node has its own aggregate action.
+     */
+    public boolean claimReport() {
+        return reported.compareAndSet(false, true);
+    }
+
+    private Latest load(String nodeName) throws IOException {
+        Latest state = latest.get(nodeName);
+        if (state != null) {
+            return state;
+        }
+        File stream = streamFile(nodeName);
+        long length = stream.exists() ? stream.length() : 0;
+        File file = latestFile(nodeName);
+        if (file.exists()) {
+            try {
+                state = JmxDumper.JSON_SERDE.readValue(file, Latest.class);
+            } catch (IOException e) {
+                state = null;
+            }
+        }
+        if ((state == null) || (state.storedBytes() != length)) {
+            // The latest state is missing or out of date, so rebuild it from the stream.
+            Map<String, Series> series = new TreeMap<>();
+            if (stream.exists()) {
+                for (String line : Files.readAllLines(stream.toPath(), StandardCharsets.UTF_8)) {
+                    JsonNode record = parse(line);
+                    if (record != null) {
+                        apply(series, record);
+                    }
+                }
+            }
+            state = new Latest(length, series);
+        }
+        latest.put(nodeName, state);
+        return state;
+    }
+
+    private void save(String nodeName, Latest state) throws IOException {
+        File file = latestFile(nodeName);
+        File tempFile = new File(file.getAbsolutePath() + ".tmp");
+        JmxDumper.JSON_SERDE.writeValue(tempFile, state);
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        latest.put(nodeName, state);
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Bit-level compression for time series, in the style of Facebook's Gorilla.
+ *
+ * Timestamps and integers are stored as the difference between successive
+ * deltas, which is usually zero for periodic samples and slowly changing
+ * counters.  Doubles are XORed with the previous value, and only the bits
+ * which changed are stored.  Strings are stored in full, unless they are
+ * the same as the previous value.
+ *
+ * Each encoder stores its first value in full, so a stream can be split into
+ * independent blocks by starting new encoders.
+ */
+final class TimeSeriesCodec {
+    /**
+     * The widths of the delta-of-delta values, indexed by the number of 1
+     * bits in their prefix.
+     */
+    private final static int[] DELTA_OF_DELTA_WIDTHS = {0, 7, 9, 12, 32, 64};
+
+    private TimeSeriesCodec() {
+    }
+
+    /**
+     * Accumulates bits in a growable buffer, most significant bit first.
+     */
+    static final class BitWriter {
+        private byte[] buf = new byte[1024];
+        private long bitPos = 0;
+
+        void writeBit(boolean bit) {
+            writeBits(bit ? 1 : 0, 1);
+        }
+
+        /**
+         * Write the lowest numBits bits of value.
+         */
+        void writeBits(long value, int numBits) {
+            int needed = (int) ((bitPos + numBits + 7) >>> 3);
+            if (needed > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(needed, buf.length * 2));
+            }
+            while (numBits > 0) {
+                int byteIndex = (int) (bitPos >>> 3);
+                int free = 8 - (int) (bitPos & 7);
+                int n = Math.min(free, numBits);
+                int bits = (int) (value >>> (numBits - n)) & ((1 << n) - 1);
+                buf[byteIndex] |= (byte) (bits << (free - n));
+                bitPos += n;
+                numBits -= n;
+            }
+        }
+
+        int byteLength() {
+            return (int) ((bitPos + 7) >>> 3);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        void reset() {
+            Arrays.fill(buf, 0, byteLength(), (byte) 0);
+            bitPos = 0;
+        }
+    }
+
+    /**
+     * Reads bits written by a BitWriter.
+     */
+    static final class BitReader {
+        private final byte[] buf;
+        private final long limit;
+        private long bitPos = 0;
+
+        BitReader(byte[] buf, int length) {
+            this.buf = buf;
+            this.limit = ((long) length) * 8;
+        }
+
+        boolean readBit() {
+            return readBits(1) != 0;
+        }
+
+        long readBits(int numBits) {
+            if (bitPos + numBits > limit) {
+                throw new RuntimeException("Tried to read past the end of a block.");
+            }
+            long result = 0;
+            while (numBits > 0) {
+                int byteIndex = (int) (bitPos >>> 3);
+                int free = 8 - (int) (bitPos & 7);
+                int n = Math.min(free, numBits);
+                int bits = (buf[byteIndex] >>> (free - n)) & ((1 << n) - 1);
+                result = (result << n) | bits;
+                bitPos += n;
+                numBits -= n;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Encodes longs as the difference between successive deltas.
+     */
+    static final class LongEncoder {
+        private boolean first = true;
+        private long prev = 0;
+        private long prevDelta = 0;
+
+        void write(BitWriter writer, long value) {
+            if (first) {
+                writer.writeBits(value, 64);
+                first = false;
+            } else {
+                long delta = value - prev;
+                long deltaOfDelta = delta - prevDelta;
+                long zigZag = (deltaOfDelta << 1) ^ (deltaOfDelta >> 63);
+                if (zigZag == 0) {
+                    writer.writeBits(0, 1);
+                } else if ((zigZag >>> 7) == 0) {
+                    writer.writeBits(0b10, 2);
+                    writer.writeBits(zigZag, 7);
+                } else if ((zigZag >>> 9) == 0) {
+                    writer.writeBits(0b110, 3);
+                    writer.writeBits(zigZag, 9);
+                } else if ((zigZag >>> 12) == 0) {
+                    writer.writeBits(0b1110, 4);
+                    writer.writeBits(zigZag, 12);
+                } else if ((zigZag >>> 32) == 0) {
+                    writer.writeBits(0b11110, 5);
+                    writer.writeBits(zigZag, 32);
+                } else {
+                    writer.writeBits(0b11111, 5);
+                    writer.writeBits(zigZag, 64);
+                }
+                prevDelta = delta;
+            }
+            prev = value;
+        }
+    }
+
+    static final class LongDecoder {
+        private boolean first = true;
+        private long prev = 0;
+        private long prevDelta = 0;
+
+        long read(BitReader reader) {
+            if (first) {
+                first = false;
+                prev = reader.readBits(64);
+                return prev;
+            }
+            int ones = 0;
+            while ((ones < DELTA_OF_DELTA_WIDTHS.length - 1) && reader.readBit()) {
+                ones++;
+            }
+            long zigZag = (ones == 0) ? 0 : reader.readBits(DELTA_OF_DELTA_WIDTHS[ones]);
+            long deltaOfDelta = (zigZag >>> 1) ^ -(zigZag & 1);
+            prevDelta += deltaOfDelta;
+            prev += prevDelta;
+            return prev;
+        }
+    }
+
+    /**
+     * Encodes doubles by XORing each value with the previous one.
+     */
+    static final class DoubleEncoder {
+        private boolean first = true;
+        private long prev = 0;
+        private int prevLeading = -1;
+        private int prevTrailing = 0;
+
+        void write(BitWriter writer, double value) {
+            long bits = Double.doubleToRawLongBits(value);
+            if (first) {
+                writer.writeBits(bits, 64);
+                first = false;
+                prev = bits;
+                return;
+            }
+            long xor = bits ^ prev;
+            prev = bits;
+            if (xor == 0) {
+                writer.writeBits(0, 1);
+                return;
+            }
+            int leading = Math.min(31, Long.numberOfLeadingZeros(xor));
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if ((prevLeading >= 0) && (leading >= prevLeading) && (trailing >= prevTrailing)) {
+                // The changed bits fit in the previous window.
+                writer.writeBits(0b10, 2);
+                writer.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+            } else {
+                int meaningful = 64 - leading - trailing;
+                writer.writeBits(0b11, 2);
+                writer.writeBits(leading, 5);
+                writer.writeBits(meaningful - 1, 6);
+                writer.writeBits(xor >>> trailing, meaningful);
+                prevLeading = leading;
+                prevTrailing = trailing;
+            }
+        }
+    }
+
+    static final class DoubleDecoder {
+        private boolean first = true;
+        private long prev = 0;
+        private int prevLeading = -1;
+        private int prevTrailing = 0;
+
+        double read(BitReader reader) {
+            if (first) {
+                first = false;
+                prev = reader.readBits(64);
+            } else if (reader.readBit()) {
+                if (reader.readBit()) {
+                    prevLeading = (int) reader.readBits(5);
+                    int meaningful = (int) reader.readBits(6) + 1;
+                    prevTrailing = 64 - prevLeading - meaningful;
+                }
+                long xor = reader.readBits(64 - prevLeading - prevTrailing) << prevTrailing;
+                prev ^= xor;
+            }
+            return Double.longBitsToDouble(prev);
+        }
+    }
+
+    /**
+     * Encodes strings, skipping values which are the same as the previous one.
+     */
+    static final class StringEncoder {
+        private String prev = null;
+
+        void write(BitWriter writer, String value) {
+            if (value.equals(prev)) {
+                writer.writeBits(0, 1);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writer.writeBits(1, 1);
+            writer.writeBits(bytes.length, 32);
+            for (byte b : bytes) {
+                writer.writeBits(b, 8);
+            }
+            prev = value;
+        }
+    }
+
+    static final class StringDecoder {
+        private String prev = null;
+
+        String read(BitReader reader) {
+            if (reader.readBit()) {
+                int length = (int) reader.readBits(32);
+                byte[] bytes = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    bytes[i] = (byte) reader.readBits(8);
+                }
+                prev = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return prev;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.readiness;
+
+/**
+ * A probe which succeeds when a local HTTP endpoint returns status 200.
+ */
+public final class HttpReadinessProbe implements ReadinessProbe {
+    private final int port;
+
+    private final String path;
+
+    public HttpReadinessProbe(int port, String path) {
+        this.port = port;
+        this.path = path.startsWith("/") ? path : "/" + path;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public String path() {
+        return path;
+    }
+
+    public String url() {
+        return String.format("http://localhost:%d%s", port, path);
+    }
+
+    @Override
+    public String description() {
+        return "http " + url();
+    }
+
+    @Override
+    public ReadinessCondition condition() {
+        return new ReadinessCondition(description(),
+            "curl", "-s", "-o", "/dev/null", "-w", "'%{http_code}'", "'" + url() + "'",
+            "|", "grep", "-q", "'^200$'");
+    }
+
+    @Override
+    public String toString() {
+        return description();
+    }
+};
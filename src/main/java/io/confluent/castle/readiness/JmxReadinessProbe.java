@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.readiness;
+
+import io.confluent.castle.action.ActionPaths;
+
+/**
+ * A probe which succeeds when a numeric JMX attribute has a given value.
+ *
+ * The attribute is read on the node with Kafka's JmxTool, so this can only be
+ * used on nodes which have the Kafka distribution installed.  Each check
+ * starts a JVM, so the probe is checked less often than the others.
+ */
+public final class JmxReadinessProbe implements ReadinessProbe {
+    /**
+     * How often to read the attribute.
+     */
+    static final int POLL_INTERVAL_MS = 2000;
+
+    private final int jmxPort;
+
+    private final String objectName;
+
+    private final String attribute;
+
+    private final long value;
+
+    public JmxReadinessProbe(int jmxPort, String objectName, String attribute,
+                             long value) {
+        this.jmxPort = jmxPort;
+        this.objectName = objectName;
+        this.attribute = attribute;
+        this.value = value;
+    }
+
+    public int jmxPort() {
+        return jmxPort;
+    }
+
+    public String objectName() {
+        return objectName;
+    }
+
+    public String attribute() {
+        return attribute;
+    }
+
+    public long value() {
+        return value;
+    }
+
+    @Override
+    public String description() {
+        return String.format("jmx %s %s == %d", objectName, attribute, value);
+    }
+
+    @Override
+    public ReadinessCondition condition() {
+        // JmxTool prints a header line followed by a line of comma-separated
+        // values.  If it prints nothing at all, the probe fails.
+        return new ReadinessCondition(description(), POLL_INTERVAL_MS,
+            ActionPaths.KAFKA_SRC + "/bin/kafka-run-class.sh", "kafka.tools.JmxTool",
+            "--jmx-url", "service:jmx:rmi:///jndi/rmi://localhost:" + jmxPort + "/jmxrmi",
+            "--object-name", "'" + objectName + "'",
+            "--attributes", "'" + attribute + "'",
+            "--one-time", "true", "2>/dev/null", "|",
+            "awk", "-F,", "'END { exit !(NR > 1 && $NF == " + value + ") }'");
+    }
+
+    @Override
+    public String toString() {
+        return description();
+    }
+};
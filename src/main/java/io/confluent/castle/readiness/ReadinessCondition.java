@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.readiness;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A condition which can be checked by running a shell command on a node.
+ *
+ * The condition holds when the command exits with status 0.
+ */
+public final class ReadinessCondition {
+    /**
+     * How often a condition is checked, unless it asks to be checked less often.
+     */
+    public static final int DEFAULT_POLL_INTERVAL_MS = 100;
+
+    private final String description;
+
+    private final int pollIntervalMs;
+
+    private final List<String> args;
+
+    /**
+     * Create a condition which holds when a JVM whose main class matches the
+     * given pattern is running.
+     */
+    public static ReadinessCondition javaProcess(String className) {
+        return new ReadinessCondition("java process " + className,
+            "jcmd", "|", "grep", "-q", className);
+    }
+
+    /**
+     * Create a condition which holds when the given command succeeds.
+     *
+     * @param description   A human-readable description of the condition.
+     * @param args          The shell arguments.  These are interpreted by the
+     *                      remote shell, just as they would be when passed to
+     *                      Command#args.
+     */
+    public ReadinessCondition(String description, String... args) {
+        this(description, DEFAULT_POLL_INTERVAL_MS, args);
+    }
+
+    /**
+     * Create a condition which holds when the given command succeeds.
+     *
+     * @param description       A human-readable description of the condition.
+     * @param pollIntervalMs    How often to check the condition.  Conditions
+     *                          whose commands are expensive to run should be
+     *                          checked less often than the default.
+     * @param args              The shell arguments.
+     */
+    public ReadinessCondition(String description, int pollIntervalMs, String... args) {
+        this.description = description;
+        this.pollIntervalMs = Math.max(DEFAULT_POLL_INTERVAL_MS, pollIntervalMs);
+        this.args = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(args)));
+    }
+
+    public String description() {
+        return description;
+    }
+
+    public int pollIntervalMs() {
+        return pollIntervalMs;
+    }
+
+    public List<String> args() {
+        return args;
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+}
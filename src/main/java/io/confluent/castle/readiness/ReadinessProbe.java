@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.readiness;
+
+/**
+ * A check which tells us whether a service on a node is ready to be used.
+ *
+ * Roles declare probes for the services they start.  Probes are run on the
+ * node itself by a ReadinessWatcher, so checking any number of them only
+ * takes a single ssh session.
+ */
+public interface ReadinessProbe {
+    /**
+     * Get a human-readable description of this probe.
+     */
+    String description();
+
+    /**
+     * Create the condition which runs this probe on the node.
+     */
+    ReadinessCondition condition();
+
+    /**
+     * Create a probe which succeeds when a local TCP port accepts connections.
+     */
+    static ReadinessProbe tcp(int port) {
+        return new TcpReadinessProbe(port);
+    }
+
+    /**
+     * Create a probe which succeeds when a local HTTP endpoint returns 200.
+     */
+    static ReadinessProbe http(int port, String path) {
+        return new HttpReadinessProbe(port, path);
+    }
+
+    /**
+     * Create a probe which succeeds when a JMX attribute has the given value.
+     */
+    static ReadinessProbe jmx(int jmxPort, String objectName, String attribute,
+                              long value) {
+        return new JmxReadinessProbe(jmxPort, objectName, attribute, value);
+    }
+};
@@ -0,0 +1,262 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.readiness;
+
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.common.CastleUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Waits for a set of readiness conditions to hold on a node.
+ *
+ * Rather than opening a new ssh session for every check, the watcher starts a
+ * single shell loop on the node which checks the pending conditions every
+ * 100 ms, or less often for conditions which are expensive to check.  The
+ * loop reports each condition as it becomes ready, and exits
+ * once they all hold.  If the watcher itself can't be run, we fall back to
+ * checking each condition separately, with exponential backoff.
+ */
+public final class ReadinessWatcher {
+    private static final String READY_MARKER = "##CASTLE_READY";
+
+    private static final Pattern READY_MARKER_PATTERN =
+        Pattern.compile(READY_MARKER + " (\\d+)");
+
+    /**
+     * The exit status the watcher uses to indicate that it timed out.
+     */
+    static final int TIMED_OUT_STATUS = 124;
+
+    private static final int FALLBACK_INITIAL_POLL_INTERVAL_MS = 5;
+
+    private static final int FALLBACK_MAX_POLL_INTERVAL_MS = 2000;
+
+    /**
+     * The threads which run the watchers.  These are shared by every watcher,
+     * so that we don't create a new executor each time we wait for a node.
+     * Idle threads exit after a minute.
+     */
+    private static final ExecutorService WATCHERS = Executors.newCachedThreadPool(
+        CastleUtil.createThreadFactory("CastleReadinessWatcher_%d", true));
+
+    /**
+     * Tracks which conditions the watcher script has reported as ready.  The
+     * script's output is fed in one line at a time while it runs, so each
+     * condition is noticed as soon as it holds.
+     */
+    static final class ReadyMarkers implements Consumer<String> {
+        private final boolean[] ready;
+        private final IntConsumer onReady;
+
+        ReadyMarkers(int numConditions, IntConsumer onReady) {
+            this.ready = new boolean[numConditions];
+            this.onReady = onReady;
+        }
+
+        @Override
+        public synchronized void accept(String line) {
+            Matcher matcher = READY_MARKER_PATTERN.matcher(line);
+            if (!matcher.matches()) {
+                return;
+            }
+            int index = Integer.parseInt(matcher.group(1));
+            if ((index < ready.length) && (!ready[index])) {
+                ready[index] = true;
+                onReady.accept(index);
+            }
+        }
+
+        synchronized boolean isReady(int index) {
+            return ready[index];
+        }
+    }
+
+    private final CastleNode node;
+
+    private final List<ReadinessCondition> conditions = new ArrayList<>();
+
+    public ReadinessWatcher(CastleNode node) {
+        this.node = node;
+    }
+
+    public ReadinessWatcher addCondition(ReadinessCondition condition) {
+        conditions.add(condition);
+        return this;
+    }
+
+    public ReadinessWatcher addProbe(ReadinessProbe probe) {
+        return addCondition(probe.condition());
+    }
+
+    public ReadinessWatcher addProbes(Collection<ReadinessProbe> probes) {
+        for (ReadinessProbe probe : probes) {
+            addProbe(probe);
+        }
+        return this;
+    }
+
+    /**
+     * Create the shell script which watches for every condition.
+     *
+     * @param timeoutMs     How long the script should wait before giving up.
+     */
+    String toScript(int timeoutMs) {
+        StringBuilder bld = new StringBuilder();
+        bld.append("CASTLE_DEADLINE=$(( $(date +%s) + ").
+            append((timeoutMs + 999) / 1000).append(" ))\n");
+        for (int i = 0; i < conditions.size(); i++) {
+            bld.append("CASTLE_READY_").append(i).append("=0\n");
+        }
+        bld.append("CASTLE_ROUND=0\n");
+        bld.append("while true; do\n");
+        bld.append("    CASTLE_PENDING=0\n");
+        for (int i = 0; i < conditions.size(); i++) {
+            ReadinessCondition condition = conditions.get(i);
+            String check = "{ " + String.join(" ", condition.args()) +
+                "; } </dev/null >/dev/null 2>&1";
+            int rounds = condition.pollIntervalMs() / ReadinessCondition.DEFAULT_POLL_INTERVAL_MS;
+            if (rounds > 1) {
+                // Only run the check every few rounds.
+                check = "[ $(( CASTLE_ROUND % " + rounds + " )) -eq 0 ] && " + check;
+            }
+            bld.append("    if [ ${CASTLE_READY_").append(i).append("} -eq 0 ]; then\n");
+            bld.append("        if ").append(check).append("; then\n");
+            bld.append("            CASTLE_READY_").append(i).append("=1\n");
+            bld.append("            echo \"").append(READY_MARKER).append(" ").
+                append(i).append("\"\n");
+            bld.append("        else\n");
+            bld.append("            CASTLE_PENDING=1\n");
+            bld.append("        fi\n");
+            bld.append("    fi\n");
+        }
+        bld.append("    [ ${CASTLE_PENDING} -eq 0 ] && exit 0\n");
+        bld.append("    [ $(date +%s) -ge ${CASTLE_DEADLINE} ] && exit ").
+            append(TIMED_OUT_STATUS).append("\n");
+        bld.append("    CASTLE_ROUND=$(( CASTLE_ROUND + 1 ))\n");
+        bld.append("    sleep 0.1\n");
+        bld.append("done\n");
+        return bld.toString();
+    }
+
+    /**
+     * Start watching for the conditions.
+     *
+     * @param timeoutMs     The maximum time to wait.
+     *
+     * @return              A future which is completed when all of the
+     *                      conditions hold, or completed exceptionally if
+     *                      they do not hold before the timeout.
+     */
+    public CompletableFuture<Void> start(final int timeoutMs) {
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        if (conditions.isEmpty()) {
+            future.complete(null);
+            return future;
+        }
+        WATCHERS.submit(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    watch(timeoutMs);
+                    future.complete(null);
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Wait for all of the conditions to hold.
+     *
+     * @param timeoutMs     The maximum time to wait.
+     */
+    public void await(int timeoutMs) throws Exception {
+        try {
+            start(timeoutMs).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void watch(int timeoutMs) throws Exception {
+        final long startMs = System.currentTimeMillis();
+        ReadyMarkers markers = new ReadyMarkers(conditions.size(), index ->
+            node.log().printf("** %s: %s ready after %d ms.%n", node.nodeName(),
+                conditions.get(index), System.currentTimeMillis() - startMs));
+        int returnCode = node.uplink().command().
+            streamOutput(markers).
+            setStdin(toScript(timeoutMs).getBytes(StandardCharsets.UTF_8)).
+            args("--", "bash", "-s").
+            run();
+        if (returnCode == 0) {
+            node.log().printf("** %s: %s ready after %d ms.%n", node.nodeName(),
+                conditions, System.currentTimeMillis() - startMs);
+            return;
+        }
+        List<ReadinessCondition> pending = new ArrayList<>();
+        for (int i = 0; i < conditions.size(); i++) {
+            if (!markers.isReady(i)) {
+                pending.add(conditions.get(i));
+            }
+        }
+        if (returnCode == TIMED_OUT_STATUS) {
+            throw new RuntimeException("Timed out waiting for " + pending + " on " +
+                node.nodeName());
+        }
+        node.log().printf("** %s: readiness watcher failed with RESULT %d.  " +
+            "Falling back to polling for %s.%n", node.nodeName(), returnCode, pending);
+        for (final ReadinessCondition condition : pending) {
+            int remainingMs = (int) Math.max(0,
+                timeoutMs - (System.currentTimeMillis() - startMs));
+            CastleUtil.waitForWithBackoff(FALLBACK_INITIAL_POLL_INTERVAL_MS,
+                FALLBACK_MAX_POLL_INTERVAL_MS, remainingMs, new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        List<String> args = new ArrayList<>();
+                        args.add("-n");
+                        args.add("--");
+                        args.addAll(condition.args());
+                        return 0 == node.uplink().command().argList(args).run();
+                    }
+
+                    @Override
+                    public String toString() {
+                        return condition.description() + " on " + node.nodeName();
+                    }
+                });
+        }
+    }
+}
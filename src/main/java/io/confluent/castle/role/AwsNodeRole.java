@@ -38,6 +38,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.function.Function;
 
 public class AwsNodeRole implements Role, UplinkRole {
@@ -117,6 +119,12 @@ public class AwsNodeRole implements Role, UplinkRole {
      */
     private final List<AdditionalFile> additionalFiles;
 
+    /**
+     * Maps the source directories on the node to the hashes of the source
+     * trees they were last synced to.  Protected by the object lock.
+     */
+    private final Map<String, String> sourceHashes;
+
     @JsonCreator
     public AwsNodeRole(@JsonProperty("keyPair") String keyPair,
                        @JsonProperty("securityGroup") String securityGroup,
@@ -130,7 +138,8 @@ public class AwsNodeRole implements Role, UplinkRole {
                        @JsonProperty("publicDns") String publicDns,
                        @JsonProperty("instanceId") String instanceId,
                        @JsonProperty("region") String region,
-                       @JsonProperty("additionalFiles") List<AdditionalFile> additionalFiles) {
+                       @JsonProperty("additionalFiles") List<AdditionalFile> additionalFiles,
+                       @JsonProperty("sourceHashes") Map<String, String> sourceHashes) {
         this.keyPair = keyPair == null ? "" : keyPair;
         this.securityGroup = securityGroup == null ? "" : securityGroup;
         this.imageId = imageId == null ? IMAGE_ID_DEFAULT : imageId;
@@ -145,6 +154,7 @@ public class AwsNodeRole implements Role, UplinkRole {
         this.region = region == null ? "" : region;
         this.additionalFiles = additionalFiles == null ? Collections.emptyList() :
             Collections.unmodifiableList(new ArrayList<>(additionalFiles));
+        this.sourceHashes = sourceHashes == null ? new TreeMap<>() : new TreeMap<>(sourceHashes);
     }
 
     @JsonProperty
@@ -224,6 +234,19 @@ public class AwsNodeRole implements Role, UplinkRole {
         return this.additionalFiles;
     }
 
+    @JsonProperty
+    public synchronized Map<String, String> sourceHashes() {
+        return new TreeMap<>(sourceHashes);
+    }
+
+    public synchronized void setSourceHash(String remotePath, String hash) {
+        this.sourceHashes.put(remotePath, hash);
+    }
+
+    public synchronized void clearSourceHashes() {
+        this.sourceHashes.clear();
+    }
+
     @Override
     public Collection<Action> createActions(String nodeName) {
         ArrayList<Action> actions = new ArrayList<>();
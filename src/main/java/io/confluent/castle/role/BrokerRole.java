@@ -26,11 +26,14 @@ import io.confluent.castle.action.BrokerStopAction;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.common.DynamicVariableProvider;
+import io.confluent.castle.readiness.ReadinessProbe;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class BrokerRole implements Role {
@@ -43,6 +46,24 @@ public class BrokerRole implements Role {
 
     public static final int PORT = 9092;
 
+    public static final int JMX_PORT = 9192;
+
+    /**
+     * The broker reports its state in this JMX attribute.  It becomes
+     * RUNNING_AS_BROKER_STATE once the broker has finished starting up.
+     */
+    private static final String BROKER_STATE_OBJECT = "kafka.server:type=KafkaServer,name=BrokerState";
+
+    private static final String BROKER_STATE_ATTRIBUTE = "Value";
+
+    private static final int RUNNING_AS_BROKER_STATE = 3;
+
+    /**
+     * A broker which was not shut down cleanly recovers its logs before it
+     * reports RUNNING_AS_BROKER_STATE, which can take many minutes.
+     */
+    private static final int DEFAULT_BROKER_READINESS_TIMEOUT_MS = 15 * 60 * 1000;
+
     private final int initialDelayMs;
 
     private final Map<String, String> conf;
@@ -51,11 +72,14 @@ public class BrokerRole implements Role {
 
     private final String externalAuth;
 
+    private final int readinessTimeoutMs;
+
     @JsonCreator
     public BrokerRole(@JsonProperty("initialDelayMs") int initialDelayMs,
                       @JsonProperty("conf") Map<String, String> conf,
                       @JsonProperty("jvmOptions") String jvmOptions,
-                      @JsonProperty("externalAuth") String externalAuth) {
+                      @JsonProperty("externalAuth") String externalAuth,
+                      @JsonProperty("readinessTimeoutMs") int readinessTimeoutMs) {
         this.initialDelayMs = initialDelayMs;
         this.conf = conf == null ? Collections.emptyMap() :
             Collections.unmodifiableMap(new HashMap<>(conf));
@@ -66,6 +90,8 @@ public class BrokerRole implements Role {
         }
         this.externalAuth = externalAuth == null ?
             DEFAULT_EXTERNAL_AUTH : externalAuth;
+        this.readinessTimeoutMs = readinessTimeoutMs > 0 ?
+            readinessTimeoutMs : DEFAULT_BROKER_READINESS_TIMEOUT_MS;
     }
 
     @JsonProperty
@@ -88,6 +114,12 @@ public class BrokerRole implements Role {
         return externalAuth;
     }
 
+    @JsonProperty
+    @Override
+    public int readinessTimeoutMs() {
+        return readinessTimeoutMs;
+    }
+
     @Override
     public Collection<Action> createActions(String nodeName) {
         ArrayList<Action> actions = new ArrayList<>();
@@ -97,6 +129,15 @@ public class BrokerRole implements Role {
         return actions;
     }
 
+    @Override
+    public List<ReadinessProbe> readinessProbes() {
+        // The port opens before the broker has finished loading its logs, so
+        // also wait for the broker state to say that it is running.
+        return Arrays.asList(ReadinessProbe.tcp(PORT),
+            ReadinessProbe.jmx(JMX_PORT, BROKER_STATE_OBJECT, BROKER_STATE_ATTRIBUTE,
+                RUNNING_AS_BROKER_STATE));
+    }
+
     @Override
     public Map<String, DynamicVariableProvider> dynamicVariableProviders() {
         return Collections.singletonMap("bootstrapServers", new DynamicVariableProvider(0) {
@@ -20,6 +20,7 @@ package io.confluent.castle.role;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.confluent.castle.action.Action;
+import io.confluent.castle.action.JmxAggregateAction;
 import io.confluent.castle.action.JmxDumperStartAction;
 import io.confluent.castle.action.JmxDumperStatusAction;
 import io.confluent.castle.action.JmxDumperStopAction;
@@ -27,6 +28,8 @@ import io.confluent.castle.jmx.JmxDumpersConfig;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 public class JmxDumperRole implements Role {
     public static final String CLASS_NAME = "io.confluent.castle.jmx.JmxDumper";
@@ -35,11 +38,20 @@ public class JmxDumperRole implements Role {
 
     private final JmxDumpersConfig conf;
 
+    private final boolean stream;
+
+    private final List<String> aggregates;
+
     @JsonCreator
     public JmxDumperRole(@JsonProperty("initialDelayMs") int initialDelayMs,
-                         @JsonProperty("conf") JmxDumpersConfig conf) {
+                         @JsonProperty("conf") JmxDumpersConfig conf,
+                         @JsonProperty("stream") boolean stream,
+                         @JsonProperty("aggregates") List<String> aggregates) {
         this.initialDelayMs = initialDelayMs;
         this.conf = (conf == null) ? new JmxDumpersConfig() : conf;
+        this.stream = stream;
+        this.aggregates = (aggregates == null) ? Collections.emptyList() :
+            Collections.unmodifiableList(new ArrayList<>(aggregates));
     }
 
     @JsonProperty
@@ -52,12 +64,33 @@ public class JmxDumperRole implements Role {
         return conf;
     }
 
+    /**
+     * True if the dumper should stream its samples, so that the status
+     * action can collect them while the dumper runs.
+     */
+    @JsonProperty
+    public boolean stream() {
+        return stream;
+    }
+
+    /**
+     * The columns to sum across the cluster and report in the status.
+     * These may contain * wildcards.
+     */
+    @JsonProperty
+    public List<String> aggregates() {
+        return aggregates;
+    }
+
     @Override
     public Collection<Action> createActions(String nodeName) {
         ArrayList<Action> actions = new ArrayList<>();
         actions.add(new JmxDumperStartAction(nodeName, this));
         actions.add(new JmxDumperStatusAction(nodeName, this));
         actions.add(new JmxDumperStopAction(nodeName, this));
+        if (stream) {
+            actions.add(new JmxAggregateAction(nodeName));
+        }
         return actions;
     }
 };
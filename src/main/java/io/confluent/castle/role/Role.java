@@ -20,9 +20,11 @@ package io.confluent.castle.role;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import io.confluent.castle.action.Action;
 import io.confluent.castle.common.DynamicVariableProvider;
+import io.confluent.castle.readiness.ReadinessProbe;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -34,6 +36,12 @@ import java.util.Map;
     include = JsonTypeInfo.As.PROPERTY,
     property = "type")
 public interface Role {
+    /**
+     * The default time to wait for the services started by a role to pass
+     * their readiness probes.
+     */
+    int DEFAULT_READINESS_TIMEOUT_MS = 30000;
+
     /**
      * Create the actions for this node.
      *
@@ -47,4 +55,20 @@ public interface Role {
     default Map<String, DynamicVariableProvider> dynamicVariableProviders() {
         return Collections.emptyMap();
     }
+
+    /**
+     * Get the probes which tell us when the services started by this role
+     * are ready to be used.
+     */
+    default List<ReadinessProbe> readinessProbes() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Get how long to wait for the readiness probes to succeed, once the
+     * services of this role have been started.
+     */
+    default int readinessTimeoutMs() {
+        return DEFAULT_READINESS_TIMEOUT_MS;
+    }
 };
@@ -26,6 +26,7 @@ import io.confluent.castle.action.SchemaRegistryStopAction;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.common.DynamicVariableProvider;
+import io.confluent.castle.readiness.ReadinessProbe;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -50,11 +51,14 @@ public class SchemaRegistryRole implements Role {
 
     private final List<Schema> schemas;
 
+    private final int readinessTimeoutMs;
+
     @JsonCreator
     public SchemaRegistryRole(@JsonProperty("initialDelayMs") int initialDelayMs,
                               @JsonProperty("conf") Map<String, String> conf,
                               @JsonProperty("jvmOptions") String jvmOptions,
-                              @JsonProperty("schemas") List<Schema> schemas) {
+                              @JsonProperty("schemas") List<Schema> schemas,
+                              @JsonProperty("readinessTimeoutMs") int readinessTimeoutMs) {
         this.initialDelayMs = initialDelayMs;
         this.conf = conf == null ? Collections.emptyMap() :
             Collections.unmodifiableMap(new HashMap<>(conf));
@@ -65,6 +69,8 @@ public class SchemaRegistryRole implements Role {
         }
         this.schemas = schemas == null ? Collections.emptyList() :
             Collections.unmodifiableList(new ArrayList<>(schemas));
+        this.readinessTimeoutMs = readinessTimeoutMs > 0 ?
+            readinessTimeoutMs : DEFAULT_READINESS_TIMEOUT_MS;
     }
 
     @JsonProperty
@@ -87,6 +93,12 @@ public class SchemaRegistryRole implements Role {
         return schemas;
     }
 
+    @JsonProperty
+    @Override
+    public int readinessTimeoutMs() {
+        return readinessTimeoutMs;
+    }
+
     @Override
     public Collection<Action> createActions(String nodeName) {
         ArrayList<Action> actions = new ArrayList<>();
@@ -96,6 +108,11 @@ public class SchemaRegistryRole implements Role {
         return actions;
     }
 
+    @Override
+    public List<ReadinessProbe> readinessProbes() {
+        return Collections.singletonList(ReadinessProbe.http(HTTP_PORT, "/config"));
+    }
+
     @Override
     public Map<String, DynamicVariableProvider> dynamicVariableProviders() {
         return Collections.singletonMap("schema.registry.url", new DynamicVariableProvider(0) {
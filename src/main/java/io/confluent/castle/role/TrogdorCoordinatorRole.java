@@ -24,6 +24,7 @@ import io.confluent.castle.action.TrogdorDaemonType;
 import io.confluent.castle.action.TrogdorStartAction;
 import io.confluent.castle.action.TrogdorStatusAction;
 import io.confluent.castle.action.TrogdorStopAction;
+import io.confluent.castle.readiness.ReadinessProbe;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -35,17 +36,22 @@ public class TrogdorCoordinatorRole implements Role {
 
     private final List<String> log4j;
 
+    private final int readinessTimeoutMs;
+
     public final static int PORT = 8889;
 
     @JsonCreator
     public TrogdorCoordinatorRole(@JsonProperty("initialDelayMs") int initialDelayMs,
-                                  @JsonProperty("log4j") List<String> log4j) {
+                                  @JsonProperty("log4j") List<String> log4j,
+                                  @JsonProperty("readinessTimeoutMs") int readinessTimeoutMs) {
         this.initialDelayMs = initialDelayMs;
         if (log4j == null) {
             this.log4j = Collections.singletonList("log4j.logger.org.apache.kafka=DEBUG");
         } else {
             this.log4j = Collections.unmodifiableList(new ArrayList<>(log4j));
         }
+        this.readinessTimeoutMs = readinessTimeoutMs > 0 ?
+            readinessTimeoutMs : DEFAULT_READINESS_TIMEOUT_MS;
     }
 
     @JsonProperty
@@ -58,15 +64,27 @@ public class TrogdorCoordinatorRole implements Role {
         return log4j;
     }
 
+    @JsonProperty
+    @Override
+    public int readinessTimeoutMs() {
+        return readinessTimeoutMs;
+    }
+
     @Override
     public Collection<Action> createActions(String nodeName) {
         ArrayList<Action> actions = new ArrayList<>();
         actions.add(new TrogdorStartAction(TrogdorDaemonType.COORDINATOR,
-            nodeName, initialDelayMs, log4j));
+            nodeName, initialDelayMs, log4j, readinessProbes(),
+            readinessTimeoutMs));
         actions.add(new TrogdorStatusAction(TrogdorDaemonType.COORDINATOR,
             nodeName));
         actions.add(new TrogdorStopAction(TrogdorDaemonType.COORDINATOR,
             nodeName, initialDelayMs));
         return actions;
     }
+
+    @Override
+    public List<ReadinessProbe> readinessProbes() {
+        return Collections.singletonList(ReadinessProbe.tcp(PORT));
+    }
 };
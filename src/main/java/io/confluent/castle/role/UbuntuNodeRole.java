@@ -21,18 +21,37 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import io.confluent.castle.action.Action;
 import io.confluent.castle.action.UbuntuSetupAction;
+import io.confluent.castle.common.CastleUtil;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 public class UbuntuNodeRole implements Role {
     private final static String DEFAULT_JDK_PACKAGE = "openjdk-8-jdk-headless";
 
+    /**
+     * The packages which are installed on every node, besides the JDK.
+     */
+    public final static List<String> PACKAGES = Collections.unmodifiableList(Arrays.asList(
+        "iptables", "rsync", "wget", "curl", "collectd-core",
+        "coreutils", "cmake", "pkg-config", "libfuse-dev"));
+
     private final String jdkPackage;
 
+    /**
+     * The setup key of the node's current setup, or the empty string if the
+     * node hasn't been set up since it was started.
+     */
+    private String setupKey;
+
     @JsonCreator
-    public UbuntuNodeRole(@JsonProperty("jdkPackage") String jdkPackage) {
+    public UbuntuNodeRole(@JsonProperty("jdkPackage") String jdkPackage,
+                          @JsonProperty("setupKey") String setupKey) {
         this.jdkPackage = (jdkPackage == null) ? DEFAULT_JDK_PACKAGE : jdkPackage;
+        this.setupKey = (setupKey == null) ? "" : setupKey;
     }
 
     @Override
@@ -46,4 +65,23 @@ public class UbuntuNodeRole implements Role {
     public String jdkPackage() {
         return jdkPackage;
     }
+
+    /**
+     * Get a key which identifies the setup this role does.  Nodes with the
+     * same key can share an image.
+     */
+    public String imageKey() {
+        List<String> packages = new ArrayList<>(PACKAGES);
+        packages.add(jdkPackage);
+        return CastleUtil.sha256Hex(String.join(" ", packages)).substring(0, 16);
+    }
+
+    @JsonProperty
+    public synchronized String setupKey() {
+        return setupKey;
+    }
+
+    public synchronized void setSetupKey(String setupKey) {
+        this.setupKey = setupKey;
+    }
 };
@@ -26,30 +26,38 @@ import io.confluent.castle.action.ZooKeeperStopAction;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.common.DynamicVariableProvider;
+import io.confluent.castle.readiness.ReadinessProbe;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 public class ZooKeeperRole implements Role {
     public static final String ZOOKEEPER_CLASS_NAME =
         "org.apache.zookeeper.server.quorum.QuorumPeerMain";
 
+    public static final int PORT = 2181;
+
     private final int initialDelayMs;
     private final int tickTimeMs;
     private final int initLimit;
     private final int syncLimit;
+    private final int readinessTimeoutMs;
 
     @JsonCreator
     public ZooKeeperRole(@JsonProperty("initialDelayMs") int initialDelayMs,
                          @JsonProperty("tickTime") int tickTimeMs,
                          @JsonProperty("initLimit") int initLimit,
-                         @JsonProperty("syncLimit") int syncLimit) {
+                         @JsonProperty("syncLimit") int syncLimit,
+                         @JsonProperty("readinessTimeoutMs") int readinessTimeoutMs) {
         this.initialDelayMs = initialDelayMs;
         this.tickTimeMs = tickTimeMs;
         this.initLimit = initLimit;
         this.syncLimit = syncLimit;
+        this.readinessTimeoutMs = readinessTimeoutMs > 0 ?
+            readinessTimeoutMs : DEFAULT_READINESS_TIMEOUT_MS;
     }
 
     @JsonProperty
@@ -71,6 +79,13 @@ public class ZooKeeperRole implements Role {
     public int getSyncLimit() {
         return syncLimit;
     }
+
+    @JsonProperty
+    @Override
+    public int readinessTimeoutMs() {
+        return readinessTimeoutMs;
+    }
+
     @Override
     public Collection<Action> createActions(String nodeName) {
         ArrayList<Action> actions = new ArrayList<>();
@@ -80,6 +95,11 @@ public class ZooKeeperRole implements Role {
         return actions;
     }
 
+    @Override
+    public List<ReadinessProbe> readinessProbes() {
+        return Collections.singletonList(ReadinessProbe.tcp(PORT));
+    }
+
     @Override
     public Map<String, DynamicVariableProvider> dynamicVariableProviders() {
         return Collections.singletonMap("zkConnect", new DynamicVariableProvider(0) {
@@ -24,10 +24,27 @@ import java.nio.file.Paths;
 
 public class CastleEnvironment {
     public static final String CLUSTER_FILE_NAME = "cluster.conf";
+    public static final String ACTION_TRACE_FILE_NAME = "action-trace.json";
+    public static final String ACTION_HISTORY_FILE_NAME = "action-history.json";
+    public static final String SOURCE_CACHE_DIR_NAME = "source-cache";
+    public static final String JMX_STORE_DIR_NAME = "jmx";
     private final String workingDirectory;
+    private final boolean writeEvents;
 
     public CastleEnvironment(String workingDirectory) {
+        this(workingDirectory, false);
+    }
+
+    /**
+     * Create a castle environment.
+     *
+     * @param workingDirectory  The working directory.
+     * @param writeEvents       True if node logs should also write structured
+     *                          event logs.
+     */
+    public CastleEnvironment(String workingDirectory, boolean writeEvents) {
         this.workingDirectory = toAbsolutePath(workingDirectory);
+        this.writeEvents = writeEvents;
     }
 
     private String toAbsolutePath(String path) {
@@ -38,7 +55,7 @@ public class CastleEnvironment {
     }
 
     public CastleLog createCastleLog(String nodeName) throws IOException {
-        return CastleLog.fromFile(workingDirectory, nodeName, true);
+        return CastleLog.fromFile(workingDirectory, nodeName, true, writeEvents);
     }
 
     public String workingDirectory() {
@@ -48,4 +65,20 @@ public class CastleEnvironment {
     public String clusterOutputPath() {
         return Paths.get(workingDirectory, CLUSTER_FILE_NAME).toAbsolutePath().toString();
     }
+
+    public String actionTracePath() {
+        return Paths.get(workingDirectory, ACTION_TRACE_FILE_NAME).toAbsolutePath().toString();
+    }
+
+    public String actionHistoryPath() {
+        return Paths.get(workingDirectory, ACTION_HISTORY_FILE_NAME).toAbsolutePath().toString();
+    }
+
+    public String sourceCachePath() {
+        return Paths.get(workingDirectory, SOURCE_CACHE_DIR_NAME).toAbsolutePath().toString();
+    }
+
+    public String jmxStorePath() {
+        return Paths.get(workingDirectory, JMX_STORE_DIR_NAME).toAbsolutePath().toString();
+    }
 };
@@ -17,25 +17,45 @@
 
 package io.confluent.castle.tool;
 
-import io.confluent.castle.action.Action;
-import io.confluent.castle.action.ActionScheduler;
-import io.confluent.castle.action.SshAction;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.command.Command;
+import io.confluent.castle.common.CastleUtil;
+import io.confluent.castle.common.RangeExpressionExpander;
 
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import static io.confluent.castle.tool.CastleReturnCode.CLUSTER_FAILED;
+
 public final class CastleSsh {
     final static String COMMAND = "ssh";
 
+    /**
+     * The return code we report for nodes which can't be logged into, or
+     * where the command could not be run at all.
+     */
+    final static int NOT_ACCESSIBLE = 255;
+
+    private final static String GROUP_SEPARATOR = "----------------";
+
+    private final static String STDERR_SEPARATOR = "---- stderr ----";
+
     static class CastleSshArgs {
         private final List<String> nodeNames;
         private final List<String> command;
@@ -95,7 +115,8 @@ public final class CastleSsh {
         return new CastleSshArgs(nodeNames, command);
     }
 
-    public static void run(CastleCluster cluster, List<String> targets) throws Throwable {
+    public static void run(CastleCluster cluster, List<String> targets,
+                           int parallelism, boolean aggregate) throws Throwable {
         CastleSshArgs args = parse(cluster.nodes().keySet(), targets);
         if (args.nodeNames().isEmpty()) {
             if (args.command().isEmpty()) {
@@ -113,20 +134,204 @@ public final class CastleSsh {
                 throw new RuntimeException("When sshing to more than one node, you " +
                     "must supply a command.");
             } else {
-                sshToMany(cluster, args);
+                sshToMany(cluster, args, parallelism, aggregate, System.out);
             }
         }
     }
 
-    public static void sshToMany(CastleCluster cluster, CastleSshArgs args) throws Throwable {
-        ActionScheduler.Builder builder = new ActionScheduler.Builder(cluster);
+    /**
+     * The result of running a command on one node.
+     */
+    static final class NodeResult {
+        private final String nodeName;
+        private final int returnCode;
+        private final String output;
+        private final String errors;
+
+        NodeResult(String nodeName, int returnCode, String output) {
+            this(nodeName, returnCode, output, "");
+        }
+
+        NodeResult(String nodeName, int returnCode, String output, String errors) {
+            this.nodeName = nodeName;
+            this.returnCode = returnCode;
+            this.output = output;
+            this.errors = errors;
+        }
+
+        String nodeName() {
+            return nodeName;
+        }
+
+        int returnCode() {
+            return returnCode;
+        }
+
+        String output() {
+            return output;
+        }
+
+        /**
+         * The stderr of the command.  This is only captured separately in
+         * aggregate mode; otherwise it is part of the output.
+         */
+        String errors() {
+            return errors;
+        }
+    }
+
+    /**
+     * Run a command on many nodes in parallel.
+     *
+     * @param parallelism   The maximum number of nodes to run the command on at once.
+     * @param aggregate     If true, the output is printed once every node has
+     *                      finished, with nodes that had identical stdout,
+     *                      stderr, and exit status grouped together.  Otherwise, each line of output is
+     *                      printed as it arrives, prefixed by the node name.
+     * @param out           Where to print the output.
+     */
+    public static void sshToMany(final CastleCluster cluster, CastleSshArgs args,
+                                 int parallelism, final boolean aggregate,
+                                 final PrintStream out) throws Throwable {
+        if (parallelism <= 0) {
+            throw new RuntimeException("The ssh parallelism must be positive.");
+        }
+        int width = 0;
         for (String nodeName : args.nodeNames()) {
-            Action action = new SshAction(nodeName, args.command());
-            builder.addAction(action);
-            builder.addTargetName(action.id().toString());
+            width = Math.max(width, nodeName.length());
+        }
+        final String prefixFormat = "%-" + width + "s: %s";
+        final List<String> command = args.command();
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(parallelism, args.nodeNames().size()),
+            CastleUtil.createThreadFactory("CastleSsh", true));
+        List<Future<NodeResult>> futures = new ArrayList<>();
+        try {
+            for (final String nodeName : args.nodeNames()) {
+                futures.add(executor.submit(new Callable<NodeResult>() {
+                    @Override
+                    public NodeResult call() throws Exception {
+                        CastleNode node = cluster.nodes().get(nodeName);
+                        if (!node.uplink().canLogin()) {
+                            String msg = "The node is not accessible.";
+                            if (!aggregate) {
+                                printLine(out, String.format(prefixFormat, nodeName, msg));
+                            }
+                            return new NodeResult(nodeName, NOT_ACCESSIBLE, msg);
+                        }
+                        Command nodeCommand = node.uplink().command().
+                            argList(command).
+                            setCaptureStderr(true);
+                        StringBuilder output = new StringBuilder();
+                        StringBuilder errors = new StringBuilder();
+                        if (aggregate) {
+                            // Stdout and stderr are read by different threads,
+                            // so capturing them together would interleave them
+                            // differently from run to run.
+                            nodeCommand.captureOutput(output).captureStderr(errors);
+                        } else {
+                            nodeCommand.streamOutput(line ->
+                                printLine(out, String.format(prefixFormat, nodeName, line)));
+                        }
+                        int returnCode = nodeCommand.run();
+                        return new NodeResult(nodeName, returnCode,
+                            output.toString(), errors.toString());
+                    }
+                }));
+            }
+            executor.shutdown();
+            if (!executor.awaitTermination(cluster.conf().globalTimeout(), TimeUnit.SECONDS)) {
+                throw new RuntimeException("Timed out after " + cluster.conf().globalTimeout() +
+                    " seconds waiting for " + Command.joinArgs(command));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        List<NodeResult> results = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            String nodeName = args.nodeNames().get(i);
+            try {
+                results.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                String msg = "Failed to run the command: " + e.getCause().getMessage();
+                if (!aggregate) {
+                    printLine(out, String.format(prefixFormat, nodeName, msg));
+                }
+                results.add(new NodeResult(nodeName, NOT_ACCESSIBLE, msg));
+            }
+        }
+        if (aggregate) {
+            out.print(aggregateResults(results));
+        } else {
+            out.print(summarizeResults(results));
+        }
+        for (NodeResult result : results) {
+            if (result.returnCode() != 0) {
+                cluster.shutdownManager().changeReturnCode(CLUSTER_FAILED);
+                break;
+            }
+        }
+    }
+
+    private static void printLine(PrintStream out, String line) {
+        synchronized (out) {
+            out.println(line);
+        }
+    }
+
+    /**
+     * Group nodes with identical output, stderr, and return status together.
+     */
+    static String aggregateResults(List<NodeResult> results) {
+        Map<List<String>, List<NodeResult>> groups = new LinkedHashMap<>();
+        for (NodeResult result : results) {
+            groups.computeIfAbsent(Arrays.asList(String.valueOf(result.returnCode()),
+                    result.output(), result.errors()),
+                k -> new ArrayList<>()).add(result);
+        }
+        StringBuilder bld = new StringBuilder();
+        for (List<NodeResult> group : groups.values()) {
+            List<String> nodeNames = new ArrayList<>();
+            for (NodeResult result : group) {
+                nodeNames.add(result.nodeName());
+            }
+            String header = String.join(",", RangeExpressionExpander.compress(nodeNames));
+            int returnCode = group.get(0).returnCode();
+            if (returnCode != 0) {
+                header = String.format("%s (exit status %d)", header, returnCode);
+            }
+            bld.append(String.format("%s%n%s%n%s%n", GROUP_SEPARATOR, header, GROUP_SEPARATOR));
+            appendOutput(bld, group.get(0).output());
+            String errors = group.get(0).errors();
+            if (!errors.isEmpty()) {
+                bld.append(String.format("%s%n", STDERR_SEPARATOR));
+                appendOutput(bld, errors);
+            }
+        }
+        return bld.toString();
+    }
+
+    private static void appendOutput(StringBuilder bld, String output) {
+        bld.append(output);
+        if (!output.isEmpty() && !output.endsWith("\n")) {
+            bld.append(String.format("%n"));
+        }
+    }
+
+    /**
+     * Summarize which nodes the command succeeded and failed on.
+     */
+    static String summarizeResults(List<NodeResult> results) {
+        List<String> failed = new ArrayList<>();
+        for (NodeResult result : results) {
+            if (result.returnCode() != 0) {
+                failed.add(result.nodeName());
+            }
         }
-        try (ActionScheduler actionScheduler = builder.build()) {
-            actionScheduler.await(cluster.conf().globalTimeout(), TimeUnit.SECONDS);
+        if (failed.isEmpty()) {
+            return String.format("Succeeded on all %d node(s).%n", results.size());
         }
+        return String.format("Failed on %d of %d node(s): %s%n", failed.size(),
+            results.size(), String.join(",", RangeExpressionExpander.compress(failed)));
     }
 };
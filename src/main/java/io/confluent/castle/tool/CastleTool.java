@@ -31,7 +31,10 @@ import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
 import net.sourceforge.argparse4j.inf.Namespace;
 import io.confluent.castle.action.ActionRegistry;
+import io.confluent.castle.action.ActionHistory;
+import io.confluent.castle.action.ActionResourceClass;
 import io.confluent.castle.action.ActionScheduler;
+import io.confluent.castle.action.ActionTimings;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleClusterSpec;
 import io.confluent.castle.common.CastleLog;
@@ -61,6 +64,14 @@ public final class CastleTool {
     private static final boolean CASTLE_VERBOSE_DEFAULT = false;
     private static final String CASTLE_MAX_CONCURRENT_ACTIONS = "CASTLE_MAX_CONCURRENT_ACTIONS";
     private static final int CASTLE_MAX_CONCURRENT_ACTIONS_DEFAULT = 6;
+    private static final String CASTLE_RESOURCE_CLASS_LIMITS = "CASTLE_RESOURCE_CLASS_LIMITS";
+    private static final String CASTLE_PLAN = "CASTLE_PLAN";
+    private static final String CASTLE_SSH_PARALLELISM = "CASTLE_SSH_PARALLELISM";
+    private static final int CASTLE_SSH_PARALLELISM_DEFAULT = 32;
+    private static final String CASTLE_SSH_AGGREGATE = "CASTLE_SSH_AGGREGATE";
+    private static final boolean CASTLE_SSH_AGGREGATE_DEFAULT = false;
+    private static final String CASTLE_EVENT_LOG = "CASTLE_EVENT_LOG";
+    private static final boolean CASTLE_EVENT_LOG_DEFAULT = false;
     private static final String CASTLE_PREFIX = "CASTLE_";
 
     private static final String CASTLE_DESCRIPTION = String.format(
@@ -84,6 +95,7 @@ public final class CastleTool {
         "destroyNodes:    Destroy all nodes.%n" +
         "%n" +
         "ssh [nodes] [cmd]: Ssh to the given node(s)%n" +
+        "ssh all [cmd]:     Run a command on every node in parallel%n" +
         "%n");
 
     private static String getEnv(String name, String defaultValue) {
@@ -122,6 +134,39 @@ public final class CastleTool {
         }
     }
 
+    private static void logActionTimings(ActionTimings timings, CastleLog clusterLog,
+                                         CastleEnvironment env) {
+        clusterLog.printf("Action timings:%n%s", timings.summary());
+        try {
+            timings.writeChromeTrace(new File(env.actionTracePath()));
+            clusterLog.printf("Wrote action trace to %s%n", env.actionTracePath());
+        } catch (Exception e) {
+            clusterLog.printf("Failed to write action trace to %s: %s%n",
+                env.actionTracePath(), e.getMessage());
+        }
+    }
+
+    private static ActionHistory loadActionHistory(CastleLog clusterLog,
+                                                   CastleEnvironment env) {
+        try {
+            return ActionHistory.load(new File(env.actionHistoryPath()));
+        } catch (Exception e) {
+            clusterLog.printf("Failed to load action history from %s: %s%n",
+                env.actionHistoryPath(), e.getMessage());
+            return new ActionHistory();
+        }
+    }
+
+    private static void saveActionHistory(ActionHistory history, CastleLog clusterLog,
+                                          CastleEnvironment env) {
+        try {
+            history.save(new File(env.actionHistoryPath()));
+        } catch (Exception e) {
+            clusterLog.printf("Failed to save action history to %s: %s%n",
+                env.actionHistoryPath(), e.getMessage());
+        }
+    }
+
     private static CastleClusterSpec readClusterSpec(String clusterInputPath) throws Throwable {
         JsonNode confNode = new JsonConfigFile(clusterInputPath).jsonNode();
         JsonNode expandedConfNode = new EnvironmentVariableStringExpander().expand(confNode);
@@ -184,7 +229,50 @@ public final class CastleTool {
             .metavar(CASTLE_MAX_CONCURRENT_ACTIONS)
             .setDefault(Integer.valueOf(getEnv(CASTLE_MAX_CONCURRENT_ACTIONS,
                 Integer.toString(CASTLE_MAX_CONCURRENT_ACTIONS_DEFAULT))))
-            .help("The maximum number of concurrent actions to allow.");
+            .help("The maximum number of concurrent actions of each resource class to allow.");
+        parser.addArgument("--resource-class-limits")
+            .action(store())
+            .type(String.class)
+            .dest(CASTLE_RESOURCE_CLASS_LIMITS)
+            .metavar(CASTLE_RESOURCE_CLASS_LIMITS)
+            .setDefault(getEnv(CASTLE_RESOURCE_CLASS_LIMITS, ""))
+            .help("Per-resource-class concurrency limits, such as " +
+                "cloud-api=4,bulk-transfer=2,remote-exec=8,local=100.");
+        parser.addArgument("--plan")
+            .action(storeTrue())
+            .type(Boolean.class)
+            .required(false)
+            .dest(CASTLE_PLAN)
+            .metavar(CASTLE_PLAN)
+            .setDefault(false)
+            .help("Print the estimated timeline and critical path for the targets, " +
+                "based on previous runs, without running anything.");
+        parser.addArgument("--ssh-parallelism")
+            .action(store())
+            .type(Integer.class)
+            .dest(CASTLE_SSH_PARALLELISM)
+            .metavar(CASTLE_SSH_PARALLELISM)
+            .setDefault(Integer.valueOf(getEnv(CASTLE_SSH_PARALLELISM,
+                Integer.toString(CASTLE_SSH_PARALLELISM_DEFAULT))))
+            .help("The maximum number of nodes to run an ssh command on at once.");
+        parser.addArgument("--aggregate")
+            .action(storeTrue())
+            .type(Boolean.class)
+            .required(false)
+            .dest(CASTLE_SSH_AGGREGATE)
+            .metavar(CASTLE_SSH_AGGREGATE)
+            .setDefault(getEnvBoolean(CASTLE_SSH_AGGREGATE, CASTLE_SSH_AGGREGATE_DEFAULT))
+            .help("When running an ssh command on many nodes, group together the " +
+                "nodes with identical output, rather than printing output as it arrives.");
+        parser.addArgument("--event-log")
+            .action(storeTrue())
+            .type(Boolean.class)
+            .required(false)
+            .dest(CASTLE_EVENT_LOG)
+            .metavar(CASTLE_EVENT_LOG)
+            .setDefault(getEnvBoolean(CASTLE_EVENT_LOG, CASTLE_EVENT_LOG_DEFAULT))
+            .help("Write a structured JSON Lines event log for each node, next to " +
+                "its .clog file.");
         parser.addArgument("target")
             .nargs("*")
             .action(store())
@@ -225,23 +313,40 @@ public final class CastleTool {
                     " does not exist.");
             }
             Files.createDirectories(Paths.get(workingDirectory));
-            CastleEnvironment env = new CastleEnvironment(workingDirectory);
+            CastleEnvironment env = new CastleEnvironment(workingDirectory,
+                res.getBoolean(CASTLE_EVENT_LOG));
             CastleClusterSpec clusterSpec = readClusterSpec(clusterPath);
 
             int maxConcurrentActions = res.getInt(CASTLE_MAX_CONCURRENT_ACTIONS);
+            Map<ActionResourceClass, Integer> resourceClassLimits =
+                ActionResourceClass.parseLimits(res.getString(CASTLE_RESOURCE_CLASS_LIMITS));
             try (CastleCluster cluster = new CastleCluster(env, clusterLog,
                     shutdownManager, clusterSpec)) {
                 if (targets.contains(CastleSsh.COMMAND)) {
-                    CastleSsh.run(cluster, targets);
+                    CastleSsh.run(cluster, targets, res.getInt(CASTLE_SSH_PARALLELISM),
+                        res.getBoolean(CASTLE_SSH_AGGREGATE));
                 } else {
-                    try (ActionScheduler scheduler = cluster.createScheduler(targets,
-                            ActionRegistry.INSTANCE.actions(cluster.nodes().keySet()),
-                            maxConcurrentActions)) {
-                        signalHandler.register(CastleSignalHandler.CastleSignal.HUP,
-                            () -> scheduler.logCurrentActions(System.out));
-                        scheduler.await(cluster.conf().globalTimeout(), TimeUnit.SECONDS);
-                    } finally {
-                        signalHandler.unregister(CastleSignalHandler.CastleSignal.HUP);
+                    ActionHistory history = loadActionHistory(clusterLog, env);
+                    ActionScheduler.Builder builder = cluster.createSchedulerBuilder(targets,
+                            ActionRegistry.INSTANCE.actions(cluster.nodes().keySet())).
+                        setMaxConcurrentActions(maxConcurrentActions).
+                        setResourceClassLimits(resourceClassLimits).
+                        setActionHistory(history);
+                    if (res.getBoolean(CASTLE_PLAN)) {
+                        System.out.print(builder.plan());
+                    } else {
+                        try (ActionScheduler scheduler = builder.build()) {
+                            signalHandler.register(CastleSignalHandler.CastleSignal.HUP,
+                                () -> scheduler.logCurrentActions(System.out));
+                            try {
+                                scheduler.await(cluster.conf().globalTimeout(), TimeUnit.SECONDS);
+                            } finally {
+                                logActionTimings(scheduler.timings(), clusterLog, env);
+                                saveActionHistory(history, clusterLog, env);
+                            }
+                        } finally {
+                            signalHandler.unregister(CastleSignalHandler.CastleSignal.HUP);
+                        }
                     }
                 }
             }
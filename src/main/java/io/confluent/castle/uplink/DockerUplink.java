@@ -22,6 +22,7 @@ import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.command.Command;
 import io.confluent.castle.command.SshCommand;
+import io.confluent.castle.command.SshConnectionPool;
 import io.confluent.castle.common.CastleLog;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.DockerNodeRole;
@@ -41,12 +42,16 @@ public class DockerUplink implements Uplink {
 
     private final DockerCloud cloud;
 
+    private final SshConnectionPool connectionPool;
+
     public DockerUplink(DockerNodeRole role, CastleCluster cluster, CastleNode node,
                         DockerCloud cloud) {
         this.role = role;
         this.cluster = cluster;
         this.node = node;
         this.cloud = cloud;
+        this.connectionPool = cluster.conf().sshMultiplexing() ?
+            new SshConnectionPool(node, cluster.env().workingDirectory()) : null;
     }
 
     /**
@@ -55,7 +60,7 @@ public class DockerUplink implements Uplink {
     @Override
     public Command command() {
         return new SshCommand(node, "localhost", role.dockerUser(),
-            role.sshPort(), role.sshIdentityPath());
+            role.sshPort(), role.sshIdentityPath(), connectionPool);
     }
 
     @Override
@@ -63,6 +68,11 @@ public class DockerUplink implements Uplink {
         return role.containerName();
     }
 
+    @Override
+    public String sshUser() {
+        return role.dockerUser();
+    }
+
     @Override
     public boolean started() {
         return !role.containerName().isEmpty();
@@ -74,7 +84,7 @@ public class DockerUplink implements Uplink {
     }
 
     @Override
-    public void startup() throws Exception {
+    public void startup(String imageId) throws Exception {
         if (!role.containerName().isEmpty()) {
             throw new RuntimeException("Can't start node " + node.nodeName() +
                 " because there is already a container name set.");
@@ -87,16 +97,33 @@ public class DockerUplink implements Uplink {
             throw new RuntimeException("Can't start node " + node.nodeName() +
                 " because there is already an ssh identity path set.");
         }
+        if (imageId == null) {
+            imageId = role.imageId();
+        }
         String containerName = String.format("ducker%02d", node.nodeIndex());
         node.log().printf("*** Creating new docker container %s with image ID %s%n",
-            containerName, role.imageId());
-        String containerId = cloud.startup(cluster, node, role, containerName);
+            containerName, imageId);
+        String containerId = cloud.startup(cluster, node, role, containerName, imageId);
         node.log().printf("*** Created a new docker container %s%n", containerId);
         role.setContainerName(containerName);
         role.setSshPort(cloud.getDockerPort(cluster, node, containerName));
         role.setSshIdentityPath(cloud.saveSshKeyFile(cluster, node, containerName, role.dockerUser()));
     }
 
+    @Override
+    public String findImage(String key) throws Exception {
+        return cloud.findImage(node, key, role.imageId());
+    }
+
+    @Override
+    public void saveImage(String key) throws Exception {
+        String imageName = cloud.saveImage(node, role.containerName(), key, role.imageId());
+        if (imageName != null) {
+            CastleLog.printToAll(String.format("*** %s: Saved image %s with key %s%n",
+                node.nodeName(), imageName, key), node.log(), cluster.clusterLog());
+        }
+    }
+
     @Override
     public void check() throws Exception {
         Set<String> containerNames = cloud.listContainers(node);
@@ -133,7 +160,16 @@ public class DockerUplink implements Uplink {
 
     @Override
     public void close() throws Exception {
-        // nothing to do
+        if (connectionPool != null) {
+            connectionPool.close();
+        }
+    }
+
+    /**
+     * Get the ssh connection pool, or null if ssh multiplexing is disabled.
+     */
+    public SshConnectionPool connectionPool() {
+        return connectionPool;
     }
 
     public void cleanupNetwork() throws Exception {
@@ -23,6 +23,7 @@ import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.command.Command;
 import io.confluent.castle.command.SshCommand;
+import io.confluent.castle.command.SshConnectionPool;
 import io.confluent.castle.common.CastleLog;
 import io.confluent.castle.role.AwsNodeRole;
 
@@ -45,11 +46,15 @@ public class Ec2Uplink implements Uplink {
 
     private final Ec2Cloud cloud;
 
+    private final SshConnectionPool connectionPool;
+
     public Ec2Uplink(AwsNodeRole role, CastleCluster cluster, CastleNode node, Ec2Cloud cloud) {
         this.role = role;
         this.cluster = cluster;
         this.node = node;
         this.cloud = cloud;
+        this.connectionPool = cluster.conf().sshMultiplexing() ?
+            new SshConnectionPool(node, cluster.env().workingDirectory()) : null;
     }
 
     /**
@@ -65,7 +70,8 @@ public class Ec2Uplink implements Uplink {
             role.dns(),
             role.sshUser(),
             role.sshPort(),
-            role.sshIdentityFile());
+            role.sshIdentityFile(),
+            connectionPool);
     }
 
     @Override
@@ -73,6 +79,11 @@ public class Ec2Uplink implements Uplink {
         return role.privateDns();
     }
 
+    @Override
+    public String sshUser() {
+        return role.sshUser();
+    }
+
     @Override
     public boolean started() {
         return !role.privateDns().isEmpty();
@@ -84,12 +95,16 @@ public class Ec2Uplink implements Uplink {
     }
 
     @Override
-    public void startup() throws Exception {
+    public void startup(String imageId) throws Exception {
+        if (imageId == null) {
+            imageId = role.imageId();
+        }
         node.log().printf("*** Creating new instance with instance type %s, imageId %s%n",
-            role.instanceType(), role.imageId());
-        String instanceId = cloud.createInstance(role.instanceType(), role.imageId(),
+            role.instanceType(), imageId);
+        String instanceId = cloud.createInstance(role.instanceType(), imageId,
             node.nodeIndex()).get();
         role.setInstanceId(instanceId);
+        role.clearSourceHashes();
 
         // Wait for the DNS to be set up.
         do {
@@ -136,6 +151,20 @@ public class Ec2Uplink implements Uplink {
         return true;
     }
 
+    @Override
+    public String findImage(String key) throws Exception {
+        return cloud.findImage(key, role.imageId()).get();
+    }
+
+    @Override
+    public void saveImage(String key) throws Exception {
+        String imageId = cloud.saveImage(role.instanceId(), key, role.imageId()).get();
+        if (imageId != null) {
+            CastleLog.printToAll(String.format("*** %s: Saving image %s with key %s%n",
+                node.nodeName(), imageId, key), node.log(), cluster.clusterLog());
+        }
+    }
+
     @Override
     public void check() throws Exception {
         Collection<Ec2InstanceInfo> infos = cloud.describeAllInstances().get();
@@ -172,6 +201,15 @@ public class Ec2Uplink implements Uplink {
 
     @Override
     public void close() throws Exception {
-        // nothing to do
+        if (connectionPool != null) {
+            connectionPool.close();
+        }
+    }
+
+    /**
+     * Get the ssh connection pool, or null if ssh multiplexing is disabled.
+     */
+    public SshConnectionPool connectionPool() {
+        return connectionPool;
     }
 }
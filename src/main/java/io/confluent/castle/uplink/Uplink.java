@@ -42,6 +42,12 @@ public interface Uplink extends AutoCloseable {
      */
     String internalDns();
 
+    /**
+     * Get the user which other nodes should log in as when they ssh to this
+     * node over the internal network.
+     */
+    String sshUser();
+
     /**
      * Return true if the node was started.
      */
@@ -54,8 +60,29 @@ public interface Uplink extends AutoCloseable {
 
     /**
      * Start up the node.  Modify the role.
+     *
+     * @param imageId   The image to start the node from, or null to use the
+     *                  image configured in the role.
+     */
+    void startup(String imageId) throws Exception;
+
+    /**
+     * Find an image which was saved by saveImage.  Only images which were
+     * saved from nodes started from the same image as this node are found.
+     *
+     * @param key       The key which the image was saved with.
+     * @return          The image ID, or null if there is no usable image.
+     */
+    String findImage(String key) throws Exception;
+
+    /**
+     * Save the node as an image, which later nodes can be started from.
+     * Only one image is saved for each key in a run.  The image may not be
+     * usable until some time after this returns.
+     *
+     * @param key       The key to save the image with.
      */
-    void startup() throws Exception;
+    void saveImage(String key) throws Exception;
 
     /**
      * Check the uplink.
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.action;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ActionHistoryTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Rule
+    final public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testPercentiles() throws Exception {
+        ActionHistory history = new ActionHistory();
+        assertEquals(-1, history.percentileMs("brokerStart/m5.xlarge", 50));
+        for (long i = 1; i <= 100; i++) {
+            history.record("brokerStart/m5.xlarge", i * 1000);
+        }
+        assertEquals(ActionHistory.MAX_SAMPLES, history.numSamples("brokerStart/m5.xlarge"));
+        // Only the most recent samples are kept.
+        assertEquals(51000, history.percentileMs("brokerStart/m5.xlarge", 0));
+        assertEquals(75000, history.percentileMs("brokerStart/m5.xlarge", 50));
+        assertEquals(98000, history.percentileMs("brokerStart/m5.xlarge", 95));
+        assertEquals(100000, history.percentileMs("brokerStart/m5.xlarge", 100));
+    }
+
+    @Test
+    public void testTimeouts() throws Exception {
+        ActionHistory history = new ActionHistory();
+        for (int i = 0; i < ActionHistory.MIN_SAMPLES_FOR_TIMEOUT - 1; i++) {
+            history.record("zooKeeperStart/docker", 100000);
+        }
+        assertEquals(-1, history.timeoutMs("zooKeeperStart/docker"));
+        history.record("zooKeeperStart/docker", 100000);
+        assertEquals(100000 * ActionHistory.TIMEOUT_MULTIPLIER,
+            history.timeoutMs("zooKeeperStart/docker"));
+        for (int i = 0; i < ActionHistory.MIN_SAMPLES_FOR_TIMEOUT; i++) {
+            history.record("trogdorStart/docker", 10);
+        }
+        assertEquals(ActionHistory.MIN_TIMEOUT_MS, history.timeoutMs("trogdorStart/docker"));
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File file = new File(tempFolder.getRoot(), "action-history.json");
+        ActionHistory empty = ActionHistory.load(file);
+        assertEquals(0, empty.numSamples("foo/docker"));
+        ActionHistory history = new ActionHistory();
+        history.record("foo/docker", 123);
+        history.record("foo/docker", 456);
+        history.record("bar/m5.xlarge", 789);
+        history.save(file);
+        assertFalse(new File(file.getAbsolutePath() + ".tmp").exists());
+        ActionHistory loaded = ActionHistory.load(file);
+        assertEquals(2, loaded.numSamples("foo/docker"));
+        assertEquals(456, loaded.percentileMs("foo/docker", 100));
+        assertEquals(789, loaded.percentileMs("bar/m5.xlarge", 50));
+    }
+}
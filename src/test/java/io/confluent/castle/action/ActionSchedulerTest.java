@@ -30,10 +30,13 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.Timeout;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -106,6 +109,10 @@ public class ActionSchedulerTest {
         schedulerBuilder.addTargetName("testAction");
         try (ActionScheduler scheduler = schedulerBuilder.build()) {
             scheduler.await(1, TimeUnit.DAYS);
+            assertEquals(3, scheduler.timings().timings().size());
+            for (ActionTimings.Timing timing : scheduler.timings().timings()) {
+                assertTrue(timing.succeeded());
+            }
         }
         assertEquals(3, numRun.get());
     }
@@ -333,4 +340,209 @@ public class ActionSchedulerTest {
         }
         assertEquals(5, concurrentAccessChecker.totalCalls());
     }
+
+    private static Action createNoOpAction(ActionId id, TargetId[] comesAfter, String[] contains) {
+        return new Action(id, comesAfter, contains, 0) {
+            @Override
+            public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+            }
+        };
+    }
+
+    @Test
+    public void testCriticalPathPriorities() throws Throwable {
+        CastleCluster cluster = createCluster(2);
+        ActionScheduler.Builder schedulerBuilder = new ActionScheduler.Builder(cluster);
+        schedulerBuilder.setDurationEstimator(new ActionDurationEstimator() {
+            @Override
+            public long estimateMs(Action action) {
+                return action.id().type().equals("slow") ? 100 : 1;
+            }
+        });
+        schedulerBuilder.addAction(createNoOpAction(new ActionId("init", "node0"),
+            new TargetId[0], new String[] {"setup"}));
+        schedulerBuilder.addAction(createNoOpAction(new ActionId("setup", "node0"),
+            new TargetId[0], new String[0]));
+        schedulerBuilder.addAction(createNoOpAction(new ActionId("slow", "node0"),
+            new TargetId[] {new TargetId("setup", "node0")}, new String[0]));
+        schedulerBuilder.addAction(createNoOpAction(new ActionId("leaf", "node1"),
+            new TargetId[0], new String[0]));
+        schedulerBuilder.addTargetName("init:node0");
+        schedulerBuilder.addTargetName("slow:node0");
+        schedulerBuilder.addTargetName("leaf:node1");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            assertEquals(100, scheduler.priority(new ActionId("slow", "node0")));
+            assertEquals(101, scheduler.priority(new ActionId("setup", "node0")));
+            assertEquals(102, scheduler.priority(new ActionId("init", "node0")));
+            assertEquals(1, scheduler.priority(new ActionId("leaf", "node1")));
+            scheduler.await(1000, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    public void testPlan() throws Throwable {
+        CastleCluster cluster = createCluster(2);
+        ActionScheduler.Builder schedulerBuilder = new ActionScheduler.Builder(cluster);
+        schedulerBuilder.setDurationEstimator(new ActionDurationEstimator() {
+            @Override
+            public long estimateMs(Action action) {
+                return action.id().type().equals("slow") ? 100 : 1;
+            }
+        });
+        schedulerBuilder.addAction(createNoOpAction(new ActionId("init", "node0"),
+            new TargetId[0], new String[] {"setup"}));
+        schedulerBuilder.addAction(createNoOpAction(new ActionId("setup", "node0"),
+            new TargetId[0], new String[0]));
+        schedulerBuilder.addAction(createNoOpAction(new ActionId("slow", "node0"),
+            new TargetId[] {new TargetId("setup", "node0")}, new String[0]));
+        schedulerBuilder.addAction(createNoOpAction(new ActionId("leaf", "node1"),
+            new TargetId[0], new String[0]));
+        schedulerBuilder.addTargetName("init:node0");
+        schedulerBuilder.addTargetName("slow:node0");
+        schedulerBuilder.addTargetName("leaf:node1");
+        ActionPlan plan = schedulerBuilder.plan();
+        assertEquals(4, plan.steps().size());
+        assertEquals(102, plan.makespanMs());
+        assertEquals(Arrays.asList(new ActionId("init", "node0"),
+            new ActionId("setup", "node0"), new ActionId("slow", "node0")),
+            plan.criticalPath());
+        assertEquals(102, plan.criticalPathMs());
+        assertTrue(plan.unscheduled().isEmpty());
+        for (ActionPlan.Step step : plan.steps()) {
+            if (step.id().equals(new ActionId("slow", "node0"))) {
+                assertEquals(2, step.startMs());
+                assertEquals(102, step.endMs());
+            }
+        }
+        assertTrue(plan.toString().contains("init:node0 -> setup:node0 -> slow:node0"));
+    }
+
+    @Test
+    public void testResourceClassLimits() throws Throwable {
+        CastleCluster cluster = createCluster(2);
+        final CountDownLatch remoteExecDone = new CountDownLatch(1);
+        ActionScheduler.Builder schedulerBuilder = new ActionScheduler.Builder(cluster);
+        schedulerBuilder.setMaxConcurrentActions(1);
+        schedulerBuilder.addAction(new Action(new ActionId("transfer", "node0"),
+                new TargetId[0], new String[0], 0) {
+            @Override
+            public ActionResourceClass resourceClass() {
+                return ActionResourceClass.BULK_TRANSFER;
+            }
+
+            @Override
+            public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                // This only finishes if the remote-exec action can run while we hold
+                // the only bulk-transfer permit.
+                assertTrue(remoteExecDone.await(1, TimeUnit.MINUTES));
+            }
+        });
+        schedulerBuilder.addAction(new Action(new ActionId("exec", "node1"),
+                new TargetId[0], new String[0], 0) {
+            @Override
+            public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                remoteExecDone.countDown();
+            }
+        });
+        schedulerBuilder.addTargetName("transfer");
+        schedulerBuilder.addTargetName("exec");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.MINUTES);
+        }
+    }
+
+    @Test
+    public void testRelayActionsAreNotLimited() throws Throwable {
+        CastleCluster cluster = createCluster(3);
+        final CountDownLatch started = new CountDownLatch(3);
+        ActionScheduler.Builder schedulerBuilder = new ActionScheduler.Builder(cluster);
+        schedulerBuilder.setMaxConcurrentActions(1);
+        for (String nodeName : cluster.nodes().keySet()) {
+            schedulerBuilder.addAction(new Action(new ActionId("relay", nodeName),
+                    new TargetId[0], new String[0], 0) {
+                @Override
+                public ActionResourceClass resourceClass(CastleCluster cluster, CastleNode node) {
+                    return (node.nodeIndex() == 0) ?
+                        ActionResourceClass.BULK_TRANSFER : ActionResourceClass.RELAY;
+                }
+
+                @Override
+                public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                    // This only finishes if every action runs at once.
+                    started.countDown();
+                    assertTrue(started.await(1, TimeUnit.MINUTES));
+                }
+            });
+        }
+        schedulerBuilder.addTargetName("relay");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.MINUTES);
+            for (ActionTimings.Timing timing : scheduler.timings().timings()) {
+                assertEquals(timing.id().scope().equals("node0") ?
+                    ActionResourceClass.BULK_TRANSFER : ActionResourceClass.RELAY,
+                    timing.resourceClass());
+            }
+        }
+    }
+
+    @Test
+    public void testCallWithPermit() throws Throwable {
+        CastleCluster cluster = createCluster(3);
+        final AtomicInteger transferring = new AtomicInteger(0);
+        final AtomicInteger maxTransferring = new AtomicInteger(0);
+        final List<ActionId> scheduled = Collections.synchronizedList(new ArrayList<>());
+        ActionScheduler.Builder schedulerBuilder = new ActionScheduler.Builder(cluster);
+        schedulerBuilder.setMaxConcurrentActions(1);
+        for (String nodeName : cluster.nodes().keySet()) {
+            schedulerBuilder.addAction(new Action(new ActionId("relay", nodeName),
+                    new TargetId[0], new String[0], 0) {
+                @Override
+                public ActionResourceClass resourceClass(CastleCluster cluster, CastleNode node) {
+                    return (node.nodeIndex() == 0) ?
+                        ActionResourceClass.BULK_TRANSFER : ActionResourceClass.RELAY;
+                }
+
+                @Override
+                public void onScheduled(CastleCluster cluster, CastleNode node) {
+                    scheduled.add(id());
+                }
+
+                @Override
+                public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                    // Every action has been told about the others before any runs.
+                    assertEquals(3, scheduled.size());
+                    // The action on node0 already holds the only bulk-transfer
+                    // permit, so it must not wait for another.
+                    ActionScheduler.callWithPermit(ActionResourceClass.BULK_TRANSFER, () -> {
+                        int count = transferring.incrementAndGet();
+                        maxTransferring.accumulateAndGet(count, Math::max);
+                        Thread.sleep(10);
+                        transferring.decrementAndGet();
+                        return null;
+                    });
+                }
+            });
+        }
+        schedulerBuilder.addTargetName("relay");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.MINUTES);
+        }
+        assertEquals(1, maxTransferring.get());
+    }
+
+    @Test
+    public void testParseResourceClassLimits() throws Throwable {
+        Map<ActionResourceClass, Integer> limits =
+            ActionResourceClass.parseLimits("cloud-api=2, bulk-transfer=4");
+        assertEquals(2, limits.size());
+        assertEquals(Integer.valueOf(2), limits.get(ActionResourceClass.CLOUD_API));
+        assertEquals(Integer.valueOf(4), limits.get(ActionResourceClass.BULK_TRANSFER));
+        assertTrue(ActionResourceClass.parseLimits("").isEmpty());
+        try {
+            ActionResourceClass.parseLimits("network=2");
+            fail("Expected an exception about an unknown resource class.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("Unknown resource class"));
+        }
+    }
 };
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ActionTimingsTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testTimings() throws Exception {
+        ActionTimings timings = new ActionTimings();
+        ActionId foo = new ActionId("foo", "node0");
+        ActionId bar = new ActionId("bar", "node1");
+        timings.onEnqueued(foo, ActionResourceClass.REMOTE_EXEC);
+        timings.onEnqueued(bar, ActionResourceClass.BULK_TRANSFER);
+        timings.onDequeued(foo);
+        timings.onStarted(foo);
+        Thread.sleep(2);
+        timings.onFinished(foo, true);
+        timings.onDequeued(bar);
+
+        List<ActionTimings.Timing> results = timings.timings();
+        assertEquals(2, results.size());
+        // Actions enqueued in the same microsecond are sorted by id, so don't
+        // rely on the order of the results.
+        ActionTimings.Timing fooTiming = find(results, foo);
+        assertTrue(fooTiming.finished());
+        assertTrue(fooTiming.succeeded());
+        assertTrue(fooTiming.startUs() >= fooTiming.dequeuedUs());
+        assertTrue(fooTiming.durationUs() >= 2000);
+        ActionTimings.Timing barTiming = find(results, bar);
+        assertFalse(barTiming.finished());
+        assertEquals(-1, barTiming.startUs());
+
+        ObjectNode trace = timings.toChromeTrace();
+        int numRunEvents = 0;
+        for (JsonNode event : trace.get("traceEvents")) {
+            if (event.get("ph").asText().equals("X") &&
+                    event.get("name").asText().equals("foo")) {
+                numRunEvents++;
+                assertEquals("remote-exec", event.get("cat").asText());
+                assertEquals("succeeded", event.get("args").get("status").asText());
+            }
+        }
+        assertEquals(1, numRunEvents);
+
+        String summary = timings.summary();
+        assertTrue(summary.contains("foo"));
+        assertFalse(summary.contains("bar "));
+        assertTrue(summary.contains("node0"));
+    }
+
+    private static ActionTimings.Timing find(List<ActionTimings.Timing> timings, ActionId id) {
+        for (ActionTimings.Timing timing : timings) {
+            if (timing.id().equals(id)) {
+                return timing;
+            }
+        }
+        throw new AssertionError("No timing found for " + id);
+    }
+}
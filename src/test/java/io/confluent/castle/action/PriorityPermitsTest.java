@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PriorityPermitsTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testAcquireAndRelease() throws Exception {
+        PriorityPermits permits = new PriorityPermits(2);
+        permits.acquire(0);
+        permits.acquire(0);
+        assertEquals(0, permits.availablePermits());
+        permits.release();
+        permits.release();
+        assertEquals(2, permits.availablePermits());
+    }
+
+    @Test
+    public void testHighestPriorityFirst() throws Exception {
+        final PriorityPermits permits = new PriorityPermits(1);
+        permits.acquire(0);
+        final List<Long> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (final long priority : new long[] {1, 3, 2, 3}) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        permits.acquire(priority);
+                        order.add(priority);
+                        permits.release();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+            while (permits.numWaiters() < threads.size()) {
+                Thread.sleep(1);
+            }
+        }
+        permits.release();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Arrays.asList(3L, 3L, 2L, 1L), order);
+        assertEquals(1, permits.availablePermits());
+    }
+}
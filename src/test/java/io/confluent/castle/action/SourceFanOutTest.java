@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SourceFanOutTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Rule
+    final public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testParentIndex() {
+        for (int i = 0; i < SourceFanOut.DEGREE; i++) {
+            assertEquals(-1, SourceFanOut.parentIndex(i));
+        }
+        Map<Integer, Integer> children = new HashMap<>();
+        int maxDepth = 0;
+        for (int i = SourceFanOut.DEGREE; i < 1000; i++) {
+            int parent = SourceFanOut.parentIndex(i);
+            assertTrue(parent >= 0);
+            assertTrue(parent < i);
+            children.merge(parent, 1, Integer::sum);
+            int depth = 0;
+            for (int j = i; j >= 0; j = SourceFanOut.parentIndex(j)) {
+                depth++;
+            }
+            maxDepth = Math.max(maxDepth, depth);
+        }
+        for (int count : children.values()) {
+            assertTrue(count <= SourceFanOut.DEGREE);
+        }
+        // log4(1000) is just under 5.
+        assertEquals(5, maxDepth);
+    }
+
+    @Test
+    public void testHoldings() throws Exception {
+        SourceFanOut fanOut = new SourceFanOut(tempFolder.getRoot());
+        assertNull(fanOut.holding("node0", "/mnt/kafka/src"));
+        fanOut.register("node0", Arrays.asList("/mnt/kafka/src", "/mnt/castle/src"));
+        assertNull(fanOut.holding("node0", "/mnt/schema-registry/src"));
+        CompletableFuture<String> holding = fanOut.holding("node0", "/mnt/kafka/src");
+        assertFalse(holding.isDone());
+        fanOut.holdings("node0").get("/mnt/kafka/src").complete("abc");
+        assertEquals("abc", holding.get());
+
+        // Abandoning a node only fails the trees it did not receive.
+        fanOut.abandon("node0", "node0 failed");
+        assertEquals("abc", holding.get());
+        assertTrue(fanOut.holding("node0", "/mnt/castle/src").isCompletedExceptionally());
+        assertTrue(fanOut.holdings("node1").isEmpty());
+    }
+
+    /**
+     * Run a bash script in the given directory, which is also used as $HOME.
+     *
+     * @return      The exit status.
+     */
+    private static int runScript(File dir, String script, String sshOriginalCommand,
+                                 StringBuilder output) throws Exception {
+        ProcessBuilder builder = new ProcessBuilder("bash", "-s").directory(dir);
+        builder.environment().put("HOME", dir.getAbsolutePath());
+        if (sshOriginalCommand != null) {
+            builder.environment().put("SSH_ORIGINAL_COMMAND", sshOriginalCommand);
+        }
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+        process.getOutputStream().write(script.getBytes(StandardCharsets.UTF_8));
+        process.getOutputStream().close();
+        output.append(new String(readAll(process), StandardCharsets.UTF_8));
+        return process.waitFor();
+    }
+
+    private static byte[] readAll(Process process) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int len;
+        while ((len = process.getInputStream().read(buf)) != -1) {
+            output.write(buf, 0, len);
+        }
+        return output.toByteArray();
+    }
+
+    @Test
+    public void testRelaySetupScript() throws Exception {
+        File home = tempFolder.newFolder("home");
+        File ssh = new File(home, ".ssh");
+        assertTrue(ssh.mkdir());
+        File authorizedKeys = new File(ssh, "authorized_keys");
+        Files.write(authorizedKeys.toPath(), Arrays.asList("ssh-ed25519 AAAAuser user@laptop",
+            "ssh-ed25519 AAAAold " + SourceFanOut.RELAY_KEY_COMMENT));
+        File hostKey = new File(home, "ssh_host_ed25519_key.pub");
+        Files.write(hostKey.toPath(), Collections.singletonList("ssh-ed25519 AAAAhost root@node1"));
+
+        String script = SourceSetupAction.relaySetupScript("localhost",
+            "ssh-ed25519 AAAAnew " + SourceFanOut.RELAY_KEY_COMMENT,
+            new File(home, "ssh_host_*_key.pub").getAbsolutePath());
+        StringBuilder output = new StringBuilder();
+        assertEquals(output.toString(), 0, runScript(home, script, null, output));
+        assertEquals("castle-relay-node1 ssh-ed25519 AAAAhost\n",
+            SourceSetupAction.knownHosts("node1", output.toString()));
+        List<String> lines = Files.readAllLines(authorizedKeys.toPath());
+        assertEquals(Arrays.asList("ssh-ed25519 AAAAuser user@laptop",
+            "from=\"127.0.0.1\",command=\"" + home.getAbsolutePath() + "/" +
+                ActionPaths.RELAY_RECEIVE_SCRIPT + "\",no-pty,no-port-forwarding," +
+                "no-agent-forwarding,no-X11-forwarding ssh-ed25519 AAAAnew " +
+                SourceFanOut.RELAY_KEY_COMMENT), lines);
+        assertTrue(new File(home, ActionPaths.RELAY_RECEIVE_SCRIPT).canExecute());
+
+        // Running the script again replaces the old authorization.
+        assertEquals(0, runScript(home, script, null, new StringBuilder()));
+        assertEquals(lines, Files.readAllLines(authorizedKeys.toPath()));
+    }
+
+    @Test
+    public void testRelayReceiveScriptRejectsBadCommands() throws Exception {
+        File home = tempFolder.newFolder("home");
+        String script = SourceSetupAction.relayReceiveScript();
+        for (String command : new String[] {"", "/mnt/kafka/src", "/etc 0123abc",
+                "/mnt/kafka/src 0123abc extra", "/mnt/kafka/src ../0123",
+                "/mnt/kafka/src/.. 0123abc", "/mnt/kafka/src 0123abc;id"}) {
+            StringBuilder output = new StringBuilder();
+            assertNotEquals(command, 0, runScript(home, script, command, output));
+            assertTrue(output.toString(), output.toString().startsWith("Invalid relay"));
+        }
+    }
+
+    @Test
+    public void testRelayCommandChecksHostKeys() {
+        List<String> args = Arrays.asList(SourceSetupAction.relayCommand("ubuntu",
+            "node5.internal", "node5", ActionPaths.KAFKA_SRC, "0123abc"));
+        assertTrue(args.contains("StrictHostKeyChecking=yes"));
+        assertTrue(args.contains("HostKeyAlias=castle-relay-node5"));
+        assertTrue(args.contains("UserKnownHostsFile=" +
+            ActionPaths.RELAY_KNOWN_HOSTS_PREFIX + "node5"));
+        assertFalse(args.contains("StrictHostKeyChecking=no"));
+        // The target only receives the directory and hash.
+        int target = args.indexOf("ubuntu@node5.internal");
+        assertEquals(Arrays.asList(ActionPaths.KAFKA_SRC, "0123abc", "<"),
+            args.subList(target + 1, target + 4));
+    }
+
+    @Test
+    public void testKeptArchiveHash() {
+        String hashPath = SourceSetupAction.archiveHashPath(ActionPaths.KAFKA_SRC);
+        String unpack = String.join(" ",
+            SourceSetupAction.unpackArchiveCommand(ActionPaths.KAFKA_SRC, "0123abc", true));
+        assertTrue(unpack, unpack.endsWith("&& mv " +
+            SourceSetupAction.archivePath(ActionPaths.KAFKA_SRC) + ".tmp " +
+            SourceSetupAction.archivePath(ActionPaths.KAFKA_SRC) + " && echo 0123abc > " +
+            hashPath + " && echo 0123abc > " + SourceSetupAction.hashPath(ActionPaths.KAFKA_SRC)));
+        assertFalse(String.join(" ", SourceSetupAction.unpackArchiveCommand(
+            ActionPaths.KAFKA_SRC, "0123abc", false)).contains(hashPath));
+        // A delta makes the kept archive out of date, so its hash goes with it.
+        List<String> delta = Arrays.asList(SourceSetupAction.applyDeltaCommand(
+            ActionPaths.KAFKA_SRC, "0123abc", "4567def", true, true));
+        int rm = delta.indexOf("rm");
+        assertEquals(Arrays.asList("rm", "-f",
+            SourceSetupAction.archivePath(ActionPaths.KAFKA_SRC), hashPath),
+            delta.subList(rm, rm + 4));
+    }
+
+    @Test
+    public void testAnyUpToDate() {
+        Map<String, String> archiveHashes = new HashMap<>();
+        archiveHashes.put(ActionPaths.KAFKA_SRC, "aaaa");
+        archiveHashes.put(ActionPaths.CASTLE_SRC, "bbbb");
+        Map<String, String> recordedHashes = new HashMap<>();
+        recordedHashes.put(ActionPaths.KAFKA_SRC, "0000");
+        recordedHashes.put(ActionPaths.CASTLE_SRC, "1111");
+        assertFalse(SourceSetupAction.anyUpToDate(recordedHashes, archiveHashes));
+        // A recorded match must be confirmed by the node before it is skipped.
+        recordedHashes.put(ActionPaths.CASTLE_SRC, "bbbb");
+        assertTrue(SourceSetupAction.anyUpToDate(recordedHashes, archiveHashes));
+    }
+}
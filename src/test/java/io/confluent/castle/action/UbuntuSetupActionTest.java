@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleClusterConf;
+import io.confluent.castle.role.UbuntuNodeRole;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UbuntuSetupActionTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static CastleClusterConf conf(boolean setupImageCache) {
+        return new CastleClusterConf(null, null, null, 0, null, null, setupImageCache);
+    }
+
+    @Test
+    public void testCanSkipSetup() throws Exception {
+        UbuntuNodeRole role = new UbuntuNodeRole(null, null);
+        assertFalse(UbuntuSetupAction.canSkipSetup(conf(true), role));
+        assertFalse(UbuntuSetupAction.canSkipSetup(conf(false), role));
+
+        // The node was started from a cached image with matching packages.
+        role.setSetupKey(role.imageKey());
+        assertTrue(UbuntuSetupAction.canSkipSetup(conf(true), role));
+        assertFalse(UbuntuSetupAction.canSkipSetup(conf(false), role));
+
+        // The image was set up with a different JDK.
+        UbuntuNodeRole otherJdk = new UbuntuNodeRole("openjdk-11-jdk", role.imageKey());
+        assertFalse(UbuntuSetupAction.canSkipSetup(conf(true), otherJdk));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.cloud;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.cluster.MockCastleCluster;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DockerCloudTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Rule
+    final public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    /**
+     * Create a stand-in for the docker executable.  It logs its arguments,
+     * and prints the contents of images.out when asked to list images.
+     */
+    private File createFakeDocker() throws Exception {
+        File docker = new File(tempFolder.getRoot(), "docker");
+        String dir = tempFolder.getRoot().getAbsolutePath();
+        Files.write(docker.toPath(), String.join("\n",
+            "#!/bin/sh",
+            "echo \"$@\" >> " + dir + "/args.log",
+            "if [ \"$1\" = images ] && [ -f " + dir + "/images.out ]; then",
+            "    cat " + dir + "/images.out",
+            "fi",
+            "").getBytes(StandardCharsets.UTF_8));
+        assertTrue(docker.setExecutable(true));
+        return docker;
+    }
+
+    private List<String> readArgs() throws Exception {
+        return Files.readAllLines(new File(tempFolder.getRoot(), "args.log").toPath());
+    }
+
+    @Test
+    public void testFindAndSaveImage() throws Exception {
+        File fakeDocker = createFakeDocker();
+        try (CastleCluster cluster = MockCastleCluster.create(1);
+                DockerCloud cloud = new DockerCloud(fakeDocker.getAbsolutePath())) {
+            CastleNode node = cluster.nodes().get("node0");
+            assertNull(cloud.findImage(node, "abc", "ducker:latest"));
+            assertEquals(Collections.singletonList(
+                "images -q --no-trunc --filter label=castle.setupKey=abc " +
+                    "--filter label=castle.baseImage=ducker:latest"), readArgs());
+
+            String imageName = cloud.saveImage(node, "ducker00", "abc", "ducker:latest");
+            assertTrue(imageName.startsWith("castle-setup:abc-"));
+            assertEquals("commit --change LABEL castle.setupKey=abc " +
+                "--change LABEL castle.baseImage=ducker:latest ducker00 " + imageName,
+                readArgs().get(1));
+
+            // Each image is only saved once per run.
+            assertNull(cloud.saveImage(node, "ducker01", "abc", "ducker:latest"));
+            assertEquals(2, readArgs().size());
+
+            Files.write(new File(tempFolder.getRoot(), "images.out").toPath(),
+                Arrays.asList("sha256:2222", "sha256:1111"));
+            assertEquals("sha256:2222", cloud.findImage(node, "abc", "ducker:latest"));
+        }
+    }
+}
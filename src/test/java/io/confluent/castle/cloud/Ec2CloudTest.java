@@ -0,0 +1,387 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.cloud;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.ec2.AbstractAmazonEC2;
+import com.amazonaws.services.ec2.model.BlockDeviceMapping;
+import com.amazonaws.services.ec2.model.CreateImageRequest;
+import com.amazonaws.services.ec2.model.CreateImageResult;
+import com.amazonaws.services.ec2.model.DeleteSnapshotRequest;
+import com.amazonaws.services.ec2.model.DeleteSnapshotResult;
+import com.amazonaws.services.ec2.model.DeregisterImageRequest;
+import com.amazonaws.services.ec2.model.DeregisterImageResult;
+import com.amazonaws.services.ec2.model.DescribeImagesRequest;
+import com.amazonaws.services.ec2.model.DescribeImagesResult;
+import com.amazonaws.services.ec2.model.DescribeInstancesRequest;
+import com.amazonaws.services.ec2.model.DescribeInstancesResult;
+import com.amazonaws.services.ec2.model.EbsBlockDevice;
+import com.amazonaws.services.ec2.model.Filter;
+import com.amazonaws.services.ec2.model.Image;
+import com.amazonaws.services.ec2.model.Instance;
+import com.amazonaws.services.ec2.model.InstanceState;
+import com.amazonaws.services.ec2.model.Reservation;
+import com.amazonaws.services.ec2.model.RunInstancesRequest;
+import com.amazonaws.services.ec2.model.RunInstancesResult;
+import com.amazonaws.services.ec2.model.Tag;
+import com.amazonaws.services.ec2.model.TerminateInstancesRequest;
+import com.amazonaws.services.ec2.model.TerminateInstancesResult;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Ec2CloudTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    /**
+     * A fake EC2 client which counts calls, and returns describe results one
+     * instance per page.
+     */
+    private static class FakeEc2 extends AbstractAmazonEC2 {
+        private final List<RunInstancesRequest> runRequests = new ArrayList<>();
+        private final List<DescribeInstancesRequest> describeRequests = new ArrayList<>();
+        private final List<TerminateInstancesRequest> terminateRequests = new ArrayList<>();
+        private final List<CreateImageRequest> createImageRequests = new ArrayList<>();
+        private final List<Image> images = new ArrayList<>();
+        private final List<String> deletedSnapshots = new ArrayList<>();
+        private final CountDownLatch createImageThrottled = new CountDownLatch(1);
+        private int nextInstanceId = 0;
+        private boolean failTerminates = false;
+        private int throttledRuns = 0;
+        private boolean throttleCreateImages = false;
+
+        @Override
+        public synchronized RunInstancesResult runInstances(RunInstancesRequest req) {
+            runRequests.add(req);
+            if (throttledRuns > 0) {
+                throttledRuns--;
+                throw throttle();
+            }
+            List<Instance> instances = new ArrayList<>();
+            for (int i = 0; i < req.getMaxCount(); i++) {
+                instances.add(instance("i-" + nextInstanceId++));
+            }
+            return new RunInstancesResult().withReservation(
+                new Reservation().withInstances(instances));
+        }
+
+        @Override
+        public synchronized DescribeInstancesResult describeInstances(DescribeInstancesRequest req) {
+            describeRequests.add(req);
+            List<String> ids = req.getInstanceIds().isEmpty() ?
+                    Arrays.asList("i-a", "i-b", "i-c") : req.getInstanceIds();
+            int page = (req.getNextToken() == null) ? 0 : Integer.parseInt(req.getNextToken());
+            DescribeInstancesResult result = new DescribeInstancesResult().withReservations(
+                new Reservation().withInstances(instance(ids.get(page))));
+            if (page + 1 < ids.size()) {
+                result.setNextToken(Integer.toString(page + 1));
+            }
+            return result;
+        }
+
+        @Override
+        public synchronized TerminateInstancesResult terminateInstances(
+                TerminateInstancesRequest req) {
+            terminateRequests.add(req);
+            if (failTerminates) {
+                throw new RuntimeException("terminate failed");
+            }
+            return new TerminateInstancesResult();
+        }
+
+        @Override
+        public synchronized CreateImageResult createImage(CreateImageRequest req) {
+            createImageRequests.add(req);
+            if (throttleCreateImages) {
+                createImageThrottled.countDown();
+                throw throttle();
+            }
+            String imageId = "ami-" + createImageRequests.size();
+            images.add(image(imageId, "pending", req.getTagSpecifications().get(0).getTags()));
+            return new CreateImageResult().withImageId(imageId);
+        }
+
+        @Override
+        public synchronized DescribeImagesResult describeImages(DescribeImagesRequest req) {
+            List<Image> result = new ArrayList<>();
+            for (Image image : images) {
+                boolean matches = true;
+                for (Filter filter : req.getFilters()) {
+                    String value = null;
+                    if (filter.getName().equals("state")) {
+                        value = image.getState();
+                    } else {
+                        for (Tag tag : image.getTags()) {
+                            if (filter.getName().equals("tag:" + tag.getKey())) {
+                                value = tag.getValue();
+                            }
+                        }
+                    }
+                    matches &= filter.getValues().contains(value);
+                }
+                if (matches) {
+                    result.add(image);
+                }
+            }
+            return new DescribeImagesResult().withImages(result);
+        }
+
+        @Override
+        public synchronized DeregisterImageResult deregisterImage(DeregisterImageRequest req) {
+            images.removeIf(image -> image.getImageId().equals(req.getImageId()));
+            return new DeregisterImageResult();
+        }
+
+        @Override
+        public synchronized DeleteSnapshotResult deleteSnapshot(DeleteSnapshotRequest req) {
+            deletedSnapshots.add(req.getSnapshotId());
+            return new DeleteSnapshotResult();
+        }
+
+        private synchronized List<String> imageIds() {
+            List<String> imageIds = new ArrayList<>();
+            for (Image image : images) {
+                imageIds.add(image.getImageId());
+            }
+            return imageIds;
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        private static AmazonServiceException throttle() {
+            AmazonServiceException e = new AmazonServiceException("Request limit exceeded.");
+            e.setErrorCode("RequestLimitExceeded");
+            e.setStatusCode(503);
+            return e;
+        }
+
+        private static Image image(String imageId, String state, Collection<Tag> tags) {
+            return new Image().withImageId(imageId).withState(state).
+                withCreationDate("2026-01-01T00:00:00.000Z").withTags(tags).
+                withBlockDeviceMappings(new BlockDeviceMapping().withDeviceName("/dev/sda1").
+                    withEbs(new EbsBlockDevice().withSnapshotId("snap-" + imageId)));
+        }
+
+        private static Instance instance(String instanceId) {
+            return new Instance().withInstanceId(instanceId).
+                withPrivateDnsName(instanceId + ".internal").
+                withPublicDnsName(instanceId + ".example.com").
+                withState(new InstanceState().withName("running"));
+        }
+    }
+
+    private static Ec2Settings settings() {
+        return new Ec2Settings("keyPair", "securityGroup", "");
+    }
+
+    private static Ec2RateLimiter rateLimiter() {
+        return new Ec2RateLimiter(100, 1, 1000, 10, 0.5, 10);
+    }
+
+    @Test
+    public void testPartition() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            ids.add("i-" + i);
+        }
+        List<List<String>> parts = Ec2Cloud.partition(ids);
+        assertEquals(3, parts.size());
+        assertEquals(Ec2Cloud.MAX_INSTANCE_IDS_PER_CALL, parts.get(0).size());
+        assertEquals(Ec2Cloud.MAX_INSTANCE_IDS_PER_CALL, parts.get(1).size());
+        assertEquals(500, parts.get(2).size());
+        assertEquals(0, Ec2Cloud.partition(new ArrayList<>()).size());
+    }
+
+    @Test
+    public void testCreatesAreGroupedByTypeAndImage() throws Exception {
+        FakeEc2 ec2 = new FakeEc2();
+        try (Ec2Cloud cloud = new Ec2Cloud(settings(), ec2, rateLimiter())) {
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            // Hold the lock so that every create is queued before the first call.
+            synchronized (cloud) {
+                for (int i = 0; i < 100; i++) {
+                    futures.add(cloud.createInstance((i % 3 == 0) ? "m5.xlarge" : "m5.large",
+                        "ami-1", i));
+                }
+            }
+            Set<String> instanceIds = new HashSet<>();
+            for (CompletableFuture<String> future : futures) {
+                instanceIds.add(future.get());
+            }
+            assertEquals(100, instanceIds.size());
+            synchronized (ec2) {
+                assertEquals(2, ec2.runRequests.size());
+                assertEquals(Integer.valueOf(34), ec2.runRequests.get(0).getMaxCount());
+                assertEquals("m5.xlarge", ec2.runRequests.get(0).getInstanceType());
+                assertEquals(Integer.valueOf(66), ec2.runRequests.get(1).getMaxCount());
+            }
+        }
+    }
+
+    @Test
+    public void testDescribesArePaginated() throws Exception {
+        FakeEc2 ec2 = new FakeEc2();
+        try (Ec2Cloud cloud = new Ec2Cloud(settings(), ec2, rateLimiter())) {
+            Collection<Ec2InstanceInfo> all = cloud.describeAllInstances().get();
+            assertEquals(3, all.size());
+
+            CompletableFuture<Ec2InstanceInfo> first;
+            CompletableFuture<Ec2InstanceInfo> duplicate;
+            CompletableFuture<Ec2InstanceInfo> second;
+            synchronized (cloud) {
+                first = cloud.describeInstance("i-1");
+                duplicate = cloud.describeInstance("i-1");
+                second = cloud.describeInstance("i-2");
+            }
+            assertEquals("i-1.internal", first.get().privateDns());
+            assertEquals("i-1.internal", duplicate.get().privateDns());
+            assertEquals("i-2.example.com", second.get().publicDns());
+            synchronized (ec2) {
+                // Three pages for the describe all, and two for the two instance IDs.
+                assertEquals(5, ec2.describeRequests.size());
+            }
+        }
+    }
+
+    @Test
+    public void testTerminateFailure() throws Exception {
+        FakeEc2 ec2 = new FakeEc2();
+        try (Ec2Cloud cloud = new Ec2Cloud(settings(), ec2, rateLimiter())) {
+            synchronized (ec2) {
+                ec2.failTerminates = true;
+            }
+            try {
+                cloud.terminateInstance("i-1").get();
+                fail("Expected the terminate to fail.");
+            } catch (ExecutionException e) {
+                assertEquals("terminate failed", e.getCause().getMessage());
+            }
+            // The cloud thread is still running.
+            synchronized (ec2) {
+                ec2.failTerminates = false;
+            }
+            cloud.terminateInstance("i-1").get();
+            synchronized (ec2) {
+                assertEquals(2, ec2.terminateRequests.size());
+                assertTrue(ec2.terminateRequests.get(1).getInstanceIds().contains("i-1"));
+            }
+        }
+    }
+
+    @Test
+    public void testThrottledCallsAreRetried() throws Exception {
+        FakeEc2 ec2 = new FakeEc2();
+        Ec2RateLimiter rateLimiter = rateLimiter();
+        try (Ec2Cloud cloud = new Ec2Cloud(settings(), ec2, rateLimiter)) {
+            synchronized (ec2) {
+                ec2.throttledRuns = 2;
+            }
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            synchronized (cloud) {
+                for (int i = 0; i < 3; i++) {
+                    futures.add(cloud.createInstance("m5.large", "ami-1", i));
+                }
+            }
+            for (CompletableFuture<String> future : futures) {
+                assertTrue(future.get().startsWith("i-"));
+            }
+            assertEquals(3, rateLimiter.calls());
+            assertEquals(2, rateLimiter.throttles());
+            synchronized (ec2) {
+                // Every retry reuses the client token.
+                assertEquals(3, ec2.runRequests.size());
+                assertEquals(ec2.runRequests.get(0).getClientToken(),
+                    ec2.runRequests.get(2).getClientToken());
+            }
+        }
+    }
+
+    @Test
+    public void testSaveImageDuringCreateImage() throws Exception {
+        FakeEc2 ec2 = new FakeEc2();
+        try (Ec2Cloud cloud = new Ec2Cloud(settings(), ec2, rateLimiter())) {
+            synchronized (ec2) {
+                ec2.throttleCreateImages = true;
+            }
+            CompletableFuture<String> first = cloud.saveImage("i-1", "key1", "ami-base");
+            // While the first CreateImage backs off, the cloud thread releases
+            // its lock, so we can queue another save.
+            ec2.createImageThrottled.await();
+            CompletableFuture<String> second = cloud.saveImage("i-2", "key2", "ami-base");
+            synchronized (ec2) {
+                ec2.throttleCreateImages = false;
+            }
+            assertTrue(first.get().startsWith("ami-"));
+            assertTrue(second.get().startsWith("ami-"));
+            synchronized (ec2) {
+                CreateImageRequest last =
+                    ec2.createImageRequests.get(ec2.createImageRequests.size() - 1);
+                assertEquals("i-2", last.getInstanceId());
+            }
+        }
+    }
+
+    private static List<Tag> imageTags(String key, String baseImageId) {
+        return Arrays.asList(new Tag("CastleSetupKey", key), new Tag("CastleBaseImage", baseImageId));
+    }
+
+    @Test
+    public void testSaveImageDeletesOlderImages() throws Exception {
+        FakeEc2 ec2 = new FakeEc2();
+        ec2.images.add(FakeEc2.image("ami-old", "available", imageTags("key1", "ami-base")));
+        ec2.images.add(FakeEc2.image("ami-failed", "failed", imageTags("key1", "ami-base")));
+        ec2.images.add(FakeEc2.image("ami-other", "available", imageTags("key1", "ami-base2")));
+        try (Ec2Cloud cloud = new Ec2Cloud(settings(), ec2, rateLimiter())) {
+            assertEquals("ami-1", cloud.saveImage("i-1", "key1", "ami-base").get());
+        }
+        // Only the newest image for each key and base image is kept.
+        assertEquals(Arrays.asList("ami-other", "ami-1"), ec2.imageIds());
+        assertEquals(Arrays.asList("snap-ami-old", "snap-ami-failed"), ec2.deletedSnapshots);
+    }
+
+    @Test
+    public void testSaveImageSkipsPendingImage() throws Exception {
+        FakeEc2 ec2 = new FakeEc2();
+        ec2.images.add(FakeEc2.image("ami-pending", "pending", imageTags("key1", "ami-base")));
+        try (Ec2Cloud cloud = new Ec2Cloud(settings(), ec2, rateLimiter())) {
+            assertNull(cloud.saveImage("i-1", "key1", "ami-base").get());
+            // The pending image is not available yet, so it can't be found.
+            assertNull(cloud.findImage("key1", "ami-base").get());
+        }
+        assertTrue(ec2.createImageRequests.isEmpty());
+        assertEquals(Arrays.asList("ami-pending"), ec2.imageIds());
+    }
+}
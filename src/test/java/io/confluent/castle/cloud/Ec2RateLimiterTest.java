@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.cloud;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import static org.junit.Assert.assertEquals;
+
+public class Ec2RateLimiterTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testTokenBucket() {
+        Ec2RateLimiter limiter = new Ec2RateLimiter(10, 1, 100, 0, 0.5, 2);
+        assertEquals(0, limiter.tryAcquire(1000));
+        assertEquals(0, limiter.tryAcquire(1000));
+        // The burst is used up, so the next token comes after 1/10 s.
+        assertEquals(100, limiter.tryAcquire(1000));
+        assertEquals(50, limiter.tryAcquire(1050));
+        assertEquals(0, limiter.tryAcquire(1100));
+        // The bucket never holds more than the burst.
+        assertEquals(0, limiter.tryAcquire(60000));
+        assertEquals(0, limiter.tryAcquire(60000));
+        assertEquals(100, limiter.tryAcquire(60000));
+    }
+
+    @Test
+    public void testAdaptation() {
+        Ec2RateLimiter limiter = new Ec2RateLimiter(4, 1, 6, 1, 0.5, 1);
+        limiter.onSuccess();
+        assertEquals(5, limiter.rate(), 0.001);
+        limiter.onSuccess();
+        limiter.onSuccess();
+        assertEquals(6, limiter.rate(), 0.001);
+        limiter.onThrottle();
+        assertEquals(3, limiter.rate(), 0.001);
+        limiter.onThrottle();
+        limiter.onThrottle();
+        assertEquals(1, limiter.rate(), 0.001);
+        limiter.onFailure();
+        assertEquals(1, limiter.rate(), 0.001);
+        assertEquals(7, limiter.calls());
+        assertEquals(3, limiter.throttles());
+
+        // A throttle empties the bucket.
+        Ec2RateLimiter limiter2 = new Ec2RateLimiter(2, 1, 2, 0, 0.5, 5);
+        assertEquals(0, limiter2.tryAcquire(0));
+        limiter2.onThrottle();
+        assertEquals(1000, limiter2.tryAcquire(0));
+    }
+}
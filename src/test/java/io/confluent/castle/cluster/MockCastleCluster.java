@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.confluent.castle.cluster;
+
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.role.MockCloudRole;
+import io.confluent.castle.role.Role;
+import io.confluent.castle.tool.CastleShutdownManager;
+import io.confluent.castle.tool.MockCastleEnvironment;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates clusters for tests.  The nodes are named node0, node1, and so on,
+ * and only have the mock cloud role, so their uplinks are null until a test
+ * sets them.
+ */
+public final class MockCastleCluster {
+    public static CastleCluster create(int numNodes) throws Exception {
+        Map<String, CastleNodeSpec> map = new HashMap<>();
+        for (int i = 0; i < numNodes; i++) {
+            map.put("node" + i, new CastleNodeSpec(Collections.singletonList("mockCloud"), null));
+        }
+        Map<String, Role> roles = new HashMap<>();
+        roles.put("mockCloud", new MockCloudRole());
+        CastleClusterSpec spec = new CastleClusterSpec(null, map, roles);
+        CastleLog clusterLog = CastleLog.fromDevNull("cluster", false);
+        return new CastleCluster(new MockCastleEnvironment(), clusterLog,
+            new CastleShutdownManager(clusterLog), spec);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CommandBatchTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testScript() throws Exception {
+        CommandBatch batch = new CommandBatch(null).
+            addStep("-n", "--", "mkdir", "-p", "/tmp/foo").
+            addFile("/tmp/foo/bar", "hello".getBytes(StandardCharsets.UTF_8)).
+            addStep("echo", "done");
+        assertEquals(3, batch.size());
+        String script = batch.toScript();
+        assertTrue(script.contains("mkdir -p /tmp/foo\n"));
+        assertFalse(script.contains("-n --"));
+        assertTrue(script.contains("base64 -d > '/tmp/foo/bar'"));
+        assertTrue(script.contains("aGVsbG8=\n"));
+        assertTrue(script.contains("##CASTLE_STEP 2 "));
+    }
+
+    @Test
+    public void testEmptyStep() throws Exception {
+        try {
+            new CommandBatch(null).addStep("-n", "--");
+            fail("expected exception");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("You must supply a command"));
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.command;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.MockCastleCluster;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class NodeShellRunnerTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testLineSplitter() throws Exception {
+        List<String> lines = new ArrayList<>();
+        NodeShellRunner.LineSplitter splitter = new NodeShellRunner.LineSplitter(lines::add);
+        byte[] data = "foo\nbär\n\nbaz".getBytes(StandardCharsets.UTF_8);
+        // Split the input in the middle of a multi-byte character.
+        splitter.write(data, 0, 6);
+        assertEquals(Arrays.asList("foo"), lines);
+        splitter.write(data, 6, data.length - 6);
+        assertEquals(Arrays.asList("foo", "bär", ""), lines);
+        splitter.flush();
+        assertEquals(Arrays.asList("foo", "bär", "", "baz"), lines);
+        splitter.flush();
+        assertEquals(4, lines.size());
+    }
+
+    @Test
+    public void testTextDecoder() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        NodeShellRunner.TextDecoder decoder =
+            new NodeShellRunner.TextDecoder(chars -> builder.append(chars));
+        byte[] data = "bär€".getBytes(StandardCharsets.UTF_8);
+        // Feed the input one byte at a time, splitting every multi-byte character.
+        for (int i = 0; i < data.length; i++) {
+            decoder.write(data, i, 1);
+        }
+        assertEquals("bär€", builder.toString());
+        decoder.write(data, 0, 2);
+        decoder.flush();
+        assertEquals("bär€b\uFFFD", builder.toString());
+    }
+
+    @Test
+    public void testOutputTail() throws Exception {
+        OutputTail tail = new OutputTail(4);
+        assertArrayEquals(new byte[0], tail.toByteArray());
+        byte[] data = "abcdefghij".getBytes(StandardCharsets.UTF_8);
+        tail.write(data, 0, 3);
+        assertArrayEquals("abc".getBytes(StandardCharsets.UTF_8), tail.toByteArray());
+        assertEquals(0, tail.droppedBytes());
+        tail.write(data, 3, 3);
+        assertArrayEquals("cdef".getBytes(StandardCharsets.UTF_8), tail.toByteArray());
+        assertEquals(2, tail.droppedBytes());
+        tail.write(data, 0, data.length);
+        assertArrayEquals("ghij".getBytes(StandardCharsets.UTF_8), tail.toByteArray());
+        assertEquals(16, tail.totalBytes());
+        assertEquals(12, tail.droppedBytes());
+    }
+
+    @Test
+    public void testRunWithStdin() throws Exception {
+        try (CastleCluster cluster = MockCastleCluster.create(1)) {
+            // Run more commands at once than there are likely to be idle pump threads.
+            List<Thread> threads = new ArrayList<>();
+            List<String> outputs = Collections.synchronizedList(new ArrayList<>());
+            for (int i = 0; i < 8; i++) {
+                threads.add(new Thread(() -> {
+                    StringBuilder output = new StringBuilder();
+                    try {
+                        new NodeShellRunner(cluster.nodes().get("node0"),
+                                Arrays.asList("sh", "-c", "cat; echo err >&2")).
+                            setStdin("in\n".getBytes(StandardCharsets.UTF_8)).
+                            setCaptureOutput(output).
+                            setCaptureStderr(false).
+                            mustRun();
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    outputs.add(output.toString());
+                }));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(8, outputs.size());
+            for (String output : outputs) {
+                assertEquals("in\n", output);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.MockCastleCluster;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SshConnectionPoolTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Rule
+    final public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testControlPaths() throws Exception {
+        try (CastleCluster cluster = MockCastleCluster.create(1)) {
+            SshConnectionPool pool = new SshConnectionPool(cluster.nodes().get("node0"),
+                tempFolder.getRoot(), "/tmp/foo");
+            String path = pool.controlPath("host1", "ubuntu", 22);
+            assertEquals(path, pool.controlPath("host1", "ubuntu", 22));
+            assertNotEquals(path, pool.controlPath("host2", "ubuntu", 22));
+            assertNotEquals(path, pool.controlPath("host1", "ubuntu", 2222));
+            assertTrue(pool.controlOptions("host1", "ubuntu", 22).
+                contains("ControlPath=" + path));
+        }
+    }
+
+    @Test
+    public void testHandshakeCounters() throws Exception {
+        try (CastleCluster cluster = MockCastleCluster.create(1)) {
+            SshConnectionPool pool = new SshConnectionPool(cluster.nodes().get("node0"),
+                tempFolder.getRoot(), "/tmp/foo");
+            pool.onConnect(Collections.singletonList("ssh"), "host1", "ubuntu", 22);
+            assertEquals(1, pool.handshakes());
+            assertEquals(0, pool.handshakesSaved());
+            // Simulate the master creating its control socket.
+            assertTrue(new File(pool.controlPath("host1", "ubuntu", 22)).createNewFile());
+            pool.onConnect(Collections.singletonList("ssh"), "host1", "ubuntu", 22);
+            pool.onConnect(Collections.singletonList("ssh"), "host1", "ubuntu", 22);
+            assertEquals(1, pool.handshakes());
+            assertEquals(2, pool.handshakesSaved());
+        }
+    }
+}
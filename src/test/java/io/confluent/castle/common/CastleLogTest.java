@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.common;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CastleLogTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Rule
+    final public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private List<String> readLines(String nodeName) throws Exception {
+        return Files.readAllLines(new File(tempFolder.getRoot(), nodeName + ".clog").toPath(),
+            StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testFlushAndAppend() throws Exception {
+        try (CastleLog log = CastleLog.fromFile(tempFolder.getRoot().getAbsolutePath(),
+                "node0", false)) {
+            log.printf("hello %s%n", "world");
+            log.flush();
+            List<String> lines = readLines("node0");
+            assertEquals(1, lines.size());
+            assertTrue(lines.get(0).matches(
+                "\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2} hello world"));
+        }
+        try (CastleLog log = CastleLog.fromFile(tempFolder.getRoot().getAbsolutePath(),
+                "node0", false)) {
+            log.write("raw output\n".getBytes(StandardCharsets.UTF_8));
+        }
+        List<String> lines = readLines("node0");
+        assertEquals(2, lines.size());
+        assertEquals("raw output", lines.get(1));
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final int numThreads = 8;
+        final int numLines = 20000;
+        final CastleLog log = CastleLog.fromFile(tempFolder.getRoot().getAbsolutePath(),
+            "node1", false);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            final int threadIndex = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < numLines; i++) {
+                        log.printf("thread %d line %d%n", threadIndex, i);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        log.close();
+        // Writing after close is a no-op.
+        log.print("ignored\n");
+        List<String> lines = readLines("node1");
+        assertEquals(numThreads * numLines, lines.size());
+        Set<String> unique = new HashSet<>();
+        for (String line : lines) {
+            unique.add(line.substring(line.indexOf("thread")));
+        }
+        assertEquals(numThreads * numLines, unique.size());
+    }
+
+    private static int numLogWriterThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("CastleLogWriter")) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testLogsShareOneWriterThread() throws Exception {
+        String logBase = tempFolder.getRoot().getAbsolutePath();
+        List<CastleLog> logs = new ArrayList<>();
+        try {
+            for (int i = 0; i < 10; i++) {
+                logs.add(CastleLog.fromFile(logBase, "shared" + i, false, true));
+            }
+            assertEquals(1, numLogWriterThreads());
+            for (int line = 0; line < 1000; line++) {
+                for (int i = 0; i < logs.size(); i++) {
+                    logs.get(i).printf("log %d line %d%n", i, line);
+                }
+            }
+            for (CastleLog log : logs) {
+                log.flush();
+            }
+            for (int i = 0; i < logs.size(); i++) {
+                List<String> lines = readLines("shared" + i);
+                assertEquals(1000, lines.size());
+                assertTrue(lines.get(999).endsWith("log " + i + " line 999"));
+            }
+        } finally {
+            for (CastleLog log : logs) {
+                log.close();
+            }
+        }
+    }
+
+    @Test
+    public void testEvents() throws Exception {
+        String logBase = tempFolder.getRoot().getAbsolutePath();
+        try (CastleLog log = CastleLog.fromFile(logBase, "node2", false)) {
+            assertFalse(log.eventsEnabled());
+            log.event(CastleEvent.actionStart("node2", "brokerStart:node2"));
+        }
+        assertFalse(new File(logBase, "node2" + CastleLog.EVENT_LOG_SUFFIX).exists());
+        try (CastleLog log = CastleLog.fromFile(logBase, "node3", false, true)) {
+            assertTrue(log.eventsEnabled());
+            log.setCurrentAction("brokerStart:node3");
+            log.event(CastleEvent.commandStart("node3", "ssh node3 echo"));
+            log.event(CastleEvent.commandEnd("node3", "ssh node3 echo", 1, 20, 300));
+            log.setCurrentAction(null);
+            log.event(CastleEvent.actionEnd("node3", "brokerStart:node3", true, 50));
+        }
+        List<CastleEvent> events = new ArrayList<>();
+        try (CastleEventReader reader = new CastleEventReader(
+                new File(logBase, "node3" + CastleLog.EVENT_LOG_SUFFIX))) {
+            while (reader.hasNext()) {
+                events.add(reader.next());
+            }
+        }
+        assertEquals(3, events.size());
+        assertEquals(CastleEvent.COMMAND_START, events.get(0).type());
+        assertEquals("brokerStart:node3", events.get(0).action());
+        assertEquals(null, events.get(0).exitCode());
+        assertEquals(CastleEvent.COMMAND_END, events.get(1).type());
+        assertEquals("ssh node3 echo", events.get(1).command());
+        assertEquals(Integer.valueOf(1), events.get(1).exitCode());
+        assertEquals(Long.valueOf(20), events.get(1).durationMs());
+        assertEquals(Long.valueOf(300), events.get(1).outputBytes());
+        assertEquals(CastleEvent.ACTION_END, events.get(2).type());
+        assertEquals("brokerStart:node3", events.get(2).action());
+        assertEquals(Integer.valueOf(0), events.get(2).exitCode());
+        assertEquals("node3", events.get(2).node());
+    }
+}
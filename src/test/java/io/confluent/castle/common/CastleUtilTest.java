@@ -29,6 +29,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class CastleUtilTest {
     @Rule
@@ -114,6 +115,34 @@ public class CastleUtilTest {
         assertEquals(1, timesCalled.get());
     }
 
+    @Test
+    public void testWaitForWithBackoff() throws Exception {
+        final AtomicInteger timesCalled = new AtomicInteger(0);
+        CastleUtil.waitForWithBackoff(1, 4, 60000, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return timesCalled.incrementAndGet() == 5;
+            }
+        });
+        assertEquals(5, timesCalled.get());
+        try {
+            CastleUtil.waitForWithBackoff(1, 4, 10, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return false;
+                }
+
+                @Override
+                public String toString() {
+                    return "Godot";
+                }
+            });
+            fail("Expected waitForWithBackoff to time out.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().startsWith("Timed out waiting for Godot"));
+        }
+    }
+
     @Test
     public void testMergeConfig() {
         Map<String, String> map1 = new HashMap<>();
@@ -59,4 +59,19 @@ public class RangeExpressionExpanderTest {
         ));
         assertEquals(expected3, RangeExpressionExpander.expand("[[ wow[50-52] ]]"));
     }
+
+    @Test
+    public void testCompress() throws Exception {
+        assertEquals(Collections.emptyList(),
+            RangeExpressionExpander.compress(Collections.<String>emptyList()));
+        assertEquals(Arrays.asList("broker[0-3]", "broker5", "zk[0-1]", "coordinator"),
+            RangeExpressionExpander.compress(Arrays.asList("zk1", "broker2", "broker0",
+                "coordinator", "broker1", "broker5", "zk0", "broker3")));
+        assertEquals(Collections.singletonList("node0[0-1]"),
+            RangeExpressionExpander.compress(Arrays.asList("node01", "node00")));
+        for (String val : RangeExpressionExpander.compress(Arrays.asList("foo7", "foo8"))) {
+            assertEquals(new HashSet<>(Arrays.asList("foo7", "foo8")),
+                RangeExpressionExpander.expand(val));
+        }
+    }
 }
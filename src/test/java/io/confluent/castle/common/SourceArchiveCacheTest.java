@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+import io.confluent.castle.common.SourceArchiveCache.SourceArchive;
+import io.confluent.castle.common.SourceArchiveCache.SourceDelta;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SourceArchiveCacheTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Rule
+    final public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path createTree() throws Exception {
+        Path root = tempFolder.newFolder("src").toPath();
+        Files.createDirectories(root.resolve("bin"));
+        Files.write(root.resolve("bin/start.sh"), "echo start".getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("README"), "hello".getBytes(StandardCharsets.UTF_8));
+        return root;
+    }
+
+    @Test
+    public void testTreeHash() throws Exception {
+        Path root = createTree();
+        String hash = SourceManifest.scan(root, null).hash();
+        assertEquals(hash, SourceManifest.scan(root, null).hash());
+        Files.setLastModifiedTime(root.resolve("README"), FileTime.fromMillis(0));
+        assertEquals(hash, SourceManifest.scan(root, null).hash());
+        Files.write(root.resolve("README"), "hellp".getBytes(StandardCharsets.UTF_8));
+        assertNotEquals(hash, SourceManifest.scan(root, null).hash());
+    }
+
+    @Test
+    public void testManifestReusesUnchangedHashes() throws Exception {
+        Path root = createTree();
+        Path readme = root.resolve("README");
+        Files.setLastModifiedTime(readme, FileTime.fromMillis(1000));
+        SourceManifest manifest = SourceManifest.scan(root, null);
+
+        // Same size and modification time: the old hash is trusted.
+        Files.write(readme, "jello".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(readme, FileTime.fromMillis(1000));
+        assertEquals(manifest.hash(), SourceManifest.scan(root, manifest).hash());
+        assertNotEquals(manifest.hash(), SourceManifest.scan(root, null).hash());
+
+        // A new modification time makes us read the file again.
+        Files.setLastModifiedTime(readme, FileTime.fromMillis(2000));
+        assertNotEquals(manifest.hash(), SourceManifest.scan(root, manifest).hash());
+    }
+
+    @Test
+    public void testManifestDelta() throws Exception {
+        Path root = createTree();
+        SourceManifest from = SourceManifest.scan(root, null);
+        Files.write(root.resolve("README"), "goodbye".getBytes(StandardCharsets.UTF_8));
+        Files.delete(root.resolve("bin/start.sh"));
+        Files.delete(root.resolve("bin"));
+        Files.write(root.resolve("bin"), "now a file".getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("NEWS"), "news".getBytes(StandardCharsets.UTF_8));
+        SourceManifest to = SourceManifest.scan(root, from);
+        SourceManifest.Delta delta = SourceManifest.delta(from, to);
+        assertEquals(Arrays.asList("bin", "bin/start.sh"), delta.deleted());
+        assertEquals(Arrays.asList("NEWS", "README", "bin"), delta.changed());
+        assertTrue(SourceManifest.delta(to, to).isEmpty());
+    }
+
+    @Test
+    public void testBuildDelta() throws Exception {
+        Path root = createTree();
+        File cacheDir = new File(tempFolder.getRoot(), "cache");
+        CastleLog log = CastleLog.fromDevNull("test", false);
+        SourceArchive archive = new SourceArchiveCache(cacheDir).get(root.toString(), log);
+
+        Files.write(root.resolve("README"), "goodbye".getBytes(StandardCharsets.UTF_8));
+        Files.delete(root.resolve("bin/start.sh"));
+        SourceArchiveCache cache = new SourceArchiveCache(cacheDir);
+        SourceArchive archive2 = cache.get(root.toString(), log);
+        assertNull(cache.delta(archive2, "0123", log));
+        SourceDelta delta = cache.delta(archive2, archive.hash(), log);
+        assertEquals(archive.hash(), delta.fromHash());
+        assertEquals(archive2.hash(), delta.toHash());
+        assertEquals(Collections.singletonList("bin/start.sh"), delta.deleted());
+        assertEquals(Collections.singletonList("README"), listArchive(delta.file()));
+        assertSame(delta, cache.delta(archive2, archive.hash(), log));
+
+        // Going back to an older version reuses its manifest.
+        Files.write(root.resolve("README"), "hello".getBytes(StandardCharsets.UTF_8));
+        Files.write(root.resolve("bin/start.sh"), "echo start".getBytes(StandardCharsets.UTF_8));
+        SourceArchiveCache cache2 = new SourceArchiveCache(cacheDir);
+        SourceArchive archive3 = cache2.get(root.toString(), log);
+        assertEquals(archive.hash(), archive3.hash());
+        SourceDelta delta2 = cache2.delta(archive3, archive2.hash(), log);
+        assertEquals(Collections.emptyList(), delta2.deleted());
+        assertEquals(Arrays.asList("README", "bin/start.sh"), listArchive(delta2.file()));
+
+        // A delta which only deletes entries has nothing to unpack.
+        Files.delete(root.resolve("README"));
+        SourceArchiveCache cache3 = new SourceArchiveCache(cacheDir);
+        SourceDelta delta3 = cache3.delta(cache3.get(root.toString(), log), archive.hash(), log);
+        assertEquals(Collections.singletonList("README"), delta3.deleted());
+        assertNull(delta3.file());
+    }
+
+    private static List<String> listArchive(File file) throws Exception {
+        List<String> entries = new ArrayList<>();
+        for (String line : CastleUtil.runLocalCommand(
+                Arrays.asList("tar", "-tzf", file.getAbsolutePath())).split("\n")) {
+            entries.add(line.startsWith("./") ? line.substring(2) : line);
+        }
+        return entries;
+    }
+
+    @Test
+    public void testBuildAndReuse() throws Exception {
+        Path root = createTree();
+        File cacheDir = new File(tempFolder.getRoot(), "cache");
+        CastleLog log = CastleLog.fromDevNull("test", false);
+        SourceArchiveCache cache = new SourceArchiveCache(cacheDir);
+        SourceArchive archive = cache.get(root.toString(), log);
+        assertTrue(archive.file().isFile());
+        assertSame(archive, cache.get(root.toString(), log));
+
+        // A new cache, like the one in a later run, reuses the archive on disk.
+        long lastModified = archive.file().lastModified();
+        SourceArchive archive2 = new SourceArchiveCache(cacheDir).get(root.toString(), log);
+        assertEquals(archive.file(), archive2.file());
+        assertEquals(lastModified, archive2.file().lastModified());
+
+        // Changing the tree builds a new archive and removes the old one.
+        Files.write(root.resolve("README"), "goodbye".getBytes(StandardCharsets.UTF_8));
+        SourceArchive archive3 = new SourceArchiveCache(cacheDir).get(root.toString(), log);
+        assertNotEquals(archive.hash(), archive3.hash());
+        assertEquals(Collections.singletonList(archive3.file()),
+            new SourceArchiveCache(cacheDir).cachedArchives());
+    }
+}
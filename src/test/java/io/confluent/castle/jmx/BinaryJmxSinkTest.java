@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BinaryJmxSinkTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static final List<JmxColumn> COLUMNS = Arrays.asList(
+        new JmxColumn("kafka:MessagesInPerSec", JmxColumn.Type.LONG),
+        new JmxColumn("kafka:OneMinuteRate", JmxColumn.Type.DOUBLE),
+        new JmxColumn("kafka:State", JmxColumn.Type.STRING));
+
+    private static List<Object[]> createSamples(int numSamples) {
+        List<Object[]> samples = new ArrayList<>();
+        long[] longs = {Long.MIN_VALUE, Long.MAX_VALUE, 0, -1, 1L << 40};
+        double[] doubles = {Double.NaN, Double.NEGATIVE_INFINITY, -0.0, Double.MIN_VALUE, 1e300};
+        long timeMs = 1500000000000L;
+        for (int i = 0; i < numSamples; i++) {
+            // Mostly regular times, with some jitter and the odd long pause.
+            timeMs += 1000 + (i % 7) - 3 + ((i % 50 == 0) ? 123456789L : 0);
+            Object[] values = new Object[3];
+            values[0] = (i < longs.length) ? longs[i] : (long) i * 37;
+            values[1] = (i < doubles.length) ? doubles[i] : 0.25 * (i / 3);
+            values[2] = (i % 10 < 5) ? "RUNNING" : "état " + (i / 20);
+            samples.add(new Object[] {timeMs, values});
+        }
+        return samples;
+    }
+
+    private static byte[] writeBinary(List<Object[]> samples) throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (BinaryJmxSink sink = new BinaryJmxSink(stream)) {
+            sink.writeHeader(COLUMNS);
+            for (Object[] sample : samples) {
+                sink.writeSample((Long) sample[0], (Object[]) sample[1]);
+            }
+        }
+        return stream.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<Object[]> samples = createSamples(2 * BinaryJmxSink.SAMPLES_PER_BLOCK + 17);
+        byte[] bytes = writeBinary(samples);
+        try (BinaryJmxReader reader = new BinaryJmxReader(new ByteArrayInputStream(bytes))) {
+            assertEquals(COLUMNS, reader.columns());
+            for (Object[] sample : samples) {
+                assertTrue(reader.next());
+                assertEquals(((Long) sample[0]).longValue(), reader.timeMs());
+                assertArrayEquals((Object[]) sample[1], reader.values());
+            }
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testRegularSamplesAreSmall() throws Exception {
+        List<Object[]> samples = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            samples.add(new Object[] {1000L * i, new Object[] {12345L, 1.5, "RUNNING"}});
+        }
+        // Each repeated sample only needs a few bits.
+        assertTrue(writeBinary(samples).length < 1000);
+    }
+
+    @Test
+    public void testTruncatedFile() throws Exception {
+        List<Object[]> samples = createSamples(BinaryJmxSink.SAMPLES_PER_BLOCK + 10);
+        byte[] bytes = writeBinary(samples);
+        byte[] truncated = Arrays.copyOf(bytes, bytes.length - 1);
+        int numRead = 0;
+        try (BinaryJmxReader reader = new BinaryJmxReader(new ByteArrayInputStream(truncated))) {
+            while (reader.next()) {
+                numRead++;
+            }
+        }
+        assertEquals(BinaryJmxSink.SAMPLES_PER_BLOCK, numRead);
+    }
+
+    @Test
+    public void testConvertToCsv() throws Exception {
+        List<Object[]> samples = createSamples(300);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        try (CsvJmxSink sink = new CsvJmxSink(expected)) {
+            sink.writeHeader(COLUMNS);
+            for (Object[] sample : samples) {
+                sink.writeSample((Long) sample[0], (Object[]) sample[1]);
+            }
+        }
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        assertEquals(300, JmxBinaryToCsv.convert(
+            new ByteArrayInputStream(writeBinary(samples)), actual));
+        assertEquals(new String(expected.toByteArray(), StandardCharsets.UTF_8),
+            new String(actual.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testColumnTypes() {
+        assertEquals(JmxColumn.Type.LONG, JmxColumn.Type.fromJmxType("long"));
+        assertEquals(JmxColumn.Type.LONG, JmxColumn.Type.fromJmxType("java.lang.Integer"));
+        assertEquals(JmxColumn.Type.DOUBLE, JmxColumn.Type.fromJmxType("double"));
+        assertEquals(JmxColumn.Type.STRING, JmxColumn.Type.fromJmxType("java.lang.String"));
+        assertEquals(JmxColumn.Type.STRING,
+            JmxColumn.Type.fromJmxType("javax.management.openmbean.CompositeData"));
+    }
+}
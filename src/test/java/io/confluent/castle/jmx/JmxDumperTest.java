@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.confluent.castle.action.ActionPaths;
+import io.confluent.castle.action.JmxDumperStartAction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JmxDumperTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Rule
+    final public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Registry registry;
+
+    private MBeanServer server;
+
+    private JMXConnectorServer connectorServer;
+
+    private String endpoint;
+
+    @Before
+    public void startJmxServer() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        registry = LocateRegistry.createRegistry(port);
+        server = MBeanServerFactory.newMBeanServer();
+        server.registerMBean(new JmxSamplePlanTest.Counter(),
+            new ObjectName("test:type=Counter"));
+        endpoint = "localhost:" + port;
+        connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(
+            new JMXServiceURL("service:jmx:rmi:///jndi/rmi://" + endpoint + "/jmxrmi"),
+            null, server);
+        connectorServer.start();
+    }
+
+    @After
+    public void stopJmxServer() throws Exception {
+        if (connectorServer != null) {
+            connectorServer.stop();
+        }
+        if (registry != null) {
+            UnicastRemoteObject.unexportObject(registry, true);
+        }
+    }
+
+    private static List<JsonNode> records(ByteArrayOutputStream output) throws Exception {
+        List<JsonNode> records = new ArrayList<>();
+        for (String line : new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                records.add(JmxDumper.JSON_SERDE.readTree(line));
+            }
+        }
+        return records;
+    }
+
+    private static int numSamples(List<JsonNode> records) {
+        return recordsOfType(records, JmxStream.TYPE_SAMPLE).size();
+    }
+
+    private static List<JsonNode> recordsOfType(List<JsonNode> records, String type) {
+        List<JsonNode> results = new ArrayList<>();
+        for (JsonNode record : records) {
+            if (record.path(JmxStream.TYPE).asText().equals(type)) {
+                results.add(record);
+            }
+        }
+        return results;
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        String path = new File(tempFolder.getRoot(), "jmx.csv").getAbsolutePath();
+        JmxDumperConfig config = new JmxDumperConfig(50, 1, 0, Collections.singletonList(
+            new JmxFileConfig(path, JmxFileConfig.Format.CSV, Collections.singletonList(
+                new JmxObjectConfig("test:type=Counter", "counter",
+                    Arrays.asList("Count", "Rate"))))));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JmxDumper.Completer completer = new JmxDumper.Completer(1);
+        try (JmxStream stream = new JmxStream(output)) {
+            JmxDumper dumper = new JmxDumper(endpoint, config, completer, stream);
+            dumper.start();
+            while (numSamples(records(output)) < 2) {
+                assertFalse(completer.isDone());
+                Thread.sleep(10);
+            }
+            dumper.beginShutdown();
+            completer.await();
+        }
+        List<JsonNode> records = records(output);
+        assertEquals(JmxStream.TYPE_START, records.get(0).path(JmxStream.TYPE).asText());
+        assertFalse(records.get(0).path(JmxStream.STREAM_ID).asText().isEmpty());
+        JsonNode header = records.get(1);
+        assertEquals(JmxStream.TYPE_HEADER, header.path(JmxStream.TYPE).asText());
+        assertEquals(endpoint + "/" + path, header.path(JmxStream.SERIES).asText());
+        assertEquals("counter:Count", header.path(JmxStream.COLUMNS).get(0).asText());
+        JsonNode sample = records.get(2);
+        assertEquals(JmxStream.TYPE_SAMPLE, sample.path(JmxStream.TYPE).asText());
+        assertEquals(header.path(JmxStream.COLUMNS).size(),
+            sample.path(JmxStream.VALUES).size());
+        assertEquals(0.5, sample.path(JmxStream.VALUES).get(1).asDouble(), 0.0);
+        assertTrue(new File(path).exists());
+    }
+
+    @Test
+    public void testDiscoveryFindsNewMBeans() throws Exception {
+        String path = new File(tempFolder.getRoot(), "jmx.csv").getAbsolutePath();
+        JmxDumperConfig config = new JmxDumperConfig(50, 1, 100, Collections.singletonList(
+            new JmxFileConfig(path, JmxFileConfig.Format.CSV, Collections.singletonList(
+                new JmxObjectConfig("test:type=Counter,*", "counter",
+                    Collections.singletonList("Count"))))));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        JmxDumper.Completer completer = new JmxDumper.Completer(1);
+        try (JmxStream stream = new JmxStream(output)) {
+            JmxDumper dumper = new JmxDumper(endpoint, config, completer, stream);
+            dumper.start();
+            while (numSamples(records(output)) < 1) {
+                assertFalse(completer.isDone());
+                Thread.sleep(10);
+            }
+            server.registerMBean(new JmxSamplePlanTest.Counter(),
+                new ObjectName("test:type=Counter,name=second"));
+            while (recordsOfType(records(output), JmxStream.TYPE_HEADER).size() < 2) {
+                assertFalse(completer.isDone());
+                Thread.sleep(10);
+            }
+            dumper.beginShutdown();
+            completer.await();
+        }
+        List<JsonNode> headers = recordsOfType(records(output), JmxStream.TYPE_HEADER);
+        assertEquals(headers.get(0).path(JmxStream.COLUMNS).size() + 1,
+            headers.get(1).path(JmxStream.COLUMNS).size());
+        assertTrue(new File(JmxDumper.segmentPath(path, 1)).exists());
+    }
+
+    @Test
+    public void testStartCommandLine() {
+        List<String> args = Arrays.asList(JmxDumperStartAction.createRunDaemonCommandLine(true));
+        int index = args.indexOf("--stream");
+        assertTrue(index >= 0);
+        assertEquals(ActionPaths.JMX_DUMPER_STREAM, args.get(index + 1));
+        assertFalse(Arrays.asList(JmxDumperStartAction.createRunDaemonCommandLine(false)).
+            contains("--stream"));
+    }
+}
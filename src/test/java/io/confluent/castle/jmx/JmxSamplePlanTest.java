@@ -0,0 +1,284 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JmxSamplePlanTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    public interface CounterMBean {
+        long getCount();
+
+        double getRate();
+
+        String getState();
+    }
+
+    public static final class Counter implements CounterMBean {
+        private long count = 0;
+
+        @Override
+        public synchronized long getCount() {
+            return count++;
+        }
+
+        @Override
+        public double getRate() {
+            return 0.5;
+        }
+
+        @Override
+        public String getState() {
+            return "RUNNING";
+        }
+    }
+
+    private final MBeanServer server = MBeanServerFactory.newMBeanServer();
+
+    private JmxObjectConfig register(String name, String shortName,
+                                     String... attributes) throws Exception {
+        server.registerMBean(new Counter(), new ObjectName(name));
+        return new JmxObjectConfig(name, shortName, Arrays.asList(attributes));
+    }
+
+    private void registerLog(String name) throws Exception {
+        server.registerMBean(new Counter(), new ObjectName(name));
+    }
+
+    private JmxSamplePlan createPlan(List<JmxObjectConfig> objects) throws Exception {
+        JmxDiscovery discovery = new JmxDiscovery(objects);
+        discovery.refresh(server);
+        return new JmxSamplePlan(new JmxFileConfig("", null, objects), discovery);
+    }
+
+    @Test
+    public void testSample() throws Exception {
+        JmxObjectConfig a = register("test:type=A", "a", "Rate", "Count");
+        JmxObjectConfig b = register("test:type=B", "b");
+        JmxSamplePlan plan = createPlan(Arrays.asList(a, b));
+        List<JmxColumn> expectedColumns = new ArrayList<>();
+        expectedColumns.add(new JmxColumn("a:Rate", JmxColumn.Type.DOUBLE));
+        expectedColumns.add(new JmxColumn("a:Count", JmxColumn.Type.LONG));
+        for (MBeanAttributeInfo info :
+                server.getMBeanInfo(b.objectName()).getAttributes()) {
+            expectedColumns.add(new JmxColumn("b:" + info.getName(),
+                JmxColumn.Type.fromJmxType(info.getType())));
+        }
+        expectedColumns.add(new JmxColumn(JmxSamplePlan.LATENCY_COLUMN, JmxColumn.Type.LONG));
+        expectedColumns.add(new JmxColumn(JmxSamplePlan.SKIPPED_TICKS_COLUMN,
+            JmxColumn.Type.LONG));
+        assertEquals(expectedColumns, plan.columns());
+        assertEquals(7, plan.columns().size());
+
+        Object[] values = plan.sample(server, null, 0);
+        assertEquals(7, values.length);
+        assertEquals(0.5, values[0]);
+        assertEquals(0L, values[1]);
+        assertTrue((Long) values[5] >= 0);
+        assertEquals(0L, values[6]);
+        Object[] values2 = plan.sample(server, null, 3);
+        assertSame(values, values2);
+        assertEquals(1L, values2[1]);
+        assertEquals(3L, values2[6]);
+    }
+
+    @Test
+    public void testParallelSample() throws Exception {
+        List<JmxObjectConfig> objects = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            objects.add(register("test:type=Obj" + i, "o" + i, "Count", "State"));
+        }
+        JmxSamplePlan plan = createPlan(objects);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (long sample = 0; sample < 10; sample++) {
+                Object[] values = plan.sample(server, executor, 0);
+                for (int i = 0; i < objects.size(); i++) {
+                    assertEquals(sample, values[2 * i]);
+                    assertEquals("RUNNING", values[(2 * i) + 1]);
+                }
+            }
+            server.unregisterMBean(objects.get(7).objectName());
+            try {
+                plan.sample(server, executor, 0);
+                fail("Expected sampling to fail");
+            } catch (RuntimeException e) {
+                assertTrue(e.getMessage().contains("test:type=Obj7"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testShortNameCollision() throws Exception {
+        JmxObjectConfig a = register("test:type=A", "x", "Count");
+        JmxObjectConfig b = register("test:type=B", "x", "Count");
+        try {
+            createPlan(Arrays.asList(a, b));
+            fail("Expected a shortName collision");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("shortName collision"));
+        }
+    }
+
+    @Test
+    public void testMissingObject() throws Exception {
+        JmxObjectConfig a = register("test:type=A", "a", "Count");
+        JmxSamplePlan plan = createPlan(Collections.singletonList(a));
+        server.unregisterMBean(a.objectName());
+        try {
+            plan.sample(server, null, 0);
+            fail("Expected sampling to fail");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("test:type=A"));
+        }
+    }
+
+    @Test
+    public void testPatternDiscovery() throws Exception {
+        registerLog("kafka.log:type=Log,topic=foo,partition=1");
+        registerLog("kafka.log:type=Log,topic=foo,partition=0");
+        registerLog("kafka.log:type=Other,topic=foo,partition=0");
+        JmxObjectConfig log = new JmxObjectConfig("kafka.log:type=Log,topic=*,partition=*",
+            "log", Collections.singletonList("Count"));
+        JmxObjectConfig named = register("test:type=A", "a", "Count");
+        JmxFileConfig file = new JmxFileConfig("", null, Arrays.asList(log, named));
+        JmxDiscovery discovery = new JmxDiscovery(Arrays.asList(log, named));
+        assertTrue(discovery.refresh(server));
+        assertEquals(3, discovery.numMatched());
+        JmxSamplePlan plan = new JmxSamplePlan(file, discovery);
+        assertEquals(Arrays.asList("log{partition=0,topic=foo}:Count",
+            "log{partition=1,topic=foo}:Count", "a:Count",
+            JmxSamplePlan.LATENCY_COLUMN, JmxSamplePlan.SKIPPED_TICKS_COLUMN),
+            columnNames(plan));
+        assertEquals(0L, plan.sample(server, null, 0)[0]);
+        assertFalse(discovery.refresh(server));
+
+        // A new MBean shows up after the next refresh.
+        registerLog("kafka.log:type=Log,topic=bar,partition=0");
+        assertTrue(discovery.refresh(server));
+        assertEquals(Arrays.asList("log{partition=0,topic=bar}:Count",
+            "log{partition=0,topic=foo}:Count", "log{partition=1,topic=foo}:Count",
+            "a:Count", JmxSamplePlan.LATENCY_COLUMN, JmxSamplePlan.SKIPPED_TICKS_COLUMN),
+            columnNames(new JmxSamplePlan(file, discovery)));
+
+        // A vanished MBean makes the sample fail, until we rediscover.
+        server.unregisterMBean(new ObjectName("kafka.log:type=Log,topic=foo,partition=1"));
+        assertNull(plan.sample(server, null, 0));
+        assertTrue(discovery.refresh(server));
+        assertEquals(3, discovery.numMatched());
+        assertNotNull(new JmxSamplePlan(file, discovery).sample(server, null, 0));
+    }
+
+    @Test
+    public void testMissingNamedObject() throws Exception {
+        JmxObjectConfig a = new JmxObjectConfig("test:type=A", "a", Collections.emptyList());
+        JmxDiscovery discovery = new JmxDiscovery(Collections.singletonList(a));
+        discovery.refresh(server);
+        assertEquals(Collections.singletonList("test:type=A"), discovery.missing());
+        register("test:type=A", "a");
+        assertTrue(discovery.refresh(server));
+        assertEquals(Collections.emptyList(), discovery.missing());
+    }
+
+    @Test
+    public void testSegmentPath() {
+        assertEquals("/tmp/jmx.csv", JmxDumper.segmentPath("/tmp/jmx.csv", 0));
+        assertEquals("/tmp/jmx.2.csv", JmxDumper.segmentPath("/tmp/jmx.csv", 2));
+        assertEquals("/tmp/jmx.1", JmxDumper.segmentPath("/tmp/jmx", 1));
+        assertEquals("/tmp/a.b/jmx.1", JmxDumper.segmentPath("/tmp/a.b/jmx", 1));
+        assertEquals("/tmp/.jmx.1", JmxDumper.segmentPath("/tmp/.jmx", 1));
+    }
+
+    private static List<String> columnNames(JmxSamplePlan plan) {
+        List<String> names = new ArrayList<>();
+        for (JmxColumn column : plan.columns()) {
+            names.add(column.name());
+        }
+        return names;
+    }
+
+    @Test
+    public void testCsvRowReuse() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (CsvJmxSink sink = new CsvJmxSink(stream)) {
+            sink.writeHeader(Arrays.asList(new JmxColumn("a:Count", JmxColumn.Type.LONG),
+                new JmxColumn("a:State", JmxColumn.Type.STRING)));
+            Object[] values = new Object[] {1L, "RUNNING"};
+            sink.writeSample(1500000000123L, values);
+            values[0] = 2.5;
+            sink.writeSample(1500000001005L, values);
+        }
+        String sep = System.lineSeparator();
+        assertEquals("\"time\", \"a:Count\", \"a:State\"" + sep +
+            "1500000000.123, 1, \"RUNNING\"" + sep +
+            "1500000001.005, 2.5, \"RUNNING\"" + sep,
+            new String(stream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCsvTimeFormat() {
+        CsvJmxSink.CsvRow row = new CsvJmxSink.CsvRow();
+        for (long timeMs : new long[] {0, 1, 999, 1000, 1500000000000L, 1500000000999L,
+                -1, -999, -1000, -1001}) {
+            row.clear().addTimeMs(timeMs);
+            assertEquals(String.format(Locale.ROOT, "%.3f", timeMs / 1000.0),
+                formatted(row));
+        }
+    }
+
+    private static String formatted(CsvJmxSink.CsvRow row) {
+        StringWriter writer = new StringWriter();
+        try {
+            row.writeTo(writer);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        String result = writer.toString();
+        return result.substring(0, result.length() - System.lineSeparator().length());
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.jmx;
+
+import io.confluent.castle.common.CastleUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class JmxStreamStoreTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Rule
+    final public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final List<JmxColumn> COLUMNS = Arrays.asList(
+        new JmxColumn("bytesIn:OneMinuteRate", JmxColumn.Type.DOUBLE),
+        new JmxColumn("size{partition=0,topic=foo}:Value", JmxColumn.Type.LONG),
+        new JmxColumn("size{partition=1,topic=foo}:Value", JmxColumn.Type.LONG),
+        new JmxColumn("state:Name", JmxColumn.Type.STRING));
+
+    private static void writeSamples(JmxStream stream, long startMs, double bytesIn, long size)
+            throws Exception {
+        writeSamples(stream, "localhost:9999/jmx.csv", startMs, bytesIn, size);
+    }
+
+    private static void writeSamples(JmxStream stream, String series, long startMs,
+                                     double bytesIn, long size) throws Exception {
+        stream.writeHeader(series, 1000, COLUMNS);
+        stream.writeSample(series, startMs,
+            new Object[] {bytesIn / 2, size, size, "RUNNING"});
+        stream.writeSample(series, startMs + 1000,
+            new Object[] {bytesIn, size, size + 1, "RUNNING é"});
+    }
+
+    private static List<String> streamLines(long startMs, double bytesIn, long size)
+            throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (JmxStream stream = new JmxStream(output)) {
+            writeSamples(stream, startMs, bytesIn, size);
+        }
+        return new ArrayList<>(Arrays.asList(
+            new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n")));
+    }
+
+    /**
+     * Runs the fetch command locally, as the status action does over ssh.
+     */
+    private static JmxStreamStore.Fetcher localFetcher(File file) {
+        return (headBytes, offset) -> {
+            String command = String.join(" ",
+                JmxStreamStore.fetchCommand(file.getAbsolutePath(), headBytes, offset));
+            try {
+                return Arrays.asList(
+                    CastleUtil.runLocalCommand(Arrays.asList("bash", "-c", command)).split("\n"));
+            } catch (RuntimeException e) {
+                return null;
+            }
+        };
+    }
+
+    @Test
+    public void testAppendAndAggregate() throws Exception {
+        File dir = tempFolder.newFolder("jmx");
+        JmxStreamStore store = new JmxStreamStore(dir);
+        assertEquals(0, store.storedBytes("node0"));
+        List<String> lines0 = streamLines(1000, 100.0, 10);
+        assertEquals(4, store.append("node0", lines0));
+        assertEquals(4, store.append("node1", streamLines(5000, 50.5, 20)));
+        assertEquals(Arrays.asList("node0", "node1"), store.nodeNames());
+        assertEquals(new File(dir, "node0" + JmxStreamStore.STREAM_SUFFIX).length(),
+            store.storedBytes("node0"));
+
+        JmxStreamStore.Aggregate bytesIn = store.aggregate("bytesIn:OneMinuteRate");
+        assertEquals(150.5, bytesIn.sum(), 0.0);
+        assertEquals(2, bytesIn.numColumns());
+        assertEquals(2, bytesIn.numNodes());
+        assertEquals(6000, bytesIn.latestTimeMs());
+        assertEquals(Collections.emptyList(), bytesIn.staleSeries());
+        assertEquals(10 + 11 + 20 + 21, store.aggregate("size{*}:Value").sum(), 0.0);
+        assertEquals(0, store.aggregate("state:Name").numColumns());
+        assertEquals(0, store.aggregate("missing").numColumns());
+
+        // A new store rereads the latest state from disk.
+        JmxStreamStore store2 = new JmxStreamStore(dir);
+        assertEquals(store.storedBytes("node0"), store2.storedBytes("node0"));
+        assertEquals(150.5, store2.aggregate("bytesIn:*").sum(), 0.0);
+
+        // If the latest state is lost, it is rebuilt from the stream.
+        assertTrue(new File(dir, "node1" + JmxStreamStore.LATEST_SUFFIX).delete());
+        assertEquals(150.5, new JmxStreamStore(dir).aggregate("bytesIn:*").sum(), 0.0);
+    }
+
+    @Test
+    public void testStaleSeriesIsSkipped() throws Exception {
+        JmxStreamStore store = new JmxStreamStore(tempFolder.newFolder("jmx"));
+        store.append("node0", streamLines(1000, 100.0, 10));
+        store.append("node1", streamLines(20000, 50.5, 20));
+        JmxStreamStore.Aggregate bytesIn = store.aggregate("bytesIn:*");
+        assertEquals(50.5, bytesIn.sum(), 0.0);
+        assertEquals(1, bytesIn.numColumns());
+        assertEquals(1, bytesIn.numNodes());
+        assertEquals(Collections.singletonList("node0:localhost:9999/jmx.csv"),
+            bytesIn.staleSeries());
+        // Series without matching columns are not reported.
+        assertEquals(Collections.emptyList(), store.aggregate("missing").staleSeries());
+    }
+
+    @Test
+    public void testDuplicateColumnsAreCountedOnce() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (JmxStream stream = new JmxStream(output)) {
+            writeSamples(stream, "localhost:9999/jmx.csv", 1000, 100.0, 10);
+            writeSamples(stream, "localhost:9999/other.csv", 2000, 40.0, 30);
+        }
+        JmxStreamStore store = new JmxStreamStore(tempFolder.newFolder("jmx"));
+        store.append("node0", Arrays.asList(
+            new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n")));
+        JmxStreamStore.Aggregate bytesIn = store.aggregate("bytesIn:*");
+        assertEquals(40.0, bytesIn.sum(), 0.0);
+        assertEquals(1, bytesIn.numColumns());
+        assertEquals(3000, bytesIn.latestTimeMs());
+        assertEquals(30 + 31, store.aggregate("size{*}:Value").sum(), 0.0);
+    }
+
+    @Test
+    public void testPartialLine() throws Exception {
+        JmxStreamStore store = new JmxStreamStore(tempFolder.newFolder("jmx"));
+        List<String> lines = streamLines(1000, 100.0, 10);
+        String last = lines.remove(lines.size() - 1);
+        lines.add(last.substring(0, last.length() / 2));
+        assertEquals(3, store.append("node0", lines));
+        assertEquals(50.0, store.aggregate("bytesIn:*").sum(), 0.0);
+        long storedBytes = store.storedBytes("node0");
+        assertEquals(1, store.append("node0", Collections.singletonList(last)));
+        assertEquals(storedBytes + last.length() + 1, store.storedBytes("node0"));
+        assertEquals(100.0, store.aggregate("bytesIn:*").sum(), 0.0);
+    }
+
+    @Test
+    public void testRestart() throws Exception {
+        File dir = tempFolder.newFolder("jmx");
+        JmxStreamStore store = new JmxStreamStore(dir);
+        store.append("node0", streamLines(1000, 100.0, 10));
+        store.restart("node0");
+        assertEquals(0, store.storedBytes("node0"));
+        assertEquals(Collections.emptyList(), store.nodeNames());
+        assertTrue(new File(dir, "node0" + JmxStreamStore.STREAM_SUFFIX + ".1").exists());
+        store.append("node0", streamLines(1000, 10.0, 10));
+        assertEquals(10.0, store.aggregate("bytesIn:*").sum(), 0.0);
+    }
+
+    @Test
+    public void testUnparseableLineIsSkipped() throws Exception {
+        JmxStreamStore store = new JmxStreamStore(tempFolder.newFolder("jmx"));
+        List<String> lines = streamLines(1000, 100.0, 10);
+        lines.add(2, "\"type\":\"sample\"}");
+        assertEquals(4, store.append("node0", lines));
+        assertEquals(100.0, store.aggregate("bytesIn:*").sum(), 0.0);
+        // The skipped line is still stored, so that the offset stays in step.
+        long numBytes = 0;
+        for (String line : lines) {
+            numBytes += line.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+        assertEquals(numBytes, store.storedBytes("node0"));
+    }
+
+    @Test
+    public void testCollect() throws Exception {
+        File remote = new File(tempFolder.getRoot(), "stream.jsonl");
+        JmxStreamStore store = new JmxStreamStore(tempFolder.newFolder("jmx"));
+        assertEquals(-1, store.collect("node0", localFetcher(remote)));
+        try (JmxStream stream = new JmxStream(Files.newOutputStream(remote.toPath()))) {
+            writeSamples(stream, 1000, 100.0, 10);
+            assertEquals(4, store.collect("node0", localFetcher(remote)));
+            assertEquals(0, store.collect("node0", localFetcher(remote)));
+            writeSamples(stream, 3000, 200.0, 10);
+            assertEquals(3, store.collect("node0", localFetcher(remote)));
+        }
+        assertEquals(200.0, store.aggregate("bytesIn:*").sum(), 0.0);
+        assertArrayEquals(Files.readAllBytes(remote.toPath()), Files.readAllBytes(
+            new File(tempFolder.getRoot(), "jmx/node0" + JmxStreamStore.STREAM_SUFFIX).toPath()));
+    }
+
+    @Test
+    public void testCollectRestartedStream() throws Exception {
+        File remote = new File(tempFolder.getRoot(), "stream.jsonl");
+        File dir = tempFolder.newFolder("jmx");
+        JmxStreamStore store = new JmxStreamStore(dir);
+        try (JmxStream stream = new JmxStream(Files.newOutputStream(remote.toPath()))) {
+            writeSamples(stream, 1000, 100.0, 10);
+        }
+        assertEquals(4, store.collect("node0", localFetcher(remote)));
+
+        // The restarted dumper's stream grows past the mirror before we collect again.
+        Files.delete(remote.toPath());
+        try (JmxStream stream = new JmxStream(Files.newOutputStream(remote.toPath()))) {
+            writeSamples(stream, 5000, 20.0, 10);
+            writeSamples(stream, 7000, 30.0, 10);
+        }
+        assertTrue(remote.length() > store.storedBytes("node0"));
+        assertEquals(7, store.collect("node0", localFetcher(remote)));
+        assertTrue(new File(dir, "node0" + JmxStreamStore.STREAM_SUFFIX + ".1").exists());
+        assertEquals(remote.length(), store.storedBytes("node0"));
+        assertEquals(30.0, store.aggregate("bytesIn:*").sum(), 0.0);
+    }
+
+    @Test
+    public void testClaimReport() {
+        JmxStreamStore store = new JmxStreamStore(tempFolder.getRoot());
+        assertTrue(store.claimReport());
+        assertFalse(store.claimReport());
+    }
+
+    @Test
+    public void testGlobToRegex() {
+        assertTrue(JmxStreamStore.globToRegex("a.b*").matcher("a.bc").matches());
+        assertFalse(JmxStreamStore.globToRegex("a.b*").matcher("axbc").matches());
+        assertTrue(JmxStreamStore.globToRegex("*{*}:Value").matcher("s{t=1}:Value").matches());
+    }
+}
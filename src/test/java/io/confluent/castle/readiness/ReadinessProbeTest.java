@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.confluent.castle.readiness;
+
+import io.confluent.castle.role.BrokerRole;
+import io.confluent.castle.role.Role;
+import io.confluent.castle.role.SchemaRegistryRole;
+import io.confluent.castle.role.TrogdorAgentRole;
+import io.confluent.castle.role.ZooKeeperRole;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ReadinessProbeTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static String commandLine(ReadinessProbe probe) {
+        return String.join(" ", probe.condition().args());
+    }
+
+    @Test
+    public void testProbeConditions() throws Exception {
+        assertEquals("bash -c ': </dev/tcp/127.0.0.1/9092'",
+            commandLine(ReadinessProbe.tcp(9092)));
+        ReadinessProbe http = ReadinessProbe.http(8081, "config");
+        assertEquals("http http://localhost:8081/config", http.description());
+        assertEquals("curl -s -o /dev/null -w '%{http_code}' 'http://localhost:8081/config' " +
+            "| grep -q '^200$'", commandLine(http));
+        ReadinessProbe jmx = ReadinessProbe.jmx(9192,
+            "kafka.server:type=KafkaServer,name=BrokerState", "Value", 3);
+        assertTrue(commandLine(jmx).contains(
+            "--object-name 'kafka.server:type=KafkaServer,name=BrokerState' --attributes 'Value'"));
+        assertTrue(commandLine(jmx).endsWith("$NF == 3) }'"));
+        assertEquals(JmxReadinessProbe.POLL_INTERVAL_MS, jmx.condition().pollIntervalMs());
+        assertEquals(ReadinessCondition.DEFAULT_POLL_INTERVAL_MS,
+            ReadinessProbe.tcp(9092).condition().pollIntervalMs());
+    }
+
+    @Test
+    public void testRoleProbes() throws Exception {
+        List<ReadinessProbe> brokerProbes =
+            new BrokerRole(0, null, null, null, 0).readinessProbes();
+        assertEquals(2, brokerProbes.size());
+        assertEquals(BrokerRole.PORT, ((TcpReadinessProbe) brokerProbes.get(0)).port());
+        JmxReadinessProbe brokerState = (JmxReadinessProbe) brokerProbes.get(1);
+        assertEquals(BrokerRole.JMX_PORT, brokerState.jmxPort());
+        assertEquals("kafka.server:type=KafkaServer,name=BrokerState", brokerState.objectName());
+        assertEquals(3, brokerState.value());
+        List<ReadinessProbe> zkProbes = new ZooKeeperRole(0, 0, 0, 0, 0).readinessProbes();
+        assertEquals(ZooKeeperRole.PORT, ((TcpReadinessProbe) zkProbes.get(0)).port());
+        List<ReadinessProbe> srProbes =
+            new SchemaRegistryRole(0, null, null, null, 0).readinessProbes();
+        assertEquals("/config", ((HttpReadinessProbe) srProbes.get(0)).path());
+    }
+
+    @Test
+    public void testReadinessTimeouts() throws Exception {
+        // Brokers may have to recover their logs before they are ready.
+        assertTrue(new BrokerRole(0, null, null, null, 0).readinessTimeoutMs() >
+            Role.DEFAULT_READINESS_TIMEOUT_MS);
+        assertEquals(5000, new BrokerRole(0, null, null, null, 5000).readinessTimeoutMs());
+        assertEquals(Role.DEFAULT_READINESS_TIMEOUT_MS,
+            new ZooKeeperRole(0, 0, 0, 0, 0).readinessTimeoutMs());
+        assertEquals(60000, new TrogdorAgentRole(0, null, 60000).readinessTimeoutMs());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.readiness;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReadinessWatcherTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testConditions() throws Exception {
+        ReadinessCondition process = ReadinessCondition.javaProcess("kafka.Kafka");
+        assertEquals("java process kafka.Kafka", process.description());
+        assertEquals("jcmd | grep -q kafka.Kafka", String.join(" ", process.args()));
+    }
+
+    @Test
+    public void testScript() throws Exception {
+        ReadinessWatcher watcher = new ReadinessWatcher(null).
+            addCondition(new ReadinessCondition("foo", "test", "-e", "/foo")).
+            addProbe(ReadinessProbe.tcp(2181));
+        String script = watcher.toScript(1500);
+        assertTrue(script.startsWith("CASTLE_DEADLINE=$(( $(date +%s) + 2 ))\n"));
+        assertTrue(script.contains("        if { test -e /foo; } </dev/null >/dev/null 2>&1; then\n"));
+        assertTrue(script.contains("            echo \"##CASTLE_READY 1\"\n"));
+        assertTrue(script.contains("exit " + ReadinessWatcher.TIMED_OUT_STATUS + "\n"));
+    }
+
+    @Test
+    public void testSlowConditionsAreCheckedLessOften() throws Exception {
+        ReadinessWatcher watcher = new ReadinessWatcher(null).
+            addProbe(ReadinessProbe.tcp(2181)).
+            addCondition(new ReadinessCondition("slow", 1000, "test", "-e", "/slow"));
+        String script = watcher.toScript(1500);
+        assertTrue(script.contains("        if { bash -c ': </dev/tcp/127.0.0.1/2181'; }"));
+        assertTrue(script.contains("        if [ $(( CASTLE_ROUND % 10 )) -eq 0 ] && " +
+            "{ test -e /slow; } </dev/null >/dev/null 2>&1; then\n"));
+    }
+
+    @Test
+    public void testNoConditions() throws Exception {
+        CompletableFuture<Void> future = new ReadinessWatcher(null).start(1000);
+        assertTrue(future.isDone());
+        future.get();
+    }
+
+    @Test
+    public void testReadyMarkers() throws Exception {
+        List<Integer> readied = new ArrayList<>();
+        ReadinessWatcher.ReadyMarkers markers =
+            new ReadinessWatcher.ReadyMarkers(3, readied::add);
+        markers.accept("some other output");
+        markers.accept("##CASTLE_READY 2");
+        assertEquals(Arrays.asList(2), readied);
+        assertTrue(markers.isReady(2));
+        assertFalse(markers.isReady(0));
+        // Repeated, partial, and out-of-range markers are ignored.
+        markers.accept("##CASTLE_READY 2");
+        markers.accept("##CASTLE_READY 1x");
+        markers.accept("##CASTLE_READY 3");
+        markers.accept("##CASTLE_READY 0");
+        assertEquals(Arrays.asList(2, 0), readied);
+        assertFalse(markers.isReady(1));
+    }
+}
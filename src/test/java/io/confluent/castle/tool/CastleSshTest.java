@@ -17,17 +17,28 @@
 
 package io.confluent.castle.tool;
 
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.MockCastleCluster;
+import io.confluent.castle.command.Command;
+import io.confluent.castle.uplink.Uplink;
 import org.hamcrest.CoreMatchers;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.rules.Timeout;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class CastleSshTest {
@@ -56,4 +67,273 @@ public class CastleSshTest {
                 args2.nodeNames());
         assertEquals(Arrays.asList(new String[] {"echo"}), args2.command());
     }
+
+    @Test
+    public void testAggregateResults() throws Exception {
+        String output = CastleSsh.aggregateResults(Arrays.asList(
+            new CastleSsh.NodeResult("node0", 0, "foo\n"),
+            new CastleSsh.NodeResult("node1", 1, "bar"),
+            new CastleSsh.NodeResult("node2", 0, "foo\n"),
+            new CastleSsh.NodeResult("node3", 0, "foo\n")));
+        assertEquals(String.format(
+            "----------------%n" +
+            "node0,node[2-3]%n" +
+            "----------------%n" +
+            "foo\n" +
+            "----------------%n" +
+            "node1 (exit status 1)%n" +
+            "----------------%n" +
+            "bar%n"), output);
+    }
+
+    @Test
+    public void testAggregateResultsWithStderr() throws Exception {
+        String output = CastleSsh.aggregateResults(Arrays.asList(
+            new CastleSsh.NodeResult("node0", 0, "foo\n", ""),
+            new CastleSsh.NodeResult("node1", 0, "foo\n", "warning"),
+            new CastleSsh.NodeResult("node2", 0, "foo\n", "")));
+        assertEquals(String.format(
+            "----------------%n" +
+            "node0,node2%n" +
+            "----------------%n" +
+            "foo\n" +
+            "----------------%n" +
+            "node1%n" +
+            "----------------%n" +
+            "foo\n" +
+            "---- stderr ----%n" +
+            "warning%n"), output);
+    }
+
+    @Test
+    public void testSummarizeResults() throws Exception {
+        assertEquals(String.format("Succeeded on all 2 node(s).%n"),
+            CastleSsh.summarizeResults(Arrays.asList(
+                new CastleSsh.NodeResult("node0", 0, ""),
+                new CastleSsh.NodeResult("node1", 0, ""))));
+        assertEquals(String.format("Failed on 2 of 3 node(s): node[1-2]%n"),
+            CastleSsh.summarizeResults(Arrays.asList(
+                new CastleSsh.NodeResult("node0", 0, ""),
+                new CastleSsh.NodeResult("node1", 1, ""),
+                new CastleSsh.NodeResult("node2", CastleSsh.NOT_ACCESSIBLE, ""))));
+    }
+
+    /**
+     * A command which prints "ok", and possibly something on stderr, without
+     * running anything.
+     */
+    private static class OkCommand implements Command {
+        private final String stderr;
+        private StringBuilder captureOutput = null;
+        private StringBuilder captureStderr = null;
+        private Consumer<String> streamOutput = null;
+
+        OkCommand(String stderr) {
+            this.stderr = stderr;
+        }
+
+        @Override
+        public Command args(String... args) {
+            return this;
+        }
+
+        @Override
+        public Command argList(List<String> args) {
+            return this;
+        }
+
+        @Override
+        public Command syncTo(String local, String remote) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Command syncFrom(String remote, String local) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Command captureOutput(StringBuilder captureOutput) {
+            this.captureOutput = captureOutput;
+            return this;
+        }
+
+        @Override
+        public Command captureStderr(StringBuilder captureStderr) {
+            this.captureStderr = captureStderr;
+            return this;
+        }
+
+        @Override
+        public Command streamOutput(Consumer<String> streamOutput) {
+            this.streamOutput = streamOutput;
+            return this;
+        }
+
+        @Override
+        public Command setCaptureStderr(boolean captureStderr) {
+            return this;
+        }
+
+        @Override
+        public Command setStdin(byte[] stdin) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Command setStdinFile(String path) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int run() {
+            if (captureOutput != null) {
+                captureOutput.append("ok\n");
+            }
+            if (streamOutput != null) {
+                streamOutput.accept("ok");
+            }
+            if (!stderr.isEmpty()) {
+                if (captureStderr != null) {
+                    captureStderr.append(stderr).append("\n");
+                } else if (captureOutput != null) {
+                    captureOutput.append(stderr).append("\n");
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public void mustRun() {
+            run();
+        }
+
+        @Override
+        public void exec() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * An uplink whose commands print "ok", or fail to start if broken is set.
+     */
+    private static class MockUplink implements Uplink {
+        private final boolean broken;
+        private final String stderr;
+
+        MockUplink(boolean broken) {
+            this(broken, "");
+        }
+
+        MockUplink(boolean broken, String stderr) {
+            this.broken = broken;
+            this.stderr = stderr;
+        }
+
+        @Override
+        public Command command() {
+            if (broken) {
+                throw new RuntimeException("Unable to start ssh");
+            }
+            return new OkCommand(stderr);
+        }
+
+        @Override
+        public String internalDns() {
+            return "localhost";
+        }
+
+        @Override
+        public String sshUser() {
+            return "castle";
+        }
+
+        @Override
+        public boolean started() {
+            return true;
+        }
+
+        @Override
+        public boolean canLogin() {
+            return true;
+        }
+
+        @Override
+        public void startup(String imageId) {
+        }
+
+        @Override
+        public String findImage(String key) {
+            return null;
+        }
+
+        @Override
+        public void saveImage(String key) {
+        }
+
+        @Override
+        public void check() {
+        }
+
+        @Override
+        public CompletableFuture<Void> shutdown() {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void shutdownAll() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private String sshToMany(CastleCluster cluster, boolean aggregate) throws Throwable {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (PrintStream out = new PrintStream(stream, true, "UTF-8")) {
+            CastleSsh.sshToMany(cluster, CastleSsh.parse(cluster.nodes().keySet(),
+                Arrays.asList("ssh", "all", "echo", "ok")), 3, aggregate, out);
+        }
+        return new String(stream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testSshToManyWithFailingNode() throws Throwable {
+        for (boolean aggregate : new boolean[] {false, true}) {
+            try (CastleCluster cluster = MockCastleCluster.create(3)) {
+                cluster.nodes().get("node0").setUplink(new MockUplink(false));
+                cluster.nodes().get("node1").setUplink(new MockUplink(true));
+                cluster.nodes().get("node2").setUplink(new MockUplink(false));
+                String output = sshToMany(cluster, aggregate);
+                if (aggregate) {
+                    assertTrue(output.contains(String.format("node1 (exit status %d)%n",
+                        CastleSsh.NOT_ACCESSIBLE)));
+                    assertTrue(output.contains(String.format("node0,node2%n")));
+                } else {
+                    assertTrue(output.contains(String.format("node0: ok%n")));
+                    assertTrue(output.contains(String.format("node2: ok%n")));
+                    assertTrue(output.contains(String.format(
+                        "node1: Failed to run the command: Unable to start ssh%n")));
+                    assertTrue(output.endsWith(String.format(
+                        "Failed on 1 of 3 node(s): node1%n")));
+                }
+                assertEquals(CastleReturnCode.CLUSTER_FAILED,
+                    cluster.shutdownManager().returnCode());
+            }
+        }
+    }
+
+    @Test
+    public void testSshToManyAggregatesStderrSeparately() throws Throwable {
+        try (CastleCluster cluster = MockCastleCluster.create(3)) {
+            cluster.nodes().get("node0").setUplink(new MockUplink(false));
+            cluster.nodes().get("node1").setUplink(new MockUplink(false, "warning"));
+            cluster.nodes().get("node2").setUplink(new MockUplink(false));
+            String output = sshToMany(cluster, true);
+            assertTrue(output.contains(String.format("node0,node2%n")));
+            assertTrue(output.contains(String.format("node1%n----------------%nok\n" +
+                "---- stderr ----%nwarning\n")));
+        }
+    }
 };